@@ -0,0 +1,49 @@
+package nuber.students; // Define the package for this class
+
+import java.util.HashMap; // Import HashMap for the region information
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the output unit
+
+import org.openjdk.jmh.annotations.*; // Import the JMH annotations
+
+/**
+ * Latency of a single booking from NuberDispatch.bookPassenger() to its result, with every sleep set to zero,
+ * so the measurement is the admission, driver handoff and thread handoff cost of the dispatcher itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookingLatencyBenchmark {
+
+	@Param({"blocking", "async"})
+	public String path; // Which booking API to measure
+
+	private NuberDispatch dispatch; // The dispatch under test
+	private Passenger passenger; // The passenger booked on every call
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		HashMap<String, Integer> regions = new HashMap<>(); // One region with room for every driver
+		regions.put("Bench", 50);
+		dispatch = new NuberDispatch(regions, false); // Create the dispatch without logging
+		for (int i = 0; i < 50; i++) {
+			dispatch.addDriver(new Driver("D-" + i, 0)); // Drivers with no pickup delay
+		}
+		passenger = new Passenger("P", 0); // A passenger with no travel time
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		dispatch.shutdown(); // Stop the dispatch
+	}
+
+	@Benchmark
+	public BookingResult bookPassenger() throws Exception {
+		if ("async".equals(path)) {
+			return dispatch.bookPassengerAsync(passenger, "Bench").get(); // Book through the asynchronous stages
+		}
+		return dispatch.bookPassenger(passenger, "Bench").get(); // Book on a region thread
+	}
+}
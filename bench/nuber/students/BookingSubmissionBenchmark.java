@@ -0,0 +1,88 @@
+package nuber.students; // Define the package for this class
+
+import java.io.IOException; // Import IOException for the journal file
+import java.nio.file.Files; // Import Files for the journal file
+import java.nio.file.Path; // Import Path for the journal file
+import java.util.ArrayList; // Import ArrayList for the passengers and futures
+import java.util.HashMap; // Import HashMap for the region information
+import java.util.List; // Import List for the passengers and futures
+import java.util.concurrent.Future; // Import Future for the booking results
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the output unit
+
+import org.openjdk.jmh.annotations.*; // Import the JMH annotations
+
+/**
+ * Cost per booking of submitting 1000 bookings, one at a time or in batches, and waiting for them to finish.
+ * Every sleep is zero, so the score is the dispatcher's own overhead per booking. With journal set, every
+ * lifecycle event is also appended to a BookingJournal, so the difference is the cost of journaling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookingSubmissionBenchmark {
+
+	private static final int BOOKINGS = 1000; // Bookings per invocation
+
+	@Param({"1", "100", "1000"})
+	public int batchSize; // Bookings per call, 1 for bookPassenger()
+
+	@Param({"false", "true"})
+	public boolean journal; // Whether bookings are journaled
+
+	private NuberDispatch dispatch; // The dispatch under test
+	private List<Passenger> passengers; // The passengers booked on every invocation
+	private BookingJournal bookingJournal; // The journal, if bookings are journaled
+	private Path journalFile; // The journal file, deleted after the trial
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		HashMap<String, Integer> regions = new HashMap<>(); // One region
+		regions.put("Bench", 50);
+		dispatch = new NuberDispatch(regions, false); // Create the dispatch without logging
+		for (int i = 0; i < 50; i++) {
+			dispatch.addDriver(new Driver("D-" + i, 0)); // Drivers with no pickup delay
+		}
+		if (journal) {
+			journalFile = Files.createTempFile("nuber-bench", ".journal");
+			Files.delete(journalFile); // The journal creates the file itself
+			bookingJournal = new BookingJournal(journalFile, BookingJournal.DEFAULT_SEGMENT_SIZE, BookingJournal.DEFAULT_FLUSH_INTERVAL_MILLIS);
+			dispatch.setJournal(bookingJournal); // Journal every booking
+		}
+		passengers = new ArrayList<>(BOOKINGS);
+		for (int i = 0; i < BOOKINGS; i++) {
+			passengers.add(new Passenger("P-" + i, 0)); // Passengers with no travel time
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		dispatch.shutdown(); // Stop the dispatch
+		if (bookingJournal != null) {
+			bookingJournal.close(); // Close the journal
+			Files.deleteIfExists(journalFile); // And remove its file
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BOOKINGS)
+	public int submit() throws Exception {
+		List<Future<BookingResult>> futures = new ArrayList<>(BOOKINGS); // Every booking of the invocation
+		if (batchSize == 1) {
+			for (Passenger passenger : passengers) {
+				futures.add(dispatch.bookPassenger(passenger, "Bench")); // Book one at a time
+			}
+		} else {
+			for (int i = 0; i < BOOKINGS; i += batchSize) {
+				futures.addAll(dispatch.bookPassengers(passengers.subList(i, Math.min(BOOKINGS, i + batchSize)), "Bench")); // Book a batch
+			}
+		}
+		int completed = 0; // Wait for every booking so work does not pile up between invocations
+		for (Future<BookingResult> future : futures) {
+			completed += future.get().jobID > 0 ? 1 : 0;
+		}
+		return completed; // Return the count so the work is not optimised away
+	}
+}
@@ -0,0 +1,57 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.ThreadLocalRandom; // Import ThreadLocalRandom to place passengers
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the output unit
+
+import org.openjdk.jmh.annotations.*; // Import the JMH annotations
+
+/**
+ * Nearest-driver claim/release throughput of a DriverPool holding many idle drivers with a location.
+ *
+ * The drivers are spread evenly over a square with about one driver per grid cell. Each operation places a passenger
+ * at random, claims the nearest idle driver, moves it to the passenger and releases it there, as a booking does.
+ * Eight threads compete for the pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class DriverGridBenchmark {
+
+	@Param({"1000", "100000"})
+	public int drivers; // Number of idle drivers
+
+	private DriverPool driverPool; // The pool under test
+	private double side; // Width of the square the drivers are in
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		driverPool = new DriverPool(1.0); // One location unit per cell
+		side = Math.sqrt(drivers); // About one driver per cell
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < drivers; i++) {
+			driverPool.release(new Driver("D-" + i, 0, random.nextDouble() * side, random.nextDouble() * side)); // Fill the pool
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Caller {
+		final Passenger passenger = new Passenger("P", 0, 0, 0); // Moved before every claim
+	}
+
+	@Benchmark
+	public Driver claimNearestRelease(Caller caller) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Passenger passenger = caller.passenger;
+		passenger.setLocation(random.nextDouble() * side, random.nextDouble() * side); // A new pickup location
+		Driver driver = driverPool.tryAcquire(passenger); // Claim the nearest idle driver
+		if (driver != null) { // Another thread may briefly hold every driver nearby, never all of them
+			driver.setLocation(passenger.getX(), passenger.getY()); // The driver moves to the passenger
+			driverPool.release(driver); // And becomes idle there
+		}
+		return driver; // Return the driver so the work is not optimised away
+	}
+}
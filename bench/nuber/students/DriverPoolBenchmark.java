@@ -0,0 +1,103 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.BlockingQueue; // Import BlockingQueue for the original idle driver queue
+import java.util.concurrent.LinkedBlockingQueue; // Import LinkedBlockingQueue for the original idle driver queue
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the output unit
+import java.util.concurrent.locks.LockSupport; // Import LockSupport to hold a driver without a monitor
+
+import org.openjdk.jmh.annotations.*; // Import the JMH annotations
+
+/**
+ * Driver acquire/release throughput under contention.
+ *
+ * Compares DriverPool with the original NuberDispatch implementation, which synchronized on the whole dispatch
+ * and woke every waiting booking with notifyAll() whenever a driver was taken or returned.
+ * Sixteen booking threads compete for the given number of drivers, each keeping its driver for holdMicros.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class DriverPoolBenchmark {
+
+	/**
+	 * The operations being measured.
+	 */
+	interface Pool {
+		Driver acquire() throws InterruptedException; // Take a driver, waiting if necessary
+		void release(Driver driver); // Return a driver
+	}
+
+	/**
+	 * The original synchronized wait/notifyAll driver handling from NuberDispatch.
+	 */
+	static class MonitorPool implements Pool {
+
+		private final BlockingQueue<Driver> idleDrivers = new LinkedBlockingQueue<>(); // Blocking queue to store idle drivers
+
+		@Override
+		public synchronized Driver acquire() throws InterruptedException {
+			while (idleDrivers.isEmpty()) { // If no idle drivers are available
+				wait(); // Wait until a driver becomes available
+			}
+			notifyAll(); // Wake up all waiting threads
+			return idleDrivers.poll(); // Return an idle driver
+		}
+
+		@Override
+		public synchronized void release(Driver driver) {
+			idleDrivers.add(driver); // Add the driver back to the idle queue
+			notifyAll(); // Wake up all waiting threads
+		}
+	}
+
+	/**
+	 * The lock-free DriverPool used by NuberDispatch.
+	 */
+	static class HandoffPool implements Pool {
+
+		private final DriverPool driverPool = new DriverPool(); // The pool under test
+
+		@Override
+		public Driver acquire() throws InterruptedException {
+			return driverPool.acquire(); // Take a driver from the pool
+		}
+
+		@Override
+		public void release(Driver driver) {
+			driverPool.release(driver); // Return the driver to the pool
+		}
+	}
+
+	@Param({"monitor", "handoff"})
+	public String pool; // Which implementation to measure
+
+	@Param({"1", "8", "64"})
+	public int drivers; // Number of drivers shared by the booking threads
+
+	@Param({"0", "200"})
+	public int holdMicros; // How long each booking keeps its driver
+
+	private Pool driverPool; // The pool under test
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		driverPool = "monitor".equals(pool) ? new MonitorPool() : new HandoffPool(); // Create the pool
+		for (int i = 0; i < drivers; i++) {
+			driverPool.release(new Driver("D-" + i, 0)); // Fill the pool
+		}
+	}
+
+	@Benchmark
+	public Driver acquireRelease() throws InterruptedException {
+		Driver driver = driverPool.acquire(); // Take a driver
+		if (holdMicros > 0) {
+			LockSupport.parkNanos(holdMicros * 1000L); // Keep the driver for a while
+		}
+		driverPool.release(driver); // Give it back
+		return driver; // Return the driver so the work is not optimised away
+	}
+}
@@ -0,0 +1,64 @@
+package nuber.students; // Define the package for this class
+
+import java.util.ArrayList; // Import ArrayList for the futures
+import java.util.HashMap; // Import HashMap for the region information
+import java.util.List; // Import List for the futures
+import java.util.concurrent.Future; // Import Future for the booking results
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the output unit
+
+import org.openjdk.jmh.annotations.*; // Import the JMH annotations
+
+/**
+ * Throughput of a region that is kept saturated: 1000 bookings are queued at once against a small
+ * simultaneous job limit, so almost every booking goes through the admission queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegionAdmissionBenchmark {
+
+	private static final int BOOKINGS = 1000; // Bookings per invocation
+
+	@Param({"1", "4", "16", "64"})
+	public int regionLimit; // Maximum simultaneous jobs of the region
+
+	@Param({"blocking", "async"})
+	public String path; // Which booking API to measure
+
+	private NuberDispatch dispatch; // The dispatch under test
+	private Passenger passenger; // The passenger booked on every call
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		HashMap<String, Integer> regions = new HashMap<>(); // One region with the given limit
+		regions.put("Bench", regionLimit);
+		dispatch = new NuberDispatch(regions, false); // Create the dispatch without logging
+		for (int i = 0; i < regionLimit; i++) {
+			dispatch.addDriver(new Driver("D-" + i, 0)); // One driver per slot, so drivers are never the bottleneck
+		}
+		passenger = new Passenger("P", 0); // A passenger with no travel time
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		dispatch.shutdown(); // Stop the dispatch
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BOOKINGS)
+	public int saturate() throws Exception {
+		boolean async = "async".equals(path); // Which API to use
+		List<Future<BookingResult>> futures = new ArrayList<>(BOOKINGS); // Every booking of the invocation
+		for (int i = 0; i < BOOKINGS; i++) {
+			futures.add(async ? dispatch.bookPassengerAsync(passenger, "Bench") : dispatch.bookPassenger(passenger, "Bench")); // Queue the booking
+		}
+		int completed = 0; // Wait for the region to work through the queue
+		for (Future<BookingResult> future : futures) {
+			completed += future.get().jobID > 0 ? 1 : 0;
+		}
+		return completed; // Return the count so the work is not optimised away
+	}
+}
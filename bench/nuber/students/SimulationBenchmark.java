@@ -0,0 +1,61 @@
+package nuber.students; // Define the package for this class
+
+import java.util.HashMap; // Import HashMap for the region information
+import java.util.Random; // Import Random to choose regions
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the output unit
+
+import org.openjdk.jmh.annotations.*; // Import the JMH annotations
+
+/**
+ * End-to-end throughput of a Simulation-style run with every sleep set to zero: create a dispatch with two regions,
+ * add the drivers, book 1000 passengers into random regions, wait for every booking to finish and shut the dispatch down.
+ * Bookings are made and tracked the way Simulation makes and tracks them: with bookPassengerAsync, counting the ones
+ * accepted, and a CompletionTracker as the dispatch result listener.
+ * The score is bookings per second including dispatch start-up and shutdown.
+ *
+ * The Simulation class itself is not called directly because it prints to the console.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+
+	private static final int PASSENGERS = 1000; // Passengers per simulation
+
+	@Param({"1", "10", "100", "1000"})
+	public int drivers; // Number of drivers in the simulation
+
+	@Param({"1", "10", "50"})
+	public int regionLimit; // Maximum simultaneous jobs of each region
+
+	private final Random random = new Random(42); // Chooses the region of each passenger
+
+	@Benchmark
+	@OperationsPerInvocation(PASSENGERS)
+	public int simulate() throws Exception {
+		HashMap<String, Integer> regions = new HashMap<>(); // The two regions used by AssignmentDriver
+		regions.put("North", regionLimit);
+		regions.put("South", regionLimit);
+		String[] regionNames = regions.keySet().toArray(new String[0]);
+
+		NuberDispatch dispatch = new NuberDispatch(regions, false); // Create the dispatch without logging
+		CompletionTracker tracker = new CompletionTracker(); // Counts bookings as they finish
+		dispatch.setResultListener(tracker);
+		for (int i = 0; i < drivers; i++) {
+			dispatch.addDriver(new Driver("D-" + i, 0)); // Drivers with no pickup delay
+		}
+		int accepted = 0; // Bookings the dispatch took; a refused one never reaches the tracker
+		for (int i = 0; i < PASSENGERS; i++) {
+			if (dispatch.bookPassengerAsync(new Passenger("P-" + i, 0), regionNames[random.nextInt(regionNames.length)]) != null) { // Book a passenger
+				accepted++; // Count it
+			}
+		}
+		tracker.awaitCompletion(accepted, 1000, null); // Wait for the last accepted booking to finish
+		dispatch.shutdown(); // Release the region threads
+
+		return (int) tracker.getCompleted(); // Return the count so the work is not optimised away
+	}
+}
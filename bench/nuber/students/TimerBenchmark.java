@@ -0,0 +1,71 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.Executor; // Import Executor for the task runner
+import java.util.concurrent.ScheduledFuture; // Import ScheduledFuture for the scheduled executor's handles
+import java.util.concurrent.ScheduledThreadPoolExecutor; // Import ScheduledThreadPoolExecutor for the original timer
+import java.util.concurrent.TimeUnit; // Import TimeUnit for delays and the output unit
+
+import org.openjdk.jmh.annotations.*; // Import the JMH annotations
+
+/**
+ * Cost of scheduling and cancelling a trip timeout while many other trips are waiting.
+ *
+ * Compares HashedTimingWheel with the ScheduledThreadPoolExecutor the dispatch used before, whose delay queue is
+ * a heap, so each schedule and cancel costs O(log n) under a lock. The timer is first filled with the given number
+ * of trips due in a minute, then each operation schedules a timeout and cancels it, as a booking does with its
+ * deadline when a driver arrives in time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerBenchmark {
+
+	@Param({"wheel", "scheduled"})
+	public String timer; // Which implementation to measure
+
+	@Param({"1000", "100000"})
+	public int waiting; // Trips already waiting on the timer
+
+	private HashedTimingWheel wheel; // The timing wheel under test
+	private ScheduledThreadPoolExecutor scheduled; // The original timer
+	private final Runnable task = () -> { }; // Nothing to run; no timeout is due during the run
+	private static final Executor DISCARD = runnable -> { }; // Expired tasks are dropped
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		if (timer.equals("wheel")) {
+			wheel = new HashedTimingWheel(1, TimeUnit.MILLISECONDS, 1024, DISCARD, "bench-wheel");
+			for (int i = 0; i < waiting; i++) {
+				wheel.schedule(task, 60 + i % 60, TimeUnit.SECONDS); // Fill the wheel with trips due later
+			}
+		} else {
+			scheduled = new ScheduledThreadPoolExecutor(1);
+			scheduled.setRemoveOnCancelPolicy(true); // Cancelled trips leave the queue, as they do in the wheel
+			for (int i = 0; i < waiting; i++) {
+				scheduled.schedule(task, 60 + i % 60, TimeUnit.SECONDS); // Fill the queue with trips due later
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (wheel != null) {
+			wheel.stop();
+		}
+		if (scheduled != null) {
+			scheduled.shutdownNow();
+		}
+	}
+
+	@Benchmark
+	public boolean scheduleAndCancel() {
+		if (wheel != null) {
+			return wheel.schedule(task, 30, TimeUnit.SECONDS).cancel(); // Schedule a deadline and drop it
+		}
+		ScheduledFuture<?> future = scheduled.schedule(task, 30, TimeUnit.SECONDS);
+		return future.cancel(false); // Schedule a deadline and drop it
+	}
+}
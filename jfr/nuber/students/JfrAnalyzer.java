@@ -0,0 +1,125 @@
+package nuber.students; // Define the package for this class
+
+import java.io.IOException; // Import IOException for the recording file
+import java.io.PrintStream; // Import PrintStream for the summary
+import java.nio.file.Paths; // Import Paths to turn a file name into a Path
+import java.util.Map; // Import Map for the per-phase histograms
+import java.util.TreeMap; // Import TreeMap to print regions in order
+import jdk.jfr.consumer.RecordedEvent; // Import RecordedEvent for the events read
+import jdk.jfr.consumer.RecordingFile; // Import RecordingFile to read a recording
+
+/**
+ * The JfrAnalyzer class summarises the booking events in a Flight Recorder recording: for each phase, and each region
+ * within it, the number of bookings and the mean, p50, p99, p99.9 and maximum time spent, so a latency spike can be
+ * placed in the region queue, the wait for a driver, the pickup or the drive. Rejections are counted by reason.
+ *
+ * Run with: java -cp target/classes nuber.students.JfrAnalyzer nuber.jfr
+ */
+public class JfrAnalyzer {
+
+	private static final String[][] PHASES = { // Event name, its duration field and the phase it measures
+			{"nuber.BookingAdmitted", "queueTime", "queue"},
+			{"nuber.DriverAcquired", "waitTime", "driver wait"},
+			{"nuber.Pickup", "pickupTime", "pickup"},
+			{"nuber.Drive", "driveTime", "drive"},
+			{"nuber.BookingCompleted", "totalTime", "total"},
+	};
+	private static final String ALL = "(all)"; // Row for every region together
+
+	private final Map<String, Map<String, LatencyHistogram>> phases = new TreeMap<>(); // Phase, then region, to durations
+	private final Map<String, Map<String, Long>> rejections = new TreeMap<>(); // Reason, then region, to bookings
+	private long submitted; // Bookings submitted
+	private long stolen; // Drivers taken from another region
+
+	/**
+	 * Read every booking event in a recording.
+	 *
+	 * @param fileName The recording.
+	 * @throws IOException If the recording cannot be read.
+	 */
+	public void read(String fileName) throws IOException {
+		try (RecordingFile recording = new RecordingFile(Paths.get(fileName))) {
+			while (recording.hasMoreEvents()) {
+				add(recording.readEvent()); // Count the event
+			}
+		}
+	}
+
+	/**
+	 * Add one event to the summary. Events that are not booking events are ignored.
+	 *
+	 * @param event The event.
+	 */
+	public void add(RecordedEvent event) {
+		String name = event.getEventType().getName();
+		String region = event.hasField("region") && event.getString("region") != null ? event.getString("region") : "-";
+		switch (name) {
+			case "nuber.BookingSubmitted":
+				submitted++;
+				return;
+			case "nuber.BookingRejected":
+				long count = event.getInt("count");
+				rejections.computeIfAbsent(event.getString("reason"), reason -> new TreeMap<>()).merge(region, count, Long::sum);
+				return;
+			case "nuber.DriverAcquired":
+				if (event.getBoolean("stolen")) {
+					stolen++; // Count the steal as well as the wait
+				}
+				break;
+			default:
+				break;
+		}
+		for (String[] phase : PHASES) {
+			if (phase[0].equals(name)) {
+				long nanos = event.getDuration(phase[1]).toNanos(); // The phase's duration
+				Map<String, LatencyHistogram> byRegion = phases.computeIfAbsent(phase[2], key -> new TreeMap<>());
+				byRegion.computeIfAbsent(region, key -> new LatencyHistogram()).record(nanos);
+				byRegion.computeIfAbsent(ALL, key -> new LatencyHistogram()).record(nanos);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Print the summary.
+	 *
+	 * @param out Where to print.
+	 */
+	public void print(PrintStream out) {
+		out.println("Bookings submitted: " + submitted + ", drivers taken from another region: " + stolen);
+		for (String[] phase : PHASES) {
+			Map<String, LatencyHistogram> byRegion = phases.get(phase[2]);
+			if (byRegion == null) {
+				continue; // The phase was not recorded
+			}
+			out.println();
+			out.println(phase[2]);
+			for (Map.Entry<String, LatencyHistogram> entry : byRegion.entrySet()) {
+				out.printf("  %-16s %s%n", entry.getKey(), entry.getValue().snapshot()); // One line per region
+			}
+		}
+		if (!rejections.isEmpty()) {
+			out.println();
+			out.println("rejected");
+			for (Map.Entry<String, Map<String, Long>> reason : rejections.entrySet()) {
+				out.printf("  %-16s %s%n", reason.getKey(), reason.getValue()); // Bookings per region
+			}
+		}
+	}
+
+	/**
+	 * Summarise a recording from the command line.
+	 *
+	 * @param args The recording file.
+	 * @throws IOException If the recording cannot be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: JfrAnalyzer recording.jfr");
+			System.exit(2);
+		}
+		JfrAnalyzer analyzer = new JfrAnalyzer();
+		analyzer.read(args[0]);
+		analyzer.print(System.out);
+	}
+}
@@ -0,0 +1,197 @@
+package nuber.students; // Define the package for this class
+
+import jdk.jfr.Category; // Import Category to group the events in JDK Mission Control
+import jdk.jfr.Description; // Import Description to document the events
+import jdk.jfr.Event; // Import Event, the base of every Flight Recorder event
+import jdk.jfr.Label; // Import Label for readable names
+import jdk.jfr.Name; // Import Name for stable event names
+import jdk.jfr.StackTrace; // Import StackTrace to leave out stack traces
+import jdk.jfr.Timespan; // Import Timespan to mark the phase durations
+
+/**
+ * The JfrBookingRecorder class records each phase of a booking as a Java Flight Recorder event: submitted, admitted,
+ * driver acquired, pickup, drive, completed and rejected. Each event carries the region, the driver if there is one,
+ * the booking ID, and how long the phase that just ended took, measured from the times the booking already keeps.
+ *
+ * The events are committed as instant events at the end of their phase, because a phase may start on one thread and
+ * end on another. When recording is off, each call is one check of whether the event type is enabled, and the event
+ * object is never allocated once the JIT has seen that it does not escape. Stack traces are left out.
+ *
+ * Loaded by BookingRecorder when the project is built with mvn -P jfr on Java 11 or later. Record with the bundled
+ * configuration, -XX:StartFlightRecording=settings=jfr/nuber.jfc,filename=nuber.jfr, and summarise the recording with
+ * JfrAnalyzer.
+ */
+final class JfrBookingRecorder implements BookingRecorder {
+
+	@Override
+	public void submitted(Booking booking) {
+		Submitted event = new Submitted();
+		if (event.isEnabled()) {
+			fill(event, booking, null); // Who and where
+			event.commit();
+		}
+	}
+
+	@Override
+	public void admitted(Booking booking) {
+		Admitted event = new Admitted();
+		if (event.isEnabled()) {
+			fill(event, booking, null);
+			event.queueTime = booking.admittedNanos - booking.submittedNanos; // Time in the region queue
+			event.commit();
+		}
+	}
+
+	@Override
+	public void driverAcquired(Booking booking, Driver driver) {
+		DriverAcquired event = new DriverAcquired();
+		if (event.isEnabled()) {
+			fill(event, booking, driver);
+			event.waitTime = booking.matchedNanos - booking.admittedNanos; // Time waiting for the driver
+			event.stolen = booking.region != null && driver.homeRegion != booking.region; // Taken from another region
+			event.commit();
+		}
+	}
+
+	@Override
+	public void pickedUp(Booking booking, Driver driver) {
+		Pickup event = new Pickup();
+		if (event.isEnabled()) {
+			fill(event, booking, driver);
+			event.pickupTime = booking.pickedUpNanos - booking.matchedNanos; // Time to reach the passenger
+			event.commit();
+		}
+	}
+
+	@Override
+	public void completed(Booking booking, Driver driver) {
+		Drive drive = new Drive();
+		if (drive.isEnabled()) {
+			fill(drive, booking, driver);
+			drive.driveTime = booking.arrivedNanos - booking.pickedUpNanos; // Time to the destination
+			drive.commit();
+		}
+		Completed event = new Completed();
+		if (event.isEnabled()) {
+			fill(event, booking, driver);
+			event.totalTime = booking.arrivedNanos - booking.submittedNanos; // The whole booking
+			event.commit();
+		}
+	}
+
+	@Override
+	public void rejected(String region, Booking booking, Driver driver, EventLog.Type reason, int count) {
+		Rejected event = new Rejected();
+		if (event.isEnabled()) {
+			if (booking != null) {
+				fill(event, booking, driver);
+			} else {
+				event.region = region; // Refused before a booking was made
+				event.driverId = -1;
+				event.bookingId = -1;
+			}
+			event.reason = reason.name(); // Refused, dropped, expired or failed
+			event.count = count;
+			event.commit();
+		}
+	}
+
+	private static void fill(BookingEvent event, Booking booking, Driver driver) {
+		event.region = booking.regionName; // The booking's region
+		event.bookingId = booking.id;
+		event.driver = driver == null ? null : driver.name;
+		event.driverId = driver == null ? -1 : driver.id;
+	}
+
+	/**
+	 * Fields shared by every booking event.
+	 */
+	@Category({"Nuber", "Booking"})
+	@StackTrace(false)
+	abstract static class BookingEvent extends Event {
+
+		@Label("Region")
+		String region;
+
+		@Label("Driver")
+		String driver;
+
+		@Label("Driver ID")
+		int driverId;
+
+		@Label("Booking ID")
+		long bookingId;
+	}
+
+	@Name("nuber.BookingSubmitted")
+	@Label("Booking Submitted")
+	@Description("A booking joined its region queue")
+	static final class Submitted extends BookingEvent {
+	}
+
+	@Name("nuber.BookingAdmitted")
+	@Label("Booking Admitted")
+	@Description("A booking reached a free slot in its region")
+	static final class Admitted extends BookingEvent {
+
+		@Label("Queue Time")
+		@Timespan
+		long queueTime;
+	}
+
+	@Name("nuber.DriverAcquired")
+	@Label("Driver Acquired")
+	@Description("A booking was handed its driver")
+	static final class DriverAcquired extends BookingEvent {
+
+		@Label("Wait Time")
+		@Timespan
+		long waitTime;
+
+		@Label("Stolen")
+		@Description("The driver was taken from another region")
+		boolean stolen;
+	}
+
+	@Name("nuber.Pickup")
+	@Label("Pickup")
+	@Description("A driver reached the passenger")
+	static final class Pickup extends BookingEvent {
+
+		@Label("Pickup Time")
+		@Timespan
+		long pickupTime;
+	}
+
+	@Name("nuber.Drive")
+	@Label("Drive")
+	@Description("A driver took the passenger to the destination")
+	static final class Drive extends BookingEvent {
+
+		@Label("Drive Time")
+		@Timespan
+		long driveTime;
+	}
+
+	@Name("nuber.BookingCompleted")
+	@Label("Booking Completed")
+	@Description("A booking finished its trip")
+	static final class Completed extends BookingEvent {
+
+		@Label("Total Time")
+		@Timespan
+		long totalTime;
+	}
+
+	@Name("nuber.BookingRejected")
+	@Label("Booking Rejected")
+	@Description("Bookings ended without a trip")
+	static final class Rejected extends BookingEvent {
+
+		@Label("Reason")
+		String reason;
+
+		@Label("Count")
+		int count;
+	}
+}
@@ -0,0 +1,140 @@
+package nuber.students; // Define the package for this class
+
+/**
+ * The AdaptiveLimit class works out how many bookings a region should run at once from what its bookings
+ * experience, instead of using a fixed number.
+ *
+ * Each finished booking reports how long it held its slot and whether it failed. Reports are gathered into windows
+ * of at least one sample per slot, and at the end of each window the limit is moved:
+ *
+ * AIMD adds one slot when bookings are queueing and the window's mean slot time is within twice the long-run
+ * mean, and cuts the limit by a tenth when the mean goes above that or a booking failed, such as by waiting past
+ * its deadline for a driver.
+ *
+ * GRADIENT scales the limit by the ratio of the long-run slot time to the window's, so it shrinks in proportion
+ * to how far slot times have risen, and adds the square root of the limit as headroom while bookings are queueing.
+ * The change is smoothed so one noisy window does not swing the limit.
+ *
+ * In both, the long-run slot time is a moving average of the windows, and the limit only grows while bookings are
+ * queueing and the slots are being used, so an idle region does not drift up to its maximum. When the limit is
+ * above the supply of drivers, admitted bookings wait for a driver inside their slot, slot times rise and the limit
+ * comes down; when it is below, bookings queue at low slot times and the limit goes up.
+ */
+public class AdaptiveLimit {
+
+	/**
+	 * How the limit reacts to what it observes.
+	 */
+	public enum Algorithm {
+		AIMD, // Additive increase, multiplicative decrease
+		GRADIENT // Scale by the ratio of long-run to recent slot time
+	}
+
+	private static final int MIN_WINDOW = 10; // Fewest samples in a window
+	private static final double TOLERANCE = 2.0; // Slot times up to this multiple of the long-run mean are acceptable
+	private static final double BACKOFF = 0.9; // Multiplier applied when backing off
+	private static final double SMOOTHING = 0.2; // Weight of a new gradient limit against the current one
+	private static final double LONG_RUN_WEIGHT = 0.05; // Weight of a window in the long-run mean, about the last 20 windows
+
+	private final Algorithm algorithm; // How the limit reacts
+	private final int minLimit; // Lowest limit allowed
+	private final int maxLimit; // Highest limit allowed
+	private double limit; // The current limit, kept fractional so small gradient steps add up
+	private double longRunNanos = Double.NaN; // Moving average of window mean slot times
+
+	private int samples; // Samples in the current window
+	private long sumNanos; // Total slot time in the current window
+	private boolean failed; // Whether a booking failed in the current window
+	private int maxInFlight; // Most slots in use during the current window
+	private int maxQueued; // Longest queue seen during the current window
+
+	/**
+	 * Constructor for the AdaptiveLimit class.
+	 *
+	 * @param algorithm    How the limit reacts to what it observes.
+	 * @param initialLimit The limit to start from.
+	 * @param minLimit     The lowest limit allowed, at least 1.
+	 * @param maxLimit     The highest limit allowed.
+	 */
+	public AdaptiveLimit(Algorithm algorithm, int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("The limits must satisfy 1 <= min <= max."); // No valid limit
+		}
+		this.algorithm = algorithm; // Store the settings
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit)); // Start inside the bounds
+	}
+
+	/**
+	 * Report a finished booking and, at the end of a window, move the limit.
+	 *
+	 * @param slotNanos How long the booking held its slot.
+	 * @param failed    Whether the booking failed or expired after it was admitted.
+	 * @param inFlight  The number of slots in use.
+	 * @param queued    The number of bookings waiting for a slot.
+	 * @return The limit to apply, which is the same as before unless a window ended.
+	 */
+	public synchronized int onSample(long slotNanos, boolean failed, int inFlight, int queued) {
+		samples++; // Add the sample to the window
+		sumNanos += Math.max(0, slotNanos);
+		this.failed |= failed;
+		maxInFlight = Math.max(maxInFlight, inFlight);
+		maxQueued = Math.max(maxQueued, queued);
+		if (samples >= Math.max(MIN_WINDOW, (int) limit)) {
+			endWindow(); // Enough samples to act on
+		}
+		return getLimit(); // Return the limit to apply
+	}
+
+	/**
+	 * Get the current limit.
+	 *
+	 * @return The limit, between the minimum and maximum.
+	 */
+	public synchronized int getLimit() {
+		return (int) limit; // Whole slots only
+	}
+
+	public int getMinLimit() {
+		return minLimit;
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	public Algorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	private void endWindow() {
+		double meanNanos = (double) sumNanos / samples; // Mean slot time of the window
+		if (Double.isNaN(longRunNanos)) {
+			longRunNanos = meanNanos; // The first window sets the baseline
+		}
+		boolean demand = maxQueued > 0 && maxInFlight >= limit / 2; // Bookings are queueing and the slots are in use
+		double next = limit;
+		if (algorithm == Algorithm.AIMD) {
+			if (failed || meanNanos > TOLERANCE * longRunNanos) {
+				next = limit * BACKOFF; // Back off
+			} else if (demand) {
+				next = limit + 1; // Probe for one more slot
+			}
+		} else {
+			double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRunNanos / Math.max(1, meanNanos))); // Below 1 once slot times pass the tolerance
+			double target = failed ? limit * BACKOFF : limit * gradient + (demand ? Math.sqrt(limit) : 0); // Shrink with the gradient, grow with queueing
+			if (!demand && target > limit) {
+				target = limit; // Do not grow without demand
+			}
+			next = limit * (1 - SMOOTHING) + target * SMOOTHING; // Smooth the step
+		}
+		limit = Math.max(minLimit, Math.min(maxLimit, next)); // Stay inside the bounds
+		longRunNanos += (meanNanos - longRunNanos) * LONG_RUN_WEIGHT; // Follow slow changes in trip times
+		samples = 0; // Start a new window
+		sumNanos = 0;
+		failed = false;
+		maxInFlight = 0;
+		maxQueued = 0;
+	}
+}
@@ -0,0 +1,553 @@
+package nuber.students; // Define the package for this class
+
+import java.util.ArrayList; // Import ArrayList to collect expired jobs
+import java.util.Iterator; // Import Iterator to remove a job from the middle of the queue
+import java.util.List; // Import List for batches of jobs
+import java.util.PriorityQueue; // Import PriorityQueue to order waiting jobs by due time
+import java.util.concurrent.Executor; // Import Executor to run admitted jobs
+import java.util.concurrent.TimeUnit; // Import TimeUnit for timed waits
+import java.util.concurrent.locks.Condition; // Import Condition to wait for the scheduler to drain
+import java.util.concurrent.locks.ReentrantLock; // Import ReentrantLock to guard the scheduler state
+
+/**
+ * The AdmissionScheduler class limits how many jobs of a region run at the same time.
+ *
+ * A job that arrives while every slot is taken waits in the queue without using a thread, and when a running job
+ * calls release() its slot is handed straight to the waiting job that is due first (earliest deadline first, and
+ * in submission order between jobs due at the same time). Jobs submitted without a due time are due the moment
+ * they are submitted, so they are admitted in FIFO order. A job may also have a hard deadline: if it is still
+ * waiting when the deadline passes, its expiry handler runs instead of the job, without taking a slot.
+ * Nothing polls or spins, and every submitted job is either run or expired exactly once.
+ *
+ * Admitted jobs are started through the Trampoline, so a job that finishes at once, releasing its slot before it
+ * returns, hands the slot on after it returns rather than from inside it. However many such jobs are queued,
+ * the stack does not grow.
+ *
+ * The queue can be given a capacity. offer() then refuses, or waits for room, rather than queueing more jobs,
+ * and dropOldest() can make room by removing the job that has waited longest.
+ */
+public class AdmissionScheduler {
+
+	private final Executor executor; // Runs admitted jobs
+	private final NuberClock clock; // The clock due times and deadlines are read from
+	private final ReentrantLock lock = new ReentrantLock(); // Guards the queue and the active count
+	private final Condition drained = lock.newCondition(); // Signalled when the last active job releases its slot
+	private final Condition notFull = lock.newCondition(); // Signalled when a waiting job leaves the queue
+	private final PriorityQueue<Admission> waiting = new PriorityQueue<>(); // Jobs and batches of jobs waiting for a slot, due first
+	private long sequence = 0; // Submission counter, to keep jobs due at the same time in order
+	private int waitingJobs = 0; // Number of jobs waiting, counting every job of a queued batch
+	private int queueCapacity = Integer.MAX_VALUE; // Maximum number of waiting jobs accepted by offer() and submitAll()
+	private volatile int maxActive; // Maximum number of jobs running at once; changed under the lock, read without it
+	private int active = 0; // Number of slots currently taken
+
+	/**
+	 * Constructor for AdmissionScheduler.
+	 *
+	 * @param executor  The executor that runs admitted jobs.
+	 * @param maxActive The maximum number of jobs running at once.
+	 */
+	public AdmissionScheduler(Executor executor, int maxActive) {
+		this(executor, maxActive, NuberClock.SYSTEM); // Due times in real time
+	}
+
+	/**
+	 * Constructor for AdmissionScheduler with due times and deadlines on the given clock, such as a dispatch's clock.
+	 *
+	 * @param executor  The executor that runs admitted jobs.
+	 * @param maxActive The maximum number of jobs running at once.
+	 * @param clock     The clock due times are read from with nanoTime().
+	 */
+	public AdmissionScheduler(Executor executor, int maxActive, NuberClock clock) {
+		if (maxActive < 1) { // A scheduler without slots would never run anything
+			throw new IllegalArgumentException("maxActive must be at least 1");
+		}
+		this.executor = executor; // Initialize the executor
+		this.maxActive = maxActive; // Initialize the slot count
+		this.clock = clock; // Initialize the clock
+	}
+
+	/**
+	 * Submit a job. It runs immediately if a slot is free, otherwise it waits for one.
+	 * The job owns its slot until it calls release(), which it must do exactly once when it is finished.
+	 *
+	 * @param job The job to run.
+	 */
+	public void submit(Runnable job) {
+		submit(job, executor); // Run the job on the scheduler's executor
+	}
+
+	/**
+	 * Submit a job that runs on the given executor once admitted.
+	 * Jobs that never block, such as the start of an asynchronous booking, can pass a direct executor
+	 * so they do not need a thread of their own.
+	 *
+	 * @param job         The job to run.
+	 * @param jobExecutor The executor that runs the job.
+	 */
+	public void submit(Runnable job, Executor jobExecutor) {
+		submit(job, jobExecutor, clock.nanoTime(), null); // Due now, so it keeps its place in submission order
+	}
+
+	/**
+	 * Submit a job with a due time, and optionally a hard deadline.
+	 *
+	 * Waiting jobs are admitted in order of due time. If onExpired is given, the due time is also a deadline:
+	 * a job still waiting when it passes is never run, and onExpired runs in its place without taking a slot.
+	 *
+	 * @param job         The job to run.
+	 * @param jobExecutor The executor that runs the job.
+	 * @param dueNanos    When the job is due, from the scheduler's clock.
+	 * @param onExpired   Run instead of the job if it is still waiting at its due time, or null if the job never expires.
+	 */
+	public void submit(Runnable job, Executor jobExecutor, long dueNanos, Runnable onExpired) {
+		lock.lock(); // Guard the scheduler state
+		try {
+			if (active >= maxActive) { // Every slot is taken
+				waiting.add(new Admission(job, jobExecutor, dueNanos, onExpired, null, sequence++)); // Wait for a slot to be released
+				waitingJobs++; // Count the waiting job
+				return;
+			}
+			active++; // Take a free slot
+		} finally {
+			lock.unlock(); // Release the lock before running anything
+		}
+		start(jobExecutor, job); // Run the admitted job
+	}
+
+	/**
+	 * Submit a job unless the queue is full, waiting up to the given time for room.
+	 * A job that finds a free slot is always accepted, however full the queue is.
+	 *
+	 * @param job          The job to run.
+	 * @param jobExecutor  The executor that runs the job.
+	 * @param dueNanos     When the job is due, from the scheduler's clock.
+	 * @param onExpired    Run instead of the job if it is still waiting at its due time, or null if the job never expires.
+	 * @param onDropped    Run instead of the job if dropOldest() removes it, or null if it may not be dropped.
+	 * @param timeoutNanos How long to wait for room in the queue; 0 or less does not wait.
+	 * @return true if the job was admitted or queued, false if the queue stayed full.
+	 * @throws InterruptedException If the thread is interrupted while waiting for room.
+	 */
+	public boolean offer(Runnable job, Executor jobExecutor, long dueNanos, Runnable onExpired, Runnable onDropped, long timeoutNanos) throws InterruptedException {
+		long remaining = timeoutNanos; // Time left to wait
+		if (remaining > 0) {
+			Trampoline.drain(); // Hand-offs queued on this thread may be what makes room
+		}
+		lock.lock(); // Guard the scheduler state
+		try {
+			while (active >= maxActive && waitingJobs >= queueCapacity) { // No free slot and no room to wait
+				if (remaining <= 0) {
+					return false; // Refuse the job
+				}
+				remaining = notFull.awaitNanos(remaining); // Wait for a job to leave the queue
+			}
+			if (active >= maxActive) { // Every slot is taken, but there is room to wait
+				waiting.add(new Admission(job, jobExecutor, dueNanos, onExpired, onDropped, sequence++)); // Wait for a slot to be released
+				waitingJobs++; // Count the waiting job
+				return true;
+			}
+			active++; // Take a free slot
+		} finally {
+			lock.unlock(); // Release the lock before running anything
+		}
+		start(jobExecutor, job); // Run the admitted job
+		return true;
+	}
+
+	/**
+	 * Remove the single job that has waited longest and may be dropped, and run its drop handler.
+	 *
+	 * @return true if a job was dropped, false if no waiting job may be dropped.
+	 */
+	public boolean dropOldest() {
+		Admission oldest = null; // The oldest droppable entry
+		lock.lock(); // Guard the scheduler state
+		try {
+			for (Admission admission : waiting) { // The queue is ordered by due time, so look at every entry
+				if (admission.onDropped != null && (oldest == null || admission.sequence < oldest.sequence)) {
+					oldest = admission;
+				}
+			}
+			if (oldest == null) {
+				return false; // Nothing may be dropped
+			}
+			waiting.remove(oldest); // Take it out of the queue
+			waitingJobs--; // It is no longer waiting
+			notFull.signal(); // There is room for another job
+		} finally {
+			lock.unlock(); // Release the lock before running anything
+		}
+		oldest.onDropped.run(); // Tell the dropped job's owner
+		return true;
+	}
+
+	/**
+	 * Take a waiting job out of the queue, because its owner gave up on it before it was admitted.
+	 * The job may have been submitted on its own or as part of a batch. Neither the job nor its handlers are run.
+	 *
+	 * @param job The job, as it was submitted.
+	 * @return true if the job was waiting and has been removed, false if it was already admitted, expired or dropped.
+	 */
+	public boolean remove(Runnable job) {
+		lock.lock(); // Guard the scheduler state
+		try {
+			for (Iterator<Admission> it = waiting.iterator(); it.hasNext(); ) { // The queue is ordered by due time, so look at every entry
+				Admission admission = it.next(); // A single job or a batch
+				if (admission.job == job || admission.remove(job)) {
+					if (admission.isEmpty()) {
+						it.remove(); // Take it out of the queue; a batch keeps its place while it has jobs left
+					}
+					waitingJobs--; // It is no longer waiting
+					notFull.signal(); // There is room for another job
+					return true;
+				}
+			}
+			return false; // The job is not waiting
+		} finally {
+			lock.unlock(); // Release the lock
+		}
+	}
+
+	/**
+	 * Take up to the given number of free slots at once, for jobs the caller runs itself.
+	 * Nothing is reserved while other jobs are waiting, so reserved slots never overtake the queue.
+	 * Each reserved slot must be given back with release() when its job is finished.
+	 *
+	 * @param count The number of slots wanted.
+	 * @return The number of slots reserved, between 0 and count.
+	 */
+	public int tryReserve(int count) {
+		lock.lock(); // Guard the scheduler state
+		try {
+			if (!waiting.isEmpty()) {
+				return 0; // Older jobs get the next free slots
+			}
+			int reserved = Math.max(0, Math.min(count, maxActive - active)); // Take what is free, up to the count
+			active += reserved; // Mark the slots as taken
+			return reserved; // Return the number reserved
+		} finally {
+			lock.unlock(); // Release the lock
+		}
+	}
+
+	/**
+	 * Submit several jobs with a single lock acquisition. Jobs that find a free slot run immediately,
+	 * the rest wait in the queue in the order given, as a single queue entry.
+	 *
+	 * @param jobs        The jobs to run.
+	 * @param jobExecutor The executor that runs the jobs.
+	 * @return The number of jobs accepted, as in submitAll(List, Executor, long).
+	 */
+	public int submitAll(List<? extends Runnable> jobs, Executor jobExecutor) {
+		return submitAll(jobs, jobExecutor, clock.nanoTime()); // Due now, so the batch keeps its place in submission order
+	}
+
+	/**
+	 * Submit several jobs that share a due time with a single lock acquisition. Jobs that find a free slot run
+	 * immediately, the rest wait in the queue in the order given, as a single queue entry that never expires.
+	 *
+	 * Only as many jobs as fit in the queue are accepted, taken from the front of the list.
+	 *
+	 * @param jobs        The jobs to run.
+	 * @param jobExecutor The executor that runs the jobs.
+	 * @param dueNanos    When the jobs are due, from the scheduler's clock.
+	 * @return The number of jobs accepted; the rest of the list was neither run nor queued.
+	 */
+	public int submitAll(List<? extends Runnable> jobs, Executor jobExecutor, long dueNanos) {
+		int admitted; // Number of jobs that found a free slot
+		int accepted; // Number of jobs admitted or queued
+		lock.lock(); // Guard the scheduler state
+		try {
+			admitted = waiting.isEmpty() ? Math.max(0, Math.min(jobs.size(), maxActive - active)) : 0; // Free slots go to the front of the batch
+			active += admitted; // Mark the slots as taken
+			accepted = admitted + (int) Math.min(jobs.size() - admitted, Math.max(0L, (long) queueCapacity - waitingJobs)); // Queue what fits
+			if (admitted < accepted) {
+				waiting.add(new Admission(jobs.subList(0, accepted), admitted, jobExecutor, dueNanos, sequence++)); // Queue the rest of the batch as one entry
+				waitingJobs += accepted - admitted; // Count every waiting job of the batch
+			}
+		} finally {
+			lock.unlock(); // Release the lock before running anything
+		}
+		for (int i = 0; i < admitted; i++) {
+			start(jobExecutor, jobs.get(i)); // Run the admitted jobs
+		}
+		return accepted; // Return the number accepted
+	}
+
+	/**
+	 * Release a slot taken by a finished job, handing it to the waiting job that is due first, if there is one.
+	 * Waiting jobs whose deadline has passed are expired on the way. Called from inside a job that is still
+	 * running, the waiting job starts once that job returns.
+	 */
+	public void release() {
+		Runnable next = null; // The job that inherits the slot, if any
+		Executor nextExecutor = null; // Where to run it
+		List<Runnable> expired = null; // Expiry handlers of jobs whose deadline has passed
+		lock.lock(); // Guard the scheduler state
+		try {
+			long now = clock.nanoTime(); // The time deadlines are checked against
+			Admission first; // The entry that is due first
+			while ((first = waiting.peek()) != null && first.hasExpired(now)) {
+				waiting.poll(); // The job missed its deadline
+				waitingJobs--; // It is no longer waiting
+				if (expired == null) {
+					expired = new ArrayList<>(); // Only allocate when something expires
+				}
+				expired.add(first.onExpired); // Expire it once the lock is released
+				notFull.signal(); // There is room for another job
+			}
+			if (first != null && active <= maxActive) { // Hand the slot on, unless the limit was lowered below the slots taken
+				next = first.nextJob(); // Take its next job
+				nextExecutor = first.executor; // And the executor for it
+				if (first.isEmpty()) {
+					waiting.poll(); // Every job of the entry has been admitted
+				}
+				waitingJobs--; // The job is no longer waiting
+				notFull.signal(); // There is room for another job
+			} else { // Nobody is waiting, or there are more slots taken than the limit allows
+				active--; // The slot becomes free
+				if (active == 0) {
+					drained.signalAll(); // Wake threads waiting for the scheduler to drain
+				}
+			}
+		} finally {
+			lock.unlock(); // Release the lock before running anything
+		}
+		if (expired != null) {
+			for (Runnable onExpired : expired) {
+				onExpired.run(); // Tell the expired jobs' owners
+			}
+		}
+		if (next != null) {
+			start(nextExecutor, next); // Run the waiting job in the released slot
+		}
+	}
+
+	/**
+	 * Wait until no jobs are running or waiting.
+	 *
+	 * @param timeout The maximum time to wait.
+	 * @param unit    The unit of the timeout.
+	 * @return true if the scheduler drained, false if the timeout passed first.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(timeout); // Time left to wait
+		Trampoline.drain(); // Jobs queued on this thread must run before the scheduler can drain
+		lock.lock(); // Guard the scheduler state
+		try {
+			while (active > 0) { // Waiting jobs always hold a slot in reserve, so active covers them too
+				if (remaining <= 0) {
+					return false; // Timed out before draining
+				}
+				remaining = drained.awaitNanos(remaining); // Wait for the last slot to be released
+			}
+			return true; // Nothing is running or waiting
+		} finally {
+			lock.unlock(); // Release the lock
+		}
+	}
+
+	/**
+	 * Get the number of jobs waiting for a slot.
+	 *
+	 * @return The number of waiting jobs.
+	 */
+	public int getWaiting() {
+		lock.lock(); // Guard the scheduler state
+		try {
+			return waitingJobs; // Return the number of waiting jobs
+		} finally {
+			lock.unlock(); // Release the lock
+		}
+	}
+
+	/**
+	 * Get the number of jobs currently holding a slot.
+	 *
+	 * @return The number of active jobs.
+	 */
+	public int getActive() {
+		lock.lock(); // Guard the scheduler state
+		try {
+			return active; // Return the active count
+		} finally {
+			lock.unlock(); // Release the lock
+		}
+	}
+
+	/**
+	 * Set the maximum number of jobs that may wait in the queue. Jobs already waiting are kept.
+	 *
+	 * @param capacity The queue capacity, at least 0.
+	 */
+	public void setQueueCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity must not be negative");
+		}
+		lock.lock(); // Guard the scheduler state
+		try {
+			queueCapacity = capacity; // Store the capacity
+			notFull.signalAll(); // Waiting submitters may now fit
+		} finally {
+			lock.unlock(); // Release the lock
+		}
+	}
+
+	/**
+	 * Get the maximum number of jobs that may wait in the queue.
+	 *
+	 * @return The queue capacity.
+	 */
+	public int getQueueCapacity() {
+		lock.lock(); // Guard the scheduler state
+		try {
+			return queueCapacity; // Return the capacity
+		} finally {
+			lock.unlock(); // Release the lock
+		}
+	}
+
+	/**
+	 * Get the maximum number of jobs running at once.
+	 *
+	 * @return The slot count.
+	 */
+	public int getMaxActive() {
+		return maxActive; // Return the slot count
+	}
+
+	/**
+	 * Change the maximum number of jobs running at once. Raising it admits waiting jobs into the new slots at once.
+	 * Lowering it never stops a running job: slots are given up as jobs release them, until the new limit is met.
+	 *
+	 * @param maxActive The new slot count, at least 1.
+	 */
+	public void setMaxActive(int maxActive) {
+		if (maxActive < 1) { // A scheduler without slots would never run anything
+			throw new IllegalArgumentException("maxActive must be at least 1");
+		}
+		List<Runnable> admitted = null; // Jobs given the new slots
+		List<Executor> executors = null; // Where to run them
+		List<Runnable> expired = null; // Expiry handlers of jobs whose deadline has passed
+		lock.lock(); // Guard the scheduler state
+		try {
+			this.maxActive = maxActive; // Store the new limit
+			long now = clock.nanoTime(); // The time deadlines are checked against
+			Admission first; // The entry that is due first
+			while (active < maxActive && (first = waiting.peek()) != null) {
+				if (first.hasExpired(now)) {
+					waiting.poll(); // The job missed its deadline
+					waitingJobs--; // It is no longer waiting
+					if (expired == null) {
+						expired = new ArrayList<>(); // Only allocate when something expires
+					}
+					expired.add(first.onExpired); // Expire it once the lock is released
+					notFull.signal(); // There is room for another job
+					continue;
+				}
+				if (admitted == null) {
+					admitted = new ArrayList<>(); // Only allocate when something is admitted
+					executors = new ArrayList<>();
+				}
+				admitted.add(first.nextJob()); // Take its next job
+				executors.add(first.executor); // And the executor for it
+				if (first.isEmpty()) {
+					waiting.poll(); // Every job of the entry has been admitted
+				}
+				waitingJobs--; // The job is no longer waiting
+				active++; // It takes one of the new slots
+				notFull.signal(); // There is room for another job
+			}
+		} finally {
+			lock.unlock(); // Release the lock before running anything
+		}
+		if (expired != null) {
+			for (Runnable onExpired : expired) {
+				onExpired.run(); // Tell the expired jobs' owners
+			}
+		}
+		if (admitted != null) {
+			for (int i = 0; i < admitted.size(); i++) {
+				start(executors.get(i), admitted.get(i)); // Run the jobs in their new slots
+			}
+		}
+	}
+
+	/**
+	 * Start an admitted job through the Trampoline.
+	 *
+	 * @param executor The executor that runs the job.
+	 * @param job      The job.
+	 */
+	private static void start(Executor executor, Runnable job) {
+		Trampoline.run(() -> executor.execute(job)); // Run it now, or once the job releasing its slot has returned
+	}
+
+	/**
+	 * A job, or the remaining jobs of a batch, waiting for slots, with the executor that should run them.
+	 * Entries are ordered by due time, then by submission order.
+	 */
+	private static class Admission implements Comparable<Admission> {
+
+		final Runnable job; // A single job, or null for a batch
+		final List<Runnable> jobs; // The waiting jobs of a batch, or null for a single job
+		final Executor executor; // Where to run the jobs
+		final long dueNanos; // When the entry is due
+		final Runnable onExpired; // Run instead of the job once it is past due, or null if it never expires
+		final Runnable onDropped; // Run instead of the job if it is dropped to make room, or null if it may not be dropped
+		final long sequence; // Submission order
+		int next; // Index of the next job of a batch to admit
+
+		Admission(Runnable job, Executor executor, long dueNanos, Runnable onExpired, Runnable onDropped, long sequence) {
+			this.job = job; // Store the job
+			this.jobs = null; // Not a batch
+			this.executor = executor; // Store the executor
+			this.dueNanos = dueNanos; // Store the due time
+			this.onExpired = onExpired; // Store the expiry handler
+			this.onDropped = onDropped; // Store the drop handler
+			this.sequence = sequence; // Store the submission order
+		}
+
+		Admission(List<? extends Runnable> jobs, int first, Executor executor, long dueNanos, long sequence) {
+			this.job = null; // Not a single job
+			this.jobs = new ArrayList<>(jobs.subList(first, jobs.size())); // Copy the jobs that were not admitted, so they can be removed
+			this.next = 0; // Start at the first of them
+			this.executor = executor; // Store the executor
+			this.dueNanos = dueNanos; // Store the due time
+			this.onExpired = null; // Batches never expire
+			this.onDropped = null; // And are never dropped
+			this.sequence = sequence; // Store the submission order
+		}
+
+		boolean hasExpired(long now) {
+			return onExpired != null && now - dueNanos > 0; // Only entries with a deadline expire
+		}
+
+		@Override
+		public int compareTo(Admission other) {
+			int byDue = Long.compare(dueNanos - other.dueNanos, 0); // Compare as a difference, since nanoTime may wrap
+			return byDue != 0 ? byDue : Long.compare(sequence, other.sequence); // Then by submission order
+		}
+
+		Runnable nextJob() {
+			return jobs == null ? job : jobs.get(next++); // Take the job, or the next job of the batch
+		}
+
+		boolean remove(Runnable job) {
+			if (jobs == null) {
+				return false; // A single job is matched by the caller
+			}
+			for (int i = next; i < jobs.size(); i++) { // Only jobs that have not been admitted
+				if (jobs.get(i) == job) {
+					jobs.remove(i); // Later jobs keep their order
+					return true;
+				}
+			}
+			return false; // Not waiting in this batch
+		}
+
+		boolean isEmpty() {
+			return jobs == null || next >= jobs.size(); // A single job is used up as soon as it is taken
+		}
+	}
+}
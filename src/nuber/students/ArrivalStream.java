@@ -0,0 +1,50 @@
+package nuber.students; // Define the package for this class
+
+import java.io.IOException; // Import IOException for streams read from files
+
+/**
+ * The ArrivalStream interface is a source of booking arrivals for a LoadGenerator, read one at a time so a stream
+ * can describe hours of traffic without holding it in memory.
+ *
+ * Arrivals come in time order. Each is placed by its offset from the start of the stream, so the same stream can be
+ * replayed against a NuberDispatch in real time, or in virtual time when the dispatch runs on a DiscreteEventClock.
+ */
+public interface ArrivalStream extends AutoCloseable {
+
+	/**
+	 * Read the next arrival.
+	 *
+	 * @return The next arrival, or null when the stream has ended.
+	 * @throws IOException If the stream cannot be read.
+	 */
+	Arrival next() throws IOException;
+
+	/**
+	 * Release whatever the stream reads from. Streams that hold nothing need not override this.
+	 *
+	 * @throws IOException If the source cannot be closed.
+	 */
+	@Override
+	default void close() throws IOException {
+	}
+
+	/**
+	 * A booking request: when it arrives, where, and how long the trip takes.
+	 */
+	final class Arrival {
+		public final long offsetMillis; // Time from the start of the stream
+		public final String region; // The region to book in
+		public final int travelTime; // Travel time in milliseconds, or -1 for a random time
+
+		public Arrival(long offsetMillis, String region, int travelTime) {
+			this.offsetMillis = offsetMillis; // Store the details
+			this.region = region;
+			this.travelTime = travelTime;
+		}
+
+		@Override
+		public String toString() {
+			return offsetMillis + "ms " + region + " travel=" + travelTime + "ms";
+		}
+	}
+}
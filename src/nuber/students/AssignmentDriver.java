@@ -69,6 +69,11 @@ public class AssignmentDriver {
 //		new Simulation(regions, 10, 10, 1000, logEvents);
 //		new Simulation(regions, 10, 100, 1000, logEvents);
 //		new Simulation(regions, 1, 50, 1000, logEvents);
+//		new Simulation(regions, 1, 50, 1000, logEvents, NuberClock.SYSTEM, System.out, new PoolingPolicy(4, 200, 500));
+//		new Simulation(regions, 10, 100000, 1000, false, new DiscreteEventClock());
+//		new Simulation(regions, 50, new LoadGenerator(SyntheticArrivals.poisson(20, new String[] {"North", "South"}, 1000, 60_000, 1), 1000), 1000, false, NuberClock.SYSTEM);
+//		new Simulation(regions, 50, new LoadGenerator(TraceArrivals.open("arrivals.csv"), 1000), 1000, false, new DiscreteEventClock());
+//		SweepRunner.main(new String[] {"--regions", "1,2,4", "--drivers", "5,10,50", "--passengers", "10000", "--csv", "sweep.csv"});
 	}
 
 }
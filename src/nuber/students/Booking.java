@@ -1,56 +1,407 @@
 package nuber.students; // Define the package for this class
 
-import java.util.Date; // Import the Date class to get the current time
 import java.util.concurrent.Callable; // Import Callable interface for defining asynchronous tasks
-import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger for thread-safe counting
+import java.util.concurrent.CancellationException; // Import CancellationException to report a cancelled booking
+import java.util.concurrent.CompletableFuture; // Import CompletableFuture for the asynchronous booking stages
+import java.util.concurrent.CompletionException; // Import CompletionException to fail an asynchronous stage
+import java.util.concurrent.Semaphore; // Import Semaphore for the dispatch-wide booking capacity
+import java.util.concurrent.TimeUnit; // Import TimeUnit for waiting until the deadline
+import java.util.concurrent.TimeoutException; // Import TimeoutException to report a missed deadline
 
 public class Booking implements Callable<BookingResult> { // Define the Booking class that implements Callable interface, returns BookingResult
 
 	final NuberDispatch dispatch; // Declare the final variable dispatch to represent the dispatch object
-	private final Passenger passenger; // Declare the final variable passenger to represent the passenger object
-	private long startTime; // Declare a variable startTime to record the booking start time
-	private long endTime; // Declare a variable endTime to record the booking end time
-	private static AtomicInteger jobCounter = new AtomicInteger(0); // Static counter to generate unique job IDs
+	final Passenger passenger; // Declare the final variable passenger to represent the passenger object
+	final NuberRegion region; // The region the booking was made in, or null
+	final String regionName; // The region name, for the event log
+	final BookingPriority priority; // The service class of the booking
+	final long id; // The booking's ID in its dispatch, for the journal
+	final long maxWaitMillis; // How long the booking may wait for a driver, or 0 for no deadline
+	private final boolean hasDeadline; // Whether the booking expires if it waits too long
+	private final long deadlineNanos; // When the booking expires, if it has a deadline
+	long startTime; // Declare a variable startTime to record the booking start time
+	long endTime; // Declare a variable endTime to record the booking end time
+	long matchedTime; // When the driver was handed over, on the dispatch clock
+	private Driver assignedDriver; // A driver matched to the booking in advance, used instead of asking dispatch
+	Semaphore capacity; // The dispatch-wide capacity the booking holds a place in until it finishes, or null
+	final long submittedNanos; // When the booking was created, on the dispatch clock, for latency metrics
+	long admittedNanos; // When the booking reached a free slot in its region
+	long matchedNanos; // When a driver was handed to the booking
+	long pickedUpNanos; // When the passenger was on board
+	long arrivedNanos; // When the passenger reached the destination
+	NuberClock.Timeout queueDeadline; // Takes the booking out of its region queue at its deadline, or null
+	private volatile boolean cancelled; // Set when the booking is cancelled before its passenger is on board
+	private boolean onBoard; // Set once the passenger is on board, after which the booking cannot be cancelled; guarded by this
+	private CompletableFuture<Driver> driverWaiter; // The booking's place in the queue for a driver, or null; guarded by this
+	private Driver enRoute; // The driver on the way to the passenger, released by cancel() if nobody else does; guarded by this
+	private Thread runner; // The thread picking the passenger up, interrupted by cancel(); guarded by this
+	private CompletableFuture<Driver> pickupStage; // The stage that ends when the driver reaches the passenger, ended early by cancel(); guarded by this
 
 	// Constructor to initialize dispatch and passenger, and record the booking start time
 	public Booking(NuberDispatch dispatch, Passenger passenger) {
+		this(dispatch, passenger, null, BookingPriority.STANDARD, 0); // No region, standard class and no deadline
+	}
+
+	// Constructor for a booking made in a region, so it is served from the region's drivers first.
+	// A booking with a positive maxWaitMillis expires if it has not been given a driver within that time.
+	Booking(NuberDispatch dispatch, Passenger passenger, NuberRegion region, BookingPriority priority, long maxWaitMillis) {
 		this.dispatch = dispatch; // Assign the provided dispatch to the class member
 		this.passenger = passenger; // Assign the provided passenger to the class member
-		this.startTime = new Date().getTime(); // Get the current timestamp and assign it to startTime
+		this.region = region; // Assign the region
+		this.regionName = region == null ? null : region.getRegionName(); // Assign the region name
+		this.priority = priority; // Assign the service class
+		this.id = dispatch.nextBookingId(); // Take the next booking ID
+		this.maxWaitMillis = maxWaitMillis; // Keep the deadline so the booking can be made again from the journal
+		this.submittedNanos = dispatch.getClock().nanoTime(); // Read the dispatch clock, which may be virtual
+		this.hasDeadline = maxWaitMillis > 0; // Only a positive wait sets a deadline
+		this.deadlineNanos = submittedNanos + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis); // Work out the deadline
+		this.startTime = dispatch.getClock().currentTimeMillis(); // Get the current time on the dispatch clock and assign it to startTime
 	}
 
 	@Override
 	public BookingResult call() throws Exception { // Implement the call method from Callable interface
-		// 1. Ask Dispatch for an available driver
-		Driver driver = null; // Declare a Driver variable driver and initialize it as null
-		// Loop to get an available driver, retrying until successful
-		while ((driver = dispatch.getAvailableDriver()) == null) {
-			synchronized (this) { // Enter synchronized block to ensure thread safety
-				wait(); // Wait until an available driver is found
+		if (admittedNanos == 0) {
+			admittedNanos = dispatch.getClock().nanoTime(); // Run without a region, so it is admitted now
+		}
+
+		// 1. Ask Dispatch for an available driver, waiting no longer than the deadline if there is one
+		Driver driver = assignedDriver; // Start with the driver matched in advance, if there is one
+		if (driver == null) {
+			CompletableFuture<Driver> waiter = dispatch.acquireDriverAsync(region, passenger); // Take an idle driver, or queue for one
+			waitingFor(waiter); // Let a cancellation withdraw it
+			driver = hasDeadline
+					? dispatch.awaitDriver(region, waiter, deadlineNanos - dispatch.getClock().nanoTime(), TimeUnit.NANOSECONDS)
+					: dispatch.awaitDriver(region, waiter); // Null if the deadline passed or the booking was cancelled first
+			if (driver == null) {
+				throw cancelled ? cancellation() : expire(); // Gave up without a driver
 			}
 		}
+		if (cancelled) {
+			dispatch.addAvailableDriver(driver); // Cancelled as the driver was handed over, so pass it on
+			throw cancellation(); // Report the cancellation
+		}
+		matched(driver); // Record the match
 
 		// Pass the current Booking object to the Driver
-		driver = new Driver(driver.getName(), driver.getMaxSleep()); // Create a new Driver object, copying the driver's name and max sleep time
+		driver.setBooking(this); // Log the driver's events through this booking's dispatch
 
-		// 2. Call Driver.pickUpPassenger()
-		driver.pickUpPassenger(passenger); // Call the driver's pickUpPassenger method to pick up the passenger
+		// 2. Call Driver.pickUpPassenger(), which a cancellation cuts short
+		if (setOff(driver, Thread.currentThread())) {
+			try {
+				driver.pickUpPassenger(passenger); // Call the driver's pickUpPassenger method to pick up the passenger
+			} catch (InterruptedException e) {
+				if (!cancelled) {
+					throw e; // Interrupted for another reason, such as a forced shutdown
+				}
+			}
+		}
+		if (!board()) {
+			Thread.interrupted(); // Clear the interrupt the cancellation sent
+			dispatch.addAvailableDriver(driver); // The driver turns back and is free at once
+			throw cancellation(); // Report the cancellation
+		}
+		pickedUpNanos = dispatch.getClock().nanoTime(); // Record when the passenger was on board
+		dispatch.getFleet().setState(driver, FleetRegistry.State.BUSY); // The driver is now carrying the passenger
 
 		// 3. Call Driver.driveToDestination()
 		driver.driveToDestination(); // Call the driver's driveToDestination method to drive to the destination
+		arrivedNanos = dispatch.getClock().nanoTime(); // Record when the passenger arrived
 
 		// 4. Record the end time
-		endTime = new Date().getTime(); // Get the current timestamp and assign it to endTime, recording the end of the booking
+		endTime = dispatch.getClock().currentTimeMillis(); // Get the current time on the dispatch clock and assign it to endTime, recording the end of the booking
 
 		// 5. Add the driver back to the available list
+		finished(driver); // Record the trip
 		dispatch.addAvailableDriver(driver); // Add the driver back to the available drivers list in dispatch
 
 		// 6. Return the BookingResult with a unique jobID
 		return new BookingResult( // Create and return a BookingResult object
-				jobCounter.incrementAndGet(),  // Generate a unique job ID using the counter
+				dispatch.nextJobId(),  // Take a unique job ID from this booking's dispatch
 				passenger, // Pass the passenger object to BookingResult
 				driver, // Pass the driver object to BookingResult
 				(endTime - startTime) // Calculate and pass the booking duration (in milliseconds)
 		);
 	}
+
+	/**
+	 * Record that the booking has been handed its driver, which is now on the way to the passenger.
+	 *
+	 * @param driver The driver.
+	 */
+	void matched(Driver driver) {
+		matchedNanos = dispatch.getClock().nanoTime(); // Record when the driver was handed over
+		matchedTime = dispatch.getClock().currentTimeMillis(); // And when on the dispatch clock, for the driver's busy time
+		dispatch.bookingMatched(this, driver); // The booking is no longer waiting for a driver
+		dispatch.getFleet().setState(driver, FleetRegistry.State.EN_ROUTE); // The driver is on the way
+		dispatch.logEvent(EventLog.Type.DRIVER_ASSIGNED, this, driver, 0); // Log the match
+	}
+
+	/**
+	 * Record that the booking's trip is over, before its driver is released.
+	 *
+	 * @param driver The driver.
+	 */
+	private void finished(Driver driver) {
+		dispatch.logEvent(EventLog.Type.COMPLETED, this, driver, endTime - startTime); // Log the completion
+		dispatch.getFleet().recordTrip(driver, endTime - matchedTime); // Count the trip against the driver
+	}
+
+	/**
+	 * Cancel the booking unless its passenger is already on board. A booking waiting for a driver gives up its place
+	 * in the queue, and a driver on the way to the passenger is released straight away: by this call for
+	 * asynchronous stages, or by the booking's thread, which is interrupted, for a blocking booking.
+	 * The booking then fails with a CancellationException at its next step.
+	 *
+	 * @return true if the booking was cancelled, false if it was already cancelled or the passenger is on board.
+	 */
+	boolean cancel() {
+		CompletableFuture<Driver> waiter; // The place in the queue to give up, if any
+		Driver release; // The driver to release here, if any
+		CompletableFuture<Driver> stage; // The pickup stage to end early, if any
+		synchronized (this) {
+			if (cancelled || onBoard) {
+				return false; // Too late, or done already
+			}
+			cancelled = true; // Every later step checks this
+			waiter = driverWaiter;
+			release = runner == null ? enRoute : null; // A blocking booking releases its own driver
+			enRoute = null;
+			stage = pickupStage;
+			pickupStage = null;
+			if (runner != null) {
+				runner.interrupt(); // Cut the pickup short
+			}
+		}
+		if (waiter != null) {
+			dispatch.withdrawWaiter(region, waiter); // Stop waiting; a driver handed over first is passed on by the booking
+		}
+		if (release != null) {
+			dispatch.addAvailableDriver(release); // The driver turns back and is free at once
+		}
+		if (stage != null) {
+			stage.complete(release); // Fail the booking and give back its slot now, rather than when the pickup would have ended
+		}
+		return true; // Cancelled
+	}
+
+	/**
+	 * Stop the timer that takes the booking out of its region queue at its deadline, because it has left the queue.
+	 */
+	void leaveQueue() {
+		NuberClock.Timeout deadline = queueDeadline; // Read the timer once
+		if (deadline != null) {
+			queueDeadline = null; // Never cancel it twice
+			deadline.cancel(); // Drop it from the timer
+		}
+	}
+
+	/**
+	 * Check whether the booking has been cancelled.
+	 *
+	 * @return true if it was cancelled before its passenger was on board.
+	 */
+	boolean isCancelled() {
+		return cancelled; // Return the flag
+	}
+
+	/**
+	 * Record the booking's place in the queue for a driver, so cancel() can withdraw it.
+	 *
+	 * @param waiter The future for the driver.
+	 */
+	void waitingFor(CompletableFuture<Driver> waiter) {
+		synchronized (this) {
+			driverWaiter = waiter; // Store the place
+			if (!cancelled) {
+				return; // cancel() withdraws it from now on
+			}
+		}
+		dispatch.withdrawWaiter(region, waiter); // Cancelled before it started waiting
+	}
+
+	/**
+	 * Record that a driver is on the way to the passenger, so cancel() can release it.
+	 *
+	 * @param driver The driver.
+	 * @param thread The thread that waits for the pickup and releases the driver itself, or null for asynchronous stages.
+	 * @return false if the booking has been cancelled, and the caller must release the driver.
+	 */
+	synchronized boolean setOff(Driver driver, Thread thread) {
+		driverWaiter = null; // The wait for a driver is over
+		if (cancelled) {
+			return false; // Cancelled since the driver was handed over
+		}
+		enRoute = driver; // Cancelling now turns the driver back
+		runner = thread;
+		return true;
+	}
+
+	/**
+	 * Record the stage that ends when the driver reaches the passenger, so a cancellation can end it early.
+	 *
+	 * @param driver  The driver on the way.
+	 * @param arrival The stage.
+	 * @return The stage to wait for, already complete if the booking was cancelled since the driver set off.
+	 */
+	synchronized CompletableFuture<Driver> pickingUp(Driver driver, CompletableFuture<Driver> arrival) {
+		if (cancelled) {
+			return CompletableFuture.completedFuture(driver); // Go straight on to fail the booking
+		}
+		pickupStage = arrival; // Ended early by cancel()
+		return arrival;
+	}
+
+	/**
+	 * Record that the passenger is on board, after which the booking can no longer be cancelled.
+	 *
+	 * @return false if the booking was cancelled on the way, in which case its driver has been or must be released.
+	 */
+	synchronized boolean board() {
+		enRoute = null; // The pickup is over
+		runner = null; // No more interrupts
+		pickupStage = null;
+		if (cancelled) {
+			return false; // Cancelled on the way
+		}
+		onBoard = true; // Too late to cancel
+		return true;
+	}
+
+	/**
+	 * Give up on the booking because it was cancelled.
+	 *
+	 * @return The exception the booking fails with.
+	 */
+	CancellationException cancellation() {
+		if (matchedNanos == 0) {
+			withdraw(); // It was still waiting for a driver
+		}
+		return new CancellationException("Booking for " + passenger.name + " was cancelled."); // Report the cancellation
+	}
+
+	/**
+	 * Get the time by which the booking is due to be admitted: its deadline if it has one,
+	 * otherwise its submission time plus the target wait of its class.
+	 *
+	 * @return The due time, from the dispatch clock's nanoTime().
+	 */
+	long dueNanos() {
+		return hasDeadline ? deadlineNanos : priority.dueNanos(submittedNanos); // Use the deadline, or the class target
+	}
+
+	/**
+	 * Check whether the booking expires if it waits too long.
+	 *
+	 * @return true if the booking has a deadline.
+	 */
+	boolean hasDeadline() {
+		return hasDeadline; // Return the flag
+	}
+
+	/**
+	 * Check whether the booking's deadline has passed.
+	 *
+	 * @param now The current time, from the dispatch clock's nanoTime().
+	 * @return true if the booking has a deadline and it has passed.
+	 */
+	boolean isExpired(long now) {
+		return hasDeadline && now - deadlineNanos > 0; // Compare as a difference, since nanoTime may wrap
+	}
+
+	/**
+	 * Give up on the booking because its deadline passed before it was given a driver.
+	 *
+	 * @return The exception the booking fails with.
+	 */
+	TimeoutException expire() {
+		withdraw(); // The booking is no longer waiting for a driver
+		return new TimeoutException("Booking for " + passenger.name + " expired before a driver was assigned."); // Report the missed deadline
+	}
+
+	/**
+	 * Take the booking out of the dispatch's count of bookings waiting for a driver,
+	 * because it expired or was dropped or refused before it was given one.
+	 */
+	void withdraw() {
+		dispatch.bookingWithdrawn(this); // The booking is no longer waiting for a driver
+	}
+
+	/**
+	 * Give back the booking's place in the dispatch-wide capacity, if it holds one.
+	 * Called once, when the booking finishes or is refused.
+	 */
+	void releaseCapacity() {
+		Semaphore held = capacity; // The place held, if any
+		if (held != null) {
+			capacity = null; // Never give the place back twice
+			held.release(); // Let another booking in
+		}
+	}
+
+	/**
+	 * Match a driver to the booking before it runs, so it does not ask dispatch for one.
+	 *
+	 * @param driver The driver taken from dispatch for this booking.
+	 */
+	void assignDriver(Driver driver) {
+		this.assignedDriver = driver; // Store the matched driver
+	}
+
+	/**
+	 * Run the booking without blocking any thread, as a chain of stages:
+	 * wait for the dispatch to hand over a driver, pick up the passenger, drive to the destination,
+	 * then release the driver. Pickup and travel time pass on the dispatch timer rather than in a sleeping thread.
+	 *
+	 * @return A future that completes with the BookingResult when the trip is over.
+	 */
+	public CompletableFuture<BookingResult> callAsync() {
+		if (admittedNanos == 0) {
+			admittedNanos = dispatch.getClock().nanoTime(); // Run without a region, so the stages start now
+		}
+		CompletableFuture<Driver> driverFuture = assignedDriver != null ? CompletableFuture.completedFuture(assignedDriver) // Matched in advance, as in a batch
+				: dispatch.acquireDriverAsync(region, passenger); // 1. Wait for the region's driver pool to hand over a driver
+		waitingFor(driverFuture); // Let a cancellation withdraw it
+		if (hasDeadline && !driverFuture.isDone()) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - dispatch.getClock().nanoTime()) + 1; // Time left, rounded up
+			NuberClock.Timeout deadline = dispatch.timeout(remaining, () -> dispatch.withdrawWaiter(region, driverFuture)); // Give up the wait at the deadline
+			driverFuture.whenComplete((driver, error) -> deadline.cancel()); // A driver came in time, so drop the deadline from the timer
+		}
+		return driverFuture
+				.handle((driver, error) -> {
+					if (error != null || cancelled || isExpired(dispatch.getClock().nanoTime())) { // The wait was given up, or the driver came too late
+						if (driver != null) {
+							dispatch.addAvailableDriver(driver); // Pass the driver on to another booking
+						}
+						throw new CompletionException(cancelled ? cancellation() : expire()); // Fail the booking before it takes a driver
+					}
+					return driver; // Carry on with the driver
+				})
+				.thenCompose(driver -> {
+					matched(driver); // Record the match
+					if (!setOff(driver, null)) {
+						dispatch.addAvailableDriver(driver); // Cancelled as the driver was handed over, so pass it on
+						throw new CompletionException(cancellation()); // Report the cancellation
+					}
+					int delay = driver.beginPickup(passenger); // 2. Choose the pickup delay
+					dispatch.logEvent(EventLog.Type.PICKING_UP, this, driver, delay); // Log the pickup event
+					return pickingUp(driver, dispatch.after(delay, driver)); // Continue once the pickup delay has passed, or the booking is cancelled
+				})
+				.thenCompose(driver -> {
+					if (!board()) {
+						throw new CompletionException(cancellation()); // Cancelled on the way, and the driver has already been released
+					}
+					pickedUpNanos = dispatch.getClock().nanoTime(); // Record when the passenger was on board
+					dispatch.getFleet().setState(driver, FleetRegistry.State.BUSY); // The driver is now carrying the passenger
+					int travelTime = driver.beginDrive(); // 3. Choose the travel time
+					dispatch.logEvent(EventLog.Type.DRIVING, this, driver, travelTime); // Log the driving event
+					return dispatch.after(travelTime, driver); // Continue once the passenger has arrived
+				})
+				.thenApply(driver -> {
+					arrivedNanos = dispatch.getClock().nanoTime(); // Record when the passenger arrived
+					endTime = dispatch.getClock().currentTimeMillis(); // 4. Record the end time
+					finished(driver); // Record the trip
+					dispatch.addAvailableDriver(driver); // 5. Hand the driver to the next booking
+					return new BookingResult(dispatch.nextJobId(), passenger, driver, endTime - startTime); // 6. Return the result
+				});
+	}
 }
@@ -0,0 +1,255 @@
+package nuber.students; // Define the package for this class
+
+import java.io.IOException; // Import IOException for file errors
+import java.io.UncheckedIOException; // Import UncheckedIOException to report file errors from append
+import java.nio.MappedByteBuffer; // Import MappedByteBuffer for the mapped segments
+import java.nio.channels.FileChannel; // Import FileChannel to map the file
+import java.nio.charset.StandardCharsets; // Import StandardCharsets to encode names
+import java.nio.file.Path; // Import Path for the journal file
+import java.nio.file.Paths; // Import Paths to turn a file name into a Path
+import java.nio.file.StandardOpenOption; // Import StandardOpenOption to open the file
+import java.util.ArrayDeque; // Import ArrayDeque for the segments waiting to be flushed
+import java.util.concurrent.Executors; // Import Executors for the flush thread
+import java.util.concurrent.ScheduledExecutorService; // Import ScheduledExecutorService to flush on a schedule
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the flush interval
+
+/**
+ * The BookingJournal class records booking lifecycle events in an append-only binary file, so bookings can be
+ * audited and in-flight bookings recovered after a crash with a JournalReader.
+ *
+ * The file is written through memory-mapped segments, so appending a record is a few stores into memory under a
+ * short lock, with no system call. The operating system owns the mapped pages, so records appended before the JVM
+ * dies are kept. A background thread forces written pages to disk every flush interval, so a machine failure loses
+ * at most that interval of records; flush() forces them at once.
+ *
+ * File layout: a 16-byte header (magic, version, segment size, reserved) followed by records. Each record is an int
+ * length, then the type, the time on the dispatch clock, the booking ID, the driver ID and a value. SUBMITTED records
+ * also hold what is needed to book the passenger again. A record never crosses a segment boundary: the rest of a
+ * segment that cannot hold the next record is skipped with a length of -1. The length is written last, and a length
+ * of 0 marks the end of the journal. That 0 is written after each record before its length is, so records left past
+ * the end by a torn write are never read once the journal has been reopened and appended to.
+ */
+public class BookingJournal implements AutoCloseable {
+
+	static final int MAGIC = 0x4E55424A; // "NUBJ"
+	static final int VERSION = 1; // Format version
+	static final int HEADER_SIZE = 16; // Bytes before the first record
+	static final int FIXED_SIZE = 4 + 1 + 8 + 8 + 4 + 8; // Length, type, time, booking ID, driver ID, value
+	static final int SKIP = -1; // Length marking the unused end of a segment
+	static final int MIN_SEGMENT_SIZE = 128 << 10; // Holds the header and the largest possible record
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20; // Bytes mapped at a time
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100; // Time between forced flushes
+
+	private static final EventLog.Type[] TYPES = EventLog.Type.values(); // Event types by ordinal
+
+	private final FileChannel channel; // The journal file
+	private final int segmentSize; // Bytes per mapped segment
+	private final ScheduledExecutorService flusher; // Forces written pages to disk, or null if flushing is left to the OS
+	private final ArrayDeque<MappedByteBuffer> unflushed = new ArrayDeque<>(); // Full segments not yet forced
+	private MappedByteBuffer segment; // The segment being written
+	private long segmentStart; // File offset of the segment being written
+	private long records; // Number of records appended
+	private boolean closed; // Whether close() has been called
+
+	/**
+	 * Open a journal file for appending, creating it if it does not exist. Records already in the file are kept,
+	 * and new records follow them.
+	 *
+	 * @param path                The journal file.
+	 * @param segmentSize         Bytes mapped at a time; must be the same as when the file was created.
+	 * @param flushIntervalMillis Time between forced flushes, or 0 to leave flushing to the operating system.
+	 * @throws IOException If the file cannot be opened, or is not a journal.
+	 */
+	public BookingJournal(Path path, int segmentSize, long flushIntervalMillis) throws IOException {
+		if (segmentSize < MIN_SEGMENT_SIZE) {
+			throw new IllegalArgumentException("The segment size must be at least " + MIN_SEGMENT_SIZE + " bytes."); // Room for the largest record
+		}
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE); // Open the file
+		try {
+			long end; // Where the next record goes
+			if (channel.size() == 0) {
+				this.segmentSize = segmentSize; // A new journal
+				map(0); // Map the first segment
+				segment.putInt(MAGIC).putInt(VERSION).putInt(segmentSize).putInt(0); // Write the header
+				end = HEADER_SIZE;
+			} else {
+				try (JournalReader reader = new JournalReader(channel)) { // Find the end of the records already there
+					while (reader.next()) {
+						records++; // Count the existing records
+					}
+					end = reader.getEndPosition();
+					this.segmentSize = reader.getSegmentSize();
+				}
+				if (this.segmentSize != segmentSize) {
+					throw new IOException("The journal was created with segments of " + this.segmentSize + " bytes."); // Segments must line up
+				}
+				map(end / segmentSize * segmentSize); // Map the segment holding the end
+			}
+			segment.position((int) (end - segmentStart)); // Continue after the last record
+		} catch (IOException | RuntimeException e) {
+			channel.close(); // Do not leak the file
+			throw e;
+		}
+		if (flushIntervalMillis > 0) {
+			flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "nuber-journal"); // Create the flush thread
+				thread.setDaemon(true); // Never keep the JVM alive
+				return thread;
+			});
+			flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			flusher = null; // The operating system writes pages out in its own time
+		}
+	}
+
+	/**
+	 * Open a journal file with the default segment size and flush interval.
+	 *
+	 * @param fileName The journal file.
+	 * @return The journal.
+	 * @throws IOException If the file cannot be opened, or is not a journal.
+	 */
+	public static BookingJournal open(String fileName) throws IOException {
+		return new BookingJournal(Paths.get(fileName), DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS); // Use the defaults
+	}
+
+	/**
+	 * Append a booking lifecycle event. SUBMITTED events also record the booking's passenger, region,
+	 * service class and deadline, so it can be booked again on recovery.
+	 *
+	 * @param time    The time on the dispatch clock.
+	 * @param type    The event type.
+	 * @param booking The booking.
+	 * @param driver  The driver involved, or null.
+	 * @param value   The numeric detail of the event, such as a delay in milliseconds.
+	 */
+	public void append(long time, EventLog.Type type, Booking booking, Driver driver, long value) {
+		byte[] region = null, passenger = null; // Only SUBMITTED records carry names
+		int size = FIXED_SIZE;
+		if (type == EventLog.Type.SUBMITTED) {
+			region = booking.regionName == null ? new byte[0] : booking.regionName.getBytes(StandardCharsets.UTF_8); // Encode outside the lock
+			passenger = booking.passenger.name == null ? new byte[0] : booking.passenger.name.getBytes(StandardCharsets.UTF_8);
+			size += 1 + 8 + 4 + 8 + 8 + 2 + Math.min(region.length, Short.MAX_VALUE) + 2 + Math.min(passenger.length, Short.MAX_VALUE);
+		}
+		write(size, time, type, booking.id, driver == null ? -1 : driver.id, value, region == null ? null : booking, region, passenger);
+	}
+
+	/**
+	 * Append an event that is not tied to a live booking, such as REBOOKED for a booking recovered from the journal.
+	 */
+	void append(long time, EventLog.Type type, long bookingId, int driverId, long value) {
+		write(FIXED_SIZE, time, type, bookingId, driverId, value, null, null, null); // Just the fixed fields
+	}
+
+	private synchronized void write(int size, long time, EventLog.Type type, long bookingId, int driverId, long value,
+			Booking submitted, byte[] region, byte[] passenger) {
+		if (closed) {
+			return; // Events after close are not recorded
+		}
+		if (segment.remaining() < size + 4) { // Keep room for the end marker
+			nextSegment(); // Move on to a fresh segment
+		}
+		int start = segment.position(); // Where the record starts
+		segment.position(start + 4); // Leave room for the length
+		segment.put((byte) type.ordinal()).putLong(time).putLong(bookingId).putInt(driverId).putLong(value);
+		if (submitted != null) {
+			segment.put((byte) submitted.priority.ordinal()).putLong(submitted.maxWaitMillis).putInt(submitted.passenger.getMaxSleep());
+			segment.putDouble(submitted.passenger.getX()).putDouble(submitted.passenger.getY());
+			putString(region);
+			putString(passenger);
+		}
+		segment.putInt(segment.position(), 0); // Mark the end first, so whatever an earlier run left after the record is never read
+		segment.putInt(start, segment.position() - start); // Write the length last, so a torn record reads as the end
+		records++; // Count the record
+	}
+
+	/**
+	 * Force every record appended so far to disk.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 */
+	public void flush() throws IOException {
+		MappedByteBuffer current; // The segment being written
+		MappedByteBuffer full; // Full segments not yet forced
+		synchronized (this) {
+			current = segment;
+			while ((full = unflushed.poll()) != null) {
+				full.force(); // Rare, so forcing under the lock is fine
+			}
+		}
+		current.force(); // Force outside the lock so appends carry on
+	}
+
+	/**
+	 * Get the number of records in the journal, including those there when it was opened.
+	 *
+	 * @return The number of records.
+	 */
+	public synchronized long getRecords() {
+		return records; // Return the count
+	}
+
+	/**
+	 * Flush the journal, stop the flush thread and close the file. The file is cut back to the end of the last record.
+	 *
+	 * @throws IOException If the file cannot be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (flusher != null) {
+			flusher.shutdown(); // Stop the scheduled flushes
+		}
+		long end; // End of the last record
+		synchronized (this) {
+			if (closed) {
+				return; // Already closed
+			}
+			closed = true; // Refuse later appends
+			end = segmentStart + segment.position();
+		}
+		flush(); // Force everything out
+		try {
+			channel.truncate(end); // Drop the unused end of the last segment
+		} catch (IOException e) {
+			// Some platforms refuse to truncate a mapped file; the zeros after the end are ignored when reading
+		}
+		channel.close(); // Close the file
+	}
+
+	private void putString(byte[] bytes) {
+		int length = Math.min(bytes.length, Short.MAX_VALUE); // Very long names are cut short
+		segment.putShort((short) length).put(bytes, 0, length);
+	}
+
+	/**
+	 * Mark the rest of the current segment as skipped and map the next one. Called with the lock held.
+	 */
+	private void nextSegment() {
+		MappedByteBuffer full = segment; // The segment being left
+		try {
+			map(segmentStart + segmentSize); // Map the next segment, growing the file
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot extend the booking journal", e); // Report the failure to the booking
+		}
+		segment.putInt(0, 0); // End the journal here until the first record is written, in case an earlier run left records
+		full.putInt(full.position(), SKIP); // Readers skip to the next segment
+		unflushed.add(full); // Force it with the next flush
+	}
+
+	private void map(long start) throws IOException {
+		segment = channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize); // Map the segment
+		segmentStart = start; // Remember where it is
+	}
+
+	private void flushQuietly() {
+		try {
+			flush(); // Force the written pages
+		} catch (IOException e) {
+			// The next flush tries again; close() reports a lasting failure
+		}
+	}
+
+	static EventLog.Type type(int ordinal) {
+		return ordinal >= 0 && ordinal < TYPES.length ? TYPES[ordinal] : null; // Decode a type
+	}
+}
@@ -0,0 +1,273 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.atomic.LongAdder; // Import LongAdder for counters that do not contend
+
+/**
+ * The BookingMetrics class counts bookings and records where their time goes, for one region.
+ *
+ * Counters are LongAdders and durations go into LatencyHistograms, so recording never takes a lock,
+ * and snapshot() can be called at any time without pausing the dispatcher.
+ */
+public class BookingMetrics {
+
+	private final LongAdder submitted = new LongAdder(); // Bookings accepted into the region queue
+	private final LongAdder admitted = new LongAdder(); // Bookings that reached a free slot
+	private final LongAdder active = new LongAdder(); // Bookings holding a slot right now
+	private final LongAdder completed = new LongAdder(); // Bookings that finished their trip
+	private final LongAdder failed = new LongAdder(); // Bookings that ended with an error
+	private final LongAdder rejected = new LongAdder(); // Bookings refused, for example after shutdown
+	private final LongAdder expired = new LongAdder(); // Bookings whose deadline passed before they were given a driver
+	private final LongAdder dropped = new LongAdder(); // Queued bookings dropped to make room for newer ones
+	private final LongAdder cancelled = new LongAdder(); // Bookings cancelled by their caller before the passenger was on board
+	private final LongAdder callerRuns = new LongAdder(); // Bookings run on the caller's thread because there was no room
+	private final LongAdder localMatches = new LongAdder(); // Bookings served by a driver from their own region
+	private final LongAdder stolenMatches = new LongAdder(); // Bookings served by a driver taken from another region
+	private final LongAdder limitIncreases = new LongAdder(); // Times the simultaneous job limit was raised
+	private final LongAdder limitDecreases = new LongAdder(); // Times the simultaneous job limit was lowered
+	private final LongAdder sharedRides = new LongAdder(); // Shared rides that set off with a driver
+	private final LongAdder sharedPassengers = new LongAdder(); // Bookings carried on those rides
+	private volatile int concurrencyLimit; // The simultaneous job limit in force
+
+	private final LatencyHistogram queueWait = new LatencyHistogram(); // Submission to admission
+	private final LatencyHistogram driverWait = new LatencyHistogram(); // Admission to driver handover
+	private final LatencyHistogram pickup = new LatencyHistogram(); // Driver handover to passenger on board
+	private final LatencyHistogram drive = new LatencyHistogram(); // Passenger on board to arrival
+	private final LatencyHistogram tripDuration = new LatencyHistogram(); // BookingResult.tripDuration
+
+	/**
+	 * Count bookings accepted into the region queue.
+	 *
+	 * @param count The number of bookings.
+	 */
+	void recordSubmitted(int count) {
+		submitted.add(count); // Count the bookings
+	}
+
+	/**
+	 * Count refused bookings.
+	 *
+	 * @param count The number of bookings.
+	 */
+	void recordRejected(int count) {
+		rejected.add(count); // Count the bookings
+	}
+
+	/**
+	 * Count a booking that reached a free slot.
+	 */
+	void recordAdmitted() {
+		admitted.increment(); // Count the admission
+		active.increment(); // The booking now holds a slot
+	}
+
+	/**
+	 * Count a booking being handed a driver.
+	 *
+	 * @param local true if the driver's home is the booking's region.
+	 */
+	void recordMatched(boolean local) {
+		(local ? localMatches : stolenMatches).increment(); // Count the match
+	}
+
+	/**
+	 * Record a finished booking and the time spent in each of its phases.
+	 *
+	 * @param booking The finished booking.
+	 * @param result  Its result.
+	 */
+	void recordCompleted(Booking booking, BookingResult result) {
+		active.decrement(); // The slot has been released
+		completed.increment(); // Count the completion
+		queueWait.record(booking.admittedNanos - booking.submittedNanos); // Time spent in the region queue
+		driverWait.record(booking.matchedNanos - booking.admittedNanos); // Time spent waiting for a driver
+		pickup.record(booking.pickedUpNanos - booking.matchedNanos); // Time spent picking up the passenger
+		drive.record(booking.arrivedNanos - booking.pickedUpNanos); // Time spent driving
+		tripDuration.record(result.tripDuration * 1_000_000L); // The reported trip duration, converted to nanoseconds
+	}
+
+	/**
+	 * Count a booking that ended with an error.
+	 */
+	void recordFailed() {
+		active.decrement(); // The slot has been released
+		failed.increment(); // Count the failure
+	}
+
+	/**
+	 * Count a booking whose deadline passed before it was given a driver.
+	 *
+	 * @param admitted true if the booking held a slot when it expired, false if it expired in the queue.
+	 */
+	void recordExpired(boolean admitted) {
+		if (admitted) {
+			active.decrement(); // The slot has been released
+		}
+		expired.increment(); // Count the expiry
+	}
+
+	/**
+	 * Count a booking cancelled by its caller before its passenger was on board.
+	 *
+	 * @param admitted true if the booking held a slot when it was cancelled, false if it was taken out of the queue.
+	 */
+	void recordCancelled(boolean admitted) {
+		if (admitted) {
+			active.decrement(); // The slot has been released
+		}
+		cancelled.increment(); // Count the cancellation
+	}
+
+	/**
+	 * Count a queued booking dropped to make room for a newer one.
+	 */
+	void recordDropped() {
+		dropped.increment(); // Count the drop
+	}
+
+	/**
+	 * Count a booking run on the caller's thread because there was no room to queue it.
+	 */
+	void recordCallerRuns() {
+		callerRuns.increment(); // Count the booking
+	}
+
+	/**
+	 * Count a shared ride setting off with its driver.
+	 *
+	 * @param passengers The number of bookings on the ride.
+	 */
+	void recordSharedRide(int passengers) {
+		sharedRides.increment(); // Count the ride
+		sharedPassengers.add(passengers); // And its passengers
+	}
+
+	/**
+	 * Record a change of the region's simultaneous job limit.
+	 *
+	 * @param oldLimit The limit before, or 0 when the limit is first set.
+	 * @param newLimit The limit after.
+	 */
+	void recordLimit(int oldLimit, int newLimit) {
+		concurrencyLimit = newLimit; // Update the gauge
+		if (oldLimit > 0 && newLimit > oldLimit) {
+			limitIncreases.increment(); // Count the increase
+		} else if (oldLimit > 0 && newLimit < oldLimit) {
+			limitDecreases.increment(); // Count the decrease
+		}
+	}
+
+	/**
+	 * Take a snapshot of the counters and histograms while the region keeps running.
+	 *
+	 * @return The snapshot.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(submitted.sum(), admitted.sum(), active.sum(), completed.sum(), failed.sum(), rejected.sum(),
+				expired.sum(), dropped.sum(), cancelled.sum(), callerRuns.sum(), localMatches.sum(), stolenMatches.sum(),
+				concurrencyLimit, limitIncreases.sum(), limitDecreases.sum(), sharedRides.sum(), sharedPassengers.sum(), queueWait.snapshot(), driverWait.snapshot(), pickup.snapshot(), drive.snapshot(), tripDuration.snapshot());
+	}
+
+	/**
+	 * A point-in-time copy of booking metrics. Snapshots of several regions can be merged.
+	 */
+	public static class Snapshot {
+
+		public final long submitted; // Bookings accepted into region queues
+		public final long admitted; // Bookings that reached a free slot
+		public final long active; // Bookings holding a slot
+		public final long completed; // Bookings that finished their trip
+		public final long failed; // Bookings that ended with an error
+		public final long rejected; // Bookings refused
+		public final long expired; // Bookings whose deadline passed before they were given a driver
+		public final long dropped; // Queued bookings dropped to make room for newer ones
+		public final long cancelled; // Bookings cancelled by their caller before the passenger was on board
+		public final long callerRuns; // Bookings run on the caller's thread because there was no room
+		public final long localMatches; // Bookings served by a driver from their own region
+		public final long stolenMatches; // Bookings served by a driver taken from another region
+		public final long concurrencyLimit; // Simultaneous job limit in force, summed over merged regions
+		public final long limitIncreases; // Times the simultaneous job limit was raised
+		public final long limitDecreases; // Times the simultaneous job limit was lowered
+		public final long sharedRides; // Shared rides that set off with a driver
+		public final long sharedPassengers; // Bookings carried on shared rides
+		public final LatencyHistogram.Snapshot queueWait; // Submission to admission
+		public final LatencyHistogram.Snapshot driverWait; // Admission to driver handover
+		public final LatencyHistogram.Snapshot pickup; // Driver handover to passenger on board
+		public final LatencyHistogram.Snapshot drive; // Passenger on board to arrival
+		public final LatencyHistogram.Snapshot tripDuration; // BookingResult.tripDuration
+
+		Snapshot(long submitted, long admitted, long active, long completed, long failed, long rejected, long expired,
+				long dropped, long cancelled, long callerRuns, long localMatches, long stolenMatches, long concurrencyLimit, long limitIncreases,
+				long limitDecreases, long sharedRides, long sharedPassengers, LatencyHistogram.Snapshot queueWait, LatencyHistogram.Snapshot driverWait, LatencyHistogram.Snapshot pickup,
+				LatencyHistogram.Snapshot drive, LatencyHistogram.Snapshot tripDuration) {
+			this.submitted = submitted; // Store the counters
+			this.admitted = admitted;
+			this.active = active;
+			this.completed = completed;
+			this.failed = failed;
+			this.rejected = rejected;
+			this.expired = expired;
+			this.dropped = dropped;
+			this.cancelled = cancelled;
+			this.callerRuns = callerRuns;
+			this.localMatches = localMatches;
+			this.stolenMatches = stolenMatches;
+			this.concurrencyLimit = concurrencyLimit;
+			this.limitIncreases = limitIncreases;
+			this.limitDecreases = limitDecreases;
+			this.sharedRides = sharedRides;
+			this.sharedPassengers = sharedPassengers;
+			this.queueWait = queueWait; // Store the histograms
+			this.driverWait = driverWait;
+			this.pickup = pickup;
+			this.drive = drive;
+			this.tripDuration = tripDuration;
+		}
+
+		/**
+		 * Create an empty snapshot, to merge others into.
+		 *
+		 * @return An empty snapshot.
+		 */
+		public static Snapshot empty() {
+			LatencyHistogram.Snapshot none = LatencyHistogram.Snapshot.empty(); // Histograms are immutable, so one empty copy is enough
+			return new Snapshot(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, none, none, none, none, none);
+		}
+
+		/**
+		 * Combine this snapshot with another.
+		 *
+		 * @param other The snapshot to add.
+		 * @return A new snapshot holding both.
+		 */
+		public Snapshot merge(Snapshot other) {
+			return new Snapshot(submitted + other.submitted, admitted + other.admitted, active + other.active,
+					completed + other.completed, failed + other.failed, rejected + other.rejected,
+					expired + other.expired, dropped + other.dropped, cancelled + other.cancelled, callerRuns + other.callerRuns,
+					localMatches + other.localMatches, stolenMatches + other.stolenMatches, concurrencyLimit + other.concurrencyLimit,
+					limitIncreases + other.limitIncreases, limitDecreases + other.limitDecreases,
+					sharedRides + other.sharedRides, sharedPassengers + other.sharedPassengers,
+					queueWait.merge(other.queueWait), driverWait.merge(other.driverWait), pickup.merge(other.pickup),
+					drive.merge(other.drive), tripDuration.merge(other.tripDuration));
+		}
+
+		/**
+		 * Describe the snapshot, one line for the counters and one per histogram.
+		 *
+		 * @return The description.
+		 */
+		@Override
+		public String toString() {
+			return "submitted=" + submitted + " admitted=" + admitted + " active=" + active + " completed=" + completed
+					+ " failed=" + failed + " rejected=" + rejected + " expired=" + expired
+					+ " dropped=" + dropped + " cancelled=" + cancelled + " callerRuns=" + callerRuns
+					+ " localMatches=" + localMatches + " stolenMatches=" + stolenMatches
+					+ " limit=" + concurrencyLimit + " limitIncreases=" + limitIncreases + " limitDecreases=" + limitDecreases
+					+ " sharedRides=" + sharedRides + " sharedPassengers=" + sharedPassengers
+					+ "\n  queue wait:  " + queueWait
+					+ "\n  driver wait: " + driverWait
+					+ "\n  pickup:      " + pickup
+					+ "\n  drive:       " + drive
+					+ "\n  trip:        " + tripDuration;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.TimeUnit; // Import TimeUnit to convert the target waits
+
+/**
+ * The BookingPriority enum is the service class of a booking.
+ *
+ * A region admits waiting bookings earliest deadline first. A booking without a deadline of its own is given one
+ * from its class: the time it was submitted plus the class's target wait. Premium bookings therefore go ahead of
+ * standard ones, but only by the difference in target wait, so a booking that has waited long enough always
+ * reaches the front and no class can be starved.
+ */
+public enum BookingPriority {
+
+	PREMIUM(0), // Admitted ahead of anything submitted at the same time
+	STANDARD(2_000), // The default class
+	ECONOMY(10_000); // Gives way to the other classes for up to ten seconds
+
+	private final long targetWaitNanos; // How long a booking of the class may wait before it is due
+
+	BookingPriority(long targetWaitMillis) {
+		this.targetWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetWaitMillis); // Store the target wait in nanoseconds
+	}
+
+	/**
+	 * Get the time by which a booking of this class submitted at the given time is due to be admitted.
+	 *
+	 * @param submittedNanos When the booking was submitted, from the dispatch clock's nanoTime().
+	 * @return When the booking is due, on the same time base.
+	 */
+	public long dueNanos(long submittedNanos) {
+		return submittedNanos + targetWaitNanos; // The submission time plus the target wait
+	}
+}
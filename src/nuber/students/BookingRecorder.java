@@ -0,0 +1,72 @@
+package nuber.students; // Define the package for this class
+
+/**
+ * The BookingRecorder interface is told about each phase of a booking as it ends, so the phases can be profiled
+ * on a live system: waiting in the region queue, waiting for a driver, pickup and drive.
+ *
+ * The dispatch uses INSTANCE, which records Java Flight Recorder events when the JFR build (mvn -P jfr) is on the
+ * class path and the JVM has the jdk.jfr module, and does nothing otherwise. Every method does nothing by default,
+ * so the calls cost nothing once inlined when there is no recorder, and an unchecked branch when recording is off.
+ */
+interface BookingRecorder {
+
+	/**
+	 * The recorder every dispatch reports to.
+	 */
+	BookingRecorder INSTANCE = load();
+
+	/**
+	 * A booking was accepted into its region's queue, or run on the caller's thread.
+	 */
+	default void submitted(Booking booking) {
+	}
+
+	/**
+	 * A booking reached a free slot in its region, after waiting in the queue since it was submitted.
+	 */
+	default void admitted(Booking booking) {
+	}
+
+	/**
+	 * A booking was handed its driver, after waiting since it was admitted.
+	 */
+	default void driverAcquired(Booking booking, Driver driver) {
+	}
+
+	/**
+	 * A passenger is on board, after the driver's trip to the pickup.
+	 */
+	default void pickedUp(Booking booking, Driver driver) {
+	}
+
+	/**
+	 * A passenger reached the destination and the booking completed.
+	 */
+	default void completed(Booking booking, Driver driver) {
+	}
+
+	/**
+	 * Bookings ended without a trip: refused, dropped, expired or failed.
+	 *
+	 * @param region  The region name.
+	 * @param booking The booking, or null if the bookings were refused before one was made.
+	 * @param driver  The driver, or null if none had been handed over.
+	 * @param reason  The event type that ended them.
+	 * @param count   The number of bookings.
+	 */
+	default void rejected(String region, Booking booking, Driver driver, EventLog.Type reason, int count) {
+	}
+
+	/**
+	 * Load the Flight Recorder implementation if it was built and the JVM supports it, otherwise use one that
+	 * does nothing.
+	 */
+	static BookingRecorder load() {
+		try {
+			// Looked up reflectively so the project still compiles for language levels without jdk.jfr
+			return (BookingRecorder) Class.forName("nuber.students.JfrBookingRecorder").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new BookingRecorder() { }; // Record nothing
+		}
+	}
+}
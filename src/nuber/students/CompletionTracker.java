@@ -0,0 +1,116 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.Semaphore; // Import Semaphore so the waiting thread wakes as bookings finish
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the progress interval
+import java.util.concurrent.atomic.LongAdder; // Import LongAdder for counters updated by many booking threads
+import java.util.function.BiConsumer; // Import BiConsumer, the shape of a completion callback
+import java.util.function.Consumer; // Import Consumer for progress reports
+
+/**
+ * The CompletionTracker class counts bookings as they finish and records their trip times.
+ *
+ * It is given every result as its booking completes, so nothing polls the bookings, and a thread waiting in
+ * awaitCompletion() wakes the moment the last one finishes.
+ */
+public class CompletionTracker implements BiConsumer<BookingResult, Throwable> {
+
+	private final LongAdder completed = new LongAdder(); // Bookings that finished their trip
+	private final LongAdder failed = new LongAdder(); // Bookings that ended with an error
+	private final LatencyHistogram tripDuration = new LatencyHistogram(); // Trip durations, in milliseconds so simulated runs of days still fit
+	private final Semaphore finished = new Semaphore(0); // One permit per finished booking
+	private final long startNanos = System.nanoTime(); // When tracking started, for throughput
+
+	/**
+	 * Record a finished booking.
+	 *
+	 * @param result The booking result, or null if the booking failed.
+	 * @param error  The error, or null if the booking completed.
+	 */
+	@Override
+	public void accept(BookingResult result, Throwable error) {
+		if (error == null) {
+			completed.increment(); // Count the completion
+			tripDuration.record(result.tripDuration); // Record the trip time
+		} else {
+			failed.increment(); // Count the failure
+		}
+		finished.release(); // Wake the waiting thread
+	}
+
+	/**
+	 * Wait until the given number of bookings have finished, reporting progress at a fixed interval.
+	 *
+	 * @param expected         The number of bookings to wait for.
+	 * @param progressInterval How often to report progress, in milliseconds.
+	 * @param progress         Called with the tracker at each interval, or null for no progress reports.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public void awaitCompletion(int expected, long progressInterval, Consumer<CompletionTracker> progress) throws InterruptedException {
+		long interval = TimeUnit.MILLISECONDS.toNanos(progressInterval); // Progress interval in nanoseconds
+		long nextReport = System.nanoTime() + interval; // When to report progress next
+		int remaining = expected; // Bookings still to finish
+		while (remaining > 0) {
+			long wait = nextReport - System.nanoTime(); // Time left until the next report
+			if (wait <= 0) {
+				if (progress != null) {
+					progress.accept(this); // Report progress
+				}
+				nextReport += interval; // Schedule the next report
+			} else if (finished.tryAcquire(wait, TimeUnit.NANOSECONDS)) { // Wake as soon as a booking finishes
+				remaining -= 1 + finished.drainPermits(); // Take every booking that has finished meanwhile too
+			}
+		}
+	}
+
+	/**
+	 * Get the number of bookings that finished their trip.
+	 *
+	 * @return The completed count.
+	 */
+	public long getCompleted() {
+		return completed.sum(); // Return the count
+	}
+
+	/**
+	 * Get the number of bookings that ended with an error.
+	 *
+	 * @return The failed count.
+	 */
+	public long getFailed() {
+		return failed.sum(); // Return the count
+	}
+
+	/**
+	 * Get the trip durations recorded so far.
+	 *
+	 * @return A snapshot of the trip durations, in milliseconds.
+	 */
+	public LatencyHistogram.Snapshot getTripDurations() {
+		return tripDuration.snapshot(); // Read the histogram
+	}
+
+	/**
+	 * Describe the completed bookings: count, throughput and trip time percentiles.
+	 *
+	 * @param elapsedMillis The length of the run, in milliseconds of the clock the trips were timed on.
+	 * @return The summary.
+	 */
+	public String summary(long elapsedMillis) {
+		long done = getCompleted(); // Completed bookings
+		double throughput = elapsedMillis <= 0 ? 0 : done * 1000.0 / elapsedMillis; // Bookings per second
+		LatencyHistogram.Snapshot trips = getTripDurations(); // Trip times
+		return String.format("Completed bookings: %d, failed: %d, throughput: %.1f bookings/s%n"
+				+ "Trip duration: mean=%dms p50=%dms p90=%dms p99=%dms max=%dms",
+				done, getFailed(), throughput, trips.getMean(), trips.getPercentile(50), trips.getPercentile(90),
+				trips.getPercentile(99), trips.getMax());
+	}
+
+	/**
+	 * Get the time since tracking started.
+	 *
+	 * @return The elapsed time in milliseconds.
+	 */
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos); // Convert from nanoseconds
+	}
+}
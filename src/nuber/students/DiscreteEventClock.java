@@ -0,0 +1,145 @@
+package nuber.students; // Define the package for this class
+
+import java.util.PriorityQueue; // Import PriorityQueue to order pending events by time
+import java.util.concurrent.TimeUnit; // Import TimeUnit to convert virtual time to nanoseconds
+
+/**
+ * The DiscreteEventClock class runs a simulation in virtual time.
+ * Work is scheduled as events, and the clock jumps straight to the time of the next event instead of waiting for it,
+ * so idle time in a simulation costs nothing.
+ *
+ * A NuberDispatch given this clock fires its pickup, travel, deadline and batching timeouts as events on it instead
+ * of on its timer thread, so the real dispatch, with its regions, driver pools and scheduling, runs in virtual time.
+ *
+ * The clock is single-threaded: schedule(), run() and sleep() must all be called from the simulation thread.
+ */
+public class DiscreteEventClock implements NuberClock {
+
+	private final PriorityQueue<Event> events = new PriorityQueue<>(); // Pending events, earliest first
+	private long now = 0; // The current virtual time in milliseconds
+	private long nextSequence = 0; // Breaks ties so events at the same time run in the order they were scheduled
+	private long eventsProcessed = 0; // Number of events run so far
+	private int cancelledEvents = 0; // Cancelled events still in the queue, skipped when they are reached
+
+	/**
+	 * Get the current virtual time.
+	 *
+	 * @return The virtual time in milliseconds.
+	 */
+	@Override
+	public long currentTimeMillis() {
+		return now; // Return the virtual time
+	}
+
+	/**
+	 * Get the virtual time for measuring intervals. As with System.nanoTime(), only differences mean anything, so the
+	 * origin is moved by a nanosecond: the dispatch reads a timestamp of 0 as one that has not been taken yet.
+	 *
+	 * @return The virtual time in nanoseconds, plus one.
+	 */
+	@Override
+	public long nanoTime() {
+		return TimeUnit.MILLISECONDS.toNanos(now) + 1; // Never 0, even at the start of the simulation
+	}
+
+	/**
+	 * Move the clock forward for a caller that wants to wait.
+	 * There are no other threads to wait for in virtual time, so this simply advances the clock.
+	 *
+	 * @param millis The time to pass in milliseconds.
+	 */
+	@Override
+	public void sleep(long millis) {
+		if (millis > 0) { // Ignore zero and negative delays
+			now += millis; // Jump forward in virtual time
+		}
+	}
+
+	/**
+	 * Schedule an action to run after a delay in virtual time.
+	 *
+	 * @param delayMillis The delay in milliseconds from the current virtual time.
+	 * @param action      The action to run.
+	 * @return A handle that cancels the event, such as a deadline that is no longer needed.
+	 */
+	public NuberClock.Timeout schedule(long delayMillis, Runnable action) {
+		Event event = new Event(now + Math.max(0, delayMillis), nextSequence++, action); // Create the event
+		events.add(event); // Queue the event
+		return event; // Return the handle
+	}
+
+	/**
+	 * Run events in time order until none are left, advancing the clock to each event's time.
+	 * Cancelled events are dropped without moving the clock.
+	 *
+	 * @return The number of events processed by this call.
+	 */
+	public long run() {
+		long processed = 0; // Count events run by this call
+		Event event;
+		while ((event = events.poll()) != null) { // Take the earliest event
+			if (event.cancelled) {
+				cancelledEvents--; // It has left the queue
+				continue; // Never run, and never moves the clock
+			}
+			event.ran = true; // Too late to cancel
+			now = Math.max(now, event.time); // Jump to the event's time
+			event.action.run(); // Run the event, which may schedule more events
+			processed++; // Count the event
+		}
+		eventsProcessed += processed; // Add to the running total
+		return processed; // Return the number of events run
+	}
+
+	/**
+	 * Get the number of events that are waiting to run.
+	 *
+	 * @return The number of pending events, not counting cancelled ones.
+	 */
+	public int getPendingEvents() {
+		return events.size() - cancelledEvents; // Return the size of the event queue
+	}
+
+	/**
+	 * Get the total number of events run by this clock.
+	 *
+	 * @return The number of events processed.
+	 */
+	public long getEventsProcessed() {
+		return eventsProcessed; // Return the running total
+	}
+
+	/**
+	 * An action scheduled at a point in virtual time.
+	 */
+	private class Event implements Comparable<Event>, NuberClock.Timeout {
+
+		final long time; // When the event should run
+		final long sequence; // Order the event was scheduled in
+		final Runnable action; // What to run
+		boolean cancelled; // Set by cancel(), so run() skips the event
+		boolean ran; // Set once the event has run
+
+		Event(long time, long sequence, Runnable action) {
+			this.time = time; // Store the event time
+			this.sequence = sequence; // Store the sequence number
+			this.action = action; // Store the action
+		}
+
+		@Override
+		public boolean cancel() {
+			if (cancelled || ran) {
+				return false; // Too late, or cancelled already
+			}
+			cancelled = true; // Left in the queue and skipped, so cancelling takes constant time
+			cancelledEvents++; // Not pending any more
+			return true;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			int byTime = Long.compare(time, other.time); // Earlier events first
+			return byTime != 0 ? byTime : Long.compare(sequence, other.sequence); // Then first scheduled first
+		}
+	}
+}
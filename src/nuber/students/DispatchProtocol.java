@@ -0,0 +1,240 @@
+package nuber.students; // Define the package for this class
+
+import java.io.IOException; // Import IOException for socket and framing errors
+import java.nio.ByteBuffer; // Import ByteBuffer for the read and write buffers
+import java.nio.channels.SocketChannel; // Import SocketChannel for the connection
+import java.nio.charset.StandardCharsets; // Import StandardCharsets to encode names
+
+/**
+ * The DispatchProtocol class defines the binary protocol between a RemoteDispatch and the RegionNodes that host its
+ * regions in other processes, and the buffered connection both ends use over a non-blocking SocketChannel.
+ *
+ * Every frame is an int length, counting the bytes after it, then a type byte and a payload. A node starts by sending
+ * HELLO: magic, version and the names of its regions. From then on the coordinator sends BOOK frames and the node
+ * answers with RESULT frames. Both are batches, an int count followed by that many entries, so any number of bookings
+ * and results can be in flight on one connection and many of them share a frame and a system call.
+ *
+ * A BOOK entry is the request ID, the region's index in the node's HELLO, the service class, the deadline and the
+ * passenger: name, maximum sleep, fixed travel time and location. A RESULT entry is the request ID and a status; OK
+ * is followed by the driver's ID and name and the trip duration, any other status by an error message.
+ */
+final class DispatchProtocol {
+
+	static final int MAGIC = 0x4E55424E; // "NUBN"
+	static final int VERSION = 1; // Protocol version
+
+	static final byte HELLO = 1; // Node to coordinator: the regions the node hosts
+	static final byte BOOK = 2; // Coordinator to node: a batch of bookings
+	static final byte RESULT = 3; // Node to coordinator: a batch of finished bookings
+
+	static final byte OK = 0; // The booking completed
+	static final byte TIMED_OUT = 1; // The booking's deadline passed before it was given a driver
+	static final byte REJECTED = 2; // The node refused the booking or dropped it from a full queue
+	static final byte FAILED = 3; // The booking failed for any other reason
+
+	static final int MAX_BATCH = 1024; // Entries per frame, so one frame never holds up the others for long
+	static final int MAX_FRAME = 16 << 20; // Largest frame accepted, to catch a corrupt stream
+	private static final int BUFFER_SIZE = 64 << 10; // Starting size of each buffer
+
+	private static final BookingPriority[] PRIORITIES = BookingPriority.values(); // Service classes by ordinal
+
+	private DispatchProtocol() {
+	}
+
+	/**
+	 * Receives the frames read from a connection.
+	 */
+	interface FrameHandler {
+
+		/**
+		 * Handle one frame. The payload is only valid until the handler returns.
+		 *
+		 * @param type    The frame type.
+		 * @param payload The bytes after the type.
+		 * @throws IOException If the frame is malformed.
+		 */
+		void onFrame(byte type, ByteBuffer payload) throws IOException;
+	}
+
+	/**
+	 * A socket with a read buffer that is cut into frames and a write buffer that frames are built in.
+	 * Only one thread, the owner's I/O thread, uses a connection once it is set up.
+	 */
+	static final class Connection {
+
+		final SocketChannel channel; // The socket
+		private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE); // Bytes read and not yet handled, in write mode
+		private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE); // Frames built and not yet written, in write mode
+		private int frameStart; // Where the frame being built starts
+		private int countPosition; // Where the entry count of the batch being built is
+
+		Connection(SocketChannel channel) {
+			this.channel = channel; // Store the socket
+		}
+
+		/**
+		 * Read what the socket has and hand every complete frame to the handler.
+		 *
+		 * @param handler Receives the frames.
+		 * @return false if the other end closed the connection.
+		 * @throws IOException If the socket fails or a frame is malformed.
+		 */
+		boolean read(FrameHandler handler) throws IOException {
+			if (!in.hasRemaining()) {
+				in = grow(in, Math.min(in.capacity() * 2, MAX_FRAME + 4)); // A frame larger than the buffer is arriving
+			}
+			if (channel.read(in) < 0) {
+				return false; // End of stream
+			}
+			in.flip(); // Read the bytes received
+			try {
+				while (in.remaining() >= 4) {
+					int length = in.getInt(in.position()); // Length of the next frame
+					if (length < 1 || length > MAX_FRAME) {
+						throw new IOException("Bad frame length " + length); // The stream is out of step
+					}
+					if (in.remaining() < 4 + length) {
+						break; // Wait for the rest of the frame
+					}
+					int end = in.position() + 4 + length; // Where the next frame starts
+					in.position(in.position() + 4); // Skip the length
+					byte type = in.get(); // Read the type
+					ByteBuffer payload = in.slice(); // View the payload without copying it
+					payload.limit(length - 1);
+					handler.onFrame(type, payload); // Handle the frame
+					in.position(end); // Move past it, whatever the handler read
+				}
+			} finally {
+				in.compact(); // Keep the start of an incomplete frame
+			}
+			return true; // The connection is still open
+		}
+
+		/**
+		 * Start building a frame: a place for its length, then its type.
+		 *
+		 * @param type The frame type.
+		 */
+		void beginFrame(byte type) {
+			ensure(5); // Length and type
+			frameStart = out.position(); // Remember where the frame starts
+			out.putInt(0).put(type); // The length is filled in by endFrame()
+		}
+
+		/**
+		 * Finish the frame being built by filling in its length.
+		 */
+		void endFrame() {
+			out.putInt(frameStart, out.position() - frameStart - 4); // Count the bytes after the length
+		}
+
+		/**
+		 * Start building a batch frame: its length, type and a place for the entry count.
+		 *
+		 * @param type The frame type.
+		 */
+		void beginBatch(byte type) {
+			beginFrame(type); // Length and type
+			countPosition = ensure(4).position();
+			out.putInt(0); // The count is filled in by endBatch()
+		}
+
+		/**
+		 * Finish the batch frame being built.
+		 *
+		 * @param count The number of entries written.
+		 */
+		void endBatch(int count) {
+			out.putInt(countPosition, count); // Fill in the count
+			endFrame(); // And the length
+		}
+
+		/**
+		 * Get the write buffer with room for at least the given number of bytes.
+		 *
+		 * @param bytes The bytes about to be written.
+		 * @return The write buffer.
+		 */
+		ByteBuffer ensure(int bytes) {
+			if (out.remaining() < bytes) {
+				out = grow(out, Math.max(out.capacity() * 2, out.position() + bytes)); // Frames keep their positions
+			}
+			return out; // Return the buffer
+		}
+
+		/**
+		 * Write as much of the built frames as the socket takes without blocking.
+		 *
+		 * @return true if everything was written.
+		 * @throws IOException If the socket fails.
+		 */
+		boolean flush() throws IOException {
+			out.flip(); // Read the built frames
+			try {
+				channel.write(out); // Write what the socket takes
+			} finally {
+				out.compact(); // Keep the rest for the next flush
+			}
+			return out.position() == 0; // Nothing left to write
+		}
+
+		private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+			ByteBuffer bigger = ByteBuffer.allocate(capacity); // Room for the larger frame
+			buffer.flip(); // Copy what the buffer holds
+			bigger.put(buffer);
+			return bigger; // Use the bigger buffer from now on
+		}
+	}
+
+	/**
+	 * Append a string to a connection's write buffer as a short length and UTF-8 bytes.
+	 */
+	static void putString(Connection connection, String value) {
+		byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8); // Encode the string
+		int length = Math.min(bytes.length, Short.MAX_VALUE); // Very long names are cut short
+		connection.ensure(2 + length).putShort((short) length).put(bytes, 0, length);
+	}
+
+	/**
+	 * Read a string written by putString().
+	 */
+	static String getString(ByteBuffer buffer) {
+		int length = buffer.getShort(); // Length in bytes
+		String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8); // Decode in place
+		buffer.position(buffer.position() + length); // Move past it
+		return value; // Return the string
+	}
+
+	/**
+	 * Append a BOOK entry to the batch being built.
+	 */
+	static void putBooking(Connection connection, long requestId, int region, BookingPriority priority, long maxWaitMillis, Passenger passenger) {
+		connection.ensure(8 + 2 + 1 + 8).putLong(requestId).putShort((short) region).put((byte) priority.ordinal()).putLong(maxWaitMillis);
+		putString(connection, passenger.name); // The passenger's name
+		connection.ensure(4 + 4 + 8 + 8).putInt(passenger.getMaxSleep()).putInt(passenger.getFixedTravelTime())
+				.putDouble(passenger.getX()).putDouble(passenger.getY());
+	}
+
+	/**
+	 * Read the passenger at the end of a BOOK entry.
+	 */
+	static Passenger getPassenger(ByteBuffer buffer) {
+		String name = getString(buffer); // The passenger's name
+		int maxSleep = buffer.getInt();
+		int travelTime = buffer.getInt();
+		double x = buffer.getDouble();
+		double y = buffer.getDouble();
+		Passenger passenger = new Passenger(name, maxSleep, travelTime); // Rebuild the passenger
+		if (!Double.isNaN(x) && !Double.isNaN(y)) {
+			passenger.setLocation(x, y); // Where the passenger is waiting
+		}
+		return passenger; // Return the passenger
+	}
+
+	/**
+	 * Decode a service class.
+	 */
+	static BookingPriority priority(int ordinal) {
+		return ordinal >= 0 && ordinal < PRIORITIES.length ? PRIORITIES[ordinal] : BookingPriority.STANDARD; // Unknown classes are standard
+	}
+}
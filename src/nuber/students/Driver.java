@@ -6,6 +6,11 @@ public class Driver extends Person { // Define the Driver class, which inherits
 
 	private Passenger currentPassenger; // Declare a Passenger variable currentPassenger to store the current passenger
 	private Booking booking; // Declare a Booking variable booking to store the booking information related to the driver
+	private NuberClock clock = NuberClock.SYSTEM; // The clock used to pass time while picking up and driving
+	NuberRegion homeRegion; // The region whose pool the driver waits in when idle, set when the driver is added to dispatch
+	private double speed = 1.0; // Distance covered per millisecond on the way to a pickup
+	int id = -1; // The driver's ID in the dispatch fleet registry, or -1 if it has not been added to a dispatch
+	volatile boolean retired; // Set when the driver is removed from dispatch, so it is not made idle again
 
 	/**
 	 * Constructor for the Driver class.
@@ -18,17 +23,45 @@ public class Driver extends Person { // Define the Driver class, which inherits
 	}
 
 	/**
-	 * Stores the provided passenger as the driver's current passenger, then sleeps the thread for a time between 0 and maxDelay milliseconds.
+	 * Constructor for a Driver at a location. Its pickup delays come from the distance to each passenger.
+	 *
+	 * @param driverName The name of the driver.
+	 * @param maxSleep   The maximum sleep time used for passengers without a location (in milliseconds).
+	 * @param x          The x coordinate of the driver's location.
+	 * @param y          The y coordinate of the driver's location.
+	 */
+	public Driver(String driverName, int maxSleep, double x, double y) {
+		super(driverName, maxSleep, x, y); // Call the superclass (Person) constructor to initialize name, maximum sleep time and location
+	}
+
+	/**
+	 * Stores the provided passenger as the driver's current passenger, then sleeps the thread for the pickup delay:
+	 * the time to cover the distance to the passenger if both have a location, otherwise a time between 0 and maxDelay milliseconds.
 	 *
 	 * @param newPassenger The passenger to be picked up
 	 * @throws InterruptedException If the thread is interrupted during sleep.
 	 */
 	public void pickUpPassenger(Passenger newPassenger) throws InterruptedException {
+		int delay = beginPickup(newPassenger); // Store the passenger and choose the pickup delay
+		logEvent(EventLog.Type.PICKING_UP, delay); // Log the pickup event
+		clock.sleep(delay); // Let the delay pass on the driver's clock
+	}
+
+	/**
+	 * Stores the provided passenger as the driver's current passenger and chooses the pickup delay, without waiting.
+	 * A driver with a location moves to the passenger's location.
+	 *
+	 * @param newPassenger The passenger to be picked up
+	 * @return The pickup delay in milliseconds: the distance divided by the speed, or between 0 and maxSleep if either has no location.
+	 */
+	int beginPickup(Passenger newPassenger) {
 		this.currentPassenger = newPassenger; // Set the new passenger as the current passenger
-		// Simulate delay (between 0 and maxSleep milliseconds)
-		int delay = ThreadLocalRandom.current().nextInt(0, maxSleep + 1); // Generate a random delay time
-		logEvent("Picking up passenger: " + newPassenger.name + " with delay: " + delay + " ms"); // Log the pickup event
-		Thread.sleep(delay); // Sleep the thread for the specified delay time
+		if (hasLocation() && newPassenger.hasLocation()) {
+			long delay = Math.round(distanceTo(newPassenger) / speed); // Time to reach the passenger
+			setLocation(newPassenger.getX(), newPassenger.getY()); // The driver ends up where the passenger is
+			return (int) Math.min(Integer.MAX_VALUE, delay); // Return the delay
+		}
+		return ThreadLocalRandom.current().nextInt(0, maxSleep + 1); // Generate a random delay time
 	}
 
 	/**
@@ -37,24 +70,91 @@ public class Driver extends Person { // Define the Driver class, which inherits
 	 * @throws InterruptedException If the thread is interrupted during sleep.
 	 */
 	public void driveToDestination() throws InterruptedException {
+		int travelTime = beginDrive(); // Get the travel time of the current passenger
+		logEvent(EventLog.Type.DRIVING, travelTime); // Log the driving event
+		clock.sleep(travelTime); // Let the travel time pass on the driver's clock
+	}
+
+	/**
+	 * Chooses the travel time to the current passenger's destination, without waiting.
+	 *
+	 * @return The travel time in milliseconds.
+	 * @throws IllegalStateException If the driver has no passenger.
+	 */
+	int beginDrive() {
 		if (currentPassenger == null) { // Check if there is a current passenger
 			throw new IllegalStateException("No passenger to drive to destination."); // Throw an exception if no passenger is present
 		}
-		int travelTime = currentPassenger.getTravelTime(); // Get the travel time of the current passenger
-		logEvent("Driving to destination: " + currentPassenger.name + " with travel time: " + travelTime + " ms"); // Log the driving event
-		Thread.sleep(travelTime); // Sleep the thread for the specified travel time
+		return currentPassenger.getTravelTime(); // Get the travel time of the current passenger
+	}
+
+	/**
+	 * Set the booking the driver is working on, so its events are logged through that booking's dispatch.
+	 *
+	 * @param booking The current booking.
+	 */
+	void setBooking(Booking booking) {
+		this.booking = booking; // Store the booking
+	}
+
+	/**
+	 * Get the driver's ID, which stays the same for as long as the driver belongs to its dispatch.
+	 *
+	 * @return The ID, or -1 if the driver has not been added to a dispatch.
+	 */
+	public int getId() {
+		return id; // Return the ID
+	}
+
+	/**
+	 * Get the name of the driver's home region.
+	 *
+	 * @return The home region name, or null if the driver has not been added to a dispatch.
+	 */
+	public String getHomeRegion() {
+		return homeRegion == null ? null : homeRegion.getRegionName(); // Return the region name
+	}
+
+	/**
+	 * Set how fast the driver travels to a pickup.
+	 *
+	 * @param speed The distance covered per millisecond.
+	 */
+	public void setSpeed(double speed) {
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("The speed must be positive."); // Also rejects NaN
+		}
+		this.speed = speed; // Store the speed
+	}
+
+	/**
+	 * Get how fast the driver travels to a pickup.
+	 *
+	 * @return The distance covered per millisecond.
+	 */
+	public double getSpeed() {
+		return speed; // Return the speed
+	}
+
+	/**
+	 * Set the clock the driver uses to pass time.
+	 *
+	 * @param clock The clock to use.
+	 */
+	public void setClock(NuberClock clock) {
+		this.clock = clock; // Store the clock
 	}
 
 	/**
-	 * Logs an event if logging is enabled.
+	 * Logs an event through the current booking's dispatch, if logging is enabled.
+	 * A driver used outside a booking has nowhere to log to, so its events are not recorded.
 	 *
-	 * @param message The message to be displayed.
+	 * @param type  The event type.
+	 * @param value The delay or travel time in milliseconds.
 	 */
-	private void logEvent(String message) {
-		if (booking != null && booking.dispatch != null) { // Check if booking and dispatch are not null
-			booking.dispatch.logEvent(booking, message); // Log the event through dispatch
-		} else {
-			System.out.println(message); // If no booking is available, print the message directly
+	private void logEvent(EventLog.Type type, long value) {
+		if (booking != null) { // Check if the driver is working on a booking
+			booking.dispatch.logEvent(type, booking, this, value); // Log the event through dispatch
 		}
 	}
 }
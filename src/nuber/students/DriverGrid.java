@@ -0,0 +1,246 @@
+package nuber.students; // Define the package for this class
+
+import java.util.Map; // Import Map to walk the cells
+import java.util.Set; // Import Set for the drivers in a cell
+import java.util.concurrent.ConcurrentHashMap; // Import ConcurrentHashMap for the cells and their driver sets
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger to count the drivers
+
+/**
+ * The DriverGrid class is a concurrent spatial index of idle drivers, for finding the one nearest a passenger.
+ *
+ * Space is divided into square cells and each cell holds a concurrent set of the drivers in it, so adding and
+ * claiming drivers in different cells never contend. A nearest lookup searches rings of cells outward from the
+ * passenger's cell and stops as soon as no unsearched cell can hold anything closer, so its cost depends on how
+ * many drivers are nearby rather than on how many are idle. Removing a driver from its cell's set is the claim:
+ * exactly one caller succeeds, and a caller that loses the race searches again.
+ *
+ * The cell size should be around the typical distance between idle drivers; far smaller cells make lookups
+ * visit many empty cells, far larger ones make them compare many drivers.
+ *
+ * A search only walks the cells inside the bounds of the occupied cells. The bounds grow before a driver is added
+ * outside them and are recomputed when a cell on their edge empties, so drivers passing through far away do not
+ * leave every later search walking empty rings. Recomputing is rare and takes a lock; adding never does unless
+ * it races a recompute.
+ */
+public class DriverGrid {
+
+	private final double cellSize; // Width and height of a cell
+	private final ConcurrentHashMap<Long, Set<Driver>> cells = new ConcurrentHashMap<>(); // Drivers by cell; empty cells are removed
+	private final AtomicInteger size = new AtomicInteger(0); // Number of drivers in the grid
+	// Bounds of the occupied cells, so a search knows when it has covered the whole grid; min above max when empty
+	private volatile int minCellX = Integer.MAX_VALUE, maxCellX = Integer.MIN_VALUE, minCellY = Integer.MAX_VALUE, maxCellY = Integer.MIN_VALUE;
+	private volatile int boundsEpoch; // Odd while the bounds are being recomputed, so an add can tell it may have been missed
+
+	/**
+	 * Create an empty grid.
+	 *
+	 * @param cellSize The width and height of a cell, in the same units as driver locations.
+	 */
+	public DriverGrid(double cellSize) {
+		if (!(cellSize > 0)) {
+			throw new IllegalArgumentException("The cell size must be positive."); // Also rejects NaN
+		}
+		this.cellSize = cellSize; // Store the cell size
+	}
+
+	/**
+	 * Add a driver at its current location. The driver must have a location and must not move while in the grid.
+	 *
+	 * @param driver The idle driver.
+	 */
+	public void add(Driver driver) {
+		int cellX = cellOf(driver.getX()); // Find the driver's cell
+		int cellY = cellOf(driver.getY());
+		if (!covers(cellX, cellY)) {
+			widen(cellX, cellY); // The grid grows to cover the new cell
+		}
+		// Adding inside compute() means a cell being removed as empty can never lose the driver
+		cells.compute(key(cellX, cellY), (key, drivers) -> {
+			Set<Driver> cell = drivers != null ? drivers : ConcurrentHashMap.newKeySet(); // Create the cell if needed
+			cell.add(driver); // Put the driver in it
+			return cell;
+		});
+		// A recompute that started after the cell was added sees it; one already under way may have missed it
+		if ((boundsEpoch & 1) != 0 || !covers(cellX, cellY)) {
+			widen(cellX, cellY); // Waits for the recompute, then covers the cell again
+		}
+		size.incrementAndGet(); // Count the driver
+	}
+
+	/**
+	 * Claim the idle driver nearest the given point.
+	 *
+	 * @param x The x coordinate.
+	 * @param y The y coordinate.
+	 * @return The nearest driver, now removed from the grid, or null if the grid is empty.
+	 */
+	public Driver claimNearest(double x, double y) {
+		while (size.get() > 0) { // Search again if another caller claims the driver first
+			int minCellX = this.minCellX, maxCellX = this.maxCellX, minCellY = this.minCellY, maxCellY = this.maxCellY; // Search one set of bounds
+			if (minCellX > maxCellX || minCellY > maxCellY) {
+				return null; // No cell is occupied yet, so the counted driver is still being added
+			}
+			int centreX = cellOf(x); // The cell the search starts from
+			int centreY = cellOf(y);
+			int rings = Math.max(Math.max(centreX - minCellX, maxCellX - centreX), Math.max(centreY - minCellY, maxCellY - centreY)); // Rings needed to cover the grid
+			Driver best = null; // Nearest driver so far
+			Set<Driver> bestCell = null; // The cell it is in
+			long bestKey = 0; // The key of that cell
+			double bestDistance = Double.MAX_VALUE; // Its squared distance
+
+			int firstRing = Math.max(Math.max(0, Math.max(minCellX - centreX, centreX - maxCellX)), Math.max(minCellY - centreY, centreY - maxCellY)); // Rings before this miss the grid
+			for (int ring = firstRing; ring <= rings; ring++) {
+				// Walk the cells at distance ring from the centre, skipping those outside the grid
+				for (int cellX = Math.max(centreX - ring, minCellX); cellX <= Math.min(centreX + ring, maxCellX); cellX++) {
+					boolean edge = cellX == centreX - ring || cellX == centreX + ring; // Edge columns are walked in full
+					int fromY = edge ? Math.max(centreY - ring, minCellY) : centreY - ring; // Inner columns only have a top and a bottom cell
+					int toY = edge ? Math.min(centreY + ring, maxCellY) : centreY + ring;
+					int stepY = edge ? 1 : Math.max(1, 2 * ring);
+					for (int cellY = fromY; cellY <= toY; cellY += stepY) {
+						if (cellY < minCellY || cellY > maxCellY) {
+							continue;
+						}
+						long key = key(cellX, cellY);
+						Set<Driver> cell = cells.get(key); // The drivers in the cell, if any
+						if (cell == null) {
+							continue;
+						}
+						for (Driver driver : cell) {
+							double dx = driver.getX() - x, dy = driver.getY() - y;
+							double distance = dx * dx + dy * dy; // Compare squared distances
+							if (distance < bestDistance) {
+								best = driver; // A nearer driver
+								bestCell = cell;
+								bestKey = key;
+								bestDistance = distance;
+							}
+						}
+					}
+				}
+				double reach = ring * cellSize; // Anything in a further ring is at least this far away
+				if (best != null && bestDistance <= reach * reach) {
+					break; // Nothing unsearched can be nearer
+				}
+			}
+			if (best == null) {
+				return null; // The grid emptied during the search
+			}
+			if (bestCell.remove(best)) { // Claim the driver; only one caller can remove it
+				release(bestKey, bestCell); // Count it out of the grid
+				return best; // Return the driver
+			}
+		}
+		return null; // The grid is empty
+	}
+
+	/**
+	 * Remove a particular driver, if it is still in the grid.
+	 *
+	 * @param driver The driver, at the location it was added at.
+	 * @return true if the driver was removed, false if it was not in the grid or someone else claimed it first.
+	 */
+	public boolean remove(Driver driver) {
+		long key = key(cellOf(driver.getX()), cellOf(driver.getY())); // The driver's cell
+		Set<Driver> cell = cells.get(key);
+		if (cell == null || !cell.remove(driver)) {
+			return false; // Not in the grid
+		}
+		release(key, cell); // Count it out of the grid
+		return true;
+	}
+
+	/**
+	 * Claim any idle driver, without regard to location.
+	 *
+	 * @return A driver, now removed from the grid, or null if the grid is empty.
+	 */
+	public Driver claimAny() {
+		while (size.get() > 0) { // Keep looking while drivers are being added elsewhere
+			boolean sawDriver = false; // Whether any cell still held a driver
+			for (Map.Entry<Long, Set<Driver>> entry : cells.entrySet()) {
+				for (Driver driver : entry.getValue()) {
+					sawDriver = true;
+					if (entry.getValue().remove(driver)) { // Claim the driver
+						release(entry.getKey(), entry.getValue()); // Count it out of the grid
+						return driver; // Return the driver
+					}
+				}
+			}
+			if (!sawDriver) {
+				return null; // Counted drivers are still being added, so there is nothing to claim yet
+			}
+		}
+		return null; // The grid is empty
+	}
+
+	/**
+	 * Get the number of drivers in the grid.
+	 *
+	 * @return The number of drivers.
+	 */
+	public int size() {
+		return size.get(); // Return the count
+	}
+
+	/**
+	 * Count a claimed driver out of the grid and drop its cell if that left it empty,
+	 * recomputing the bounds if the cell was on their edge.
+	 */
+	private void release(long key, Set<Driver> cell) {
+		size.decrementAndGet(); // The driver has left the grid
+		if (cell.isEmpty()) {
+			cells.computeIfPresent(key, (k, drivers) -> drivers.isEmpty() ? null : drivers); // Only remove it if still empty
+			int cellX = (int) (key >> 32), cellY = (int) key;
+			if ((cellX == minCellX || cellX == maxCellX || cellY == minCellY || cellY == maxCellY) && !cells.containsKey(key)) {
+				recomputeBounds(); // The grid may have shrunk
+			}
+		}
+	}
+
+	/**
+	 * Check whether the bounds cover a cell.
+	 */
+	private boolean covers(int cellX, int cellY) {
+		return cellX >= minCellX && cellX <= maxCellX && cellY >= minCellY && cellY <= maxCellY;
+	}
+
+	/**
+	 * Shrink the bounds to the cells still occupied.
+	 */
+	private synchronized void recomputeBounds() {
+		boundsEpoch++; // Odd: adds made from now on check the bounds again under the lock
+		int fromX = Integer.MAX_VALUE, toX = Integer.MIN_VALUE, fromY = Integer.MAX_VALUE, toY = Integer.MIN_VALUE;
+		for (long key : cells.keySet()) {
+			int cellX = (int) (key >> 32), cellY = (int) key;
+			fromX = Math.min(fromX, cellX);
+			toX = Math.max(toX, cellX);
+			fromY = Math.min(fromY, cellY);
+			toY = Math.max(toY, cellY);
+		}
+		minCellX = fromX;
+		maxCellX = toX;
+		minCellY = fromY;
+		maxCellY = toY;
+		boundsEpoch++; // Even again
+	}
+
+	/**
+	 * Grow the bounds of the grid to cover a cell.
+	 */
+	private synchronized void widen(int cellX, int cellY) {
+		// Widen before the driver is visible, so a search that finds the driver also covers its cell
+		if (cellX < minCellX) minCellX = cellX;
+		if (cellX > maxCellX) maxCellX = cellX;
+		if (cellY < minCellY) minCellY = cellY;
+		if (cellY > maxCellY) maxCellY = cellY;
+	}
+
+	private int cellOf(double coordinate) {
+		double cell = Math.floor(coordinate / cellSize); // The cell index
+		return (int) Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, cell)); // Keep ring arithmetic from overflowing
+	}
+
+	private static long key(int cellX, int cellY) {
+		return ((long) cellX << 32) | (cellY & 0xffffffffL); // Pack both indices into one key
+	}
+}
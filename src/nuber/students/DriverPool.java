@@ -0,0 +1,379 @@
+package nuber.students; // Define the package for this class
+
+import java.util.List; // Import List for draining several drivers at once
+import java.util.concurrent.CancellationException; // Import CancellationException thrown by a withdrawn waiter
+import java.util.concurrent.CompletableFuture; // Import CompletableFuture to represent a waiting acquisition
+import java.util.concurrent.ConcurrentLinkedQueue; // Import the lock-free queue used for idle drivers and waiters
+import java.util.concurrent.ExecutionException; // Import ExecutionException thrown by CompletableFuture.get()
+import java.util.concurrent.TimeUnit; // Import TimeUnit for timed acquisition
+import java.util.concurrent.TimeoutException; // Import TimeoutException thrown by a timed get()
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger to count idle drivers
+import java.util.function.Consumer; // Import Consumer for where a driver handed to an abandoned waiter goes
+
+/**
+ * The DriverPool class holds idle drivers and hands them to bookings without a global lock.
+ *
+ * A booking that finds no idle driver queues a waiter, and a released driver is handed directly to the oldest
+ * waiter, so each release wakes exactly one booking. Both queues are lock-free. Releasing and waiting each publish
+ * first and then check the other queue, so a driver can never sit idle while a booking is waiting for one.
+ *
+ * Idle drivers with a location are kept in a DriverGrid instead of the queue, so a booking can take the idle
+ * driver nearest its passenger. Each idle driver is in exactly one of the two, and taking it from either is atomic.
+ *
+ * A driver is handed to a waiter through the Trampoline, since the waiter's booking may finish at once and release
+ * the driver again: a release made while another is handing over on the same thread completes its waiter after
+ * that one returns, so back-to-back trips do not nest on the stack.
+ */
+public class DriverPool {
+
+	private final ConcurrentLinkedQueue<Driver> idleDrivers = new ConcurrentLinkedQueue<>(); // Drivers waiting for a booking
+	private final ConcurrentLinkedQueue<CompletableFuture<Driver>> waiters = new ConcurrentLinkedQueue<>(); // Bookings waiting for a driver, oldest first
+	private final DriverGrid idleGrid; // Idle drivers with a location, by where they are
+	private final AtomicInteger idleCount = new AtomicInteger(0); // Number of idle drivers, since the queue's size() is not constant time
+
+	/**
+	 * Default width of a cell of the idle driver grid, in location units.
+	 */
+	public static final double DEFAULT_CELL_SIZE = 1.0;
+
+	/**
+	 * Create an empty pool with the default grid cell size.
+	 */
+	public DriverPool() {
+		this(DEFAULT_CELL_SIZE); // Use the default cell size
+	}
+
+	/**
+	 * Create an empty pool.
+	 *
+	 * @param cellSize The width of a cell of the idle driver grid, around the typical distance between idle drivers.
+	 */
+	public DriverPool(double cellSize) {
+		this.idleGrid = new DriverGrid(cellSize); // Create the grid
+	}
+
+	/**
+	 * Take an idle driver if one is available, without waiting.
+	 *
+	 * @return An idle driver, or null if there are none.
+	 */
+	public Driver tryAcquire() {
+		Driver driver = idleDrivers.poll(); // Try to take an idle driver without a location
+		if (driver == null && idleGrid.size() > 0) {
+			driver = idleGrid.claimAny(); // Then any driver with a location
+		}
+		if (driver != null) {
+			idleCount.decrementAndGet(); // Count the driver as taken
+		}
+		return driver; // Return the driver, or null
+	}
+
+	/**
+	 * Take the idle driver nearest a person if one is available, without waiting.
+	 * If the person has no location, or no idle driver has one, any idle driver is taken.
+	 *
+	 * @param near The person the driver is for, usually the passenger, or null.
+	 * @return An idle driver, or null if there are none.
+	 */
+	public Driver tryAcquire(Person near) {
+		if (near == null || !near.hasLocation() || idleGrid.size() == 0) {
+			return tryAcquire(); // Location does not matter
+		}
+		Driver driver = idleGrid.claimNearest(near.getX(), near.getY()); // Take the nearest driver
+		if (driver == null) {
+			return tryAcquire(); // The grid emptied meanwhile, so fall back to drivers without a location
+		}
+		idleCount.decrementAndGet(); // Count the driver as taken
+		return driver; // Return the driver
+	}
+
+	/**
+	 * Take up to the given number of idle drivers at once, without waiting.
+	 *
+	 * @param max     The maximum number of drivers to take.
+	 * @param drivers The list the drivers are added to.
+	 * @return The number of drivers taken.
+	 */
+	public int drainTo(int max, List<Driver> drivers) {
+		int taken = 0; // Number of drivers taken so far
+		Driver driver;
+		while (taken < max && (driver = idleDrivers.poll()) != null) { // Take idle drivers until enough or none left
+			drivers.add(driver); // Hand the driver to the caller
+			taken++; // Count the driver
+		}
+		while (taken < max && idleGrid.size() > 0 && (driver = idleGrid.claimAny()) != null) { // Then drivers with a location
+			drivers.add(driver); // Hand the driver to the caller
+			taken++; // Count the driver
+		}
+		if (taken > 0) {
+			idleCount.addAndGet(-taken); // Update the idle count once for the whole batch
+		}
+		return taken; // Return the number taken
+	}
+
+	/**
+	 * Get a future that completes with a driver as soon as one is available.
+	 * Cancelling the future gives up the place in the queue.
+	 *
+	 * @return A future for the driver, already complete if an idle driver was available.
+	 */
+	public CompletableFuture<Driver> acquireAsync() {
+		return acquireAsync(null); // Any driver will do
+	}
+
+	/**
+	 * Get a future that completes with a driver as soon as one is available, taking the idle driver nearest
+	 * a person if there is one. A driver released later goes to the oldest waiter, wherever it is.
+	 *
+	 * @param near The person the driver is for, or null.
+	 * @return A future for the driver, already complete if an idle driver was available.
+	 */
+	public CompletableFuture<Driver> acquireAsync(Person near) {
+		Driver driver = tryAcquire(near); // Try the fast path first
+		if (driver != null) {
+			return CompletableFuture.completedFuture(driver); // An idle driver was available
+		}
+		CompletableFuture<Driver> waiter = new CompletableFuture<>(); // Create the waiter
+		waiters.add(waiter); // Join the queue of waiting bookings
+		handIdleDriversToWaiters(); // A driver may have been released before the waiter was visible
+		return waiter; // Return the waiter
+	}
+
+	/**
+	 * Take a driver, waiting as long as necessary for one to be released.
+	 *
+	 * @return A driver.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public Driver acquire() throws InterruptedException {
+		return await(acquireAsync()); // Queue for a driver and wait for it
+	}
+
+	/**
+	 * Wait for a waiter from acquireAsync() to be given a driver, withdrawing it if the thread is interrupted.
+	 * A driver handed over as the thread was interrupted is released back into this pool.
+	 *
+	 * @param waiter The waiter.
+	 * @return The driver, or null if the waiter was withdrawn.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	Driver await(CompletableFuture<Driver> waiter) throws InterruptedException {
+		return await(waiter, this::release); // The pool is all there is
+	}
+
+	/**
+	 * Wait for a waiter from acquireAsync() to be given a driver, withdrawing it if the thread is interrupted.
+	 *
+	 * @param waiter The waiter.
+	 * @param passOn Where a driver handed over as the thread was interrupted goes, such as back to its home region,
+	 *               which may not be this pool if the driver was taken from another.
+	 * @return The driver, or null if the waiter was withdrawn.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	Driver await(CompletableFuture<Driver> waiter, Consumer<Driver> passOn) throws InterruptedException {
+		Trampoline.drain(); // A driver handed over on this thread may still be queued
+		try {
+			return waiter.get(); // Wait for a driver to be handed over
+		} catch (CancellationException e) {
+			return null; // The waiter was withdrawn, for example by a cancelled booking
+		} catch (InterruptedException e) {
+			Driver driver = abandon(waiter); // Give up the place in the queue
+			if (driver != null) {
+				passOn.accept(driver); // A driver arrived anyway, so pass it on
+			}
+			throw e; // Report the interruption
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Driver waiter failed", e.getCause()); // Waiters are never completed exceptionally
+		}
+	}
+
+	/**
+	 * Take a driver, waiting up to the given time for one to be released.
+	 *
+	 * @param timeout The maximum time to wait.
+	 * @param unit    The unit of the timeout.
+	 * @return A driver, or null if none was released in time.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public Driver tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+		return await(acquireAsync(), timeout, unit); // Queue for a driver and wait a limited time for it
+	}
+
+	/**
+	 * Wait up to the given time for a waiter from acquireAsync() to be given a driver, withdrawing it if none arrives.
+	 *
+	 * @param waiter  The waiter.
+	 * @param timeout The maximum time to wait.
+	 * @param unit    The unit of the timeout.
+	 * @return The driver, or null if none was handed over in time or the waiter was withdrawn.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	Driver await(CompletableFuture<Driver> waiter, long timeout, TimeUnit unit) throws InterruptedException {
+		return await(waiter, timeout, unit, this::release); // The pool is all there is
+	}
+
+	/**
+	 * Wait up to the given time for a waiter from acquireAsync() to be given a driver, withdrawing it if none arrives.
+	 *
+	 * @param waiter  The waiter.
+	 * @param timeout The maximum time to wait.
+	 * @param unit    The unit of the timeout.
+	 * @param passOn  Where a driver handed over as the thread was interrupted goes.
+	 * @return The driver, or null if none was handed over in time or the waiter was withdrawn.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	Driver await(CompletableFuture<Driver> waiter, long timeout, TimeUnit unit, Consumer<Driver> passOn) throws InterruptedException {
+		Trampoline.drain(); // A driver handed over on this thread may still be queued
+		try {
+			return waiter.get(timeout, unit); // Wait for a driver to be handed over
+		} catch (TimeoutException e) {
+			return abandon(waiter); // Give up, unless a driver was handed over at the last moment
+		} catch (CancellationException e) {
+			return null; // The waiter was withdrawn, for example by a cancelled booking
+		} catch (InterruptedException e) {
+			Driver driver = abandon(waiter); // Give up the place in the queue
+			if (driver != null) {
+				passOn.accept(driver); // A driver arrived anyway, so pass it on
+			}
+			throw e; // Report the interruption
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Driver waiter failed", e.getCause()); // Waiters are never completed exceptionally
+		}
+	}
+
+	/**
+	 * Return a driver to the pool, handing it straight to the oldest waiting booking if there is one.
+	 *
+	 * @param driver The driver to release.
+	 */
+	public void release(Driver driver) {
+		if (handToWaiter(driver)) {
+			return; // A waiting booking took the driver
+		}
+		makeIdle(driver); // Nobody is waiting, so the driver becomes idle
+		handIdleDriversToWaiters(); // A booking may have started waiting before the driver was visible
+	}
+
+	/**
+	 * Put a driver among the idle drivers: in the grid if it has a location, otherwise in the queue.
+	 *
+	 * @param driver The driver.
+	 */
+	private void makeIdle(Driver driver) {
+		if (driver.hasLocation()) {
+			idleGrid.add(driver); // Index the driver by where it is
+		} else {
+			idleDrivers.add(driver); // Queue the driver
+		}
+		idleCount.incrementAndGet(); // Count the idle driver
+	}
+
+	/**
+	 * Take a particular driver out of the pool, if it is idle here.
+	 *
+	 * @param driver The driver.
+	 * @return true if the driver was idle here and has been removed, false otherwise.
+	 */
+	public boolean remove(Driver driver) {
+		// The grid finds the driver by its cell; the queue is searched, which is slow only for very large queues
+		boolean removed = driver.hasLocation() ? idleGrid.remove(driver) : idleDrivers.remove(driver);
+		if (removed) {
+			idleCount.decrementAndGet(); // The driver is no longer idle
+		}
+		return removed; // Report whether it was removed
+	}
+
+	/**
+	 * Hand a driver to the oldest waiting booking, without making it idle here if nobody is waiting.
+	 *
+	 * @param driver The driver to hand over.
+	 * @return true if a waiting booking took the driver, false if nobody is waiting.
+	 */
+	public boolean tryHandOff(Driver driver) {
+		return !waiters.isEmpty() && handToWaiter(driver); // Skip the poll when nobody is waiting
+	}
+
+	/**
+	 * Get the number of idle drivers.
+	 *
+	 * @return The number of idle drivers.
+	 */
+	public int getIdleCount() {
+		return idleCount.get(); // Return the idle driver count
+	}
+
+	/**
+	 * Check whether any booking is waiting for a driver.
+	 *
+	 * @return true if there is at least one waiter, otherwise false.
+	 */
+	public boolean hasWaiters() {
+		return !waiters.isEmpty(); // Check the waiter queue
+	}
+
+	/**
+	 * Give a driver to the oldest waiter that has not given up. The waiter is completed through the Trampoline,
+	 * and if it is withdrawn before that happens the driver is released again.
+	 *
+	 * @param driver The driver to hand over.
+	 * @return true if a waiter took the driver, false if nobody is waiting.
+	 */
+	private boolean handToWaiter(Driver driver) {
+		CompletableFuture<Driver> waiter;
+		while ((waiter = waiters.poll()) != null) { // Take the oldest waiter
+			if (!waiter.isDone()) { // Done only if the waiter was withdrawn
+				CompletableFuture<Driver> taker = waiter; // The waiter that gets the driver
+				Trampoline.run(() -> {
+					if (!taker.complete(driver)) {
+						release(driver); // Withdrawn meanwhile, so pass the driver on
+					}
+				});
+				return true; // The waiter now owns the driver
+			}
+		}
+		return false; // Nobody is waiting
+	}
+
+	/**
+	 * Move idle drivers to waiters while both exist.
+	 */
+	private void handIdleDriversToWaiters() {
+		while (!waiters.isEmpty()) { // Only needed while somebody is waiting
+			Driver driver = tryAcquire(); // Take an idle driver
+			if (driver == null) {
+				return; // No idle drivers, so the waiters will be served by the next release
+			}
+			if (!handToWaiter(driver)) { // The waiters gave up or were served meanwhile
+				makeIdle(driver); // Put the driver back
+			}
+		}
+	}
+
+	/**
+	 * Withdraw a waiter from the queue.
+	 *
+	 * @param waiter The waiter to withdraw.
+	 * @return The driver if one was handed over before the waiter could be withdrawn, otherwise null.
+	 */
+	private Driver abandon(CompletableFuture<Driver> waiter) {
+		if (withdraw(waiter)) {
+			return null; // No driver was handed over
+		}
+		return waiter.join(); // The waiter was completed first, so it owns a driver
+	}
+
+	/**
+	 * Withdraw a waiter from the queue without waiting for it, so no driver is handed to it from now on.
+	 * A thread waiting on it in await() is woken and given no driver.
+	 *
+	 * @param waiter The waiter to withdraw.
+	 * @return true if it was withdrawn, false if a driver had already been handed over, which its owner must pass on.
+	 */
+	boolean withdraw(CompletableFuture<Driver> waiter) {
+		if (waiter.cancel(false)) { // Stop any release from completing the waiter
+			waiters.remove(waiter); // Drop it from the queue rather than waiting for a release to skip it
+			return true; // No driver was handed over
+		}
+		return false; // The waiter was completed first
+	}
+}
@@ -0,0 +1,277 @@
+package nuber.students; // Define the package for this class
+
+import java.io.BufferedWriter; // Import BufferedWriter to batch writes to the output
+import java.io.FileWriter; // Import FileWriter for logging to a file
+import java.io.IOException; // Import IOException thrown by the output
+import java.io.OutputStreamWriter; // Import OutputStreamWriter for logging to the console
+import java.io.Writer; // Import Writer as the output of the log
+import java.util.concurrent.atomic.AtomicLong; // Import AtomicLong for the claim cursor
+import java.util.concurrent.atomic.AtomicLongArray; // Import AtomicLongArray to publish slots
+import java.util.concurrent.atomic.LongAdder; // Import LongAdder to count dropped events
+import java.util.concurrent.locks.LockSupport; // Import LockSupport for the writer's idle wait
+
+/**
+ * The EventLog class records booking lifecycle events without slowing dispatch down.
+ *
+ * Events are written into a ring of preallocated slots, and only references and numbers are stored, so logging an
+ * event allocates nothing and builds no strings. A background writer thread formats the events and writes them to
+ * the console or a file. If the writer falls behind and the ring is full, new events are dropped and counted rather
+ * than making the booking wait, so logging can never stall dispatch.
+ */
+public class EventLog {
+
+	/**
+	 * The kinds of event recorded.
+	 */
+	public enum Type {
+		SUBMITTED, // A booking joined its region queue
+		ADMITTED, // A booking reached a free slot in its region
+		DRIVER_ASSIGNED, // A driver was handed to a booking
+		PICKING_UP, // The driver is on the way to the passenger; value is the pickup delay in ms
+		DRIVING, // The passenger is on board; value is the travel time in ms
+		COMPLETED, // The trip finished; value is the trip duration in ms
+		FAILED, // The booking ended with an error; message holds the error
+		EXPIRED, // The booking's deadline passed before it was given a driver
+		DROPPED, // A queued booking was dropped to make room for a newer one
+		REBOOKED, // A booking recovered from a journal was made again as a new booking
+		REJECTED, // A booking was refused
+		MESSAGE, // Free text
+		CANCELLED // The booking was cancelled by its caller before its passenger was on board
+	}
+
+	private static final long IDLE_PARK_NANOS = 1_000_000; // How long the writer sleeps when there is nothing to write
+
+	private final int capacity; // Number of slots, a power of two
+	private final int mask; // capacity - 1, to map a sequence number to a slot
+	private final AtomicLong claimed = new AtomicLong(0); // Next sequence number to hand to a producer
+	private volatile long consumed = 0; // Next sequence number the writer will read
+	private final AtomicLongArray published; // Sequence number last written to each slot, so the writer knows it is complete
+	private final long[] times; // Event time, in dispatch clock milliseconds
+	private final Type[] types; // Event type
+	private final String[] regions; // Region name
+	private final String[] passengers; // Passenger name
+	private final String[] drivers; // Driver name
+	private final long[] values; // Numeric detail of the event
+	private final String[] messages; // Free text, only for MESSAGE and FAILED events
+
+	private final LongAdder dropped = new LongAdder(); // Events dropped because the ring was full
+	private final Writer out; // Where formatted events are written
+	private final boolean closeOutput; // Whether close() should close the output
+	private final Thread writer; // The background writer thread
+	private volatile boolean running = true; // Cleared by close()
+
+	/**
+	 * Create an event log that writes to the given output.
+	 *
+	 * @param capacity    The number of events the ring holds, rounded up to a power of two.
+	 * @param out         Where to write formatted events.
+	 * @param closeOutput Whether close() should also close the output.
+	 */
+	public EventLog(int capacity, Writer out, boolean closeOutput) {
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // Round up to a power of two
+		this.mask = this.capacity - 1; // Mask for the slot index
+		this.published = new AtomicLongArray(this.capacity); // Create the publish markers
+		for (int i = 0; i < this.capacity; i++) {
+			published.set(i, -1); // No slot holds an event yet
+		}
+		this.times = new long[this.capacity]; // Preallocate every slot
+		this.types = new Type[this.capacity];
+		this.regions = new String[this.capacity];
+		this.passengers = new String[this.capacity];
+		this.drivers = new String[this.capacity];
+		this.values = new long[this.capacity];
+		this.messages = new String[this.capacity];
+		this.out = out; // Initialize the output
+		this.closeOutput = closeOutput; // Initialize the close flag
+		this.writer = new Thread(this::drainLoop, "nuber-event-log"); // Create the writer thread
+		this.writer.setDaemon(true); // Never keep the JVM alive
+		this.writer.start(); // Start writing
+	}
+
+	/**
+	 * Create an event log that writes to the console.
+	 *
+	 * @param capacity The number of events the ring holds.
+	 * @return The event log.
+	 */
+	public static EventLog toConsole(int capacity) {
+		return new EventLog(capacity, new BufferedWriter(new OutputStreamWriter(System.out)), false); // Never close System.out
+	}
+
+	/**
+	 * Create an event log that appends to a file.
+	 *
+	 * @param path     The file to append to.
+	 * @param capacity The number of events the ring holds.
+	 * @return The event log.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public static EventLog toFile(String path, int capacity) throws IOException {
+		return new EventLog(capacity, new BufferedWriter(new FileWriter(path, true)), true); // Close the file with the log
+	}
+
+	/**
+	 * Record a booking event.
+	 *
+	 * @param time      The event time in milliseconds.
+	 * @param type      The event type.
+	 * @param region    The region name, or null.
+	 * @param passenger The passenger, or null.
+	 * @param driver    The driver, or null.
+	 * @param value     The numeric detail of the event.
+	 */
+	public void log(long time, Type type, String region, Person passenger, Person driver, long value) {
+		append(time, type, region, passenger == null ? null : passenger.name, driver == null ? null : driver.name, value, null); // Store the references
+	}
+
+	/**
+	 * Record a free text event. The caller has already built the message, so prefer the structured form on hot paths.
+	 *
+	 * @param time      The event time in milliseconds.
+	 * @param type      The event type, usually MESSAGE or FAILED.
+	 * @param region    The region name, or null.
+	 * @param passenger The passenger, or null.
+	 * @param message   The message.
+	 */
+	public void log(long time, Type type, String region, Person passenger, String message) {
+		append(time, type, region, passenger == null ? null : passenger.name, null, 0, message); // Store the references
+	}
+
+	/**
+	 * Get the number of events dropped because the writer could not keep up.
+	 *
+	 * @return The number of dropped events.
+	 */
+	public long getDropped() {
+		return dropped.sum(); // Return the count
+	}
+
+	/**
+	 * Write every event already recorded, stop the writer and flush the output.
+	 */
+	public void close() {
+		running = false; // Ask the writer to finish
+		LockSupport.unpark(writer); // Wake it if it is idle
+		try {
+			writer.join(10_000); // Wait for it to drain the ring
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // Restore the interrupted status
+		}
+	}
+
+	/**
+	 * Claim a slot, fill it and publish it, or drop the event if the ring is full.
+	 */
+	private void append(long time, Type type, String region, String passenger, String driver, long value, String message) {
+		long sequence; // The claimed sequence number
+		do {
+			sequence = claimed.get(); // Next free sequence number
+			if (sequence - consumed >= capacity) { // The writer has not freed this slot yet
+				dropped.increment(); // Count the lost event instead of waiting
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1)); // Claim it, retrying if another producer won
+		int slot = (int) (sequence & mask); // Map the sequence number to a slot
+		times[slot] = time; // Fill the slot
+		types[slot] = type;
+		regions[slot] = region;
+		passengers[slot] = passenger;
+		drivers[slot] = driver;
+		values[slot] = value;
+		messages[slot] = message;
+		published.lazySet(slot, sequence); // Publish the slot; the writes above become visible first
+	}
+
+	/**
+	 * The writer thread: format published events in order and write them out.
+	 */
+	private void drainLoop() {
+		StringBuilder line = new StringBuilder(128); // Reused for every line
+		long reportedDrops = 0; // Drops already reported in the output
+		while (true) {
+			long next = consumed; // Next event to write
+			int slot = (int) (next & mask); // Its slot
+			if (published.get(slot) == next) { // The producer has finished writing it
+				format(line, slot); // Format the event
+				messages[slot] = null; // Drop references so old events can be garbage collected
+				consumed = next + 1; // Free the slot for producers
+				write(line); // Write the line
+				continue; // Look for the next event straight away
+			}
+			long drops = dropped.sum(); // Report drops in the output too
+			if (drops != reportedDrops) {
+				line.setLength(0);
+				line.append("[event log] dropped ").append(drops - reportedDrops).append(" events\n");
+				write(line);
+				reportedDrops = drops;
+			}
+			flush(); // Nothing to write, so push out what has been written
+			if (!running && claimed.get() == consumed) {
+				break; // Closed and fully drained
+			}
+			LockSupport.parkNanos(IDLE_PARK_NANOS); // Wait for more events
+		}
+		try {
+			if (closeOutput) {
+				out.close(); // Close the file
+			} else {
+				out.flush(); // Leave the console open
+			}
+		} catch (IOException e) {
+			System.err.println("Event log could not close its output: " + e.getMessage()); // Nowhere else to report it
+		}
+	}
+
+	/**
+	 * Format one event as a line of text.
+	 *
+	 * @param line The builder to format into.
+	 * @param slot The slot holding the event.
+	 */
+	private void format(StringBuilder line, int slot) {
+		line.setLength(0); // Reuse the builder
+		line.append(times[slot]).append("ms "); // Event time
+		line.append(regions[slot] == null ? "-" : regions[slot]).append(' '); // Region
+		line.append(passengers[slot] == null ? "-" : passengers[slot]).append(": "); // Passenger
+		line.append(types[slot]); // Event type
+		if (drivers[slot] != null) {
+			line.append(" driver=").append(drivers[slot]); // Driver
+		}
+		switch (types[slot]) {
+			case PICKING_UP:
+				line.append(" delay=").append(values[slot]).append("ms"); // Pickup delay
+				break;
+			case DRIVING:
+				line.append(" travel=").append(values[slot]).append("ms"); // Travel time
+				break;
+			case COMPLETED:
+				line.append(" trip=").append(values[slot]).append("ms"); // Trip duration
+				break;
+			case REJECTED:
+				line.append(" count=").append(values[slot]); // Number of bookings refused
+				break;
+			default:
+				break;
+		}
+		if (messages[slot] != null) {
+			line.append(' ').append(messages[slot]); // Free text
+		}
+		line.append('\n'); // End the line
+	}
+
+	private void write(CharSequence line) {
+		try {
+			out.append(line); // Write the line
+		} catch (IOException e) {
+			dropped.increment(); // The event is lost, so count it
+		}
+	}
+
+	private void flush() {
+		try {
+			out.flush(); // Push buffered output
+		} catch (IOException e) {
+			// Nothing can be done about a failing output; later writes will be counted as drops
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.ExecutorService; // Import the ExecutorService interface
+import java.util.concurrent.Executors; // Import the Executors factory methods
+
+/**
+ * The ExecutionMode enum selects which kind of threads run the bookings of a NuberDispatch and its regions.
+ * PLATFORM uses fixed-size pools of operating system threads, VIRTUAL runs every booking on its own virtual thread.
+ */
+public enum ExecutionMode {
+
+	PLATFORM, // Run bookings on fixed-size pools of platform threads
+	VIRTUAL; // Run every booking on its own virtual thread (requires Java 21 or later)
+
+	/**
+	 * Create an executor for this mode.
+	 *
+	 * @param platformThreads The pool size to use in PLATFORM mode, ignored in VIRTUAL mode.
+	 * @return A new executor service.
+	 * @throws UnsupportedOperationException If VIRTUAL is requested on a JVM without virtual threads.
+	 */
+	ExecutorService newExecutor(int platformThreads) {
+		if (this == PLATFORM) { // Platform threads are always available
+			return Executors.newFixedThreadPool(platformThreads); // Create a fixed thread pool
+		}
+		try {
+			// Looked up reflectively so the project still compiles for older language levels
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e); // Fail fast rather than silently using OS threads
+		}
+	}
+
+	/**
+	 * Check whether the running JVM supports virtual threads.
+	 *
+	 * @return true if VIRTUAL mode can be used, otherwise false.
+	 */
+	public static boolean virtualThreadsSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor"); // Only present on Java 21 or later
+			return true; // The factory method exists
+		} catch (NoSuchMethodException e) {
+			return false; // The factory method is missing
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package nuber.students; // Define the package for this class
+
+import java.util.Arrays; // Import Arrays to grow the chunk table
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger to hand out driver IDs
+
+/**
+ * The FleetRegistry class gives every driver added to a dispatch a stable ID and keeps its per-driver state:
+ * what it is doing, how many trips it has made and how long it has spent on them.
+ *
+ * The state is held in primitive arrays, allocated in fixed-size chunks as the fleet grows, so the registry costs
+ * a few bytes per driver, never copies what it already holds, and allocates nothing per trip. A driver's state is
+ * only written by whoever holds the driver at the time (dispatch while it is idle, its booking while it is on a
+ * trip), so updates need no locks; readers such as count() see a recent, not necessarily instant, picture.
+ *
+ * IDs are never reused, so an ID refers to the same driver for the life of the dispatch.
+ */
+public class FleetRegistry {
+
+	/**
+	 * What a driver is doing.
+	 */
+	public enum State {
+		IDLE, // Waiting in a region's pool for a booking
+		EN_ROUTE, // Matched to a booking and on the way to the passenger
+		BUSY, // Driving a passenger to the destination
+		REMOVED // Taken out of service
+	}
+
+	private static final State[] STATES = State.values(); // States by ordinal
+	private static final int CHUNK_BITS = 14; // Drivers per chunk, as a power of two
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final AtomicInteger nextId = new AtomicInteger(0); // Next ID to hand out, and the number handed out
+	private final AtomicInteger removed = new AtomicInteger(0); // Number of drivers taken out of service
+	private volatile Chunk[] chunks = new Chunk[0]; // Per-driver state, CHUNK_SIZE drivers per chunk
+
+	/**
+	 * Per-driver state for CHUNK_SIZE consecutive IDs.
+	 */
+	private static final class Chunk {
+		final Driver[] drivers = new Driver[CHUNK_SIZE]; // The drivers, cleared when removed
+		final byte[] states = new byte[CHUNK_SIZE]; // State ordinals
+		final int[] trips = new int[CHUNK_SIZE]; // Completed trips
+		final long[] busyMillis = new long[CHUNK_SIZE]; // Time spent from match to arrival
+	}
+
+	/**
+	 * Register a driver, giving it the next ID. The driver starts IDLE.
+	 *
+	 * @param driver The driver.
+	 * @return The driver's ID.
+	 * @throws IllegalArgumentException If the driver is already registered.
+	 */
+	public int register(Driver driver) {
+		if (driver.id >= 0) {
+			throw new IllegalArgumentException("Driver " + driver.getName() + " is already registered."); // A driver has one ID
+		}
+		int id = nextId.getAndIncrement(); // Take the next ID
+		Chunk chunk = chunkFor(id); // Make sure there is room for it
+		chunk.drivers[id & CHUNK_MASK] = driver; // Record the driver
+		chunk.states[id & CHUNK_MASK] = (byte) State.IDLE.ordinal();
+		driver.id = id; // Give the driver its ID
+		return id; // Return the ID
+	}
+
+	/**
+	 * Get a driver by ID.
+	 *
+	 * @param id The driver's ID.
+	 * @return The driver, or null if there is no such driver or it has been removed.
+	 */
+	public Driver get(int id) {
+		Chunk chunk = chunk(id); // Find the driver's chunk
+		return chunk == null ? null : chunk.drivers[id & CHUNK_MASK]; // Return the driver
+	}
+
+	/**
+	 * Record what a registered driver is doing. Unregistered drivers are ignored.
+	 *
+	 * @param driver The driver.
+	 * @param state  Its new state.
+	 */
+	void setState(Driver driver, State state) {
+		Chunk chunk = chunk(driver.id); // Find the driver's chunk
+		if (chunk != null) {
+			chunk.states[driver.id & CHUNK_MASK] = (byte) state.ordinal(); // Store the state
+		}
+	}
+
+	/**
+	 * Record a finished trip of a registered driver. Unregistered drivers are ignored.
+	 *
+	 * @param driver     The driver.
+	 * @param busyMillis How long the trip took from match to arrival.
+	 */
+	void recordTrip(Driver driver, long busyMillis) {
+		Chunk chunk = chunk(driver.id); // Find the driver's chunk
+		if (chunk != null) {
+			int slot = driver.id & CHUNK_MASK;
+			chunk.trips[slot]++; // Count the trip
+			chunk.busyMillis[slot] += busyMillis; // Add its time
+		}
+	}
+
+	/**
+	 * Record that a driver has been taken out of service, letting the registry forget the driver object.
+	 * Its ID, trip count and busy time are kept. Removing a driver twice has no further effect.
+	 *
+	 * @param driver The driver.
+	 */
+	synchronized void markRemoved(Driver driver) {
+		Chunk chunk = chunk(driver.id); // Find the driver's chunk
+		if (chunk != null && chunk.states[driver.id & CHUNK_MASK] != State.REMOVED.ordinal()) {
+			chunk.states[driver.id & CHUNK_MASK] = (byte) State.REMOVED.ordinal(); // Store the state
+			chunk.drivers[driver.id & CHUNK_MASK] = null; // Let the driver be collected
+			removed.incrementAndGet(); // Count the removal
+		}
+	}
+
+	/**
+	 * Get what a driver is doing.
+	 *
+	 * @param id The driver's ID.
+	 * @return Its state, or null if there is no such driver.
+	 */
+	public State getState(int id) {
+		Chunk chunk = chunk(id); // Find the driver's chunk
+		return chunk == null ? null : STATES[chunk.states[id & CHUNK_MASK]]; // Return the state
+	}
+
+	/**
+	 * Get the number of trips a driver has completed.
+	 *
+	 * @param id The driver's ID.
+	 * @return The trip count, or 0 if there is no such driver.
+	 */
+	public int getTripCount(int id) {
+		Chunk chunk = chunk(id); // Find the driver's chunk
+		return chunk == null ? 0 : chunk.trips[id & CHUNK_MASK]; // Return the count
+	}
+
+	/**
+	 * Get how long a driver has spent on trips, from being matched to a booking to reaching the destination.
+	 *
+	 * @param id The driver's ID.
+	 * @return The busy time in milliseconds, or 0 if there is no such driver.
+	 */
+	public long getBusyMillis(int id) {
+		Chunk chunk = chunk(id); // Find the driver's chunk
+		return chunk == null ? 0 : chunk.busyMillis[id & CHUNK_MASK]; // Return the time
+	}
+
+	/**
+	 * Count the drivers in a state, by scanning the registry.
+	 *
+	 * @param state The state.
+	 * @return The number of drivers in it.
+	 */
+	public int count(State state) {
+		int registered = nextId.get(); // IDs handed out so far
+		Chunk[] current = chunks; // Read the chunks once
+		byte wanted = (byte) state.ordinal();
+		int count = 0; // Drivers found in the state
+		for (int c = 0; c < current.length && current[c] != null; c++) {
+			byte[] states = current[c].states;
+			int end = Math.min(CHUNK_SIZE, registered - (c << CHUNK_BITS)); // Skip the unused end of the last chunk
+			for (int i = 0; i < end; i++) {
+				if (states[i] == wanted) {
+					count++;
+				}
+			}
+		}
+		return count; // Return the count
+	}
+
+	/**
+	 * Get the number of drivers ever registered, which is also the next ID to be handed out.
+	 *
+	 * @return The number of registered drivers, including removed ones.
+	 */
+	public int getRegistered() {
+		return nextId.get(); // Return the count
+	}
+
+	/**
+	 * Get the number of drivers in service.
+	 *
+	 * @return The number of registered drivers that have not been removed.
+	 */
+	public int size() {
+		return nextId.get() - removed.get(); // Registered minus removed
+	}
+
+	/**
+	 * Get the chunk holding an ID, or null if the ID has not been handed out.
+	 */
+	private Chunk chunk(int id) {
+		Chunk[] current = chunks; // Read the chunks once
+		int index = id >>> CHUNK_BITS; // The chunk number; negative IDs become too large
+		return id >= 0 && id < nextId.get() && index < current.length ? current[index] : null;
+	}
+
+	/**
+	 * Get the chunk for a newly handed out ID, adding chunks if the fleet has outgrown them.
+	 */
+	private Chunk chunkFor(int id) {
+		int index = id >>> CHUNK_BITS; // The chunk number
+		Chunk[] current = chunks; // Read the chunks once
+		if (index < current.length && current[index] != null) {
+			return current[index]; // The chunk already exists
+		}
+		synchronized (this) { // Growing is rare, so a lock is fine
+			current = chunks;
+			if (index >= current.length) {
+				current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2)); // Copies chunk references only
+			}
+			if (current[index] == null) {
+				current[index] = new Chunk(); // Allocate the chunk when its first ID is handed out
+			}
+			chunks = current; // Publish the chunk
+			return current[index]; // Return the chunk
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package nuber.students; // Define the package for this class
+
+import java.util.Queue; // Import Queue for the hand-over queues
+import java.util.concurrent.ConcurrentLinkedQueue; // Import ConcurrentLinkedQueue so any thread can hand timeouts to the ticker
+import java.util.concurrent.Executor; // Import Executor for the threads that run expired tasks
+import java.util.concurrent.RejectedExecutionException; // Import RejectedExecutionException for a stopped wheel
+import java.util.concurrent.TimeUnit; // Import TimeUnit for time conversions
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger for the wheel and timeout states
+import java.util.concurrent.atomic.AtomicLong; // Import AtomicLong to count outstanding timeouts
+import java.util.concurrent.locks.LockSupport; // Import LockSupport to sleep between ticks
+
+/**
+ * The HashedTimingWheel class fires large numbers of timeouts, such as the pickup and travel times of trips,
+ * with one thread and constant-time scheduling and cancelling.
+ *
+ * Time is cut into ticks and the wheel is a ring of buckets, one per tick. A timeout goes into the bucket its
+ * deadline falls in, with a count of how many full turns of the wheel are left before it is due. Every tick the
+ * ticker thread visits one bucket, counts down the timeouts that are a turn or more away and hands the rest to
+ * the executor, so the ticker never runs a task itself and a slow task cannot delay other timeouts.
+ *
+ * Scheduling puts the timeout on a queue that the ticker moves into the wheel on its next tick, and cancelling
+ * marks the timeout and queues it to be unlinked from its bucket, so neither takes a lock or depends on the number
+ * of timeouts waiting. A timeout fires on the first tick at or after its deadline, so it is late by at most one
+ * tick plus however long the ticker thread takes to wake. When nothing is waiting the ticker sleeps until a
+ * timeout is scheduled, so an idle wheel costs nothing.
+ */
+public class HashedTimingWheel {
+
+	private static final int STARTED = 0, STOPPED = 1; // Wheel states
+	private static final int WAITING = 0, CANCELLED = 1, EXPIRED = 2; // Timeout states
+	private static final int MAX_TRANSFER = 100_000; // Most new timeouts moved into the wheel per tick, so a flood cannot stall the ticker
+
+	private final long tickNanos; // Length of a tick
+	private final int mask; // Wheel size minus one, to pick a bucket with a mask
+	private final Bucket[] wheel; // One bucket per tick of a turn
+	private final Executor executor; // Runs the tasks of expired timeouts
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>(); // New timeouts not yet in the wheel
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>(); // Cancelled timeouts not yet unlinked
+	private final AtomicInteger state = new AtomicInteger(STARTED); // Whether the wheel accepts timeouts
+	private final AtomicLong outstanding = new AtomicLong(); // Timeouts scheduled but not yet fired or cancelled
+	private final long startNanos = System.nanoTime(); // Deadlines are kept relative to this, so they never overflow
+	private final Thread ticker; // The thread that turns the wheel
+	private volatile boolean idle; // Whether the ticker is asleep with nothing to do
+
+	private long tick; // Ticks the ticker has processed; only the ticker uses this
+	private int inWheel; // Timeouts linked into buckets; only the ticker uses this
+
+	/**
+	 * Constructor for the HashedTimingWheel class. The ticker thread is a daemon, so it never keeps the JVM alive.
+	 *
+	 * @param tickDuration The length of a tick, which bounds how late a timeout can fire.
+	 * @param unit         The unit of the tick length.
+	 * @param ticksPerWheel The number of buckets, rounded up to a power of two. Timeouts within one turn of the
+	 *                     wheel are never counted down, so a turn should cover most delays.
+	 * @param executor     Runs the tasks of expired timeouts, so tasks never run on the ticker thread.
+	 * @param threadName   The name of the ticker thread.
+	 */
+	public HashedTimingWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, Executor executor, String threadName) {
+		if (tickDuration <= 0 || ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+			throw new IllegalArgumentException("The tick and the wheel size must be positive."); // No usable wheel
+		}
+		this.tickNanos = unit.toNanos(tickDuration); // Store the settings
+		int size = Integer.highestOneBit(ticksPerWheel); // Round up to a power of two
+		if (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket(); // Create the empty buckets
+		}
+		this.executor = executor;
+		this.ticker = new Thread(this::run, threadName); // Create the ticker thread
+		ticker.setDaemon(true); // Never keep the JVM alive
+		ticker.start(); // Start turning; it sleeps until there is something to fire
+	}
+
+	/**
+	 * Schedule a task to run once a delay has passed. Takes constant time whatever the number of timeouts waiting.
+	 *
+	 * @param task  The task, run on the executor.
+	 * @param delay The delay.
+	 * @param unit  The unit of the delay.
+	 * @return A handle to cancel the timeout with.
+	 * @throws RejectedExecutionException If the wheel has been stopped.
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (state.get() == STOPPED) {
+			throw new RejectedExecutionException("The timing wheel has been stopped."); // Nothing would ever fire it
+		}
+		long delayNanos = Math.max(0, unit.toNanos(delay));
+		long deadline = System.nanoTime() - startNanos; // Time since the wheel started
+		deadline = delayNanos > Long.MAX_VALUE - deadline ? Long.MAX_VALUE : deadline + delayNanos; // Saturate very long delays
+		Timeout timeout = new Timeout(task, deadline);
+		outstanding.incrementAndGet(); // Count it before the ticker can fire it
+		scheduled.add(timeout); // Hand it to the ticker
+		if (idle) {
+			LockSupport.unpark(ticker); // Wake the ticker, which was asleep with nothing to do
+		}
+		return timeout; // Return the handle
+	}
+
+	/**
+	 * Get the number of timeouts that have been scheduled but have not fired or been cancelled.
+	 *
+	 * @return The number of outstanding timeouts.
+	 */
+	public long getPending() {
+		return outstanding.get(); // Return the count
+	}
+
+	/**
+	 * Get the length of a tick.
+	 *
+	 * @return The tick length in nanoseconds.
+	 */
+	public long getTickNanos() {
+		return tickNanos; // Return the tick length
+	}
+
+	/**
+	 * Stop the wheel. Timeouts that have not fired never will, and new ones are refused.
+	 *
+	 * @return The number of timeouts that were still waiting.
+	 */
+	public long stop() {
+		if (state.getAndSet(STOPPED) == STOPPED) {
+			return 0; // Already stopped
+		}
+		LockSupport.unpark(ticker); // Wake the ticker so it sees the stop
+		if (Thread.currentThread() != ticker) {
+			boolean interrupted = false;
+			while (ticker.isAlive()) {
+				try {
+					ticker.join(); // Wait for the last tick to finish
+				} catch (InterruptedException e) {
+					interrupted = true; // Finish stopping, then restore the interrupt
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return outstanding.get(); // Whatever is left will never fire
+	}
+
+	/**
+	 * Turn the wheel until it is stopped.
+	 */
+	private void run() {
+		while (state.get() == STARTED) {
+			long now = waitForNextTick(); // Sleep until the next tick is due
+			if (now < 0) {
+				break; // Stopped while asleep
+			}
+			unlinkCancelled(); // Remove cancelled timeouts first, so they are not moved in or fired
+			transferScheduled(); // Put new timeouts into their buckets
+			wheel[(int) (tick & mask)].expire(now); // Fire what is due in this tick's bucket
+			tick++;
+			if (inWheel == 0) {
+				sleepWhileIdle(); // Nothing is waiting, so sleep until something is scheduled
+			}
+		}
+	}
+
+	/**
+	 * Sleep until the end of the current tick.
+	 *
+	 * @return The time since the wheel started, or -1 if the wheel was stopped.
+	 */
+	private long waitForNextTick() {
+		long end = tickNanos * (tick + 1); // When the current tick ends
+		while (true) {
+			long now = System.nanoTime() - startNanos;
+			if (now >= end) {
+				return now; // The tick is over
+			}
+			LockSupport.parkNanos(this, end - now); // Sleep out the rest of the tick
+			if (state.get() == STOPPED) {
+				return -1; // Stopped while asleep
+			}
+		}
+	}
+
+	/**
+	 * Sleep while no timeout is waiting, then move the tick count up to the present. With the wheel empty no
+	 * bucket has anything to count down, so skipping the ticks that passed while asleep loses nothing.
+	 */
+	private void sleepWhileIdle() {
+		idle = true; // Tell scheduling threads to wake the ticker
+		while (scheduled.isEmpty() && state.get() == STARTED) {
+			LockSupport.park(this); // Checked again after setting idle, so a timeout scheduled in between is not missed
+		}
+		idle = false;
+		tick = Math.max(tick, (System.nanoTime() - startNanos) / tickNanos); // Carry on from the present tick
+	}
+
+	private void transferScheduled() {
+		for (int i = 0; i < MAX_TRANSFER; i++) {
+			Timeout timeout = scheduled.poll();
+			if (timeout == null) {
+				return; // Every new timeout is in the wheel
+			}
+			if (timeout.state.get() == CANCELLED) {
+				continue; // Cancelled before it reached the wheel
+			}
+			long due = timeout.deadline / tickNanos; // The tick the deadline falls in
+			timeout.remainingRounds = (due - tick) >> Long.numberOfTrailingZeros(wheel.length); // Full turns before it is due
+			long target = Math.max(due, tick); // A deadline already passed fires on this tick
+			wheel[(int) (target & mask)].add(timeout); // Link it into its bucket
+			inWheel++;
+		}
+	}
+
+	private void unlinkCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout); // Unlink it from its bucket
+			}
+		}
+	}
+
+	/**
+	 * A scheduled task, which can be cancelled until it fires.
+	 */
+	public final class Timeout implements NuberClock.Timeout {
+		private final Runnable task; // What to run when it fires
+		private final long deadline; // When it is due, relative to the wheel start
+		private final AtomicInteger state = new AtomicInteger(WAITING); // Whether it is waiting, cancelled or fired
+		private long remainingRounds; // Full turns of the wheel left; only the ticker uses this
+		private Bucket bucket; // The bucket it is linked into; only the ticker uses this
+		private Timeout prev, next; // Neighbours in the bucket; only the ticker uses these
+
+		private Timeout(Runnable task, long deadline) {
+			this.task = task; // Store the task
+			this.deadline = deadline; // Store the deadline
+		}
+
+		/**
+		 * Cancel the timeout so its task never runs. Takes constant time; the ticker unlinks it on its next tick.
+		 *
+		 * @return true if it was cancelled, false if it had already fired or been cancelled.
+		 */
+		@Override
+		public boolean cancel() {
+			if (!state.compareAndSet(WAITING, CANCELLED)) {
+				return false; // Too late, or cancelled already
+			}
+			outstanding.decrementAndGet(); // It will never fire
+			cancelled.add(this); // Have the ticker unlink it
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(WAITING, EXPIRED)) {
+				return; // Cancelled while it was being fired
+			}
+			outstanding.decrementAndGet(); // It has fired
+			try {
+				executor.execute(task); // Run the task off the ticker thread
+			} catch (RejectedExecutionException e) {
+				// The executor has been shut down, so there is nobody left to run the task
+			}
+		}
+	}
+
+	/**
+	 * The timeouts that fall in one tick of a turn, as a doubly linked list so any of them can be unlinked in
+	 * constant time. Only the ticker thread uses buckets.
+	 */
+	private final class Bucket {
+		private Timeout head, tail; // Ends of the list
+
+		void add(Timeout timeout) {
+			timeout.bucket = this; // Link it in at the tail
+			timeout.prev = tail;
+			if (tail == null) {
+				head = timeout;
+			} else {
+				tail.next = timeout;
+			}
+			tail = timeout;
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.prev == null) {
+				head = timeout.next; // It was the head
+			} else {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.prev; // It was the tail
+			} else {
+				timeout.next.prev = timeout.prev;
+			}
+			timeout.prev = timeout.next = null; // Drop the links
+			timeout.bucket = null;
+			inWheel--;
+		}
+
+		/**
+		 * Fire the timeouts that are due and count down the rest.
+		 *
+		 * @param now The time since the wheel started.
+		 */
+		void expire(long now) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.state.get() == CANCELLED) {
+					remove(timeout); // Cancelled but not yet unlinked
+				} else if (timeout.remainingRounds <= 0 && timeout.deadline <= now) {
+					remove(timeout);
+					timeout.expire(); // Due, so hand it to the executor
+				} else {
+					timeout.remainingRounds--; // Due on a later turn
+				}
+				timeout = next;
+			}
+		}
+	}
+}
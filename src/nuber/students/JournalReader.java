@@ -0,0 +1,456 @@
+package nuber.students; // Define the package for this class
+
+import java.io.IOException; // Import IOException for file errors
+import java.nio.MappedByteBuffer; // Import MappedByteBuffer for the mapped segments
+import java.nio.channels.FileChannel; // Import FileChannel to map the file
+import java.nio.charset.StandardCharsets; // Import StandardCharsets to decode names
+import java.nio.file.Paths; // Import Paths to turn a file name into a Path
+import java.nio.file.StandardOpenOption; // Import StandardOpenOption to open the file
+import java.util.ArrayList; // Import ArrayList for the recovered bookings
+import java.util.Collection; // Import Collection for the recovered bookings
+import java.util.HashMap; // Import HashMap to track bookings during recovery
+import java.util.List; // Import List for the recovered bookings
+import java.util.concurrent.Future; // Import Future for rebooked passengers
+
+/**
+ * The JournalReader class reads a BookingJournal file record by record, and can rebuild the state of the
+ * dispatcher that wrote it: which bookings were still in flight, and how far each had got.
+ *
+ * The file is mapped one segment at a time and records are read in place. The reader is a cursor: next() moves to
+ * the next record and the getters describe it, so scanning allocates nothing unless names are asked for.
+ */
+public class JournalReader implements AutoCloseable {
+
+	private final FileChannel channel; // The journal file
+	private final boolean ownsChannel; // Whether close() closes the file
+	private final long fileSize; // Size of the file when the reader was opened
+	private final int segmentSize; // Bytes per segment, from the header
+	private MappedByteBuffer segment; // The segment being read
+	private long segmentStart; // File offset of the segment being read
+	private int recordStart; // Offset of the current record in the segment
+	private int recordLength; // Length of the current record
+	private boolean ended; // Whether the end of the journal has been reached
+
+	/**
+	 * Open a journal file for reading.
+	 *
+	 * @param fileName The journal file.
+	 * @throws IOException If the file cannot be read or is not a journal.
+	 */
+	public JournalReader(String fileName) throws IOException {
+		this(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ), true); // Open the file
+	}
+
+	/**
+	 * Read a journal through a channel the caller keeps open, as BookingJournal does when it reopens a file.
+	 */
+	JournalReader(FileChannel channel) throws IOException {
+		this(channel, false); // The caller closes the channel
+	}
+
+	private JournalReader(FileChannel channel, boolean ownsChannel) throws IOException {
+		this.channel = channel; // Store the file
+		this.ownsChannel = ownsChannel;
+		this.fileSize = channel.size(); // Never read past what was there at the start
+		try {
+			if (fileSize < BookingJournal.HEADER_SIZE) {
+				throw new IOException("The file is too short to be a booking journal."); // No header
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BookingJournal.HEADER_SIZE); // Read the header
+			if (header.getInt() != BookingJournal.MAGIC || header.getInt() != BookingJournal.VERSION) {
+				throw new IOException("The file is not a booking journal this version can read."); // Wrong magic or version
+			}
+			this.segmentSize = header.getInt(); // Read the segment size
+			if (segmentSize < BookingJournal.MIN_SEGMENT_SIZE) {
+				throw new IOException("The journal header is damaged."); // Not a size the writer could have used
+			}
+			map(0); // Map the first segment
+			recordStart = BookingJournal.HEADER_SIZE; // Records follow the header
+		} catch (IOException | RuntimeException e) {
+			if (ownsChannel) {
+				channel.close(); // Do not leak the file
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Move to the next record.
+	 *
+	 * @return true if there is a record, false at the end of the journal.
+	 */
+	public boolean next() throws IOException {
+		if (ended) {
+			return false; // Already at the end
+		}
+		int position = recordStart + recordLength; // The record after the current one
+		recordLength = 0;
+		while (true) {
+			if (position + 4 > segment.limit()) {
+				return end(position); // A short last segment, cut back by close()
+			}
+			int length = segment.getInt(position); // The next record's length
+			if (length == BookingJournal.SKIP) {
+				if (segmentStart + segmentSize >= fileSize) {
+					return end(position); // The next segment was never written
+				}
+				map(segmentStart + segmentSize); // The record is in the next segment
+				position = 0;
+				continue;
+			}
+			if (length < BookingJournal.FIXED_SIZE || position + length > segment.limit()) {
+				return end(position); // The end marker, or the tail of a torn write
+			}
+			recordStart = position; // Move to the record
+			recordLength = length;
+			return true;
+		}
+	}
+
+	/**
+	 * Get the type of the current record.
+	 *
+	 * @return The event type.
+	 */
+	public EventLog.Type getType() {
+		return BookingJournal.type(segment.get(recordStart + 4)); // Decode the type
+	}
+
+	/**
+	 * Get the time of the current record on the dispatch clock.
+	 *
+	 * @return The time in milliseconds.
+	 */
+	public long getTime() {
+		return segment.getLong(recordStart + 5); // Read the time
+	}
+
+	/**
+	 * Get the booking the current record is about.
+	 *
+	 * @return The booking ID.
+	 */
+	public long getBookingId() {
+		return segment.getLong(recordStart + 13); // Read the booking ID
+	}
+
+	/**
+	 * Get the driver involved in the current record.
+	 *
+	 * @return The driver's fleet ID, or -1 if there was none.
+	 */
+	public int getDriverId() {
+		return segment.getInt(recordStart + 21); // Read the driver ID
+	}
+
+	/**
+	 * Get the numeric detail of the current record, such as a delay in milliseconds.
+	 *
+	 * @return The value.
+	 */
+	public long getValue() {
+		return segment.getLong(recordStart + 25); // Read the value
+	}
+
+	/**
+	 * Get the service class of a SUBMITTED record.
+	 *
+	 * @return The service class, or null for other records.
+	 */
+	public BookingPriority getPriority() {
+		if (!isSubmission()) {
+			return null; // Only submissions carry it
+		}
+		int ordinal = segment.get(recordStart + BookingJournal.FIXED_SIZE); // Read the class
+		BookingPriority[] priorities = BookingPriority.values();
+		return ordinal >= 0 && ordinal < priorities.length ? priorities[ordinal] : BookingPriority.STANDARD;
+	}
+
+	/**
+	 * Get the deadline of a SUBMITTED record.
+	 *
+	 * @return How long the booking could wait for a driver, or 0 for no deadline or for other records.
+	 */
+	public long getMaxWaitMillis() {
+		return isSubmission() ? segment.getLong(recordStart + BookingJournal.FIXED_SIZE + 1) : 0; // Read the deadline
+	}
+
+	/**
+	 * Build the passenger of a SUBMITTED record.
+	 *
+	 * @return A new Passenger with the recorded name, travel time and location, or null for other records.
+	 */
+	public Passenger getPassenger() {
+		if (!isSubmission()) {
+			return null; // Only submissions carry it
+		}
+		int at = recordStart + BookingJournal.FIXED_SIZE + 9; // After the class and the deadline
+		int maxSleep = segment.getInt(at);
+		double x = segment.getDouble(at + 4), y = segment.getDouble(at + 12);
+		int regionLength = segment.getShort(at + 20);
+		String name = string(at + 22 + regionLength); // The name follows the region
+		return new Passenger(name, maxSleep, x, y); // Rebuild the passenger
+	}
+
+	/**
+	 * Get the region of a SUBMITTED record.
+	 *
+	 * @return The region name, or null for other records.
+	 */
+	public String getRegion() {
+		return isSubmission() ? string(recordStart + BookingJournal.FIXED_SIZE + 29) : null; // Read the region
+	}
+
+	/**
+	 * Get the file position just after the last record read, which is where a writer would append.
+	 *
+	 * @return The position, once next() has returned false.
+	 */
+	long getEndPosition() {
+		return segmentStart + recordStart + recordLength; // After the current record
+	}
+
+	/**
+	 * Get the segment size recorded in the header.
+	 *
+	 * @return The segment size in bytes.
+	 */
+	int getSegmentSize() {
+		return segmentSize; // Return the size
+	}
+
+	/**
+	 * Read the rest of the journal and work out which bookings were still in flight when it was last written.
+	 *
+	 * @return The recovered state.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public Recovery recover() throws IOException {
+		Recovery recovery = new Recovery(); // Filled in as the records are read
+		HashMap<Long, PendingBooking> pending = recovery.pending;
+		while (next()) {
+			recovery.records++; // Count the record
+			recovery.lastTime = Math.max(recovery.lastTime, getTime());
+			EventLog.Type type = getType();
+			if (type == null) {
+				continue; // A type this version does not know
+			}
+			long bookingId = getBookingId();
+			recovery.lastBookingId = Math.max(recovery.lastBookingId, bookingId);
+			switch (type) {
+				case SUBMITTED:
+					pending.put(bookingId, new PendingBooking(bookingId, getRegion(), getPassenger(), getPriority(), getMaxWaitMillis(), getTime()));
+					break;
+				case COMPLETED:
+					recovery.completed++; // The booking is over
+					pending.remove(bookingId);
+					break;
+				case FAILED:
+				case EXPIRED:
+				case DROPPED:
+				case CANCELLED:
+					recovery.failed++; // The booking is over
+					pending.remove(bookingId);
+					break;
+				case REBOOKED:
+					recovery.rebooked++; // A later booking took its place
+					pending.remove(bookingId);
+					break;
+				default:
+					PendingBooking booking = pending.get(bookingId); // Progress of a booking in flight
+					if (booking != null) {
+						booking.lastEvent = type;
+						if (getDriverId() >= 0) {
+							booking.driverId = getDriverId();
+						}
+					}
+					break;
+			}
+		}
+		return recovery; // Return the state
+	}
+
+	/**
+	 * Close the reader.
+	 *
+	 * @throws IOException If the file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (ownsChannel) {
+			channel.close(); // Close the file
+		}
+	}
+
+	private boolean isSubmission() {
+		return getType() == EventLog.Type.SUBMITTED && recordLength > BookingJournal.FIXED_SIZE; // Only submissions carry more
+	}
+
+	private String string(int at) {
+		int length = segment.getShort(at); // The encoded length
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = segment.get(at + 2 + i); // Copy the bytes out of the mapping
+		}
+		return new String(bytes, StandardCharsets.UTF_8); // Decode them
+	}
+
+	private boolean end(int position) {
+		ended = true; // Nothing more to read
+		recordStart = position; // The end of the journal
+		recordLength = 0;
+		return false;
+	}
+
+	private void map(long start) throws IOException {
+		long size = Math.min(segmentSize, fileSize - start); // The last segment may have been cut back
+		segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size); // Map the segment
+		segmentStart = start; // Remember where it is
+	}
+
+	/**
+	 * A booking that was submitted but had not finished when the journal was last written.
+	 */
+	public static class PendingBooking {
+		public final long bookingId; // The booking's ID in the dispatch that wrote the journal
+		public final String region; // The region it was booked in
+		public final Passenger passenger; // Its passenger, rebuilt from the journal
+		public final BookingPriority priority; // Its service class
+		public final long maxWaitMillis; // Its deadline, or 0 for none
+		public final long submittedTime; // When it was submitted, on the dispatch clock
+		EventLog.Type lastEvent = EventLog.Type.SUBMITTED; // How far it got
+		int driverId = -1; // The driver it was matched to, if any
+
+		PendingBooking(long bookingId, String region, Passenger passenger, BookingPriority priority, long maxWaitMillis, long submittedTime) {
+			this.bookingId = bookingId; // Store the details
+			this.region = region;
+			this.passenger = passenger;
+			this.priority = priority;
+			this.maxWaitMillis = maxWaitMillis;
+			this.submittedTime = submittedTime;
+		}
+
+		/**
+		 * Get the last event recorded for the booking.
+		 *
+		 * @return SUBMITTED, ADMITTED, DRIVER_ASSIGNED, PICKING_UP or DRIVING.
+		 */
+		public EventLog.Type getLastEvent() {
+			return lastEvent; // Return the event
+		}
+
+		/**
+		 * Get the driver the booking was matched to.
+		 *
+		 * @return The driver's fleet ID, or -1 if it had not been matched.
+		 */
+		public int getDriverId() {
+			return driverId; // Return the ID
+		}
+
+		@Override
+		public String toString() {
+			return "#" + bookingId + " " + passenger.name + " in " + region + ": " + lastEvent + (driverId >= 0 ? " driver=" + driverId : "");
+		}
+	}
+
+	/**
+	 * The state of a dispatcher rebuilt from its journal.
+	 */
+	public static class Recovery {
+		final HashMap<Long, PendingBooking> pending = new HashMap<>(); // Bookings still in flight, by ID
+		long records; // Records read
+		long completed; // Bookings that completed
+		long failed; // Bookings that failed, expired, were dropped or were cancelled
+		long rebooked; // Bookings made again after an earlier recovery
+		long lastBookingId; // Highest booking ID seen
+		long lastTime; // Latest time seen
+
+		/**
+		 * Get the bookings that were still in flight, in the order they were submitted.
+		 *
+		 * @return The pending bookings.
+		 */
+		public List<PendingBooking> getPending() {
+			List<PendingBooking> list = new ArrayList<>(pending.values());
+			list.sort((a, b) -> Long.compare(a.bookingId, b.bookingId)); // Submission order
+			return list;
+		}
+
+		public long getRecords() {
+			return records;
+		}
+
+		public long getCompleted() {
+			return completed;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		public long getRebooked() {
+			return rebooked;
+		}
+
+		public long getLastBookingId() {
+			return lastBookingId;
+		}
+
+		public long getLastTime() {
+			return lastTime;
+		}
+
+		/**
+		 * Book every pending booking again in a dispatch, with its recorded passenger, region, service class and deadline.
+		 * Bookings the dispatch refuses, for example because their region no longer exists, are left out.
+		 *
+		 * New bookings get IDs above every ID in the journal. If the dispatch journals to the same file, each booking made
+		 * again is marked REBOOKED there, so a later recovery does not book it a second time.
+		 *
+		 * @param dispatch The dispatch to book them in.
+		 * @return The futures of the bookings made.
+		 */
+		public Collection<Future<BookingResult>> rebook(NuberDispatch dispatch) {
+			List<Future<BookingResult>> futures = new ArrayList<>(pending.size());
+			dispatch.reserveBookingIds(lastBookingId); // Keep the new IDs apart from the recorded ones
+			for (PendingBooking booking : getPending()) {
+				Future<BookingResult> future = dispatch.bookPassenger(booking.passenger, booking.region, booking.priority, booking.maxWaitMillis); // Book it again
+				if (future != null) {
+					futures.add(future);
+					BookingJournal journal = dispatch.getJournal();
+					if (journal != null) {
+						journal.append(dispatch.getClock().currentTimeMillis(), EventLog.Type.REBOOKED, booking.bookingId, -1, 0); // The old booking is settled
+					}
+				}
+			}
+			return futures; // Return the futures
+		}
+
+		@Override
+		public String toString() {
+			return records + " records, " + completed + " completed, " + failed + " failed, " + rebooked + " rebooked, " + pending.size() + " in flight";
+		}
+	}
+
+	/**
+	 * Print a summary of a journal file and the bookings it shows in flight.
+	 *
+	 * @param args The journal file name.
+	 * @throws IOException If the file cannot be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: JournalReader <journal file>"); // Explain the arguments
+			System.exit(2);
+		}
+		long started = System.nanoTime(); // Time the scan
+		try (JournalReader reader = new JournalReader(args[0])) {
+			Recovery recovery = reader.recover(); // Read the whole journal
+			System.out.println(recovery + " in " + (System.nanoTime() - started) / 1_000_000 + "ms");
+			for (PendingBooking booking : recovery.getPending()) {
+				System.out.println("  " + booking); // List the bookings in flight
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.atomic.AtomicLongArray; // Import AtomicLongArray for the bucket counts
+import java.util.concurrent.atomic.LongAccumulator; // Import LongAccumulator to track the maximum without contention
+import java.util.concurrent.atomic.LongAdder; // Import LongAdder to track the sum without contention
+
+/**
+ * The LatencyHistogram class records durations in nanoseconds into log-linear buckets.
+ *
+ * Every power of two is split into 32 buckets, so a reported percentile is within about 3% of the real value,
+ * from one nanosecond up to about 68 seconds (longer values are counted in the last bucket, and the maximum is kept exactly).
+ * Recording is a single atomic increment on a stripe chosen by the recording thread, so threads rarely touch the
+ * same counter, and taking a snapshot only reads the counters and never blocks recording.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5; // 2^5 = 32 buckets per power of two
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Number of buckets per power of two
+	private static final int MAX_EXPONENT = 36; // Largest tracked power of two, 2^36 ns is about 68 seconds
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS; // Total number of buckets
+	private static final int STRIPES = stripeCount(); // Number of independent copies of the counters
+
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS); // Bucket counts, one block of BUCKETS per stripe
+	private final LongAdder sum = new LongAdder(); // Sum of every recorded value
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0); // Largest recorded value
+
+	/**
+	 * Record a duration.
+	 *
+	 * @param nanos The duration in nanoseconds. Negative values are recorded as zero.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos); // Clocks can step backwards, so never record a negative value
+		int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1)); // Spread threads over the stripes
+		counts.incrementAndGet(stripe * BUCKETS + bucketIndex(value)); // Count the value
+		sum.add(value); // Add it to the sum
+		max.accumulate(value); // Track the maximum
+	}
+
+	/**
+	 * Take a snapshot of the histogram while recording continues.
+	 *
+	 * @return The snapshot.
+	 */
+	public Snapshot snapshot() {
+		long[] merged = new long[BUCKETS]; // Bucket counts summed over the stripes
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				merged[bucket] += counts.get(stripe * BUCKETS + bucket); // Add the stripe's count
+			}
+		}
+		return new Snapshot(merged, sum.sum(), max.get()); // Return the merged counts
+	}
+
+	/**
+	 * Find the bucket for a value.
+	 *
+	 * @param value The value, zero or more.
+	 * @return The bucket index.
+	 */
+	private static int bucketIndex(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value; // Small values each have their own bucket
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value); // Position of the highest set bit
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1; // Count values beyond the range in the last bucket
+		}
+		int shift = exponent - SUB_BUCKET_BITS; // Bits dropped from the value
+		return shift * SUB_BUCKETS + (int) (value >>> shift); // The top bits select the bucket within the power of two
+	}
+
+	/**
+	 * Find the largest value counted in a bucket.
+	 *
+	 * @param index The bucket index.
+	 * @return The bucket's upper bound.
+	 */
+	private static long bucketUpperBound(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index; // Small values each have their own bucket
+		}
+		int shift = index / SUB_BUCKETS - 1; // Bits dropped from values in this bucket
+		long mantissa = index - shift * SUB_BUCKETS; // The top bits of values in this bucket
+		return ((mantissa + 1) << shift) - 1; // The largest value with those top bits
+	}
+
+	/**
+	 * Choose the number of stripes, a power of two close to the number of processors.
+	 *
+	 * @return The number of stripes.
+	 */
+	private static int stripeCount() {
+		int processors = Math.min(8, Runtime.getRuntime().availableProcessors()); // More stripes than this only wastes memory
+		return Integer.highestOneBit(Math.max(1, processors)); // Round down to a power of two
+	}
+
+	/**
+	 * A point-in-time copy of a histogram. Snapshots can be merged to combine several histograms.
+	 */
+	public static class Snapshot {
+
+		private final long[] counts; // Count of values in each bucket
+		private final long count; // Total number of values
+		private final long sum; // Sum of the values
+		private final long max; // Largest value
+
+		Snapshot(long[] counts, long sum, long max) {
+			long total = 0; // Add up the bucket counts
+			for (long bucketCount : counts) {
+				total += bucketCount;
+			}
+			this.counts = counts; // Store the counts
+			this.count = total; // Store the total
+			this.sum = sum; // Store the sum
+			this.max = max; // Store the maximum
+		}
+
+		/**
+		 * Create an empty snapshot, to merge others into.
+		 *
+		 * @return An empty snapshot.
+		 */
+		public static Snapshot empty() {
+			return new Snapshot(new long[BUCKETS], 0, 0); // No values
+		}
+
+		/**
+		 * Combine this snapshot with another.
+		 *
+		 * @param other The snapshot to add.
+		 * @return A new snapshot holding the values of both.
+		 */
+		public Snapshot merge(Snapshot other) {
+			long[] merged = new long[BUCKETS]; // Summed bucket counts
+			for (int i = 0; i < BUCKETS; i++) {
+				merged[i] = counts[i] + other.counts[i]; // Add the counts
+			}
+			return new Snapshot(merged, sum + other.sum, Math.max(max, other.max)); // Return the combination
+		}
+
+		/**
+		 * Take away an earlier snapshot of the same histogram, leaving the values recorded between the two.
+		 * The maximum of the difference is the upper bound of its highest bucket, as the exact value is not known.
+		 *
+		 * @param earlier The earlier snapshot.
+		 * @return A new snapshot holding the values recorded since the earlier one.
+		 */
+		public Snapshot minus(Snapshot earlier) {
+			long[] difference = new long[BUCKETS]; // Bucket counts recorded in between
+			long highest = 0; // Upper bound of the highest bucket with values
+			for (int i = 0; i < BUCKETS; i++) {
+				difference[i] = Math.max(0, counts[i] - earlier.counts[i]); // Never negative, even if the snapshots are swapped
+				if (difference[i] > 0) {
+					highest = i == BUCKETS - 1 ? max : Math.min(bucketUpperBound(i), max);
+				}
+			}
+			return new Snapshot(difference, Math.max(0, sum - earlier.sum), highest); // Return the difference
+		}
+
+		/**
+		 * Get a percentile.
+		 *
+		 * @param percentile The percentile, between 0 and 100.
+		 * @return The value in nanoseconds that the given percentage of values are at or below, or 0 if there are no values.
+		 */
+		public long getPercentile(double percentile) {
+			if (count == 0) {
+				return 0; // No values recorded
+			}
+			long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100.0); // Position of the value wanted
+			long seen = 0; // Values counted so far
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i]; // Count the bucket
+				if (seen >= Math.max(1, rank)) {
+					return i == BUCKETS - 1 ? max : Math.min(bucketUpperBound(i), max); // Never report more than the real maximum
+				}
+			}
+			return max; // Only reached if counts changed while merging
+		}
+
+		/**
+		 * Get the number of values.
+		 *
+		 * @return The count.
+		 */
+		public long getCount() {
+			return count; // Return the count
+		}
+
+		/**
+		 * Get the mean value.
+		 *
+		 * @return The mean in nanoseconds, or 0 if there are no values.
+		 */
+		public long getMean() {
+			return count == 0 ? 0 : sum / count; // Return the mean
+		}
+
+		/**
+		 * Get the largest value.
+		 *
+		 * @return The maximum in nanoseconds.
+		 */
+		public long getMax() {
+			return max; // Return the maximum
+		}
+
+		/**
+		 * Describe the snapshot in milliseconds.
+		 *
+		 * @return The count, mean, p50, p99, p99.9 and maximum.
+		 */
+		@Override
+		public String toString() {
+			return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms",
+					count, getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(99) / 1e6, getPercentile(99.9) / 1e6, max / 1e6);
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package nuber.students; // Define the package for this class
+
+import java.io.IOException; // Import IOException for streams read from files
+import java.io.PrintStream; // Import PrintStream for progress reports
+import java.io.UncheckedIOException; // Import UncheckedIOException to report stream errors from clock events
+import java.util.HashMap; // Import HashMap for the region information
+import java.util.concurrent.TimeUnit; // Import TimeUnit for time conversions
+import java.util.concurrent.locks.LockSupport; // Import LockSupport to wait for the next arrival
+
+/**
+ * The LoadGenerator class replays an ArrivalStream against a dispatch as open-loop load: each booking is made at
+ * its arrival time, whether or not earlier bookings have finished, and the generator never waits for a result.
+ * This is how real passengers behave, so queueing shows up in the measured latency instead of slowing the load.
+ *
+ * On the system clock the arrivals are replayed in real time, optionally sped up. The generator also records
+ * how late it made each booking, since a generator that falls behind hides latency. When the dispatch runs on a
+ * DiscreteEventClock each arrival is an event on that clock, so hours of traffic run in seconds.
+ *
+ * Arrivals are read one at a time and no booking is kept once it is made, so a run can last for hours with flat
+ * memory. Progress, with throughput and latency over the last interval, is printed while the run goes on.
+ */
+public class LoadGenerator {
+
+	private final ArrivalStream arrivals; // The bookings to make
+	private final int maxSleep; // Maximum sleep time of the passengers created
+	private double speedup = 1; // How much faster than recorded the arrivals are replayed
+	private PrintStream progress = System.out; // Where progress is printed, or null
+	private long progressIntervalMillis = 10_000; // Time between progress reports
+
+	private final CompletionTracker tracker = new CompletionTracker(); // Finished bookings and their trip times
+	private final LatencyHistogram lag = new LatencyHistogram(); // How late each booking was made, in nanoseconds
+	private long made; // Arrivals read from the stream
+	private long booked; // Bookings the dispatch accepted
+	private long rejected; // Bookings the dispatch refused
+	private long reportedCompleted; // Completed bookings at the last report
+	private long reportedAt; // Time of the last report, on the run's clock
+	private LatencyHistogram.Snapshot reportedTrips = LatencyHistogram.Snapshot.empty(); // Trip times at the last report
+
+	/**
+	 * Constructor for the LoadGenerator class.
+	 *
+	 * @param arrivals The bookings to make. The generator reads it but does not close it.
+	 * @param maxSleep The maximum sleep time of the passengers created, used for arrivals with no travel time.
+	 */
+	public LoadGenerator(ArrivalStream arrivals, int maxSleep) {
+		this.arrivals = arrivals; // Store the stream
+		this.maxSleep = maxSleep; // Store the maximum sleep time
+	}
+
+	/**
+	 * Replay real-time arrivals faster than recorded, such as a day of trace in an hour. Only the arrivals are sped up;
+	 * trips take as long as the dispatch clock says. Virtual-time runs ignore this.
+	 *
+	 * @param speedup How many times faster to replay, greater than 0.
+	 */
+	public void setSpeedup(double speedup) {
+		if (!(speedup > 0)) {
+			throw new IllegalArgumentException("The speedup must be positive."); // Arrivals would never come
+		}
+		this.speedup = speedup; // Store the speedup
+	}
+
+	/**
+	 * Set where progress is printed and how often.
+	 *
+	 * @param progress       Where to print, or null for no progress reports.
+	 * @param intervalMillis Time between reports on the run's clock.
+	 */
+	public void setProgress(PrintStream progress, long intervalMillis) {
+		this.progress = progress; // Store the stream
+		this.progressIntervalMillis = Math.max(1, intervalMillis); // Store the interval
+	}
+
+	/**
+	 * Replay the arrivals against a dispatch and wait for every booking to finish. A dispatch on a DiscreteEventClock
+	 * is loaded in virtual time, and the run is timed on that clock; any other is loaded in real time.
+	 * The dispatch's result listener is replaced for the run.
+	 *
+	 * @param dispatch The dispatch to load.
+	 * @return What happened.
+	 * @throws IOException          If the stream cannot be read.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public Result run(NuberDispatch dispatch) throws IOException, InterruptedException {
+		dispatch.setResultListener(tracker); // Count bookings as they finish
+		if (dispatch.getClock() instanceof DiscreteEventClock) {
+			return runVirtual(dispatch, (DiscreteEventClock) dispatch.getClock()); // Replay on the event clock
+		}
+		long start = System.nanoTime(); // The run starts now
+		long interval = TimeUnit.MILLISECONDS.toNanos(progressIntervalMillis);
+		long nextReport = start + interval; // When to report progress next
+		ArrivalStream.Arrival arrival;
+		while ((arrival = arrivals.next()) != null) {
+			long due = start + (long) (arrival.offsetMillis * 1_000_000.0 / speedup); // When the booking should be made
+			long now;
+			while ((now = System.nanoTime()) < due) {
+				if (now >= nextReport) {
+					report(dispatch, TimeUnit.NANOSECONDS.toMillis(now - start)); // Report while waiting
+					nextReport += interval;
+				}
+				LockSupport.parkNanos(Math.min(due, nextReport) - now); // Sleep until the booking or the report is due
+				if (Thread.interrupted()) {
+					throw new InterruptedException(); // Stop the run
+				}
+			}
+			lag.record(now - due); // How late the booking is made
+			book(dispatch, arrival);
+			if (now >= nextReport) {
+				report(dispatch, TimeUnit.NANOSECONDS.toMillis(now - start)); // Report even when never idle
+				nextReport += interval;
+			}
+		}
+		int expected = Math.toIntExact(booked); // Every accepted booking finishes, completed or failed
+		tracker.awaitCompletion(expected, progressIntervalMillis, t -> report(dispatch, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+		return result(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)); // Describe the run
+	}
+
+	/**
+	 * Replay the arrivals in virtual time, until every booking has finished.
+	 *
+	 * @return What happened, timed on the simulation clock.
+	 */
+	private Result runVirtual(NuberDispatch dispatch, DiscreteEventClock clock) throws IOException {
+		long start = clock.currentTimeMillis(); // The run starts now
+		reportedAt = 0;
+		try {
+			scheduleNext(dispatch, clock, start, arrivals.next()); // Schedule the first arrival; each arrival schedules the next
+			scheduleReport(dispatch, clock, start);
+			clock.run(); // Run every booking to completion
+		} catch (UncheckedIOException e) {
+			throw e.getCause(); // The stream failed part way through
+		}
+		return result(clock.currentTimeMillis() - start); // Describe the run
+	}
+
+	private void scheduleNext(NuberDispatch dispatch, DiscreteEventClock clock, long start, ArrivalStream.Arrival arrival) {
+		if (arrival == null) {
+			return; // The stream has ended
+		}
+		clock.schedule(start + arrival.offsetMillis - clock.currentTimeMillis(), () -> {
+			book(dispatch, arrival); // Make the booking at its arrival time
+			try {
+				scheduleNext(dispatch, clock, start, arrivals.next()); // Then read the next one
+			} catch (IOException e) {
+				throw new UncheckedIOException(e); // Report it from run()
+			}
+		});
+	}
+
+	private void scheduleReport(NuberDispatch dispatch, DiscreteEventClock clock, long start) {
+		clock.schedule(progressIntervalMillis, () -> {
+			report(null, clock.currentTimeMillis() - start); // Report on virtual time
+			if (clock.getPendingEvents() > 0) {
+				scheduleReport(dispatch, clock, start); // Keep reporting while there is work left
+			}
+		});
+	}
+
+	private void book(NuberDispatch dispatch, ArrivalStream.Arrival arrival) {
+		Passenger passenger = new Passenger("P-" + ++made, maxSleep, arrival.travelTime); // Create the passenger
+		if (dispatch.bookPassengerAsync(passenger, arrival.region) != null) { // Trips wait on the dispatch timer, not on region threads
+			booked++; // The dispatch took the booking
+		} else {
+			rejected++; // The region is unknown or full, or the dispatch is shutting down
+		}
+	}
+
+	/**
+	 * Print throughput and trip time percentiles over the interval since the last report.
+	 */
+	private void report(NuberDispatch dispatch, long elapsedMillis) {
+		if (progress == null) {
+			return; // Reports are off
+		}
+		long completed = tracker.getCompleted();
+		LatencyHistogram.Snapshot trips = tracker.getTripDurations();
+		LatencyHistogram.Snapshot window = trips.minus(reportedTrips); // Trips finished in the interval
+		long windowMillis = Math.max(1, elapsedMillis - reportedAt);
+		StringBuilder line = new StringBuilder(160);
+		line.append(String.format("%ds: arrivals=%d booked=%d completed=%d failed=%d | last %ds: %.1f bookings/s trip p50=%dms p99=%dms",
+				elapsedMillis / 1000, made, booked, completed, tracker.getFailed(), windowMillis / 1000,
+				(completed - reportedCompleted) * 1000.0 / windowMillis, window.getPercentile(50), window.getPercentile(99)));
+		if (dispatch != null) {
+			line.append(String.format(" | lag p99=%.1fms active=%d queued=%d", lag.snapshot().getPercentile(99) / 1e6,
+					dispatch.getActiveBookings(), dispatch.getQueuedBookings()));
+		}
+		progress.println(line);
+		reportedCompleted = completed; // Start the next interval
+		reportedTrips = trips;
+		reportedAt = elapsedMillis;
+	}
+
+	private Result result(long elapsedMillis) {
+		return new Result(elapsedMillis, made, booked, rejected, tracker.getCompleted(), tracker.getFailed(), tracker.getTripDurations(), lag.snapshot());
+	}
+
+	/**
+	 * What happened in a load run.
+	 */
+	public static class Result {
+		public final long elapsedMillis; // Length of the run on its clock, including the wait for the last booking
+		public final long arrivals; // Arrivals read from the stream
+		public final long booked; // Bookings the dispatch accepted
+		public final long rejected; // Bookings the dispatch refused
+		public final long completed; // Bookings that finished their trip
+		public final long failed; // Bookings that ended with an error
+		public final LatencyHistogram.Snapshot tripDuration; // Booking to arrival, in milliseconds
+		public final LatencyHistogram.Snapshot lag; // How late each booking was made, in nanoseconds; empty in virtual time
+
+		Result(long elapsedMillis, long arrivals, long booked, long rejected, long completed, long failed,
+				LatencyHistogram.Snapshot tripDuration, LatencyHistogram.Snapshot lag) {
+			this.elapsedMillis = elapsedMillis; // Store the figures
+			this.arrivals = arrivals;
+			this.booked = booked;
+			this.rejected = rejected;
+			this.completed = completed;
+			this.failed = failed;
+			this.tripDuration = tripDuration;
+			this.lag = lag;
+		}
+
+		/**
+		 * Get the sustained throughput over the whole run.
+		 *
+		 * @return Completed bookings per second.
+		 */
+		public double getThroughput() {
+			return elapsedMillis <= 0 ? 0 : completed * 1000.0 / elapsedMillis; // Bookings per second
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Arrivals: %d, booked: %d, rejected: %d, completed: %d, failed: %d in %dms%n"
+					+ "Throughput: %.1f bookings/s%n"
+					+ "Trip duration: mean=%dms p50=%dms p90=%dms p99=%dms p999=%dms max=%dms%n"
+					+ "Generator lag: p50=%.3fms p99=%.3fms max=%.3fms",
+					arrivals, booked, rejected, completed, failed, elapsedMillis, getThroughput(),
+					tripDuration.getMean(), tripDuration.getPercentile(50), tripDuration.getPercentile(90),
+					tripDuration.getPercentile(99), tripDuration.getPercentile(99.9), tripDuration.getMax(),
+					lag.getPercentile(50) / 1e6, lag.getPercentile(99) / 1e6, lag.getMax() / 1e6);
+		}
+	}
+
+	/**
+	 * Run a load test from the command line.
+	 *
+	 * Usage: LoadGenerator regions drivers maxSleep source... [--simulated] [--speedup N]
+	 * where regions is a list such as North:50,South:50 and source is one of
+	 * trace FILE, poisson RATE SECONDS, bursty CALM_RATE BURST_RATE SECONDS or diurnal MEAN_RATE PERIOD_SECONDS SECONDS.
+	 *
+	 * @param args The arguments.
+	 * @throws Exception If the run fails.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 5) {
+			System.err.println("Usage: LoadGenerator <Region:maxJobs,...> <drivers> <maxSleep> "
+					+ "(trace <file> | poisson <rate> <seconds> | bursty <calmRate> <burstRate> <seconds> | diurnal <meanRate> <periodSeconds> <seconds>) "
+					+ "[--simulated] [--speedup <n>]");
+			System.exit(2);
+		}
+		HashMap<String, Integer> regions = new HashMap<>();
+		for (String region : args[0].split(",")) {
+			String[] parts = region.split(":"); // Name and maximum simultaneous jobs
+			regions.put(parts[0], parts.length > 1 ? Integer.parseInt(parts[1]) : 50);
+		}
+		int drivers = Integer.parseInt(args[1]);
+		int maxSleep = Integer.parseInt(args[2]);
+		String[] regionNames = regions.keySet().toArray(new String[0]);
+		int next = 4; // Index of the first argument after the source
+		ArrivalStream arrivals;
+		switch (args[3]) {
+			case "trace":
+				arrivals = TraceArrivals.open(args[4]);
+				next = 5;
+				break;
+			case "poisson":
+				arrivals = SyntheticArrivals.poisson(Double.parseDouble(args[4]), regionNames, maxSleep, Long.parseLong(args[5]) * 1000, System.nanoTime());
+				next = 6;
+				break;
+			case "bursty":
+				arrivals = SyntheticArrivals.bursty(Double.parseDouble(args[4]), Double.parseDouble(args[5]), 30_000, 5_000,
+						regionNames, maxSleep, Long.parseLong(args[6]) * 1000, System.nanoTime());
+				next = 7;
+				break;
+			case "diurnal":
+				arrivals = SyntheticArrivals.diurnal(Double.parseDouble(args[4]), 0.8, Long.parseLong(args[5]) * 1000,
+						regionNames, maxSleep, Long.parseLong(args[6]) * 1000, System.nanoTime());
+				next = 7;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown arrival source: " + args[3]);
+		}
+		boolean simulated = false;
+		double speedup = 1;
+		for (int i = next; i < args.length; i++) {
+			if (args[i].equals("--simulated")) {
+				simulated = true; // Run in virtual time
+			} else if (args[i].equals("--speedup")) {
+				speedup = Double.parseDouble(args[++i]); // Replay faster
+			}
+		}
+		try {
+			LoadGenerator generator = new LoadGenerator(arrivals, maxSleep);
+			generator.setSpeedup(speedup);
+			new Simulation(regions, drivers, generator, maxSleep, false, simulated ? new DiscreteEventClock() : NuberClock.SYSTEM);
+		} finally {
+			arrivals.close(); // Close the trace
+		}
+	}
+}
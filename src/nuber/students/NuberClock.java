@@ -0,0 +1,52 @@
+package nuber.students; // Define the package for this class
+
+import java.util.concurrent.TimeUnit; // Import TimeUnit for time conversions
+
+/**
+ * The NuberClock interface is the source of time for drivers, bookings and simulations.
+ * Swapping the clock lets the same code run in real time or in simulated time.
+ */
+public interface NuberClock {
+
+	/**
+	 * The clock backed by the system time, used unless another clock is given.
+	 */
+	NuberClock SYSTEM = new SystemClock();
+
+	/**
+	 * Get the current time.
+	 *
+	 * @return The current time in milliseconds.
+	 */
+	long currentTimeMillis();
+
+	/**
+	 * Get the current time for measuring intervals and deadlines. Only the difference between two readings means anything.
+	 *
+	 * @return The current time in nanoseconds.
+	 */
+	default long nanoTime() {
+		return TimeUnit.MILLISECONDS.toNanos(currentTimeMillis()); // As fine as the clock goes
+	}
+
+	/**
+	 * Let the given amount of time pass for the calling thread.
+	 *
+	 * @param millis The time to wait in milliseconds.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	void sleep(long millis) throws InterruptedException;
+
+	/**
+	 * A task waiting for a delay to pass on a clock, which can be cancelled until it runs.
+	 */
+	interface Timeout {
+
+		/**
+		 * Cancel the task so it never runs.
+		 *
+		 * @return true if it was cancelled, false if it had already run or been cancelled.
+		 */
+		boolean cancel();
+	}
+}
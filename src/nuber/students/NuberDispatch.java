@@ -3,79 +3,685 @@ package nuber.students; // Define the package for this class
 import java.util.*; // Import the collections framework
 import java.util.concurrent.*; // Import the concurrent utilities
 import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger for atomic counting
+import java.util.concurrent.atomic.AtomicLong; // Import AtomicLong to hand out booking IDs
+import java.util.function.BiConsumer; // Import BiConsumer for the completion listener
 
 public class NuberDispatch { // Define the NuberDispatch class
 
-	private final int MAX_DRIVERS = 999; // Define the maximum number of drivers
-	private boolean logEvents = false; // Flag to indicate if event logging is enabled
-	private final BlockingQueue<Driver> idleDrivers = new LinkedBlockingQueue<>(); // Blocking queue to store idle drivers
+	private static final int EVENT_LOG_CAPACITY = 1 << 16; // Events the console log can hold before it starts dropping them
+	private final EventLog eventLog; // Where booking events are recorded, or null if logging is disabled
+	private volatile BookingJournal journal; // Where booking events are made durable, or null
+	private final AtomicLong nextBookingId = new AtomicLong(0); // Last booking ID handed out
+	private final AtomicInteger nextJobId = new AtomicInteger(0); // Last job ID given to a completed booking
+	private final boolean ownsEventLog; // Whether shutdown() should close the event log
 	private final HashMap<String, NuberRegion> regions = new HashMap<>(); // HashMap to store region information
+	private final NuberRegion[] regionRing; // The regions in a fixed order, for giving drivers a home and for stealing
+	private final AtomicInteger nextHome = new AtomicInteger(0); // Round-robin position for drivers added without a home region
+	private volatile StealingPolicy stealingPolicy = StealingPolicy.NEXT_NEIGHBOUR; // Where a region looks once its own drivers run out
+	private final FleetRegistry fleet = new FleetRegistry(); // Stable IDs and per-driver state for every driver added
 	private final AtomicInteger bookingsAwaitingDriver = new AtomicInteger(0); // Counter to track bookings waiting for drivers
-	private final ExecutorService executorService = Executors.newFixedThreadPool(MAX_DRIVERS); // Create a fixed thread pool
+	private final BookingMetrics unroutedMetrics = new BookingMetrics(); // Counts bookings rejected before reaching a region
+	private volatile BiConsumer<BookingResult, Throwable> resultListener; // Told about every booking as it finishes, or null
+	private volatile ResultStore resultStore; // Where completed trips are kept for analysis, or null
+	private volatile OverflowPolicy overflowPolicy = OverflowPolicy.REJECT; // What happens to a booking with no room
+	private volatile long blockTimeoutNanos = TimeUnit.SECONDS.toNanos(1); // How long a BLOCK policy waits for room
+	private volatile Semaphore globalCapacity; // Places for bookings across all regions, or null for no limit
+	private final ExecutionMode executionMode; // The kind of threads used to run bookings
+	private final NuberClock clock; // The clock used to time bookings and pass time during trips
+	private final DiscreteEventClock events; // Fires the timeouts as events in virtual time, or null in real time
+	private final ExecutorService stageExecutor; // Runs asynchronous booking stages so the timer thread only fires timeouts; null in virtual time
+	private final HashedTimingWheel timer; // Fires the pickup, travel and deadline timeouts of asynchronous bookings; null in virtual time
 
 	/**
-	 * Constructor for the NuberDispatch class.
+	 * Constructor for the NuberDispatch class, running bookings on platform threads.
 	 *
 	 * @param regionInfo HashMap containing region names and their maximum booking limits.
 	 * @param logEvents  Flag to enable or disable event logging.
 	 */
 	public NuberDispatch(HashMap<String, Integer> regionInfo, boolean logEvents) {
-		this.logEvents = logEvents; // Initialize the log events flag
+		this(regionInfo, logEvents, ExecutionMode.PLATFORM); // Default to the original platform thread behaviour
+	}
+
+	/**
+	 * Constructor for the NuberDispatch class with a configurable execution mode.
+	 *
+	 * In VIRTUAL mode every booking runs on its own virtual thread, still limited by its region's maximum simultaneous jobs.
+	 *
+	 * @param regionInfo    HashMap containing region names and their maximum booking limits.
+	 * @param logEvents     Flag to enable or disable event logging.
+	 * @param executionMode The kind of threads used to run bookings.
+	 */
+	public NuberDispatch(HashMap<String, Integer> regionInfo, boolean logEvents, ExecutionMode executionMode) {
+		this(regionInfo, logEvents, executionMode, NuberClock.SYSTEM); // Default to real time
+	}
+
+	/**
+	 * Constructor for the NuberDispatch class with a configurable execution mode and clock.
+	 *
+	 * @param regionInfo    HashMap containing region names and their maximum booking limits.
+	 * @param logEvents     Flag to enable or disable event logging.
+	 * @param executionMode The kind of threads used to run bookings.
+	 * A DiscreteEventClock runs the dispatch in virtual time. Its timeouts are then events on the clock instead of
+	 * on a timer thread, and every booking runs as asynchronous stages on the thread that runs the clock, so trips
+	 * go through the same regions, scheduling and driver pools as in real time and take the same time on the clock.
+	 * Nothing can finish while that thread waits, so a BLOCK overflow policy refuses at once, and waiting for a
+	 * driver with getAvailableDriver() fails if none is idle. Bookings finish as the clock runs, or in shutdown().
+	 *
+	 * @param regionInfo    HashMap containing region names and their maximum booking limits.
+	 * @param logEvents     Flag to enable or disable event logging.
+	 * @param executionMode The kind of threads used to run bookings.
+	 * @param clock         The clock used to time bookings and pass time during trips.
+	 */
+	public NuberDispatch(HashMap<String, Integer> regionInfo, boolean logEvents, ExecutionMode executionMode, NuberClock clock) {
+		this(regionInfo, logEvents ? EventLog.toConsole(EVENT_LOG_CAPACITY) : null, true, executionMode, clock, DriverPool.DEFAULT_CELL_SIZE); // Log to the console
+	}
+
+	/**
+	 * Constructor for the NuberDispatch class that records booking events in the given event log,
+	 * for example one writing to a file. The caller closes the log after shutting the dispatch down.
+	 *
+	 * @param regionInfo    HashMap containing region names and their maximum booking limits.
+	 * @param eventLog      Where to record booking events, or null to disable event logging.
+	 * @param executionMode The kind of threads used to run bookings.
+	 * @param clock         The clock used to time bookings and pass time during trips, which may be a DiscreteEventClock.
+	 */
+	public NuberDispatch(HashMap<String, Integer> regionInfo, EventLog eventLog, ExecutionMode executionMode, NuberClock clock) {
+		this(regionInfo, eventLog, executionMode, clock, DriverPool.DEFAULT_CELL_SIZE); // The default grid
+	}
+
+	/**
+	 * Constructor for the NuberDispatch class with the cell size of each region's grid of idle drivers.
+	 *
+	 * @param regionInfo    HashMap containing region names and their maximum booking limits.
+	 * @param eventLog      Where to record booking events, or null to disable event logging.
+	 * @param executionMode The kind of threads used to run bookings.
+	 * @param clock         The clock used to time bookings and pass time during trips, as in the constructor above.
+	 * @param gridCellSize  The width of a grid cell, around the typical distance between idle drivers, in location units.
+	 * @throws IllegalArgumentException If the cell size is not positive.
+	 */
+	public NuberDispatch(HashMap<String, Integer> regionInfo, EventLog eventLog, ExecutionMode executionMode, NuberClock clock, double gridCellSize) {
+		this(regionInfo, eventLog, false, executionMode, clock, gridCellSize); // The caller owns the log
+	}
+
+	private NuberDispatch(HashMap<String, Integer> regionInfo, EventLog eventLog, boolean ownsEventLog, ExecutionMode executionMode, NuberClock clock,
+			double gridCellSize) {
+		if (!(gridCellSize > 0)) {
+			throw new IllegalArgumentException("The grid cell size must be positive."); // Before any thread is started; also rejects NaN
+		}
+		this.eventLog = eventLog; // Initialize the event log
+		this.ownsEventLog = ownsEventLog; // Initialize the ownership flag
+		this.clock = clock; // Initialize the clock
+		this.events = clock instanceof DiscreteEventClock ? (DiscreteEventClock) clock : null; // Virtual time, if the clock runs events
+		this.executionMode = executionMode; // Initialize the execution mode
+		this.regionRing = new NuberRegion[regionInfo.size()]; // One place per region
 		for (Map.Entry<String, Integer> entry : regionInfo.entrySet()) { // Iterate over region information
 			String regionName = entry.getKey(); // Get the region name
 			int maxBookings = entry.getValue(); // Get the maximum booking limit
-			regions.put(regionName, new NuberRegion(this, regionName, maxBookings)); // Create and store NuberRegion instances
+			NuberRegion region = new NuberRegion(this, regionName, maxBookings, gridCellSize); // Create the NuberRegion instance
+			region.ringIndex = regions.size(); // Its place in the ring
+			regionRing[region.ringIndex] = region;
+			regions.put(regionName, region); // Store it
 		}
+		if (events != null) {
+			this.stageExecutor = null; // Stages run on the thread that runs the clock
+			this.timer = null; // And their timeouts are events on it
+			return;
+		}
+		// Started last, so a constructor that throws above leaves no threads behind
+		this.stageExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemonThreads("nuber-stage"));
+		this.timer = new HashedTimingWheel(1, TimeUnit.MILLISECONDS, 1024, stageExecutor, "nuber-timer"); // Its ticker thread starts here
 	}
 
 	/**
-	 * Add a new driver to the idle drivers queue.
+	 * Add a new driver, giving the regions a home driver each in turn.
 	 *
 	 * @param newDriver The driver to add
 	 * @return true if successfully added, otherwise false.
 	 */
-	public synchronized boolean addDriver(Driver newDriver) {
-		if (idleDrivers.size() < MAX_DRIVERS) { // Check if the number of idle drivers exceeds the maximum
-			idleDrivers.add(newDriver); // Add the driver to the idle queue
-			return true; // Return success
-		} else {
+	public boolean addDriver(Driver newDriver) {
+		if (regionRing.length == 0) {
+			return false; // There is no region for the driver to work in
+		}
+		NuberRegion home = regionRing[Math.floorMod(nextHome.getAndIncrement(), regionRing.length)]; // Next region in turn
+		return addDriver(newDriver, home.getRegionName()); // Add the driver there
+	}
+
+	/**
+	 * Add a new driver whose home is the given region. The driver waits in that region's pool whenever it is idle,
+	 * and serves that region's bookings first.
+	 *
+	 * The driver is given a stable ID in the fleet registry. There is no limit on the size of the fleet.
+	 *
+	 * @param newDriver The driver to add
+	 * @param region    The driver's home region.
+	 * @return true if successfully added, false if the region does not exist or the driver has already been added.
+	 */
+	public boolean addDriver(Driver newDriver, String region) {
+		NuberRegion home = regions.get(region); // Get the home region
+		if (home == null || newDriver.id >= 0) { // Check the region exists and the driver is new
 			return false; // Return failure
 		}
+		newDriver.setClock(clock); // Drivers pass time on the dispatch clock
+		newDriver.homeRegion = home; // Give the driver its home
+		fleet.register(newDriver); // Give the driver its ID
+		addAvailableDriver(newDriver); // Add the driver to its pool, or hand it to a waiting booking
+		return true; // Return success
+	}
+
+	/**
+	 * Take a driver out of service. An idle driver is removed straight away; a driver on a trip finishes it
+	 * and is removed instead of becoming idle again. A driver taken by a booking at the moment it is removed
+	 * may still make that one trip.
+	 *
+	 * @param driver The driver to remove.
+	 * @return true if the driver was in service, false if it was never added or has already been removed.
+	 */
+	public boolean removeDriver(Driver driver) {
+		if (driver.id < 0 || driver.retired || fleet.get(driver.id) != driver) {
+			return false; // Not one of this dispatch's drivers in service
+		}
+		driver.retired = true; // Stop the driver being made idle again
+		if (homeOf(driver.homeRegion).driverPool.remove(driver)) {
+			fleet.markRemoved(driver); // It was idle, so it is out of service now
+		}
+		return true; // The driver is leaving
+	}
+
+	/**
+	 * Get the fleet registry, which holds the ID and state of every driver added to the dispatch.
+	 *
+	 * @return The fleet registry.
+	 */
+	public FleetRegistry getFleet() {
+		return fleet; // Return the registry
 	}
 
 	/**
 	 * Get an available driver, blocking if no driver is available.
+	 * A caller outside any region waits in the first region, taking drivers from the others as the stealing policy allows.
 	 *
 	 * @return The available driver
 	 * @throws InterruptedException If the thread is interrupted while waiting.
 	 */
-	public synchronized Driver getAvailableDriver() throws InterruptedException {
-		while (idleDrivers.isEmpty()) { // If no idle drivers are available
-			wait(); // Wait until a driver becomes available
+	public Driver getAvailableDriver() throws InterruptedException {
+		return acquireDriver(null, null); // Wait until a driver is handed over
+	}
+
+	/**
+	 * Get an available driver, waiting up to the given time for one.
+	 *
+	 * @param timeout The maximum time to wait.
+	 * @param unit    The unit of the timeout.
+	 * @return The available driver, or null if none became available in time.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public Driver getAvailableDriver(long timeout, TimeUnit unit) throws InterruptedException {
+		return acquireDriver(null, null, timeout, unit); // Wait a limited time for a driver
+	}
+
+	/**
+	 * Get an idle driver without waiting.
+	 *
+	 * @return An idle driver, or null if none are idle.
+	 */
+	public Driver pollAvailableDriver() {
+		return pollDriver(homeOf(null), null); // Take an idle driver if there is one
+	}
+
+	/**
+	 * Get the idle driver nearest a passenger in a region without waiting, falling back to other regions
+	 * as the stealing policy allows.
+	 *
+	 * @param passenger The passenger.
+	 * @param region    The region name.
+	 * @return The nearest idle driver, or null if none are idle.
+	 */
+	public Driver pollNearestDriver(Passenger passenger, String region) {
+		NuberRegion nuberRegion = regions.get(region); // Get the specified region
+		if (nuberRegion == null) {
+			throw new IllegalArgumentException("Unknown region " + region); // The region does not exist
 		}
-		notifyAll(); // Wake up all waiting threads
-		return idleDrivers.poll(); // Return an idle driver
+		return pollDriver(nuberRegion, passenger); // Take the nearest idle driver if there is one
 	}
 
 	/**
-	 * Re-add a driver to the idle queue and notify waiting threads.
+	 * Return a driver to its home region, handing it directly to one waiting booking if there is one.
+	 * If nobody is waiting at home, the driver may go to a booking waiting in another region, as the stealing policy allows.
 	 *
 	 * @param driver The driver to add
 	 */
-	public synchronized void addAvailableDriver(Driver driver) {
-		idleDrivers.add(driver); // Add the driver back to the idle queue
-		notifyAll(); // Wake up all waiting threads
+	public void addAvailableDriver(Driver driver) {
+		if (driver.retired) {
+			fleet.markRemoved(driver); // The driver was removed during its trip, so it leaves now
+			return;
+		}
+		NuberRegion home = homeOf(driver.homeRegion); // The driver's home region
+		fleet.setState(driver, FleetRegistry.State.IDLE); // The driver is free
+		home.driverPool.release(driver); // Hand it to a waiting booking at home, or make it idle there
+		if (driver.retired && home.driverPool.remove(driver)) {
+			fleet.markRemoved(driver); // Removed while being made idle, so take it back out
+			return;
+		}
+		if (stealingPolicy != StealingPolicy.NEVER) {
+			pushIdleDrivers(home); // A booking elsewhere may be waiting for a driver the home region does not need
+		}
+	}
+
+	/**
+	 * Take a driver for a booking in the given region, waiting as long as necessary.
+	 * Of the idle drivers, the one nearest the passenger is taken. A driver handed over just as the thread is
+	 * interrupted goes back through addAvailableDriver(), like any driver that finishes with a booking.
+	 *
+	 * @param region    The booking's region, or null for the first region.
+	 * @param passenger The passenger, or null if location does not matter.
+	 * @return The driver.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	Driver acquireDriver(NuberRegion region, Person passenger) throws InterruptedException {
+		NuberRegion home = homeOf(region); // Where the booking waits
+		Driver driver = pollDriver(home, passenger); // Try the idle drivers first
+		if (driver == null && events != null) {
+			throw new IllegalStateException("No driver is idle, and none can be released while the simulation thread waits."); // It would wait forever
+		}
+		return driver != null ? driver : home.driverPool.await(waitForDriver(home, passenger), this::addAvailableDriver); // Wait for a driver to be handed over
+	}
+
+	/**
+	 * Take a driver for a booking in the given region, waiting up to the given time.
+	 *
+	 * @param region    The booking's region, or null for the first region.
+	 * @param passenger The passenger, or null if location does not matter.
+	 * @param timeout   The maximum time to wait.
+	 * @param unit      The unit of the timeout.
+	 * @return The driver, or null if none was handed over in time.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	Driver acquireDriver(NuberRegion region, Person passenger, long timeout, TimeUnit unit) throws InterruptedException {
+		NuberRegion home = homeOf(region); // Where the booking waits
+		Driver driver = pollDriver(home, passenger); // Try the idle drivers first
+		if (driver == null && events != null) {
+			return null; // Nothing can release a driver in virtual time while the simulation thread waits
+		}
+		return driver != null ? driver : home.driverPool.await(waitForDriver(home, passenger), timeout, unit, this::addAvailableDriver); // Wait a limited time for a driver
+	}
+
+	/**
+	 * Get a future that completes with a driver for a booking in the given region as soon as one is available.
+	 *
+	 * @param region    The booking's region, or null for the first region.
+	 * @param passenger The passenger, or null if location does not matter.
+	 * @return A future for the driver.
+	 */
+	CompletableFuture<Driver> acquireDriverAsync(NuberRegion region, Person passenger) {
+		NuberRegion home = homeOf(region); // Where the booking waits
+		Driver driver = pollDriver(home, passenger); // Try the idle drivers first
+		return driver != null ? CompletableFuture.completedFuture(driver) : waitForDriver(home, passenger); // Queue for a driver without blocking
+	}
+
+	/**
+	 * Wait for a future from acquireDriverAsync() to be given a driver.
+	 *
+	 * @param region The booking's region, or null for the first region.
+	 * @param waiter The future.
+	 * @return The driver, or null if the future was withdrawn while waiting.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	Driver awaitDriver(NuberRegion region, CompletableFuture<Driver> waiter) throws InterruptedException {
+		return homeOf(region).driverPool.await(waiter, this::addAvailableDriver); // Wait in the pool the future was queued in
+	}
+
+	/**
+	 * Wait up to the given time for a future from acquireDriverAsync() to be given a driver.
+	 *
+	 * @param region  The booking's region, or null for the first region.
+	 * @param waiter  The future.
+	 * @param timeout The maximum time to wait.
+	 * @param unit    The unit of the timeout.
+	 * @return The driver, or null if none was handed over in time or the future was withdrawn.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	Driver awaitDriver(NuberRegion region, CompletableFuture<Driver> waiter, long timeout, TimeUnit unit) throws InterruptedException {
+		return homeOf(region).driverPool.await(waiter, timeout, unit, this::addAvailableDriver); // Wait a limited time in the pool the future was queued in
+	}
+
+	/**
+	 * Take a future from acquireDriverAsync() out of its region's queue for drivers, so no driver is handed to it.
+	 *
+	 * @param region The booking's region, or null for the first region.
+	 * @param waiter The future.
+	 * @return true if it was withdrawn, false if it already has a driver, which its owner must pass on.
+	 */
+	boolean withdrawWaiter(NuberRegion region, CompletableFuture<Driver> waiter) {
+		return homeOf(region).driverPool.withdraw(waiter); // Withdraw it from the pool it was queued in
+	}
+
+	/**
+	 * Take up to the given number of idle drivers for bookings in a region at once, without waiting:
+	 * the region's own drivers first, then drivers taken from other regions as the stealing policy allows.
+	 *
+	 * @param region The bookings' region.
+	 * @param max    The maximum number of drivers to take.
+	 * @return The drivers taken, possibly none.
+	 */
+	List<Driver> drainAvailableDrivers(NuberRegion region, int max) {
+		List<Driver> drivers = new ArrayList<>(Math.min(max, region.driverPool.getIdleCount())); // Size for what is likely available locally
+		region.driverPool.drainTo(max, drivers); // Take the region's own idle drivers
+		Driver driver;
+		while (drivers.size() < max && (driver = stealDriver(region, null)) != null) {
+			drivers.add(driver); // Make up the rest from other regions
+		}
+		return drivers; // Return the drivers
+	}
+
+	/**
+	 * Take an idle driver for a region without waiting: its own first, then one from another region.
+	 *
+	 * @param home The region.
+	 * @param near The passenger, whose nearest idle driver is taken, or null.
+	 * @return The driver, or null if none could be taken.
+	 */
+	private Driver pollDriver(NuberRegion home, Person near) {
+		Driver driver = home.driverPool.tryAcquire(near); // The region's own idle drivers come first
+		return driver != null ? driver : stealDriver(home, near); // Then another region's, if the policy allows
+	}
+
+	/**
+	 * Queue for a driver in a region. After the waiter is visible, idle drivers in other regions are checked once,
+	 * since one may have become idle there while the region was being checked.
+	 *
+	 * @param home The region.
+	 * @param near The passenger, whose nearest idle driver is taken, or null.
+	 * @return The waiter.
+	 */
+	private CompletableFuture<Driver> waitForDriver(NuberRegion home, Person near) {
+		CompletableFuture<Driver> waiter = home.driverPool.acquireAsync(near); // Queue in the region's own pool
+		while (!waiter.isDone() && home.driverPool.hasWaiters()) {
+			Driver driver = stealDriver(home, near); // Look for an idle driver elsewhere
+			if (driver == null) {
+				break; // None, so the waiter is served by the next release
+			}
+			if (!home.driverPool.tryHandOff(driver)) { // The waiters were served meanwhile
+				addAvailableDriver(driver); // Send the driver home
+				break;
+			}
+		}
+		return waiter; // Return the waiter
+	}
+
+	/**
+	 * Hand idle drivers of a region to bookings waiting in other regions, while both exist.
+	 *
+	 * @param home The region whose idle drivers may be handed over.
+	 */
+	private void pushIdleDrivers(NuberRegion home) {
+		for (int i = 1; i < regionRing.length; i++) { // Every other region, starting after the home region
+			NuberRegion other = regionRing[(home.ringIndex + i) % regionRing.length];
+			while (other.driverPool.hasWaiters()) { // Only needed while somebody there is waiting
+				Driver driver = home.driverPool.tryAcquire(); // Take an idle driver
+				if (driver == null) {
+					return; // No idle drivers left at home
+				}
+				if (!other.driverPool.tryHandOff(driver)) { // The waiters were served meanwhile
+					home.driverPool.release(driver); // Put the driver back
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Take an idle driver from a region other than the given one, as the stealing policy allows.
+	 *
+	 * @param thief The region that needs a driver.
+	 * @param near  The passenger, whose nearest idle driver in the other region is taken, or null.
+	 * @return The driver, or null if none could be taken.
+	 */
+	private Driver stealDriver(NuberRegion thief, Person near) {
+		StealingPolicy policy = stealingPolicy; // Read the policy once
+		if (policy == StealingPolicy.NEVER || regionRing.length < 2) {
+			return null; // Stealing is off, or there is nobody to steal from
+		}
+		if (policy == StealingPolicy.MOST_IDLE) {
+			NuberRegion victim = null; // The region with the most idle drivers
+			for (NuberRegion region : regionRing) {
+				if (region != thief && region.driverPool.getIdleCount() > 0
+						&& (victim == null || region.driverPool.getIdleCount() > victim.driverPool.getIdleCount())) {
+					victim = region;
+				}
+			}
+			Driver driver = victim == null ? null : victim.driverPool.tryAcquire(near); // Take one of its drivers
+			if (driver != null || victim == null) {
+				return driver; // Taken, or nobody had an idle driver
+			}
+			// The driver was taken by someone else meanwhile, so fall back to checking every region in turn
+		}
+		for (int i = 1; i < regionRing.length; i++) { // Every other region, starting after the thief
+			Driver driver = regionRing[(thief.ringIndex + i) % regionRing.length].driverPool.tryAcquire(near); // Try its idle drivers
+			if (driver != null) {
+				return driver; // Stolen
+			}
+		}
+		return null; // No region had an idle driver
+	}
+
+	/**
+	 * Get the region a booking or driver belongs to, using the first region when it has none.
+	 *
+	 * @param region The region, or null.
+	 * @return The region.
+	 * @throws IllegalStateException If the dispatch has no regions.
+	 */
+	private NuberRegion homeOf(NuberRegion region) {
+		if (region != null) {
+			return region; // The region given
+		}
+		if (regionRing.length == 0) {
+			throw new IllegalStateException("Dispatch has no regions to find a driver in."); // Nowhere to look
+		}
+		return regionRing[0]; // Default to the first region
+	}
+
+	/**
+	 * Set where a region looks for drivers once its own have run out.
+	 *
+	 * @param policy The stealing policy.
+	 */
+	public void setStealingPolicy(StealingPolicy policy) {
+		this.stealingPolicy = policy; // Store the policy
+	}
+
+	/**
+	 * Get the stealing policy.
+	 *
+	 * @return The stealing policy.
+	 */
+	public StealingPolicy getStealingPolicy() {
+		return stealingPolicy; // Return the policy
+	}
+
+	/**
+	 * Get the names of the dispatch's regions, in the order of its ring of regions.
+	 *
+	 * @return The region names.
+	 */
+	public List<String> getRegionNames() {
+		List<String> names = new ArrayList<>(regionRing.length); // One name per region
+		for (NuberRegion region : regionRing) {
+			names.add(region.getRegionName()); // Add the region's name
+		}
+		return names; // Return the names
+	}
+
+	/**
+	 * Get the number of idle drivers in every region.
+	 *
+	 * @return The number of idle drivers.
+	 */
+	public int getIdleDrivers() {
+		int idle = 0; // Sum over the regions
+		for (NuberRegion region : regionRing) {
+			idle += region.driverPool.getIdleCount(); // Add the region's idle drivers
+		}
+		return idle; // Return the total
 	}
 
 	/**
 	 * Log an event if logging is enabled.
 	 *
+	 * The message is recorded as free text, so callers on a hot path should check isLogging() before building it.
+	 *
 	 * @param booking  The associated booking information.
 	 * @param message  The message to log.
 	 */
 	public void logEvent(Booking booking, String message) {
-		if (!logEvents) return; // If logging is not enabled, return immediately
-		System.out.println(booking + ": " + message); // Print the log message
+		if (eventLog == null) return; // If logging is not enabled, return immediately
+		eventLog.log(clock.currentTimeMillis(), EventLog.Type.MESSAGE, booking == null ? null : booking.regionName,
+				booking == null ? null : booking.passenger, message); // Record the message
+	}
+
+	/**
+	 * Log a booking lifecycle event if logging is enabled, and report the end of a phase to the booking recorder.
+	 * Nothing is allocated when neither is recording.
+	 *
+	 * @param type    The event type.
+	 * @param booking The booking.
+	 * @param driver  The driver involved, or null.
+	 * @param value   The numeric detail of the event, such as a delay in milliseconds.
+	 */
+	void logEvent(EventLog.Type type, Booking booking, Driver driver, long value) {
+		record(type, booking, driver); // Profile the phase that ended
+		BookingJournal journal = this.journal; // Read the journal once
+		if (eventLog == null && journal == null) return; // If logging is not enabled, return immediately
+		long now = clock.currentTimeMillis(); // Both records carry the same time
+		if (eventLog != null) {
+			eventLog.log(now, type, booking.regionName, booking.passenger, driver, value); // Record the event
+		}
+		if (journal != null) {
+			journal.append(now, type, booking, driver, value); // Make the event durable
+		}
+	}
+
+	/**
+	 * Log a failed booking if logging is enabled.
+	 *
+	 * @param booking The booking.
+	 * @param error   What went wrong.
+	 */
+	void logFailure(Booking booking, Throwable error) {
+		BookingRecorder.INSTANCE.rejected(booking.regionName, booking, null, EventLog.Type.FAILED, 1); // Profile the failure
+		BookingJournal journal = this.journal; // Read the journal once
+		if (eventLog == null && journal == null) return; // If logging is not enabled, return immediately
+		long now = clock.currentTimeMillis(); // Both records carry the same time
+		if (eventLog != null) {
+			eventLog.log(now, EventLog.Type.FAILED, booking.regionName, booking.passenger, String.valueOf(error)); // Record the error
+		}
+		if (journal != null) {
+			journal.append(now, EventLog.Type.FAILED, booking, null, 0); // The journal keeps the outcome, not the message
+		}
+	}
+
+	/**
+	 * Log refused bookings if logging is enabled.
+	 *
+	 * @param region The region that refused them, or the unknown region name.
+	 * @param count  The number of bookings.
+	 */
+	void logRejected(String region, int count) {
+		BookingRecorder.INSTANCE.rejected(region, null, null, EventLog.Type.REJECTED, count); // Profile the refusal
+		if (eventLog == null) return; // If logging is not enabled, return immediately
+		eventLog.log(clock.currentTimeMillis(), EventLog.Type.REJECTED, region, null, null, count); // Record the rejection
+	}
+
+	/**
+	 * Tell the booking recorder about the phase a lifecycle event ends. Picking up is reported when driving starts,
+	 * and the drive when the booking completes, since those are the events that follow them.
+	 */
+	private static void record(EventLog.Type type, Booking booking, Driver driver) {
+		BookingRecorder recorder = BookingRecorder.INSTANCE;
+		switch (type) {
+			case SUBMITTED:
+				recorder.submitted(booking); // Entered the region queue
+				break;
+			case ADMITTED:
+				recorder.admitted(booking); // Left the region queue
+				break;
+			case DRIVER_ASSIGNED:
+				recorder.driverAcquired(booking, driver); // Stopped waiting for a driver
+				break;
+			case DRIVING:
+				recorder.pickedUp(booking, driver); // The pickup is over
+				break;
+			case COMPLETED:
+				recorder.completed(booking, driver); // The drive is over
+				break;
+			case EXPIRED:
+			case DROPPED:
+			case CANCELLED:
+				recorder.rejected(booking.regionName, booking, driver, type, 1); // Ended without a trip
+				break;
+			default:
+				break; // Nothing ends with the other events
+		}
+	}
+
+	/**
+	 * Check whether event logging is enabled.
+	 *
+	 * @return true if events are being recorded.
+	 */
+	public boolean isLogging() {
+		return eventLog != null; // Logging is on when there is a log
+	}
+
+	/**
+	 * Get the event log.
+	 *
+	 * @return The event log, or null if logging is disabled.
+	 */
+	public EventLog getEventLog() {
+		return eventLog; // Return the log
+	}
+
+	/**
+	 * Record booking lifecycle events in a journal as well as the event log, so in-flight bookings can be
+	 * recovered with a JournalReader if the process dies. The caller owns the journal and closes it after
+	 * shutting down the dispatch.
+	 *
+	 * @param journal The journal, or null to stop journaling.
+	 */
+	public void setJournal(BookingJournal journal) {
+		this.journal = journal; // Later events go to the new journal
+	}
+
+	/**
+	 * Get the booking journal.
+	 *
+	 * @return The journal, or null if bookings are not being journaled.
+	 */
+	public BookingJournal getJournal() {
+		return journal; // Return the journal
+	}
+
+	/**
+	 * Hand out the next booking ID.
+	 */
+	long nextBookingId() {
+		return nextBookingId.incrementAndGet(); // IDs start at 1
+	}
+
+	/**
+	 * Hand out the next job ID for a completed booking. Each dispatch counts its own jobs, so dispatches running
+	 * side by side do not share a counter.
+	 */
+	int nextJobId() {
+		return nextJobId.incrementAndGet(); // IDs start at 1
+	}
+
+	/**
+	 * Make sure later booking IDs are above those already used, so bookings recovered from a journal keep their own IDs.
+	 */
+	void reserveBookingIds(long lastUsed) {
+		nextBookingId.accumulateAndGet(lastUsed, Math::max); // Never move backwards
 	}
 
 	/**
@@ -86,16 +692,521 @@ public class NuberDispatch { // Define the NuberDispatch class
 	 * @return A Future object representing the booking result.
 	 */
 	public Future<BookingResult> bookPassenger(Passenger passenger, String region) {
+		return bookPassenger(passenger, region, BookingPriority.STANDARD, 0); // Standard class, no deadline
+	}
+
+	/**
+	 * Book a passenger in the specified region with a service class and an optional deadline.
+	 *
+	 * Waiting bookings are admitted earliest deadline first, where a booking without a deadline is due at its
+	 * submission time plus its class's target wait. A booking with a deadline that has not been given a driver
+	 * by then fails with a TimeoutException, without taking a driver, and leaves the region queue as soon as the
+	 * deadline passes.
+	 *
+	 * Cancelling the returned Future cancels the booking until its passenger is on board: a queued booking leaves
+	 * the queue, one waiting for a driver gives up its place, and a driver already on the way is released at once.
+	 *
+	 * @param passenger     Passenger information.
+	 * @param region        The booking region.
+	 * @param priority      The service class of the booking.
+	 * @param maxWaitMillis How long the booking may wait for a driver, or 0 for no deadline.
+	 * @return A Future object representing the booking result, or null if the region is invalid or shut down.
+	 */
+	public Future<BookingResult> bookPassenger(Passenger passenger, String region, BookingPriority priority, long maxWaitMillis) {
+		return submitWithPolicy(passenger, region, priority, maxWaitMillis, false); // Run the booking on the region's executor
+	}
+
+	/**
+	 * Book a passenger in the specified region, waiting up to the given time for room if the region's queue
+	 * or the dispatch capacity is full, whatever the overflow policy.
+	 *
+	 * @param passenger Passenger information.
+	 * @param region    The booking region.
+	 * @param timeout   How long to wait for room.
+	 * @param unit      The unit of the timeout.
+	 * @return A Future object representing the booking result, or null if the region is invalid or shut down,
+	 *         or there was still no room when the timeout passed.
+	 * @throws InterruptedException If the thread is interrupted while waiting for room.
+	 */
+	public Future<BookingResult> tryBookPassenger(Passenger passenger, String region, long timeout, TimeUnit unit) throws InterruptedException {
+		return submit(passenger, region, BookingPriority.STANDARD, 0, false, OverflowPolicy.BLOCK, unit.toNanos(timeout)); // Wait for room
+	}
+
+	/**
+	 * Book a passenger under the current overflow policy, treating an interrupted wait for room as a refusal.
+	 */
+	private CompletableFuture<BookingResult> submitWithPolicy(Passenger passenger, String region, BookingPriority priority, long maxWaitMillis, boolean async) {
+		try {
+			return submit(passenger, region, priority, maxWaitMillis, async, overflowPolicy, blockTimeoutNanos); // Apply the policy
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // Restore the interrupted status
+			return null; // The booking was not accepted
+		}
+	}
+
+	/**
+	 * Book a passenger, taking a place in the dispatch capacity and then in the region's queue,
+	 * and applying an overflow policy when either is full.
+	 *
+	 * @param passenger     Passenger information.
+	 * @param region        The booking region.
+	 * @param priority      The service class of the booking.
+	 * @param maxWaitMillis How long the booking may wait for a driver, or 0 for no deadline.
+	 * @param async         true to run the booking as asynchronous stages.
+	 * @param policy        What to do if there is no room.
+	 * @param timeoutNanos  How long a BLOCK policy waits for room, shared between the two limits.
+	 * @return A future for the booking result, or null if the booking was refused.
+	 * @throws InterruptedException If the thread is interrupted while waiting for room.
+	 */
+	private CompletableFuture<BookingResult> submit(Passenger passenger, String region, BookingPriority priority, long maxWaitMillis,
+			boolean async, OverflowPolicy policy, long timeoutNanos) throws InterruptedException {
+		if (events != null) {
+			timeoutNanos = 0; // Nothing finishes in virtual time while the simulation thread waits, so BLOCK refuses at once
+		}
 		NuberRegion nuberRegion = regions.get(region); // Get the specified region
 		if (nuberRegion == null || nuberRegion.isShutdown()) { // Check if the region is valid
+			rejectBookings(region, nuberRegion, 1); // Count the rejection
 			return null; // Return null if the region is invalid or shut down
 		}
-		bookingsAwaitingDriver.incrementAndGet(); // Increment the count of bookings waiting for drivers
-		Callable<BookingResult> callable = () -> { // Create a Callable object to handle the booking
-			Booking booking = new Booking(this, passenger); // Create a new Booking object
-			return booking.call(); // Execute the booking and return the result
-		};
-		return executorService.submit(callable); // Submit the task to the thread pool and return the Future
+		long deadline = System.nanoTime() + timeoutNanos; // When a BLOCK policy stops waiting
+		Semaphore capacity = globalCapacity; // Read the capacity once
+		if (capacity != null && !acquirePlace(capacity, nuberRegion, policy, timeoutNanos)) {
+			if (policy == OverflowPolicy.CALLER_RUNS) {
+				return nuberRegion.runOnCaller(passenger, priority, maxWaitMillis, async); // Run it without a place
+			}
+			rejectBookings(region, nuberRegion, 1); // Count the rejection
+			return null; // No room in the dispatch
+		}
+		CompletableFuture<BookingResult> future = null; // The booking, if the region accepts it
+		try {
+			long remaining = Math.max(0, deadline - System.nanoTime()); // What is left of the wait for the region's queue
+			future = nuberRegion.submitBooking(passenger, priority, maxWaitMillis, async, policy, remaining, capacity); // Queue the booking in the region so its job limit applies
+		} finally {
+			if (future == null) { // The region refused the booking, or the wait was interrupted
+				if (capacity != null) {
+					capacity.release(); // Give back its place
+				}
+			}
+		}
+		return future; // Return the future
+	}
+
+	/**
+	 * Take a place in the dispatch capacity according to the overflow policy.
+	 *
+	 * @param capacity     The dispatch capacity.
+	 * @param region       The region the booking is for, where DROP_OLDEST makes room.
+	 * @param policy       What to do if there is no place.
+	 * @param timeoutNanos How long a BLOCK policy waits.
+	 * @return true if a place was taken.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	private boolean acquirePlace(Semaphore capacity, NuberRegion region, OverflowPolicy policy, long timeoutNanos) throws InterruptedException {
+		if (capacity.tryAcquire()) {
+			return true; // There was room
+		}
+		switch (policy) {
+			case BLOCK:
+				Trampoline.drain(); // Bookings queued to start on this thread may be the ones to finish
+				return capacity.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS); // Wait for a booking to finish
+			case DROP_OLDEST:
+				// The dropped booking gives back its place before dropOldest() returns, but another caller may take it first
+				return region.dropOldest() && capacity.tryAcquire();
+			default:
+				return false; // REJECT and CALLER_RUNS do not wait
+		}
+	}
+
+	/**
+	 * Book a batch of passengers in the specified region in one pass.
+	 *
+	 * The region is looked up and the waiting count updated once for the whole batch, the region admits the
+	 * batch with a single lock acquisition, and idle drivers are matched to the admitted bookings in bulk.
+	 *
+	 * @param passengers The passengers to book, in arrival order.
+	 * @param region     The booking region.
+	 * Bookings that find no room in the dispatch capacity or the region's queue are refused whatever the
+	 * overflow policy: their futures fail with a RejectedExecutionException.
+	 *
+	 * @return Futures for the booking results in the same order as the passengers, or null if the region is invalid or shut down.
+	 */
+	public List<Future<BookingResult>> bookPassengers(Collection<Passenger> passengers, String region) {
+		NuberRegion nuberRegion = regions.get(region); // Get the specified region
+		if (nuberRegion == null || nuberRegion.isShutdown()) { // Check if the region is valid
+			rejectBookings(region, nuberRegion, passengers.size()); // Count the rejection
+			return null; // Return null if the region is invalid or shut down
+		}
+		Semaphore capacity = globalCapacity; // Read the capacity once
+		int places = passengers.size(); // Places the batch holds in the dispatch capacity
+		if (capacity != null) {
+			places = 0; // Take places one at a time, as far as they go
+			while (places < passengers.size() && capacity.tryAcquire()) {
+				places++; // One more booking has room
+			}
+		}
+		return nuberRegion.bookPassengers(passengers, capacity, places); // Admit the batch in the region
+	}
+
+	/**
+	 * Book a passenger in the specified region without tying up a thread for the length of the trip.
+	 *
+	 * The booking is admitted by its region like any other, but from then on it only waits on futures:
+	 * the driver pool completes the driver acquisition and the dispatch timer completes the pickup and drive.
+	 *
+	 * @param passenger Passenger information.
+	 * @param region    The booking region.
+	 * @return A CompletableFuture that completes with the booking result, or null if the region is invalid or shut down.
+	 */
+	public CompletableFuture<BookingResult> bookPassengerAsync(Passenger passenger, String region) {
+		return bookPassengerAsync(passenger, region, BookingPriority.STANDARD, 0); // Standard class, no deadline
+	}
+
+	/**
+	 * Book a passenger asynchronously with a service class and an optional deadline, as in
+	 * bookPassenger(Passenger, String, BookingPriority, long).
+	 *
+	 * @param passenger     Passenger information.
+	 * @param region        The booking region.
+	 * @param priority      The service class of the booking.
+	 * @param maxWaitMillis How long the booking may wait for a driver, or 0 for no deadline.
+	 * @return A CompletableFuture that completes with the booking result, or null if the region is invalid or shut down.
+	 */
+	public CompletableFuture<BookingResult> bookPassengerAsync(Passenger passenger, String region, BookingPriority priority, long maxWaitMillis) {
+		return submitWithPolicy(passenger, region, priority, maxWaitMillis, true); // Run the booking as asynchronous stages
+	}
+
+	/**
+	 * Set what happens to a booking that arrives when there is no room for it, either in its region's queue
+	 * or in the dispatch capacity. The default is REJECT.
+	 *
+	 * @param policy The overflow policy.
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy) {
+		this.overflowPolicy = Objects.requireNonNull(policy); // Store the policy
+	}
+
+	/**
+	 * Get the overflow policy.
+	 *
+	 * @return The overflow policy.
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy; // Return the policy
+	}
+
+	/**
+	 * Set how long a booking waits for room under the BLOCK policy before it is refused. The default is one second.
+	 *
+	 * @param timeout How long to wait.
+	 * @param unit    The unit of the timeout.
+	 */
+	public void setBlockTimeout(long timeout, TimeUnit unit) {
+		this.blockTimeoutNanos = unit.toNanos(timeout); // Store the timeout
+	}
+
+	/**
+	 * Get how long a booking waits for room under the BLOCK policy, in nanoseconds.
+	 *
+	 * @return The block timeout.
+	 */
+	long getBlockTimeoutNanos() {
+		return blockTimeoutNanos; // Return the timeout
+	}
+
+	/**
+	 * Limit the number of bookings accepted and not yet finished across all regions, whether queued or running.
+	 * Bookings already accepted are not counted against a new limit.
+	 *
+	 * @param maxBookings The limit, or 0 for no limit.
+	 */
+	public void setGlobalCapacity(int maxBookings) {
+		if (maxBookings < 0) {
+			throw new IllegalArgumentException("The capacity cannot be negative."); // Reject a negative limit
+		}
+		globalCapacity = maxBookings == 0 ? null : new Semaphore(maxBookings); // Start counting afresh
+	}
+
+	/**
+	 * Limit the number of bookings that may wait for a free slot in each region's queue.
+	 *
+	 * @param capacity The queue capacity of every region.
+	 */
+	public void setRegionQueueCapacity(int capacity) {
+		for (NuberRegion region : regionRing) {
+			region.setQueueCapacity(capacity); // Limit the region's queue
+		}
+	}
+
+	/**
+	 * Limit the number of bookings that may wait for a free slot in one region's queue.
+	 *
+	 * @param region   The region name.
+	 * @param capacity The queue capacity.
+	 */
+	public void setRegionQueueCapacity(String region, int capacity) {
+		NuberRegion nuberRegion = regions.get(region); // Get the specified region
+		if (nuberRegion == null) {
+			throw new IllegalArgumentException("Unknown region " + region); // The region does not exist
+		}
+		nuberRegion.setQueueCapacity(capacity); // Limit the region's queue
+	}
+
+	/**
+	 * Let every region's simultaneous job limit adapt at runtime between two bounds. Each region adapts on its own.
+	 *
+	 * @param algorithm How the limits react, or null to go back to the fixed limits.
+	 * @param minLimit  The lowest limit of a region, at least 1.
+	 * @param maxLimit  The highest limit of a region.
+	 */
+	public void setAdaptiveLimits(AdaptiveLimit.Algorithm algorithm, int minLimit, int maxLimit) {
+		for (NuberRegion region : regionRing) {
+			region.setAdaptiveLimit(algorithm, minLimit, maxLimit); // Adapt the region's limit
+		}
+	}
+
+	/**
+	 * Let one region's simultaneous job limit adapt at runtime between two bounds.
+	 *
+	 * @param region    The region name.
+	 * @param algorithm How the limit reacts, or null to go back to the fixed limit.
+	 * @param minLimit  The lowest limit, at least 1.
+	 * @param maxLimit  The highest limit.
+	 */
+	public void setAdaptiveLimit(String region, AdaptiveLimit.Algorithm algorithm, int minLimit, int maxLimit) {
+		NuberRegion nuberRegion = regions.get(region); // Get the specified region
+		if (nuberRegion == null) {
+			throw new IllegalArgumentException("Unknown region " + region); // The region does not exist
+		}
+		nuberRegion.setAdaptiveLimit(algorithm, minLimit, maxLimit); // Adapt the region's limit
+	}
+
+	/**
+	 * Let every region group waiting bookings into shared rides, so one driver serves several passengers on one trip.
+	 *
+	 * @param policy The capacity, batching window and detour limit, or null to give every passenger their own trip.
+	 */
+	public void setPooling(PoolingPolicy policy) {
+		for (NuberRegion region : regionRing) {
+			region.setPooling(policy); // Pool the region's bookings
+		}
+	}
+
+	/**
+	 * Let one region group waiting bookings into shared rides.
+	 *
+	 * @param region The region name.
+	 * @param policy The capacity, batching window and detour limit, or null to give every passenger their own trip.
+	 */
+	public void setPooling(String region, PoolingPolicy policy) {
+		NuberRegion nuberRegion = regions.get(region); // Get the specified region
+		if (nuberRegion == null) {
+			throw new IllegalArgumentException("Unknown region " + region); // The region does not exist
+		}
+		nuberRegion.setPooling(policy); // Pool the region's bookings
+	}
+
+	/**
+	 * Get a future that completes with the given value once a delay has passed, without a thread waiting for it.
+	 *
+	 * @param delayMillis The delay in milliseconds.
+	 * @param value       The value to complete the future with.
+	 * @param <T>         The type of the value.
+	 * @return A future that completes after the delay.
+	 */
+	<T> CompletableFuture<T> after(long delayMillis, T value) {
+		if (delayMillis <= 0) {
+			return CompletableFuture.completedFuture(value); // Nothing to wait for, so skip the timer
+		}
+		CompletableFuture<T> future = new CompletableFuture<>(); // Create the future to complete later
+		timeout(delayMillis, () -> future.complete(value)); // The timer thread only fires; the next stage runs on the stage executor
+		return future; // Return the pending future
+	}
+
+	/**
+	 * Run a task on the stage executor once a delay has passed. The delay is kept on the dispatch's timing wheel,
+	 * so any number of waiting trips share one timer thread, and the task runs at most a millisecond late.
+	 * In virtual time the task is an event on the DiscreteEventClock instead, run when the clock reaches it.
+	 *
+	 * @param delayMillis The delay in milliseconds.
+	 * @param task        The task to run.
+	 * @return A handle that cancels the task in constant time, such as a deadline that is no longer needed.
+	 */
+	NuberClock.Timeout timeout(long delayMillis, Runnable task) {
+		if (events != null) {
+			return events.schedule(delayMillis, task); // Run it at that point in virtual time
+		}
+		return timer.schedule(task, delayMillis, TimeUnit.MILLISECONDS); // Put it on the wheel
+	}
+
+	/**
+	 * Check whether the dispatch runs in virtual time, on a DiscreteEventClock.
+	 *
+	 * @return true if its timeouts are events on the clock.
+	 */
+	boolean isVirtualTime() {
+		return events != null; // Virtual time has an event clock
+	}
+
+	/**
+	 * In virtual time, run the clock's events until none are left, so every booking made so far finishes.
+	 * Does nothing in real time, where the timer thread fires the timeouts.
+	 */
+	void runEvents() {
+		if (events != null) {
+			events.run(); // Run every pending event
+		}
+	}
+
+	/**
+	 * Count bookings that could not be routed to a region.
+	 *
+	 * @param region      The region name asked for.
+	 * @param nuberRegion The region that refused the bookings, or null if the region does not exist.
+	 * @param count       The number of bookings.
+	 */
+	private void rejectBookings(String region, NuberRegion nuberRegion, int count) {
+		logRejected(region, count); // Log the rejection
+		if (nuberRegion == null) {
+			unroutedMetrics.recordRejected(count); // No region to count them against
+		} else {
+			nuberRegion.recordRejected(count); // Count them against the region that is shutting down
+		}
+	}
+
+	/**
+	 * Set a listener that is given every booking as it finishes, on the thread that finished it,
+	 * so callers can track completion without polling the futures.
+	 *
+	 * @param listener Receives the result of a completed booking, or the error of a failed one; null to remove.
+	 */
+	public void setResultListener(BiConsumer<BookingResult, Throwable> listener) {
+		this.resultListener = listener; // Store the listener
+	}
+
+	/**
+	 * Keep every trip completed from now on in a columnar store, for aggregate queries over many trips without
+	 * holding on to their BookingResult objects.
+	 *
+	 * @param store The store, created for this dispatch's regions, or null to stop storing trips.
+	 * @throws IllegalArgumentException If the store's regions are not this dispatch's regions in the same order.
+	 */
+	public void setResultStore(ResultStore store) {
+		if (store != null && !store.getRegionNames().equals(getRegionNames())) {
+			throw new IllegalArgumentException("The store was not created for this dispatch's regions."); // Region indexes would not match
+		}
+		this.resultStore = store; // Later trips go to the store
+	}
+
+	/**
+	 * Get the store completed trips are kept in.
+	 *
+	 * @return The store, or null if trips are not being stored.
+	 */
+	public ResultStore getResultStore() {
+		return resultStore; // Return the store
+	}
+
+	/**
+	 * Give back the booking's place in the dispatch capacity, store the trip if it completed and there is a
+	 * result store, and tell the result listener, if there is one, that the booking has finished.
+	 *
+	 * @param booking The booking.
+	 * @param result  The result, or null if the booking failed.
+	 * @param error   The error, or null if the booking completed.
+	 */
+	void bookingFinished(Booking booking, BookingResult result, Throwable error) {
+		booking.releaseCapacity(); // Let another booking in
+		ResultStore store = resultStore; // Read the store once
+		if (store != null && result != null) {
+			store.append(booking, result); // Keep the trip
+		}
+		BiConsumer<BookingResult, Throwable> listener = resultListener; // Read the listener once
+		if (listener != null) {
+			listener.accept(result, error); // Report the booking
+		}
+	}
+
+	/**
+	 * Record that bookings have started waiting for a driver. Each is later taken off the count exactly once,
+	 * by bookingMatched() or bookingWithdrawn(), so the region that creates a booking counts it.
+	 *
+	 * @param count The number of bookings.
+	 */
+	void bookingsWaiting(int count) {
+		bookingsAwaitingDriver.addAndGet(count); // The bookings are waiting
+	}
+
+	/**
+	 * Record that a booking has been handed a driver.
+	 *
+	 * @param booking The booking.
+	 * @param driver  Its driver.
+	 */
+	void bookingMatched(Booking booking, Driver driver) {
+		bookingsAwaitingDriver.decrementAndGet(); // The booking is no longer waiting
+		if (booking.region != null) {
+			booking.region.recordMatch(driver.homeRegion == booking.region); // Count a local or stolen match
+		}
+	}
+
+	/**
+	 * Record that a booking stopped waiting for a driver without being given one,
+	 * because its deadline passed or it was dropped or refused.
+	 *
+	 * @param booking The booking.
+	 */
+	void bookingWithdrawn(Booking booking) {
+		bookingsAwaitingDriver.decrementAndGet(); // The booking is no longer waiting
+	}
+
+	/**
+	 * Take a snapshot of the booking counters and latency histograms of every region combined, without pausing dispatch.
+	 *
+	 * @return The combined metrics snapshot.
+	 */
+	public BookingMetrics.Snapshot getMetrics() {
+		BookingMetrics.Snapshot total = unroutedMetrics.snapshot(); // Start with bookings that never reached a region
+		for (NuberRegion region : regions.values()) {
+			total = total.merge(region.getMetrics()); // Add each region
+		}
+		return total; // Return the combination
+	}
+
+	/**
+	 * Get the metrics of one region.
+	 *
+	 * @param region The region name.
+	 * @return The region's metrics snapshot, or null if the region does not exist.
+	 */
+	public BookingMetrics.Snapshot getMetrics(String region) {
+		NuberRegion nuberRegion = regions.get(region); // Get the specified region
+		return nuberRegion == null ? null : nuberRegion.getMetrics(); // Return its metrics
+	}
+
+	/**
+	 * Get the number of bookings running in every region.
+	 *
+	 * @return The number of active bookings.
+	 */
+	public int getActiveBookings() {
+		int active = 0; // Sum over the regions
+		for (NuberRegion region : regions.values()) {
+			active += region.getActiveBookings(); // Add the region's bookings
+		}
+		return active; // Return the total
+	}
+
+	/**
+	 * Get the number of bookings waiting in every region's queue for a free slot.
+	 *
+	 * @return The number of queued bookings.
+	 */
+	public int getQueuedBookings() {
+		int queued = 0; // Sum over the regions
+		for (NuberRegion region : regions.values()) {
+			queued += region.getQueuedBookings(); // Add the region's queue
+		}
+		return queued; // Return the total
 	}
 
 	/**
@@ -108,20 +1219,50 @@ public class NuberDispatch { // Define the NuberDispatch class
 	}
 
 	/**
-	 * Shut down the dispatch service, stopping all regions and shutting down the thread pool.
+	 * Get the execution mode used to run bookings.
+	 *
+	 * @return The execution mode.
+	 */
+	public ExecutionMode getExecutionMode() {
+		return executionMode; // Return the execution mode
+	}
+
+	/**
+	 * Get the clock used to time bookings.
+	 *
+	 * @return The dispatch clock.
+	 */
+	public NuberClock getClock() {
+		return clock; // Return the clock
+	}
+
+	/**
+	 * Shut down the dispatch service, letting every region finish its queued and active bookings.
 	 */
 	public void shutdown() {
 		for (NuberRegion region : regions.values()) {
 			region.shutdown(); // Shut down all regions
 		}
-		executorService.shutdown(); // Shut down the thread pool
-		try {
-			if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) { // Wait for the thread pool to terminate
-				executorService.shutdownNow(); // Forcefully shut down the thread pool if not terminated in time
-			}
-		} catch (InterruptedException e) {
-			executorService.shutdownNow(); // Handle interruption and forcefully shut down the thread pool
-			Thread.currentThread().interrupt(); // Re-set the thread's interrupted status
+		if (timer != null) {
+			timer.stop(); // Every asynchronous booking has finished, so stop the timer
+			stageExecutor.shutdown(); // And the threads that ran its stages
 		}
+		if (ownsEventLog && eventLog != null) {
+			eventLog.close(); // Write out the remaining events
+		}
+	}
+
+	/**
+	 * Create a thread factory for daemon threads, so background threads never keep the JVM alive.
+	 *
+	 * @param name The name given to each thread.
+	 * @return The thread factory.
+	 */
+	private static ThreadFactory daemonThreads(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name); // Create the thread
+			thread.setDaemon(true); // Mark it as a daemon thread
+			return thread; // Return the thread
+		};
 	}
 }
@@ -2,16 +2,20 @@ package nuber.students; // Define the package for this class
 
 import java.util.*; // Import the collections framework
 import java.util.concurrent.*; // Import the concurrent utilities
-import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger for atomic counting
 
 public class NuberRegion { // Define the NuberRegion class
 
 	private final NuberDispatch dispatch; // Reference to NuberDispatch for logging events
 	private final String regionName; // Name of the region
 	private final int maxSimultaneousJobs; // Maximum number of simultaneous bookings
-	private final BlockingQueue<Booking> bookingsQueue = new LinkedBlockingQueue<>(); // Blocking queue to store bookings
 	private final ExecutorService executorService; // Thread pool to handle bookings
-	private final AtomicInteger activeBookings = new AtomicInteger(0); // Current number of active bookings
+	private final AdmissionScheduler scheduler; // Admits bookings in FIFO order up to the simultaneous job limit
+	private final BookingMetrics metrics = new BookingMetrics(); // Counters and latency histograms for the region's bookings
+	private volatile AdaptiveLimit adaptiveLimit; // Moves the simultaneous job limit at runtime, or null for a fixed limit
+	private volatile PoolingPolicy pooling; // How bookings are grouped into shared rides, or null for one passenger per trip
+	private final List<SharedRide> openRides = new ArrayList<>(); // Shared rides still taking passengers, guarded by itself
+	final DriverPool driverPool; // Idle drivers whose home is this region, and bookings here waiting for one
+	int ringIndex; // The region's place in the dispatch's ring of regions
 	private volatile boolean isShutdown = false; // Flag to indicate if the region is shut down
 
 	/**
@@ -22,80 +26,630 @@ public class NuberRegion { // Define the NuberRegion class
 	 * @param maxSimultaneousJobs  Maximum number of simultaneous bookings.
 	 */
 	public NuberRegion(NuberDispatch dispatch, String regionName, int maxSimultaneousJobs) {
+		this(dispatch, regionName, maxSimultaneousJobs, DriverPool.DEFAULT_CELL_SIZE); // The default grid
+	}
+
+	/**
+	 * Constructor for NuberRegion with the cell size of the grid its idle drivers are kept in.
+	 *
+	 * @param dispatch            Reference to the dispatch service.
+	 * @param regionName          Name of the region.
+	 * @param maxSimultaneousJobs Maximum number of simultaneous bookings.
+	 * @param gridCellSize        The width of a grid cell, around the typical distance between idle drivers.
+	 * @throws IllegalArgumentException If the cell size is not positive.
+	 */
+	public NuberRegion(NuberDispatch dispatch, String regionName, int maxSimultaneousJobs, double gridCellSize) {
+		this.driverPool = new DriverPool(gridCellSize); // Create the pool first, so a bad cell size fails before any threads exist
 		this.dispatch = dispatch; // Initialize dispatch service
 		this.regionName = regionName; // Initialize region name
 		this.maxSimultaneousJobs = maxSimultaneousJobs; // Initialize the maximum number of bookings
-		this.executorService = Executors.newFixedThreadPool(maxSimultaneousJobs); // Create a fixed-size thread pool
-
-		// Start a thread to process bookings in the queue
-		Thread bookingProcessor = new Thread(() -> {
-			while (!isShutdown) { // Until the region is shut down
-				try {
-					Booking booking = bookingsQueue.take(); // Take a booking from the queue
-					if (activeBookings.incrementAndGet() <= maxSimultaneousJobs) { // Check if the active bookings exceed the limit
-						executorService.submit(() -> { // Submit a task to handle the booking
-							try {
-								BookingResult result = booking.call(); // Execute the booking
-								dispatch.logEvent(booking, "Booking completed: " + result); // Log the booking completion event
-							} catch (Exception e) {
-								dispatch.logEvent(booking, "Error in booking: " + e.getMessage()); // Log the error event
-							} finally {
-								activeBookings.decrementAndGet(); // Decrement active bookings after completion
-							}
-						});
-					} else {
-						// If active bookings exceed the limit, put the booking back in the queue
-						bookingsQueue.put(booking); // Put the booking back in the queue
-						activeBookings.decrementAndGet(); // Restore the active bookings count
-					}
-				} catch (InterruptedException e) { // Handle interruptions
-					Thread.currentThread().interrupt(); // Restore the interrupted status
-					break; // Exit the loop
-				}
-			}
-		});
-		bookingProcessor.setDaemon(true); // Set as a daemon thread
-		bookingProcessor.start(); // Start the processing thread
+		// The scheduler never admits more than maxSimultaneousJobs, so a pool of that size never queues work
+		this.executorService = dispatch.getExecutionMode().newExecutor(maxSimultaneousJobs);
+		this.scheduler = new AdmissionScheduler(executorService, maxSimultaneousJobs, dispatch.getClock()); // Create the admission scheduler, due on the dispatch clock
+		metrics.recordLimit(0, maxSimultaneousJobs); // Start the limit gauge
 	}
 
 	/**
 	 * Book a passenger for this region.
 	 *
+	 * The booking waits in the region's admission queue until one of its simultaneous job slots is free,
+	 * then runs once on the region's executor.
+	 *
 	 * @param waitingPassenger The waiting passenger.
-	 * @return A Future representing the booking result.
+	 * @return A Future representing the booking result, or null if the region is shutting down.
 	 */
 	public Future<BookingResult> bookPassenger(Passenger waitingPassenger) {
+		return bookPassenger(waitingPassenger, BookingPriority.STANDARD, 0); // Standard class, no deadline
+	}
+
+	/**
+	 * Book a passenger for this region with a service class and an optional deadline.
+	 *
+	 * Waiting bookings are admitted earliest deadline first. A booking whose deadline passes while it is queued
+	 * is failed with a TimeoutException without being run, and one whose deadline passes while it waits for a
+	 * driver gives up its slot without taking a driver. If the region's queue is full, the dispatch's overflow
+	 * policy decides what happens to the booking.
+	 *
+	 * @param waitingPassenger The waiting passenger.
+	 * @param priority         The service class of the booking.
+	 * @param maxWaitMillis    How long the booking may wait for a driver, or 0 for no deadline.
+	 * @return A Future representing the booking result, or null if the region is shutting down or refused the booking.
+	 */
+	public Future<BookingResult> bookPassenger(Passenger waitingPassenger, BookingPriority priority, long maxWaitMillis) {
+		return submitWithPolicy(waitingPassenger, priority, maxWaitMillis, false); // Run the booking on the region's executor
+	}
+
+	/**
+	 * Book a passenger using the dispatch's overflow policy, turning an interrupted wait for room into a refusal.
+	 */
+	private CompletableFuture<BookingResult> submitWithPolicy(Passenger waitingPassenger, BookingPriority priority, long maxWaitMillis, boolean async) {
+		try {
+			return submitBooking(waitingPassenger, priority, maxWaitMillis, async, dispatch.getOverflowPolicy(), dispatch.getBlockTimeoutNanos(), null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // Restore the interrupted status
+			return null; // The booking was not accepted
+		}
+	}
+
+	/**
+	 * Accept a booking into the region, applying an overflow policy if the queue is full.
+	 *
+	 * @param waitingPassenger The waiting passenger.
+	 * @param priority         The service class of the booking.
+	 * @param maxWaitMillis    How long the booking may wait for a driver, or 0 for no deadline.
+	 * @param async            true to run the booking as asynchronous stages, false to run it on the region's executor.
+	 * @param policy           What to do if the queue is full.
+	 * @param timeoutNanos     How long a BLOCK policy waits for room.
+	 * @param capacity         The dispatch-wide capacity the booking already holds a place in, or null.
+	 * @return A future for the booking result, or null if the region is shutting down or refused the booking.
+	 * @throws InterruptedException If the thread is interrupted while waiting for room.
+	 */
+	CompletableFuture<BookingResult> submitBooking(Passenger waitingPassenger, BookingPriority priority, long maxWaitMillis,
+			boolean async, OverflowPolicy policy, long timeoutNanos, Semaphore capacity) throws InterruptedException {
 		if (isShutdown) { // Check if the region is shut down
-			dispatch.logEvent(null, "Booking rejected: Region " + regionName + " is shutting down."); // Log the booking rejection event
+			dispatch.logRejected(regionName, 1); // Log the booking rejection event
+			metrics.recordRejected(1); // Count the rejection
 			return null; // Return null
 		}
 
-		Booking booking = new Booking(dispatch, waitingPassenger); // Create a new booking object
+		async |= dispatch.isVirtualTime(); // Nothing may block the simulation thread, so virtual time only runs stages
+		Booking booking = new Booking(dispatch, waitingPassenger, this, priority, maxWaitMillis); // Create a new booking object
+		booking.capacity = capacity; // The booking gives back its dispatch-wide place when it finishes
+		dispatch.bookingsWaiting(1); // Count it as waiting for a driver until it is matched or withdrawn
+		CompletableFuture<BookingResult> future = new CompletableFuture<>(); // Create a CompletableFuture object
+		dispatch.logEvent(EventLog.Type.SUBMITTED, booking, null, 0); // Log the submission
+
+		PoolingPolicy pool = pooling; // Read the policy once
+		SharedRide joined = pool == null ? null : joinRide(booking, future); // The ride the booking joined, if any
+		if (joined != null) {
+			metrics.recordSubmitted(1); // Count the booking
+			cancelWith(booking, future, null, joined); // Leave the ride if the future is cancelled
+			return future; // It rides in a place already queued
+		}
+		SharedRide ride = pool == null ? null : new SharedRide(dispatch, this, pool, booking, future); // Open a ride for others to join
+
+		// Queue the booking for admission; it runs when it reaches a free slot, unless its deadline passes first.
+		// Starting asynchronous stages never blocks, so they start directly on whichever thread admits the booking.
+		// A shared ride is always started as asynchronous stages, and its bookings' deadlines are checked once it starts.
+		Runnable job = ride != null ? ride.job : async ? asyncJob(booking, future) : bookingJob(booking, future);
+		Executor jobExecutor = async || ride != null ? Runnable::run : executorService;
+		Runnable onExpired = ride != null ? null : expiryJob(booking, future);
+		Runnable onDropped = ride != null ? () -> dropRide(ride) : dropJob(booking, future);
+		long wait = policy == OverflowPolicy.BLOCK ? timeoutNanos : 0; // Only BLOCK waits for room
+		boolean accepted;
+		try {
+			accepted = scheduler.offer(job, jobExecutor, booking.dueNanos(), onExpired, onDropped, wait);
+			if (!accepted && policy == OverflowPolicy.DROP_OLDEST && scheduler.dropOldest()) {
+				accepted = scheduler.offer(job, jobExecutor, booking.dueNanos(), onExpired, onDropped, 0); // Take the room just made
+			}
+		} catch (InterruptedException e) {
+			booking.withdraw(); // It is not waiting after all
+			throw e;
+		}
+		if (accepted) {
+			metrics.recordSubmitted(1); // Count the booking
+			if (ride != null) {
+				openRide(ride, pool); // Let later bookings join until the window closes
+			} else {
+				expireInQueue(booking, job, onExpired); // Leave the queue at the deadline rather than when a slot frees up
+			}
+			cancelWith(booking, future, job, ride); // Leave the queue, or stop, if the future is cancelled
+			return future; // Return the Future object
+		}
+		if (policy == OverflowPolicy.CALLER_RUNS) {
+			runOnCaller(booking, future, async); // Run it here instead of queueing it
+			return future; // Return the Future object
+		}
+		booking.withdraw(); // It is not waiting after all
+		dispatch.logRejected(regionName, 1); // Log the booking rejection event
+		metrics.recordRejected(1); // Count the rejection
+		return null; // The queue stayed full
+	}
+
+	/**
+	 * Run a booking for this region on the calling thread, outside the simultaneous job limit,
+	 * because there was no room to queue it.
+	 *
+	 * @param waitingPassenger The waiting passenger.
+	 * @param priority         The service class of the booking.
+	 * @param maxWaitMillis    How long the booking may wait for a driver, or 0 for no deadline.
+	 * @param async            true to start asynchronous stages, false to run the whole booking before returning.
+	 * @return A future for the booking result.
+	 */
+	CompletableFuture<BookingResult> runOnCaller(Passenger waitingPassenger, BookingPriority priority, long maxWaitMillis, boolean async) {
+		Booking booking = new Booking(dispatch, waitingPassenger, this, priority, maxWaitMillis); // Create a new booking object
 		CompletableFuture<BookingResult> future = new CompletableFuture<>(); // Create a CompletableFuture object
+		dispatch.bookingsWaiting(1); // Count it as waiting for a driver until it is matched or withdrawn
+		dispatch.logEvent(EventLog.Type.SUBMITTED, booking, null, 0); // Log the submission
+		runOnCaller(booking, future, async); // Run it
+		return future; // Return the Future object
+	}
 
-		// Add the booking to the queue
-		bookingsQueue.add(booking);
+	private void runOnCaller(Booking booking, CompletableFuture<BookingResult> future, boolean async) {
+		metrics.recordSubmitted(1); // Count the booking
+		metrics.recordCallerRuns(); // Count it as run by the caller
+		cancelWith(booking, future, null, null); // Stop the stages if the future is cancelled
+		if (async || dispatch.isVirtualTime()) {
+			startAsync(booking, future, () -> { }); // No slot to release
+		} else {
+			runBooking(booking, future); // Run the whole booking here
+		}
+	}
 
-		// Submit a task to handle the booking and return a Future
-		executorService.submit(() -> {
+	/**
+	 * Book a batch of passengers for this region in one pass.
+	 *
+	 * Free slots are reserved for the front of the batch in one step and the idle drivers for those bookings
+	 * are drained from dispatch together, so they start without asking for a driver one at a time.
+	 * The rest of the batch joins the admission queue with a single lock acquisition.
+	 *
+	 * @param waitingPassengers The waiting passengers, in arrival order.
+	 * @return Futures for the booking results in the same order as the passengers, or null if the region is shutting down.
+	 */
+	public List<Future<BookingResult>> bookPassengers(Collection<Passenger> waitingPassengers) {
+		return bookPassengers(waitingPassengers, null, waitingPassengers.size()); // No dispatch-wide capacity
+	}
+
+	/**
+	 * Book a batch of passengers, of which only the front may hold a place in the dispatch-wide capacity.
+	 * Bookings past that point, and bookings that do not fit in the region's queue, are refused:
+	 * their futures fail with a RejectedExecutionException.
+	 *
+	 * @param waitingPassengers The waiting passengers, in arrival order.
+	 * @param capacity          The dispatch-wide capacity, or null.
+	 * @param places            The number of places the batch holds in it.
+	 * @return Futures for the booking results in the same order as the passengers, or null if the region is shutting down.
+	 */
+	List<Future<BookingResult>> bookPassengers(Collection<Passenger> waitingPassengers, Semaphore capacity, int places) {
+		if (isShutdown) { // Check if the region is shut down
+			dispatch.logRejected(regionName, waitingPassengers.size()); // Log the booking rejection event
+			metrics.recordRejected(waitingPassengers.size()); // Count the whole batch as rejected
+			return null; // Return null
+		}
+
+		int count = waitingPassengers.size(); // Size of the batch
+		boolean async = dispatch.isVirtualTime(); // Batches run on the region's executor, except in virtual time
+		Executor batchExecutor = async ? Runnable::run : executorService; // Starting stages never blocks, so they need no thread
+		dispatch.bookingsWaiting(count); // Count the whole batch as waiting for drivers; refused bookings are withdrawn below
+		int admitted = scheduler.tryReserve(places); // Reserve free slots for the front of the batch
+		List<Driver> drivers = dispatch.drainAvailableDrivers(this, admitted); // Match idle drivers to the admitted bookings in bulk
+		List<Future<BookingResult>> futures = new ArrayList<>(count); // Futures in passenger order
+		List<Runnable> queued = new ArrayList<>(count - admitted); // Jobs for the bookings that have to wait for a slot
+		List<Booking> queuedBookings = new ArrayList<>(count - admitted); // Their bookings, in case the queue cannot take them all
+		List<CompletableFuture<BookingResult>> queuedFutures = new ArrayList<>(count - admitted); // And their futures
+
+		int index = 0; // Position of the passenger in the batch
+		for (Passenger passenger : waitingPassengers) {
+			Booking booking = new Booking(dispatch, passenger, this, BookingPriority.STANDARD, 0); // Create a new booking object
+			CompletableFuture<BookingResult> future = new CompletableFuture<>(); // Create a CompletableFuture object
+			futures.add(future); // Keep the future for the caller
+			booking.capacity = index < places ? capacity : null; // Only the front of the batch holds a dispatch-wide place
+			dispatch.logEvent(EventLog.Type.SUBMITTED, booking, null, 0); // Log the submission
+			if (index < drivers.size()) {
+				booking.assignDriver(drivers.get(index)); // Give the admitted booking its driver
+			}
+			Runnable job = async ? asyncJob(booking, future) : bookingJob(booking, future); // Either way it releases its slot when done
+			if (index < admitted) {
+				cancelWith(booking, future, null, null); // Admitted already, so cancelling stops its stages
+				batchExecutor.execute(job); // Run the booking in its reserved slot
+			} else {
+				queued.add(job); // Wait for a slot with the rest of the batch
+				queuedBookings.add(booking);
+				queuedFutures.add(future);
+			}
+			index++; // Move to the next passenger
+		}
+		int fits = Math.max(0, places - admitted); // Bookings after this point hold no dispatch-wide place
+		int accepted = scheduler.submitAll(queued.subList(0, Math.min(fits, queued.size())), batchExecutor,
+				BookingPriority.STANDARD.dueNanos(dispatch.getClock().nanoTime())); // Queue the rest of the batch in one step
+		metrics.recordSubmitted(admitted + accepted); // Count the bookings accepted
+		for (int i = 0; i < accepted; i++) {
+			cancelWith(queuedBookings.get(i), queuedFutures.get(i), queued.get(i), null); // Leave the queue if the future is cancelled
+		}
+		int refused = queued.size() - accepted; // Bookings with no room
+		if (refused > 0) {
+			dispatch.logRejected(regionName, refused); // Log the booking rejection event
+			metrics.recordRejected(refused); // Count the rejections
+			for (int i = accepted; i < queuedBookings.size(); i++) {
+				Booking booking = queuedBookings.get(i); // A refused booking
+				booking.withdraw(); // The booking is no longer waiting for a driver
+				booking.releaseCapacity(); // Give back its dispatch-wide place
+				queuedFutures.get(i).completeExceptionally(new RejectedExecutionException("No room in region " + regionName + " for the booking.")); // Refuse it
+			}
+		}
+
+		return futures; // Return the futures
+	}
+
+	/**
+	 * Create the job that runs a booking in an admission slot and completes its future.
+	 *
+	 * @param booking The booking to run.
+	 * @param future  The future to complete with the result.
+	 * @return The job.
+	 */
+	private Runnable bookingJob(Booking booking, CompletableFuture<BookingResult> future) {
+		return () -> {
 			try {
-				BookingResult result = booking.call(); // Execute the booking
-				future.complete(result); // Complete the Future
-			} catch (Exception e) {
-				future.completeExceptionally(e); // Complete with an exception if an error occurs
+				runBooking(booking, future); // Run the booking in the slot
+			} finally {
+				observe(booking, future.isCompletedExceptionally()); // Tell the adaptive limit how the slot was used
+				scheduler.release(); // Hand the slot to the next waiting booking
 			}
+		};
+	}
+
+	/**
+	 * Run a booking on the current thread and complete its future.
+	 *
+	 * @param booking The booking to run.
+	 * @param future  The future to complete with the result.
+	 */
+	private void runBooking(Booking booking, CompletableFuture<BookingResult> future) {
+		admit(booking); // Count and log the admission
+		try {
+			BookingResult result = booking.call(); // Execute the booking
+			metrics.recordCompleted(booking, result); // Record the booking's phases
+			dispatch.bookingFinished(booking, result, null); // Report the completion
+			future.complete(result); // Complete the Future
+		} catch (Exception e) {
+			recordFailure(booking, e); // Count the failure
+			dispatch.bookingFinished(booking, null, e); // Report the failure
+			future.completeExceptionally(e); // Complete with an exception if an error occurs
+		}
+	}
+
+	/**
+	 * Create the job that starts the asynchronous stages of a booking in an admission slot.
+	 * The slot is kept until the stages finish.
+	 *
+	 * @param booking The booking to run.
+	 * @param future  The future to complete with the result.
+	 * @return The job.
+	 */
+	private Runnable asyncJob(Booking booking, CompletableFuture<BookingResult> future) {
+		return () -> {
+			future.whenComplete((result, error) -> observe(booking, error != null)); // Tell the adaptive limit how the slot was used
+			startAsync(booking, future, scheduler::release); // Release the slot once the trip is over
+		};
+	}
+
+	/**
+	 * Start the asynchronous stages of a booking and complete its future when they finish.
+	 *
+	 * @param booking    The booking to run.
+	 * @param future     The future to complete with the result.
+	 * @param onFinished Run first when the stages finish, to give back the slot.
+	 */
+	private void startAsync(Booking booking, CompletableFuture<BookingResult> future, Runnable onFinished) {
+		admit(booking); // Count and log the admission
+		booking.callAsync().whenComplete((result, error) -> {
+			onFinished.run(); // Hand the slot to the next waiting booking
+			finish(booking, future, result, error); // Complete the booking
 		});
+	}
 
-		return future; // Return the Future object
+	/**
+	 * Record that a booking reached a free slot, or a share of one on a shared ride.
+	 *
+	 * @param booking The booking.
+	 */
+	void admit(Booking booking) {
+		booking.leaveQueue(); // The queue deadline no longer applies
+		booking.admittedNanos = dispatch.getClock().nanoTime(); // The booking reached its slot, before the admission is logged
+		metrics.recordAdmitted(); // Count the admission
+		dispatch.logEvent(EventLog.Type.ADMITTED, booking, null, 0); // Log the admission
+	}
+
+	/**
+	 * Count and report an admitted booking that has finished, and complete its future.
+	 *
+	 * @param booking The booking.
+	 * @param future  The future to complete.
+	 * @param result  The result, or null if the booking failed.
+	 * @param error   What went wrong, or null if the booking completed.
+	 */
+	void finish(Booking booking, CompletableFuture<BookingResult> future, BookingResult result, Throwable error) {
+		if (error != null) {
+			recordFailure(booking, error); // Count the failure
+			dispatch.bookingFinished(booking, null, error); // Report the failure
+			future.completeExceptionally(error); // Complete with an exception if an error occurs
+		} else {
+			metrics.recordCompleted(booking, result); // Record the booking's phases
+			dispatch.bookingFinished(booking, result, null); // Report the completion
+			future.complete(result); // Complete the Future
+		}
+	}
+
+	/**
+	 * Add a booking to the first open shared ride that has room for it and is on its way.
+	 * A ride that fills up is closed, so it can start without waiting for its window to end.
+	 *
+	 * @param booking The booking.
+	 * @param future  The future to complete with its result.
+	 * @return true if the booking joined a ride.
+	 */
+	private SharedRide joinRide(Booking booking, CompletableFuture<BookingResult> future) {
+		SharedRide joined = null; // The ride the booking joined, if any
+		synchronized (openRides) {
+			for (SharedRide ride : openRides) {
+				if (ride.tryJoin(booking, future)) {
+					joined = ride; // Found room
+					break;
+				}
+			}
+			if (joined == null || !joined.isFull()) {
+				return joined; // No ride could take the booking, or the ride keeps taking passengers
+			}
+			openRides.remove(joined); // No room for anyone else
+		}
+		joined.close(); // Set off without waiting for the window
+		return joined; // The booking rides with others
+	}
+
+	/**
+	 * Make cancelling a booking's future cancel the booking: a queued booking leaves the queue at once, and one that
+	 * has been admitted gives back its place in the queue for a driver, or its driver, unless its passenger is on board.
+	 *
+	 * @param booking The booking.
+	 * @param future  The future handed to the caller.
+	 * @param job     The booking's job in the admission queue, or null if it cannot be taken out of the queue.
+	 * @param ride    The shared ride the booking is on, or null.
+	 */
+	private void cancelWith(Booking booking, CompletableFuture<BookingResult> future, Runnable job, SharedRide ride) {
+		future.whenComplete((result, error) -> {
+			if (future.isCancelled()) {
+				cancel(booking, job, ride); // The caller gave up on the booking
+			}
+		});
 	}
 
 	/**
-	 * Shut down the region and release resources.
+	 * Cancel a booking whose future was cancelled.
+	 *
+	 * @param booking The booking.
+	 * @param job     The booking's job in the admission queue, or null if it cannot be taken out of the queue.
+	 * @param ride    The shared ride the booking is on, or null.
+	 */
+	private void cancel(Booking booking, Runnable job, SharedRide ride) {
+		if (!booking.cancel()) {
+			return; // Cancelled already, or too late to cancel
+		}
+		if (ride != null) {
+			if (ride.isAbandoned() && scheduler.remove(ride.job)) {
+				synchronized (openRides) {
+					openRides.remove(ride); // Nobody else may join
+				}
+				for (SharedRide.Rider rider : ride.drop()) {
+					cancelQueued(rider.booking); // Every booking on the ride was cancelled in the queue
+				}
+			}
+			return; // Otherwise the ride leaves the booking out when it sets off
+		}
+		if (job != null && scheduler.remove(job)) {
+			cancelQueued(booking); // Taken out of the queue before it was admitted
+		}
+	}
+
+	/**
+	 * Count and report a booking cancelled before it was admitted. Its future has already been cancelled.
+	 *
+	 * @param booking The booking.
+	 */
+	void cancelQueued(Booking booking) {
+		booking.leaveQueue(); // The queue deadline no longer applies
+		CancellationException e = booking.cancellation(); // Give up on the booking
+		metrics.recordCancelled(false); // Count the cancellation; it never took a slot
+		dispatch.logEvent(EventLog.Type.CANCELLED, booking, null, 0); // Log the cancellation
+		dispatch.bookingFinished(booking, null, e); // Report the failure
+	}
+
+	/**
+	 * Take a queued booking with a deadline out of the queue when the deadline passes, rather than when the
+	 * next slot is released, so it stops taking up room in the queue.
+	 *
+	 * @param booking   The booking.
+	 * @param job       Its job in the admission queue.
+	 * @param onExpired What to run if it is still queued at the deadline, or null if it has no deadline.
+	 */
+	private void expireInQueue(Booking booking, Runnable job, Runnable onExpired) {
+		if (onExpired == null || booking.admittedNanos != 0) {
+			return; // No deadline, or admitted already
+		}
+		long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(booking.dueNanos() - dispatch.getClock().nanoTime()) + 1); // Time left, rounded up
+		booking.queueDeadline = dispatch.timeout(remaining, () -> {
+			if (scheduler.remove(job)) {
+				onExpired.run(); // Still queued at the deadline
+			}
+		});
+	}
+
+	/**
+	 * Make a ride that has just been queued open to other bookings until its batching window ends.
+	 *
+	 * @param ride   The ride.
+	 * @param policy The policy it was formed under.
+	 */
+	private void openRide(SharedRide ride, PoolingPolicy policy) {
+		if (policy.getWindowMillis() == 0) {
+			ride.close(); // No window, so nobody can join
+			return;
+		}
+		synchronized (openRides) {
+			openRides.add(ride); // Others may join
+		}
+		ride.setWindow(dispatch.timeout(policy.getWindowMillis(), () -> closeRide(ride))); // Close it when the window ends
+	}
+
+	/**
+	 * Stop a ride taking passengers, and start it if it has already been admitted.
+	 *
+	 * @param ride The ride.
+	 */
+	private void closeRide(SharedRide ride) {
+		synchronized (openRides) {
+			openRides.remove(ride); // Nobody else may join
+		}
+		ride.close(); // Start it once admitted
+	}
+
+	/**
+	 * Drop a queued ride to make room for a newer booking, failing every booking on it.
+	 *
+	 * @param ride The ride.
+	 */
+	private void dropRide(SharedRide ride) {
+		synchronized (openRides) {
+			openRides.remove(ride); // Nobody else may join
+		}
+		for (SharedRide.Rider rider : ride.drop()) {
+			dropJob(rider.booking, rider.future).run(); // Fail each booking as dropped
+		}
+	}
+
+	/**
+	 * Count a shared ride setting off.
+	 *
+	 * @param passengers The number of passengers on it.
+	 */
+	void recordSharedRide(int passengers) {
+		metrics.recordSharedRide(passengers); // Count the ride
+	}
+
+	/**
+	 * Give back the slot a shared ride held, once its last passenger has been dropped off or it found no driver.
+	 *
+	 * @param ride   The ride.
+	 * @param failed Whether it ended without carrying anyone to their destination.
+	 */
+	void rideFinished(SharedRide ride, boolean failed) {
+		observe(ride.first(), failed); // Tell the adaptive limit how the slot was used
+		scheduler.release(); // Hand the slot to the next waiting booking
+	}
+
+	/**
+	 * Create the job that fails a booking whose deadline passed while it was queued.
+	 *
+	 * @param booking The booking.
+	 * @param future  The future to fail.
+	 * @return The job, or null if the booking has no deadline.
+	 */
+	private Runnable expiryJob(Booking booking, CompletableFuture<BookingResult> future) {
+		if (!booking.hasDeadline()) {
+			return null; // The booking never expires
+		}
+		return () -> {
+			booking.leaveQueue(); // The queue deadline no longer applies
+			TimeoutException e = booking.expire(); // Give up on the booking
+			metrics.recordExpired(false); // Count the expiry; it never took a slot
+			dispatch.logEvent(EventLog.Type.EXPIRED, booking, null, 0); // Log the expiry
+			dispatch.bookingFinished(booking, null, e); // Report the failure
+			future.completeExceptionally(e); // Fail the Future
+		};
+	}
+
+	/**
+	 * Create the job that fails a booking dropped from the queue to make room for a newer one.
+	 *
+	 * @param booking The booking.
+	 * @param future  The future to fail.
+	 * @return The job.
+	 */
+	private Runnable dropJob(Booking booking, CompletableFuture<BookingResult> future) {
+		return () -> {
+			booking.leaveQueue(); // The queue deadline no longer applies
+			booking.withdraw(); // The booking is no longer waiting for a driver
+			metrics.recordDropped(); // Count the drop
+			dispatch.logEvent(EventLog.Type.DROPPED, booking, null, 0); // Log the drop
+			RejectedExecutionException e = new RejectedExecutionException("Booking dropped from region " + regionName + " to make room."); // Report the drop
+			dispatch.bookingFinished(booking, null, e); // Report the failure
+			future.completeExceptionally(e); // Fail the Future
+		};
+	}
+
+	/**
+	 * Count and log a booking that failed after it was admitted.
+	 *
+	 * @param booking The booking.
+	 * @param error   What went wrong, possibly wrapped by an asynchronous stage.
+	 */
+	private void recordFailure(Booking booking, Throwable error) {
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error; // Unwrap asynchronous failures
+		if (cause instanceof CancellationException) {
+			metrics.recordCancelled(true); // Cancelled while it waited for a driver or was being picked up
+			dispatch.logEvent(EventLog.Type.CANCELLED, booking, null, 0); // Log the cancellation
+		} else if (cause instanceof TimeoutException) {
+			metrics.recordExpired(true); // The deadline passed while the booking waited for a driver
+			dispatch.logEvent(EventLog.Type.EXPIRED, booking, null, 0); // Log the expiry
+		} else {
+			metrics.recordFailed(); // Count the failure
+			dispatch.logFailure(booking, cause); // Log the error event
+		}
+	}
+
+	/**
+	 * Book a passenger for this region without tying up a thread for the length of the trip.
+	 *
+	 * The booking waits in the same admission queue as blocking bookings, and holds its slot until the trip is over.
+	 *
+	 * @param waitingPassenger The waiting passenger.
+	 * @return A CompletableFuture that completes with the booking result, or null if the region is shutting down.
+	 */
+	public CompletableFuture<BookingResult> bookPassengerAsync(Passenger waitingPassenger) {
+		return bookPassengerAsync(waitingPassenger, BookingPriority.STANDARD, 0); // Standard class, no deadline
+	}
+
+	/**
+	 * Book a passenger asynchronously with a service class and an optional deadline,
+	 * as in bookPassenger(Passenger, BookingPriority, long).
+	 *
+	 * @param waitingPassenger The waiting passenger.
+	 * @param priority         The service class of the booking.
+	 * @param maxWaitMillis    How long the booking may wait for a driver, or 0 for no deadline.
+	 * @return A CompletableFuture that completes with the booking result, or null if the region is shutting down or refused the booking.
+	 */
+	public CompletableFuture<BookingResult> bookPassengerAsync(Passenger waitingPassenger, BookingPriority priority, long maxWaitMillis) {
+		return submitWithPolicy(waitingPassenger, priority, maxWaitMillis, true); // Run the booking as asynchronous stages
+	}
+
+	/**
+	 * Shut down the region, letting queued and active bookings finish, and release resources.
+	 * In virtual time the dispatch clock is run until they have, so call this from the simulation thread.
 	 */
 	public void shutdown() {
-		isShutdown = true; // Set the shutdown flag
-		executorService.shutdown(); // Shut down the thread pool
+		isShutdown = true; // Set the shutdown flag so no new bookings are accepted
+		List<SharedRide> rides; // Shared rides still taking passengers
+		synchronized (openRides) {
+			rides = new ArrayList<>(openRides); // Take them all
+			openRides.clear();
+		}
+		for (SharedRide ride : rides) {
+			ride.close(); // Nobody else is coming, so set off without waiting for the window
+		}
+		dispatch.runEvents(); // In virtual time nothing finishes until the clock runs, so run it out first
 		try {
+			scheduler.awaitDrained(60, TimeUnit.SECONDS); // Let queued bookings reach the executor before stopping it
+			executorService.shutdown(); // Shut down the thread pool
 			if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) { // Wait for the thread pool to terminate
 				executorService.shutdownNow(); // Forcefully shut down the thread pool
 			}
@@ -113,4 +667,186 @@ public class NuberRegion { // Define the NuberRegion class
 	public boolean isShutdown() {
 		return isShutdown; // Return the shutdown status
 	}
+
+	/**
+	 * Get the name of the region.
+	 *
+	 * @return The region name.
+	 */
+	public String getRegionName() {
+		return regionName; // Return the region name
+	}
+
+	/**
+	 * Get the maximum number of bookings the region runs at once.
+	 *
+	 * @return The simultaneous job limit.
+	 */
+	public int getMaxSimultaneousJobs() {
+		return maxSimultaneousJobs; // Return the job limit
+	}
+
+	/**
+	 * Let the region's simultaneous job limit move at runtime between two bounds, following how long bookings hold
+	 * their slots and how many are queueing. The thread pool grows to the upper bound if it is smaller. Every change of
+	 * the limit is counted in the region's metrics.
+	 *
+	 * @param algorithm How the limit reacts, or null to go back to the fixed limit given at construction.
+	 * @param minLimit  The lowest limit, at least 1.
+	 * @param maxLimit  The highest limit.
+	 */
+	public void setAdaptiveLimit(AdaptiveLimit.Algorithm algorithm, int minLimit, int maxLimit) {
+		if (algorithm == null) {
+			adaptiveLimit = null; // Stop adapting
+			applyLimit(maxSimultaneousJobs); // Back to the fixed limit
+			return;
+		}
+		AdaptiveLimit limiter = new AdaptiveLimit(algorithm, scheduler.getMaxActive(), minLimit, maxLimit); // Start from the current limit
+		if (executorService instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executorService; // A fixed pool sized for the old limit
+			if (pool.getMaximumPoolSize() < maxLimit) {
+				pool.setMaximumPoolSize(maxLimit); // Raise the maximum first, as the core size may not exceed it
+				pool.setCorePoolSize(maxLimit); // A fixed pool only ever runs core threads
+			}
+		}
+		adaptiveLimit = limiter; // Start adapting
+		applyLimit(limiter.getLimit()); // Move into the bounds straight away
+	}
+
+	/**
+	 * Let the region group waiting bookings into shared rides, so one driver serves several passengers on one trip.
+	 * Rides already open keep the policy they were formed under.
+	 *
+	 * @param policy The capacity, batching window and detour limit, or null to give every passenger their own trip.
+	 */
+	public void setPooling(PoolingPolicy policy) {
+		this.pooling = policy; // Later bookings use the policy
+	}
+
+	/**
+	 * Get how the region groups bookings into shared rides.
+	 *
+	 * @return The pooling policy, or null if every passenger has their own trip.
+	 */
+	public PoolingPolicy getPooling() {
+		return pooling; // Return the policy
+	}
+
+	/**
+	 * Get the number of bookings the region currently runs at once, which moves if the limit is adaptive.
+	 *
+	 * @return The current simultaneous job limit.
+	 */
+	public int getConcurrencyLimit() {
+		return scheduler.getMaxActive(); // Return the scheduler's slot count
+	}
+
+	/**
+	 * Report a booking that held a slot to the adaptive limit, if there is one, and apply any change it makes.
+	 *
+	 * @param booking The booking.
+	 * @param failed  Whether it failed or expired after it was admitted.
+	 */
+	private void observe(Booking booking, boolean failed) {
+		AdaptiveLimit limiter = adaptiveLimit; // Read the limiter once
+		if (limiter == null || booking.admittedNanos == 0) {
+			return; // The limit is fixed, or the booking never started
+		}
+		int next = limiter.onSample(dispatch.getClock().nanoTime() - booking.admittedNanos, failed, scheduler.getActive(), scheduler.getWaiting());
+		if (next != scheduler.getMaxActive()) {
+			applyLimit(next); // A window ended with a new limit
+		}
+	}
+
+	/**
+	 * Change the scheduler's slot count and count the change.
+	 */
+	private synchronized void applyLimit(int limit) {
+		int current = scheduler.getMaxActive(); // The limit in force
+		if (limit != current) {
+			scheduler.setMaxActive(limit); // Admit or give up slots
+			metrics.recordLimit(current, limit); // Count the decision
+		}
+	}
+
+	/**
+	 * Set the maximum number of bookings that may wait in the region's queue for a free slot.
+	 *
+	 * @param capacity The queue capacity.
+	 */
+	public void setQueueCapacity(int capacity) {
+		scheduler.setQueueCapacity(capacity); // Limit the scheduler's queue
+	}
+
+	/**
+	 * Get the maximum number of bookings that may wait in the region's queue.
+	 *
+	 * @return The queue capacity.
+	 */
+	public int getQueueCapacity() {
+		return scheduler.getQueueCapacity(); // Return the scheduler's queue capacity
+	}
+
+	/**
+	 * Drop the booking that has waited longest in the region's queue, to make room for a new one.
+	 *
+	 * @return true if a booking was dropped.
+	 */
+	boolean dropOldest() {
+		return scheduler.dropOldest(); // Drop it from the scheduler's queue
+	}
+
+	/**
+	 * Get the number of bookings waiting to be admitted.
+	 *
+	 * @return The number of queued bookings.
+	 */
+	public int getQueuedBookings() {
+		return scheduler.getWaiting(); // Return the scheduler queue length
+	}
+
+	/**
+	 * Get the number of bookings currently running.
+	 *
+	 * @return The number of active bookings.
+	 */
+	public int getActiveBookings() {
+		return scheduler.getActive(); // Return the scheduler's active count
+	}
+
+	/**
+	 * Get the number of idle drivers waiting in the region.
+	 *
+	 * @return The number of idle drivers.
+	 */
+	public int getIdleDrivers() {
+		return driverPool.getIdleCount(); // Return the pool's idle count
+	}
+
+	/**
+	 * Count a booking in the region being handed a driver.
+	 *
+	 * @param local true if the driver's home is this region, false if it was taken from another region.
+	 */
+	void recordMatch(boolean local) {
+		metrics.recordMatched(local); // Count the match
+	}
+
+	/**
+	 * Count bookings refused before they reached the region, for example by dispatch after shutdown.
+	 *
+	 * @param count The number of bookings.
+	 */
+	void recordRejected(int count) {
+		metrics.recordRejected(count); // Count the bookings
+	}
+
+	/**
+	 * Take a snapshot of the region's booking counters and latency histograms without pausing the region.
+	 *
+	 * @return The metrics snapshot.
+	 */
+	public BookingMetrics.Snapshot getMetrics() {
+		return metrics.snapshot(); // Read the metrics
+	}
 }
@@ -0,0 +1,30 @@
+package nuber.students; // Define the package for this class
+
+/**
+ * The OverflowPolicy enum decides what happens to a booking that arrives when there is no room for it,
+ * either because its region's queue is full or because the dispatch already has as many bookings as it accepts.
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * Refuse the booking straight away: bookPassenger() returns null.
+	 */
+	REJECT,
+
+	/**
+	 * Wait for room up to the dispatch's block timeout, then refuse the booking.
+	 */
+	BLOCK,
+
+	/**
+	 * Make room by dropping the booking that has waited longest in the region's queue, whose future then fails
+	 * with a RejectedExecutionException. If nothing in the queue can be dropped, the new booking is refused.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Run the booking on the calling thread before returning. This slows the caller down to the rate the
+	 * dispatch can serve, at the cost of running the booking outside its region's simultaneous job limit.
+	 */
+	CALLER_RUNS
+}
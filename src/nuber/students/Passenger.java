@@ -5,6 +5,8 @@ package nuber.students; // Define the package for this class
  */
 public class Passenger extends Person {
 
+	private final int travelTime; // A fixed travel time, or -1 to pick one at random for each trip
+
 	/**
 	 * Constructor to create a new instance of Passenger.
 	 *
@@ -12,15 +14,52 @@ public class Passenger extends Person {
 	 * @param maxSleep The maximum sleep time (travel time) for the passenger.
 	 */
 	public Passenger(String name, int maxSleep) {
+		this(name, maxSleep, -1); // Random travel time
+	}
+
+	/**
+	 * Constructor to create a new instance of Passenger with a known travel time, such as one replayed from a trace.
+	 *
+	 * @param name       The name of the passenger.
+	 * @param maxSleep   The maximum sleep time for the passenger.
+	 * @param travelTime The travel time in milliseconds, or -1 for a random time up to maxSleep.
+	 */
+	public Passenger(String name, int maxSleep, int travelTime) {
 		super(name, maxSleep); // Call the parent class Person's constructor
+		this.travelTime = travelTime; // Store the travel time
+	}
+
+	/**
+	 * Constructor to create a new instance of Passenger waiting at a location.
+	 *
+	 * @param name     The name of the passenger.
+	 * @param maxSleep The maximum sleep time (travel time) for the passenger.
+	 * @param x        The x coordinate of the pickup location.
+	 * @param y        The y coordinate of the pickup location.
+	 */
+	public Passenger(String name, int maxSleep, double x, double y) {
+		super(name, maxSleep, x, y); // Call the parent class Person's constructor
+		this.travelTime = -1; // Random travel time
 	}
 
 	/**
 	 * Get the passenger's travel time.
 	 *
-	 * @return The passenger's travel time, a random integer between 0 and maxSleep.
+	 * @return The passenger's fixed travel time, or a random integer between 0 and maxSleep if it has none.
 	 */
 	public int getTravelTime() {
+		if (travelTime >= 0) {
+			return travelTime; // Use the known travel time
+		}
 		return (int) (Math.random() * maxSleep); // Generate and return a random travel time
 	}
+
+	/**
+	 * Get the travel time the passenger was created with, so the passenger can be rebuilt in another process.
+	 *
+	 * @return The fixed travel time in milliseconds, or -1 if a random time is picked for each trip.
+	 */
+	int getFixedTravelTime() {
+		return travelTime; // Return the stored travel time
+	}
 }
@@ -1,5 +1,7 @@
 package nuber.students; // Define the package for this class
 
+import java.util.concurrent.ThreadLocalRandom; // Import ThreadLocalRandom to pick names without shared state
+
 /**
  * The Person class represents a person with basic attributes and methods.
  * This class is abstract and meant to be extended by other classes (e.g., Passenger).
@@ -43,15 +45,16 @@ public abstract class Person {
 			"Gabriel", "Alice", "Elizabeth", "Madison", "Carol"
 	};
 
-	// Index for the next random name
-	private static int nextNameIndex = 0;
-
 	// The person's name
 	public String name;
 
 	// The person's maximum sleep time
 	protected int maxSleep;
 
+	// The person's location, or NaN if the person has none
+	private volatile double x = Double.NaN;
+	private volatile double y = Double.NaN;
+
 	/**
 	 * Constructor to create a new instance of Person.
 	 *
@@ -63,6 +66,19 @@ public abstract class Person {
 		this.maxSleep = maxSleep; // Initialize maximum sleep time
 	}
 
+	/**
+	 * Constructor to create a new instance of Person at a location.
+	 *
+	 * @param name     The person's name.
+	 * @param maxSleep The person's maximum sleep time.
+	 * @param x        The x coordinate of the person's location.
+	 * @param y        The y coordinate of the person's location.
+	 */
+	public Person(String name, int maxSleep, double x, double y) {
+		this(name, maxSleep); // Initialize name and maximum sleep time
+		setLocation(x, y); // Initialize location
+	}
+
 	/**
 	 * Get the person's name.
 	 *
@@ -82,12 +98,60 @@ public abstract class Person {
 	}
 
 	/**
-	 * Get a random name, cycling through the SAMPLE_NAMES array.
+	 * Check whether the person has a location.
+	 *
+	 * @return true if the person has a location.
+	 */
+	public boolean hasLocation() {
+		return !Double.isNaN(x) && !Double.isNaN(y); // A location is set once both coordinates are numbers
+	}
+
+	/**
+	 * Get the x coordinate of the person's location.
+	 *
+	 * @return The x coordinate, or NaN if the person has no location.
+	 */
+	public double getX() {
+		return x;
+	}
+
+	/**
+	 * Get the y coordinate of the person's location.
+	 *
+	 * @return The y coordinate, or NaN if the person has no location.
+	 */
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 * Move the person to a location.
+	 *
+	 * @param x The x coordinate.
+	 * @param y The y coordinate.
+	 */
+	public void setLocation(double x, double y) {
+		this.x = x; // Update the location
+		this.y = y;
+	}
+
+	/**
+	 * Get the straight-line distance to another person.
+	 *
+	 * @param other The other person.
+	 * @return The distance, or NaN if either person has no location.
+	 */
+	public double distanceTo(Person other) {
+		return Math.hypot(other.x - x, other.y - y); // Euclidean distance
+	}
+
+	/**
+	 * Get a random name from the SAMPLE_NAMES array. Nothing is shared between calls, so simulations running
+	 * side by side do not affect each other.
 	 *
 	 * @return A random name.
 	 */
 	public static String getRandomName() {
-		nextNameIndex = ++nextNameIndex % SAMPLE_NAMES.length; // Update the index and keep it within the array bounds
-		return SAMPLE_NAMES[nextNameIndex]; // Return the next random name
+		return SAMPLE_NAMES[ThreadLocalRandom.current().nextInt(SAMPLE_NAMES.length)]; // Pick a name
 	}
 }
@@ -0,0 +1,118 @@
+package nuber.students; // Define the package for this class
+
+/**
+ * The PoolingPolicy class sets how a region groups waiting bookings into shared rides, where one driver picks up
+ * several passengers in turn and drops each off on the way.
+ *
+ * A booking opens a ride, and for the length of the batching window later bookings in the region join it if they
+ * are compatible: a passenger joins if driving on to their pickup would not delay any passenger already on the ride
+ * by more than the detour limit in total, and no more than the capacity may share a ride. Passengers without a
+ * location are taken to wait at the same place, so they are always compatible with each other and never with
+ * passengers that have one. Detours are planned at the given speed, since the driver is not known until the ride
+ * is admitted.
+ */
+public final class PoolingPolicy {
+
+	private final int capacity; // The most passengers a ride may carry
+	private final long windowMillis; // How long a ride waits for passengers to join after it opens
+	private final long maxDetourMillis; // The most time a passenger may spend on board waiting for others to be picked up
+	private final double speed; // Distance covered per millisecond, for planning detours
+
+	/**
+	 * Constructor for a pooling policy that plans detours at the default driver speed.
+	 *
+	 * @param capacity        The most passengers a ride may carry, at least 2.
+	 * @param windowMillis    How long a ride waits for passengers to join after it opens, in milliseconds.
+	 * @param maxDetourMillis The most time a passenger may spend on board waiting for others to be picked up, in milliseconds.
+	 */
+	public PoolingPolicy(int capacity, long windowMillis, long maxDetourMillis) {
+		this(capacity, windowMillis, maxDetourMillis, 1.0); // Drivers cover one unit of distance per millisecond by default
+	}
+
+	/**
+	 * Constructor for a pooling policy.
+	 *
+	 * @param capacity        The most passengers a ride may carry, at least 2.
+	 * @param windowMillis    How long a ride waits for passengers to join after it opens, in milliseconds.
+	 * @param maxDetourMillis The most time a passenger may spend on board waiting for others to be picked up, in milliseconds.
+	 * @param speed           The distance covered per millisecond, used to turn the distance between pickups into time.
+	 */
+	public PoolingPolicy(int capacity, long windowMillis, long maxDetourMillis, double speed) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("A shared ride must carry at least two passengers."); // One passenger is an ordinary booking
+		}
+		if (windowMillis < 0 || maxDetourMillis < 0) {
+			throw new IllegalArgumentException("The window and detour limit must not be negative."); // Times cannot be negative
+		}
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("The speed must be positive."); // Also rejects NaN
+		}
+		this.capacity = capacity; // Store the capacity
+		this.windowMillis = windowMillis; // Store the window
+		this.maxDetourMillis = maxDetourMillis; // Store the detour limit
+		this.speed = speed; // Store the speed
+	}
+
+	/**
+	 * Get the most passengers a ride may carry.
+	 *
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return capacity; // Return the capacity
+	}
+
+	/**
+	 * Get how long a ride waits for passengers to join after it opens.
+	 *
+	 * @return The batching window in milliseconds.
+	 */
+	public long getWindowMillis() {
+		return windowMillis; // Return the window
+	}
+
+	/**
+	 * Get the most time a passenger may spend on board waiting for others to be picked up.
+	 *
+	 * @return The detour limit in milliseconds.
+	 */
+	public long getMaxDetourMillis() {
+		return maxDetourMillis; // Return the detour limit
+	}
+
+	/**
+	 * Get the speed detours are planned at.
+	 *
+	 * @return The distance covered per millisecond.
+	 */
+	public double getSpeed() {
+		return speed; // Return the speed
+	}
+
+	/**
+	 * Work out how long it takes to drive from one pickup to the next.
+	 *
+	 * @param from The passenger picked up first.
+	 * @param to   The passenger picked up next.
+	 * @return The time in milliseconds, or -1 if only one of them has a location, so they cannot share a ride.
+	 */
+	long hopMillis(Passenger from, Passenger to) {
+		if (from.hasLocation() != to.hasLocation()) {
+			return -1; // One waits at a known place and the other does not
+		}
+		if (!from.hasLocation()) {
+			return 0; // Both wait at the region's pickup point
+		}
+		return Math.round(from.distanceTo(to) / speed); // Time to cover the distance
+	}
+
+	/**
+	 * Describe the policy.
+	 *
+	 * @return The capacity, window, detour limit and speed.
+	 */
+	@Override
+	public String toString() {
+		return "PoolingPolicy[capacity=" + capacity + ", window=" + windowMillis + "ms, maxDetour=" + maxDetourMillis + "ms, speed=" + speed + "]";
+	}
+}
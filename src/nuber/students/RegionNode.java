@@ -0,0 +1,404 @@
+package nuber.students; // Define the package for this class
+
+import java.io.Closeable; // Import Closeable to close sockets quietly
+import java.io.IOException; // Import IOException for socket errors
+import java.net.InetSocketAddress; // Import InetSocketAddress for the listening address
+import java.nio.ByteBuffer; // Import ByteBuffer for the frames
+import java.nio.channels.SelectionKey; // Import SelectionKey for the registered sockets
+import java.nio.channels.Selector; // Import Selector to serve every socket from one thread
+import java.nio.channels.ServerSocketChannel; // Import ServerSocketChannel to accept coordinators
+import java.nio.channels.SocketChannel; // Import SocketChannel for the accepted connections
+import java.util.ArrayList; // Import ArrayList for the open connections
+import java.util.HashMap; // Import HashMap for the region information
+import java.util.Iterator; // Import Iterator to walk the selected keys
+import java.util.List; // Import List for the open connections
+import java.util.concurrent.CompletableFuture; // Import CompletableFuture for the bookings
+import java.util.concurrent.CompletionException; // Import CompletionException to unwrap failed stages
+import java.util.concurrent.ConcurrentLinkedQueue; // Import ConcurrentLinkedQueue for results waiting to be sent
+import java.util.concurrent.RejectedExecutionException; // Import RejectedExecutionException for refused bookings
+import java.util.concurrent.TimeoutException; // Import TimeoutException for expired bookings
+import java.util.concurrent.atomic.AtomicBoolean; // Import AtomicBoolean to wake the I/O thread once per batch
+
+/**
+ * The RegionNode class serves the regions of a NuberDispatch to a RemoteDispatch in another process, so regions and
+ * their drivers can be spread over several JVMs or machines.
+ *
+ * One I/O thread runs a selector over the listening socket and every connected coordinator. Bookings read from a BOOK
+ * frame are made with bookPassengerAsync(), so the I/O thread never waits for a trip. As trips finish, their results
+ * are queued for the connection they came from and the I/O thread is woken once, however many finish meanwhile; it
+ * then sends everything queued in as few RESULT frames as possible. Bookings that run past the end of a connection are
+ * still completed locally, but their results are lost with it.
+ *
+ * The dispatch's overflow policy applies as usual, but a BLOCK policy holds up the I/O thread while it waits for room,
+ * so a node is better run with REJECT or DROP_OLDEST.
+ */
+public class RegionNode implements AutoCloseable {
+
+	private final NuberDispatch dispatch; // The dispatch whose regions are served
+	private final String[] regionNames; // The regions, in the order sent in HELLO
+	private final ServerSocketChannel server; // Accepts coordinators
+	private final Selector selector; // Watches every socket
+	private final Thread ioThread; // Reads bookings and writes results
+	private final ConcurrentLinkedQueue<Peer> ready = new ConcurrentLinkedQueue<>(); // Connections with results to send
+	private final List<Peer> peers = new ArrayList<>(); // Open connections, used only by the I/O thread
+	private volatile boolean closed; // Set by close() to stop the I/O thread
+
+	/**
+	 * Start serving a dispatch's regions on a port of every local address.
+	 *
+	 * @param dispatch The dispatch whose regions are served.
+	 * @param port     The port to listen on, or 0 for any free port.
+	 * @throws IOException If the port cannot be opened.
+	 */
+	public RegionNode(NuberDispatch dispatch, int port) throws IOException {
+		this(dispatch, new InetSocketAddress(port)); // Listen on every local address
+	}
+
+	/**
+	 * Start serving a dispatch's regions on an address.
+	 *
+	 * @param dispatch The dispatch whose regions are served.
+	 * @param address  The address to listen on.
+	 * @throws IOException If the address cannot be opened.
+	 */
+	public RegionNode(NuberDispatch dispatch, InetSocketAddress address) throws IOException {
+		this.dispatch = dispatch; // Store the dispatch
+		this.regionNames = dispatch.getRegionNames().toArray(new String[0]); // Fix the order of the regions
+		if (regionNames.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("A node can serve at most " + Short.MAX_VALUE + " regions."); // Region indexes are shorts
+		}
+		this.selector = Selector.open(); // Open the selector
+		this.server = ServerSocketChannel.open(); // Open the listening socket
+		try {
+			server.bind(address); // Listen on the address
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT); // Accept coordinators on the I/O thread
+		} catch (IOException e) {
+			server.close(); // Do not leak the sockets
+			selector.close();
+			throw e;
+		}
+		this.ioThread = new Thread(this::run, "nuber-node"); // Create the I/O thread
+		ioThread.setDaemon(true); // Never keep the JVM alive
+		ioThread.start(); // Start serving
+	}
+
+	/**
+	 * Get the port the node is listening on.
+	 *
+	 * @return The port.
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort(); // Return the bound port
+	}
+
+	/**
+	 * Get the dispatch whose regions the node serves.
+	 *
+	 * @return The dispatch.
+	 */
+	public NuberDispatch getDispatch() {
+		return dispatch; // Return the dispatch
+	}
+
+	/**
+	 * Stop serving: close the listening socket and every connection. Shut the dispatch down first to let bookings
+	 * in progress finish and their results be sent; bookings that arrive meanwhile are refused by their regions.
+	 */
+	@Override
+	public void close() {
+		closed = true; // Ask the I/O thread to stop
+		selector.wakeup(); // Wake it if it is waiting
+		try {
+			ioThread.join(); // Wait for it to close the sockets
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // Restore the interrupted status
+		}
+	}
+
+	/**
+	 * Wait until the node has been closed.
+	 *
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public void awaitClosed() throws InterruptedException {
+		ioThread.join(); // The I/O thread ends when the node is closed
+	}
+
+	/**
+	 * Serve the sockets until the node is closed.
+	 */
+	private void run() {
+		try {
+			while (!closed) {
+				selector.select(); // Wait for a socket, or for results to send
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove(); // Handled now
+					if (key.isValid()) {
+						handle(key); // Accept, read or write
+					}
+				}
+				Peer peer;
+				while ((peer = ready.poll()) != null) {
+					sendResults(peer); // Send what finished since the last pass
+				}
+			}
+		} catch (IOException e) {
+			// The selector itself failed, so the node cannot carry on
+		} finally {
+			for (Peer peer : new ArrayList<>(peers)) {
+				disconnect(peer); // Close every connection
+			}
+			closeQuietly(server);
+			try {
+				selector.close(); // Release the selector
+			} catch (IOException e) {
+				// Nothing more to release
+			}
+		}
+	}
+
+	/**
+	 * Handle a socket the selector found ready. A failure only closes the connection it happened on.
+	 */
+	private void handle(SelectionKey key) {
+		Peer peer = (Peer) key.attachment(); // The connection, or null for the listening socket
+		try {
+			if (peer == null) {
+				accept(); // A coordinator is connecting
+				return;
+			}
+			if (key.isReadable() && !peer.connection.read(peer)) {
+				disconnect(peer); // The coordinator went away
+				return;
+			}
+			if (key.isValid() && key.isWritable()) {
+				write(peer); // The socket has room for the rest of the results
+			}
+		} catch (IOException | RuntimeException e) {
+			if (peer != null) {
+				disconnect(peer); // Drop the broken connection, keep the node
+			}
+		}
+	}
+
+	/**
+	 * Accept a coordinator and tell it which regions the node serves.
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept(); // Take the connection
+		if (channel == null) {
+			return; // Another wake-up took it
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true); // Frames are batched already, so send them at once
+		Peer peer = new Peer(new DispatchProtocol.Connection(channel)); // Wrap the connection
+		peer.key = channel.register(selector, SelectionKey.OP_READ, peer); // Read its bookings
+		peers.add(peer);
+		DispatchProtocol.Connection connection = peer.connection;
+		connection.beginFrame(DispatchProtocol.HELLO); // Start the HELLO frame
+		connection.ensure(4 + 4 + 2).putInt(DispatchProtocol.MAGIC).putInt(DispatchProtocol.VERSION).putShort((short) regionNames.length);
+		for (String name : regionNames) {
+			DispatchProtocol.putString(connection, name); // One name per region
+		}
+		connection.endFrame(); // Close the frame
+		write(peer); // Say hello
+	}
+
+	/**
+	 * Write a connection's results, and watch for room in the socket if they did not all fit.
+	 */
+	private void write(Peer peer) throws IOException {
+		boolean done = peer.connection.flush(); // Write what the socket takes
+		peer.key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Send every result queued for a connection in as few frames as possible.
+	 */
+	private void sendResults(Peer peer) {
+		peer.signalled.set(false); // Results queued from now on wake the I/O thread again
+		if (!peer.key.isValid()) {
+			return; // The connection has closed
+		}
+		DispatchProtocol.Connection connection = peer.connection;
+		Outcome outcome;
+		while ((outcome = peer.outcomes.poll()) != null) {
+			connection.beginBatch(DispatchProtocol.RESULT); // Start a frame
+			int count = 0;
+			do {
+				putOutcome(connection, outcome); // Add the result
+				count++;
+			} while (count < DispatchProtocol.MAX_BATCH && (outcome = peer.outcomes.poll()) != null);
+			connection.endBatch(count); // Close the frame
+		}
+		try {
+			write(peer); // Send the frames
+		} catch (IOException e) {
+			disconnect(peer); // The coordinator went away
+		}
+	}
+
+	private static void putOutcome(DispatchProtocol.Connection connection, Outcome outcome) {
+		if (outcome.error == null) {
+			BookingResult result = outcome.result; // The trip
+			connection.ensure(8 + 1 + 4).putLong(outcome.requestId).put(DispatchProtocol.OK).putInt(result.driver.getId());
+			DispatchProtocol.putString(connection, result.driver.name); // The driver's name
+			connection.ensure(8).putLong(result.tripDuration);
+			return;
+		}
+		Throwable cause = outcome.error instanceof CompletionException && outcome.error.getCause() != null
+				? outcome.error.getCause() : outcome.error; // Unwrap asynchronous failures
+		byte status = cause instanceof TimeoutException ? DispatchProtocol.TIMED_OUT
+				: cause instanceof RejectedExecutionException ? DispatchProtocol.REJECTED : DispatchProtocol.FAILED;
+		connection.ensure(8 + 1).putLong(outcome.requestId).put(status);
+		DispatchProtocol.putString(connection, cause.getMessage() != null ? cause.getMessage() : cause.toString()); // What went wrong
+	}
+
+	/**
+	 * Close a connection. Its bookings carry on, but their results are dropped.
+	 */
+	private void disconnect(Peer peer) {
+		if (peers.remove(peer)) {
+			peer.key.cancel(); // Stop watching the socket
+			closeQuietly(peer.connection.channel);
+			peer.outcomes.clear(); // Nobody to send them to
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close(); // Close it
+		} catch (IOException e) {
+			// Nothing more can be done
+		}
+	}
+
+	/**
+	 * A connected coordinator: its socket and the results waiting to be sent to it.
+	 */
+	private final class Peer implements DispatchProtocol.FrameHandler {
+
+		final DispatchProtocol.Connection connection; // The socket and its buffers
+		final ConcurrentLinkedQueue<Outcome> outcomes = new ConcurrentLinkedQueue<>(); // Results waiting to be sent
+		final AtomicBoolean signalled = new AtomicBoolean(); // Whether the I/O thread has been told about the results
+		SelectionKey key; // The socket's registration with the selector
+
+		Peer(DispatchProtocol.Connection connection) {
+			this.connection = connection; // Store the connection
+		}
+
+		/**
+		 * Make the bookings in a BOOK frame.
+		 */
+		@Override
+		public void onFrame(byte type, ByteBuffer payload) throws IOException {
+			if (type != DispatchProtocol.BOOK) {
+				throw new IOException("Unexpected frame type " + type); // Coordinators only send bookings
+			}
+			int count = payload.getInt(); // Bookings in the batch
+			for (int i = 0; i < count; i++) {
+				long requestId = payload.getLong();
+				int region = payload.getShort();
+				BookingPriority priority = DispatchProtocol.priority(payload.get());
+				long maxWaitMillis = payload.getLong();
+				Passenger passenger = DispatchProtocol.getPassenger(payload);
+				book(requestId, region, priority, maxWaitMillis, passenger); // Make the booking
+			}
+		}
+
+		private void book(long requestId, int region, BookingPriority priority, long maxWaitMillis, Passenger passenger) {
+			CompletableFuture<BookingResult> future = region >= 0 && region < regionNames.length
+					? dispatch.bookPassengerAsync(passenger, regionNames[region], priority, maxWaitMillis) : null;
+			if (future == null) {
+				post(new Outcome(requestId, null, new RejectedExecutionException("Region node refused the booking."))); // Refused
+			} else {
+				future.whenComplete((result, error) -> post(new Outcome(requestId, result, error))); // Send the result when the trip is over
+			}
+		}
+
+		/**
+		 * Queue a result to be sent, waking the I/O thread if it has not been woken for this connection already.
+		 */
+		void post(Outcome outcome) {
+			outcomes.add(outcome); // Queue the result
+			if (signalled.compareAndSet(false, true)) {
+				ready.add(this); // The connection has results to send
+				selector.wakeup(); // Wake the I/O thread
+			}
+		}
+	}
+
+	/**
+	 * A finished booking waiting to be sent.
+	 */
+	private static final class Outcome {
+
+		final long requestId; // The coordinator's ID for the booking
+		final BookingResult result; // The result, or null if the booking failed
+		final Throwable error; // The error, or null if the booking completed
+
+		Outcome(long requestId, BookingResult result, Throwable error) {
+			this.requestId = requestId;
+			this.result = result;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Run a region node from the command line until the process is stopped.
+	 *
+	 * Options: --port N (default 7070), --regions NAME=LIMIT,... (default North=50,South=50), --drivers N
+	 * (default 10), --max-sleep N (default 1000) and --log to log booking events.
+	 *
+	 * @param args The options.
+	 * @throws Exception If the port cannot be opened.
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = 7070;
+		String regionList = "North=50,South=50";
+		int drivers = 10;
+		int maxSleep = 1000;
+		boolean logEvents = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--regions":
+					regionList = args[++i];
+					break;
+				case "--drivers":
+					drivers = Integer.parseInt(args[++i]);
+					break;
+				case "--max-sleep":
+					maxSleep = Integer.parseInt(args[++i]);
+					break;
+				case "--log":
+					logEvents = true;
+					break;
+				default:
+					System.err.println("Usage: RegionNode [--port n] [--regions North=50,South=50] [--drivers n] [--max-sleep n] [--log]");
+					System.exit(2);
+			}
+		}
+		HashMap<String, Integer> regions = new HashMap<>();
+		for (String region : regionList.split(",")) {
+			String[] parts = region.split("=");
+			regions.put(parts[0].trim(), Integer.parseInt(parts[1].trim())); // Name and simultaneous job limit
+		}
+		NuberDispatch dispatch = new NuberDispatch(regions, logEvents);
+		for (int i = 0; i < drivers; i++) {
+			dispatch.addDriver(new Driver(Person.getRandomName(), maxSleep)); // Drivers take turns between the regions
+		}
+		RegionNode node = new RegionNode(dispatch, port);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			dispatch.shutdown(); // Let bookings in progress finish and send their results
+			node.close();
+		}));
+		System.out.println("Serving " + dispatch.getRegionNames() + " with " + drivers + " drivers on port " + node.getPort());
+		node.awaitClosed();
+	}
+}
@@ -0,0 +1,533 @@
+package nuber.students; // Define the package for this class
+
+import java.io.EOFException; // Import EOFException for a node that closes before saying hello
+import java.io.IOException; // Import IOException for socket errors
+import java.net.InetSocketAddress; // Import InetSocketAddress for the node addresses
+import java.nio.ByteBuffer; // Import ByteBuffer for the frames
+import java.nio.channels.ClosedChannelException; // Import ClosedChannelException for a node closed while joining
+import java.nio.channels.SelectionKey; // Import SelectionKey for the registered sockets
+import java.nio.channels.Selector; // Import Selector to serve every node from one thread
+import java.nio.channels.SocketChannel; // Import SocketChannel for the node connections
+import java.util.ArrayList; // Import ArrayList for the region names
+import java.util.Arrays; // Import Arrays to return the region names
+import java.util.HashMap; // Import HashMap for the region indexes and driver stand-ins
+import java.util.Iterator; // Import Iterator to walk the selected keys
+import java.util.List; // Import List for the region names
+import java.util.Map; // Import Map for the region indexes
+import java.util.concurrent.CompletableFuture; // Import CompletableFuture for the booking results
+import java.util.concurrent.ConcurrentHashMap; // Import ConcurrentHashMap for the routing table and bookings in flight
+import java.util.concurrent.ConcurrentLinkedQueue; // Import ConcurrentLinkedQueue for bookings waiting to be sent
+import java.util.concurrent.CopyOnWriteArrayList; // Import CopyOnWriteArrayList for the connected nodes
+import java.util.concurrent.Future; // Import Future for the booking results
+import java.util.concurrent.RejectedExecutionException; // Import RejectedExecutionException for refused bookings
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the shutdown wait
+import java.util.concurrent.TimeoutException; // Import TimeoutException for expired bookings
+import java.util.concurrent.atomic.AtomicBoolean; // Import AtomicBoolean to wake the I/O thread once per batch
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger for job IDs and the bookings in flight
+import java.util.concurrent.atomic.AtomicLong; // Import AtomicLong to hand out request IDs
+import java.util.function.BiConsumer; // Import BiConsumer for the completion listener
+
+/**
+ * The RemoteDispatch class books passengers in regions hosted by RegionNodes in other processes, so the number of
+ * regions and drivers is not limited by one JVM. Adding a node adds its regions; a booking is routed to the node that
+ * hosts its region and its future completes when the node sends back the result.
+ *
+ * One I/O thread serves every node connection. Bookings are queued for their node and the I/O thread is woken once,
+ * however many arrive meanwhile, so bookings made close together go out in one BOOK frame, and any number of them can
+ * be in flight on a connection at once. Futures are completed, and the result listener called, on the I/O thread, so
+ * work done in their callbacks holds up the other results; hand anything slow to another executor. A listener that
+ * throws is reported to the I/O thread's uncaught exception handler and does not affect any booking.
+ *
+ * A BookingResult from a node has this dispatch's job ID and the passenger that was booked. Its driver stands in for
+ * the node's driver, with the same ID and name; the same stand-in is used for every trip of that driver. If a node's
+ * connection is lost, its bookings in flight fail with an IOException and its regions are no longer routed.
+ */
+public class RemoteDispatch {
+
+	private final Selector selector; // Watches every node connection
+	private final Thread ioThread; // Writes bookings and reads results
+	private final Map<String, Node> regions = new ConcurrentHashMap<>(); // The node hosting each region
+	private final List<Node> nodes = new CopyOnWriteArrayList<>(); // Connected nodes
+	private final ConcurrentLinkedQueue<Node> joining = new ConcurrentLinkedQueue<>(); // Nodes still to be registered with the selector
+	private final ConcurrentLinkedQueue<Node> ready = new ConcurrentLinkedQueue<>(); // Nodes with bookings to send
+	private final AtomicLong nextRequestId = new AtomicLong(0); // Last request ID handed out
+	private final AtomicInteger nextJobId = new AtomicInteger(0); // Last job ID given to a completed booking
+	private final AtomicInteger inFlight = new AtomicInteger(0); // Bookings sent or waiting to be sent, without a result
+	private volatile BiConsumer<BookingResult, Throwable> resultListener; // Told about every booking as it finishes, or null
+	private volatile boolean isShutdown; // Set when no more bookings are accepted
+	private volatile boolean stopped; // Set to stop the I/O thread
+
+	/**
+	 * Create a dispatch with no regions. Add nodes to give it regions to book in.
+	 *
+	 * @throws IOException If the selector cannot be opened.
+	 */
+	public RemoteDispatch() throws IOException {
+		this.selector = Selector.open(); // Open the selector
+		this.ioThread = new Thread(this::run, "nuber-coordinator"); // Create the I/O thread
+		ioThread.setDaemon(true); // Never keep the JVM alive
+		ioThread.start(); // Start serving
+	}
+
+	/**
+	 * Connect to a region node and route its regions to it.
+	 *
+	 * @param host The node's host name.
+	 * @param port The node's port.
+	 * @return The names of the regions the node hosts.
+	 * @throws IOException If the node cannot be reached, does not speak the protocol, or hosts a region already routed.
+	 */
+	public List<String> addNode(String host, int port) throws IOException {
+		return addNode(new InetSocketAddress(host, port)); // Resolve the address
+	}
+
+	/**
+	 * Connect to a region node and route its regions to it. Bookings for those regions can be made as soon as this
+	 * returns.
+	 *
+	 * @param address The node's address.
+	 * @return The names of the regions the node hosts.
+	 * @throws IOException If the node cannot be reached, does not speak the protocol, or hosts a region already routed.
+	 */
+	public List<String> addNode(InetSocketAddress address) throws IOException {
+		if (isShutdown) {
+			throw new IllegalStateException("The dispatch has been shut down."); // No more nodes
+		}
+		SocketChannel channel = SocketChannel.open(address); // Connect, blocking until done
+		try {
+			channel.socket().setTcpNoDelay(true); // Frames are batched already, so send them at once
+			DispatchProtocol.Connection connection = new DispatchProtocol.Connection(channel);
+			List<String> names = new ArrayList<>(); // The node's regions
+			boolean[] greeted = new boolean[1]; // Whether HELLO has been read
+			while (!greeted[0]) {
+				boolean open = connection.read((type, payload) -> {
+					readHello(type, payload, names); // The node speaks first
+					greeted[0] = true;
+				});
+				if (!open) {
+					throw new EOFException("Region node at " + address + " closed the connection."); // Not a node
+				}
+			}
+			Node node = new Node(connection, names.toArray(new String[0])); // Wrap the connection
+			synchronized (regions) {
+				for (String name : names) {
+					if (regions.containsKey(name)) {
+						throw new IOException("Region " + name + " is already hosted by another node."); // Routes must be unique
+					}
+				}
+				channel.configureBlocking(false); // The I/O thread takes over
+				nodes.add(node);
+				joining.add(node); // Registered with the selector before any of its bookings are sent
+				for (String name : names) {
+					regions.put(name, node); // Route the region to the node
+				}
+			}
+			selector.wakeup(); // Let the I/O thread register it
+			return names; // Return the regions
+		} catch (IOException | RuntimeException e) {
+			channel.close(); // Do not leak the socket
+			throw e;
+		}
+	}
+
+	private static void readHello(byte type, ByteBuffer payload, List<String> names) throws IOException {
+		if (type != DispatchProtocol.HELLO || payload.getInt() != DispatchProtocol.MAGIC) {
+			throw new IOException("Not a region node."); // Something else is listening
+		}
+		int version = payload.getInt();
+		if (version != DispatchProtocol.VERSION) {
+			throw new IOException("Region node speaks protocol version " + version + "."); // Cannot talk to it
+		}
+		int count = payload.getShort(); // Regions hosted
+		for (int i = 0; i < count; i++) {
+			names.add(DispatchProtocol.getString(payload)); // One name per region
+		}
+	}
+
+	/**
+	 * Book a passenger in the specified region.
+	 *
+	 * @param passenger Passenger information.
+	 * @param region    The booking region.
+	 * @return A Future object representing the booking result, or null if no node hosts the region or the dispatch
+	 *         is shut down. The future fails with a RejectedExecutionException if the node refuses the booking.
+	 */
+	public Future<BookingResult> bookPassenger(Passenger passenger, String region) {
+		return bookPassenger(passenger, region, BookingPriority.STANDARD, 0); // Standard class, no deadline
+	}
+
+	/**
+	 * Book a passenger in the specified region with a service class and an optional deadline, as in
+	 * NuberDispatch.bookPassenger(Passenger, String, BookingPriority, long). The deadline is applied by the node.
+	 *
+	 * @param passenger     Passenger information.
+	 * @param region        The booking region.
+	 * @param priority      The service class of the booking.
+	 * @param maxWaitMillis How long the booking may wait for a driver, or 0 for no deadline.
+	 * @return A Future object representing the booking result, or null if no node hosts the region or the dispatch
+	 *         is shut down. The future fails with a TimeoutException if the deadline passes, and with a
+	 *         RejectedExecutionException if the node refuses the booking.
+	 */
+	public Future<BookingResult> bookPassenger(Passenger passenger, String region, BookingPriority priority, long maxWaitMillis) {
+		return bookPassengerAsync(passenger, region, priority, maxWaitMillis); // Every remote booking is asynchronous
+	}
+
+	/**
+	 * Book a passenger in the specified region, getting a CompletableFuture to chain further stages on.
+	 *
+	 * @param passenger     Passenger information.
+	 * @param region        The booking region.
+	 * @param priority      The service class of the booking.
+	 * @param maxWaitMillis How long the booking may wait for a driver, or 0 for no deadline.
+	 * @return A CompletableFuture that completes with the booking result, or null if no node hosts the region or the
+	 *         dispatch is shut down.
+	 */
+	public CompletableFuture<BookingResult> bookPassengerAsync(Passenger passenger, String region, BookingPriority priority, long maxWaitMillis) {
+		Node node = regions.get(region); // Find the region's node
+		if (isShutdown || node == null) {
+			return null; // Nowhere to send the booking
+		}
+		Request request = new Request(nextRequestId.incrementAndGet(), passenger, node.regionIndexes.get(region), priority, maxWaitMillis);
+		inFlight.incrementAndGet(); // Count the booking until it has a result
+		node.inFlight.put(request.id, request); // Match it up with its result later
+		if (!node.open && node.inFlight.remove(request.id) != null) {
+			finish(request, null, new IOException("Lost the connection to the node hosting region " + region + ".")); // The node went away meanwhile
+			return request;
+		}
+		node.outbox.add(request); // Queue it for the node
+		node.signal(); // Wake the I/O thread if it has not been woken already
+		return request; // The result arrives on the I/O thread
+	}
+
+	/**
+	 * Set a listener that is given every booking as it finishes, on the I/O thread,
+	 * so callers can track completion without polling the futures.
+	 *
+	 * @param listener Receives the result of a completed booking, or the error of a failed one; null to remove.
+	 */
+	public void setResultListener(BiConsumer<BookingResult, Throwable> listener) {
+		this.resultListener = listener; // Store the listener
+	}
+
+	/**
+	 * Get the names of the regions that can be booked, across every connected node.
+	 *
+	 * @return The region names.
+	 */
+	public List<String> getRegionNames() {
+		return new ArrayList<>(regions.keySet()); // Copy the routing table's keys
+	}
+
+	/**
+	 * Get the number of connected nodes.
+	 *
+	 * @return The number of nodes.
+	 */
+	public int getNodeCount() {
+		return nodes.size(); // Return the count
+	}
+
+	/**
+	 * Get the number of bookings that have been made and have no result yet.
+	 *
+	 * @return The number of bookings in flight.
+	 */
+	public int getBookingsInFlight() {
+		return inFlight.get(); // Return the count
+	}
+
+	/**
+	 * Stop accepting bookings, wait up to a minute for those in flight to finish, then close every node connection.
+	 * Bookings still in flight after that fail with an IOException. The nodes keep running.
+	 */
+	public void shutdown() {
+		isShutdown = true; // Refuse new bookings
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60); // When to stop waiting
+		synchronized (this) {
+			long remaining;
+			while (inFlight.get() > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining); // Woken by the last result
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt(); // Restore the interrupted status
+					break; // Close the connections now
+				}
+			}
+		}
+		stopped = true; // Ask the I/O thread to stop
+		selector.wakeup(); // Wake it if it is waiting
+		try {
+			ioThread.join(); // Wait for it to close the connections
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt(); // Restore the interrupted status
+		}
+	}
+
+	/**
+	 * Serve the node connections until the dispatch is shut down.
+	 */
+	private void run() {
+		try {
+			while (!stopped) {
+				selector.select(); // Wait for results, or for bookings to send
+				registerJoining(); // Start watching nodes added since the last pass
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove(); // Handled now
+					if (key.isValid()) {
+						handle(key); // Read or write
+					}
+				}
+				Node node;
+				while ((node = ready.poll()) != null) {
+					sendBookings(node); // Send what was booked since the last pass
+				}
+			}
+		} catch (IOException e) {
+			// The selector itself failed, so no node can be reached
+		} finally {
+			for (Node node : nodes) {
+				disconnect(node, new IOException("The dispatch has shut down.")); // Fail whatever is left
+			}
+			try {
+				selector.close(); // Release the selector
+			} catch (IOException e) {
+				// Nothing more to release
+			}
+		}
+	}
+
+	/**
+	 * Register the nodes added since the last pass with the selector.
+	 */
+	private void registerJoining() {
+		Node node;
+		while ((node = joining.poll()) != null) {
+			try {
+				node.key = node.connection.channel.register(selector, SelectionKey.OP_READ, node); // Read its results
+			} catch (ClosedChannelException e) {
+				disconnect(node, e); // Closed before it could be used
+			}
+		}
+	}
+
+	/**
+	 * Handle a node connection the selector found ready. A failure only closes that connection.
+	 */
+	private void handle(SelectionKey key) {
+		Node node = (Node) key.attachment(); // The node
+		try {
+			if (key.isReadable() && !node.connection.read(node)) {
+				disconnect(node, new EOFException("The node hosting " + Arrays.toString(node.regionNames) + " closed the connection."));
+				return;
+			}
+			if (key.isValid() && key.isWritable()) {
+				write(node); // The socket has room for the rest of the bookings
+			}
+		} catch (IOException e) {
+			disconnect(node, e); // Drop the broken connection
+		} catch (RuntimeException e) {
+			disconnect(node, new IOException("Bad frame from region node.", e)); // The stream cannot be trusted
+		}
+	}
+
+	/**
+	 * Write a node's bookings, and watch for room in the socket if they did not all fit.
+	 */
+	private void write(Node node) throws IOException {
+		boolean done = node.connection.flush(); // Write what the socket takes
+		node.key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Send every booking queued for a node in as few frames as possible.
+	 */
+	private void sendBookings(Node node) {
+		node.signalled.set(false); // Bookings queued from now on wake the I/O thread again
+		if (node.open && node.key == null) {
+			registerJoining(); // Added after this pass registered the others; it joins before its regions are routed, so it is queued by now
+		}
+		if (!node.open || node.key == null) {
+			return; // The connection has closed
+		}
+		DispatchProtocol.Connection connection = node.connection;
+		Request request;
+		while ((request = node.outbox.poll()) != null) {
+			connection.beginBatch(DispatchProtocol.BOOK); // Start a frame
+			int count = 0;
+			do {
+				DispatchProtocol.putBooking(connection, request.id, request.region, request.priority, request.maxWaitMillis, request.passenger);
+				count++;
+			} while (count < DispatchProtocol.MAX_BATCH && (request = node.outbox.poll()) != null);
+			connection.endBatch(count); // Close the frame
+		}
+		try {
+			write(node); // Send the frames
+		} catch (IOException e) {
+			disconnect(node, e); // The node went away
+		}
+	}
+
+	/**
+	 * Close a node's connection, stop routing its regions and fail its bookings in flight.
+	 */
+	private void disconnect(Node node, IOException cause) {
+		if (!node.open) {
+			return; // Already closed
+		}
+		node.open = false; // Bookings made from now on fail at once
+		synchronized (regions) {
+			nodes.remove(node);
+			for (String name : node.regionNames) {
+				regions.remove(name, node); // Stop routing the region
+			}
+		}
+		if (node.key != null) {
+			node.key.cancel(); // Stop watching the socket
+		}
+		try {
+			node.connection.channel.close(); // Close the socket
+		} catch (IOException e) {
+			// Nothing more can be done
+		}
+		node.outbox.clear(); // Every queued booking is also in flight
+		for (Long id : node.inFlight.keySet()) {
+			Request request = node.inFlight.remove(id);
+			if (request != null) {
+				finish(request, null, cause); // Fail the booking
+			}
+		}
+	}
+
+	/**
+	 * Complete a booking, tell the result listener and count it out of the bookings in flight.
+	 * A listener that throws is reported to the thread's uncaught exception handler, so it cannot fail other bookings
+	 * or the connection their results arrive on.
+	 */
+	private void finish(Request request, BookingResult result, Throwable error) {
+		try {
+			if (error == null) {
+				request.complete(result); // Complete the Future first, whatever the listener does
+			} else {
+				request.completeExceptionally(error); // Fail the Future
+			}
+			BiConsumer<BookingResult, Throwable> listener = resultListener; // Read the listener once
+			if (listener != null) {
+				try {
+					listener.accept(result, error); // Report the booking
+				} catch (RuntimeException e) {
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, e); // Report it without leaving the frame loop
+				}
+			}
+		} finally {
+			if (inFlight.decrementAndGet() == 0 && isShutdown) {
+				synchronized (this) {
+					notifyAll(); // Wake shutdown()
+				}
+			}
+		}
+	}
+
+	/**
+	 * A connected region node: its socket, its regions and its bookings.
+	 */
+	private final class Node implements DispatchProtocol.FrameHandler {
+
+		final DispatchProtocol.Connection connection; // The socket and its buffers
+		final String[] regionNames; // The node's regions, in the order of its HELLO
+		final Map<String, Integer> regionIndexes = new HashMap<>(); // Each region's index in the HELLO
+		final ConcurrentLinkedQueue<Request> outbox = new ConcurrentLinkedQueue<>(); // Bookings waiting to be sent
+		final Map<Long, Request> inFlight = new ConcurrentHashMap<>(); // Bookings without a result, by request ID
+		final AtomicBoolean signalled = new AtomicBoolean(); // Whether the I/O thread has been told about the bookings
+		final Map<Integer, Driver> drivers = new HashMap<>(); // Stand-ins for the node's drivers, used only by the I/O thread
+		volatile boolean open = true; // Cleared when the connection is lost
+		SelectionKey key; // The socket's registration with the selector, once the I/O thread has made it
+
+		Node(DispatchProtocol.Connection connection, String[] regionNames) {
+			this.connection = connection; // Store the connection
+			this.regionNames = regionNames;
+			for (int i = 0; i < regionNames.length; i++) {
+				regionIndexes.put(regionNames[i], i); // Index the regions
+			}
+		}
+
+		/**
+		 * Wake the I/O thread to send the queued bookings, unless it has been woken for this node already.
+		 */
+		void signal() {
+			if (signalled.compareAndSet(false, true)) {
+				ready.add(this); // The node has bookings to send
+				selector.wakeup(); // Wake the I/O thread
+			}
+		}
+
+		/**
+		 * Complete the bookings in a RESULT frame.
+		 */
+		@Override
+		public void onFrame(byte type, ByteBuffer payload) throws IOException {
+			if (type != DispatchProtocol.RESULT) {
+				throw new IOException("Unexpected frame type " + type); // Nodes only send results after HELLO
+			}
+			int count = payload.getInt(); // Results in the batch
+			for (int i = 0; i < count; i++) {
+				long id = payload.getLong();
+				byte status = payload.get();
+				BookingResult result = null;
+				Throwable error = null;
+				if (status == DispatchProtocol.OK) {
+					Driver driver = driver(payload.getInt(), payload); // The node's driver
+					result = new BookingResult(nextJobId.incrementAndGet(), null, driver, payload.getLong());
+				} else {
+					String message = DispatchProtocol.getString(payload);
+					error = status == DispatchProtocol.TIMED_OUT ? new TimeoutException(message)
+							: status == DispatchProtocol.REJECTED ? new RejectedExecutionException(message)
+							: new IllegalStateException("Booking failed on region node: " + message);
+				}
+				Request request = inFlight.remove(id); // The booking the result is for
+				if (request != null) {
+					if (result != null) {
+						result.passenger = request.passenger; // The passenger that was booked, not a copy
+					}
+					finish(request, result, error); // Complete it
+				}
+			}
+		}
+
+		/**
+		 * Get the stand-in for one of the node's drivers, reading its name from the payload.
+		 */
+		private Driver driver(int driverId, ByteBuffer payload) {
+			String name = DispatchProtocol.getString(payload); // The driver's name
+			Driver driver = drivers.get(driverId);
+			if (driver == null) {
+				driver = new Driver(name, 0); // The stand-in never drives
+				driver.id = driverId; // Same ID as on the node
+				drivers.put(driverId, driver);
+			}
+			return driver; // Return the stand-in
+		}
+	}
+
+	/**
+	 * A booking sent to a node. It is also the future the caller waits on.
+	 */
+	private static final class Request extends CompletableFuture<BookingResult> {
+
+		final long id; // The request ID, unique in this dispatch
+		final Passenger passenger; // The passenger booked
+		final int region; // The region's index in its node's HELLO
+		final BookingPriority priority; // The service class of the booking
+		final long maxWaitMillis; // How long the booking may wait for a driver, or 0 for no deadline
+
+		Request(long id, Passenger passenger, int region, BookingPriority priority, long maxWaitMillis) {
+			this.id = id;
+			this.passenger = passenger;
+			this.region = region;
+			this.priority = priority;
+			this.maxWaitMillis = maxWaitMillis;
+		}
+	}
+}
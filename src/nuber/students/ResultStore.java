@@ -0,0 +1,470 @@
+package nuber.students; // Define the package for this class
+
+import java.util.ArrayList; // Import ArrayList for the region names
+import java.util.Arrays; // Import Arrays to grow the chunk table and sort values
+import java.util.Collections; // Import Collections to hand out the region names read-only
+import java.util.List; // Import List for the region names
+import java.util.concurrent.atomic.AtomicLongArray; // Import AtomicLongArray for per-driver totals shared by every chunk
+import java.util.function.BinaryOperator; // Import BinaryOperator to combine the partial results of chunks
+import java.util.stream.IntStream; // Import IntStream to scan chunks in parallel
+
+/**
+ * The ResultStore class keeps completed trips in columns of primitive arrays instead of BookingResult objects,
+ * so a day of trips costs 34 bytes each, creates nothing for the garbage collector to trace, and can be aggregated
+ * quickly.
+ *
+ * Each row holds a trip's job ID, driver ID, booking ID and region, when it was booked on the dispatch clock, and how
+ * long it waited for a driver and spent with it. Rows are stored in fixed-size chunks, so appending never copies what
+ * is already stored. Appends take a short lock and then publish the new row count, so a query sees every row appended
+ * before it started and never a half-written one, and runs without blocking appends.
+ *
+ * Queries scan the chunks in parallel on the common fork-join pool, each chunk into a partial result that is then
+ * combined, and allocate a few arrays per chunk rather than anything per trip. Per-driver queries would need an
+ * array as long as the fleet for every chunk, so instead every chunk adds into one shared array of atomic totals.
+ * Time windows are half-open, [fromMillis, toMillis), on the dispatch clock; counts and percentiles take the trips
+ * that ended in the window.
+ */
+public class ResultStore {
+
+	/**
+	 * A duration kept for every trip.
+	 */
+	public enum Duration {
+		WAIT, // From booking to being handed a driver
+		TRIP, // From being handed a driver to reaching the destination, the driver's busy time
+		TOTAL // From booking to reaching the destination, the BookingResult's tripDuration
+	}
+
+	private static final int CHUNK_BITS = 16; // Rows per chunk, as a power of two
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final List<String> regionNames; // Region names by index
+	private volatile Chunk[] chunks = new Chunk[0]; // The rows, CHUNK_SIZE per chunk
+	private volatile long size; // Rows appended and visible to queries
+	private int maxDriverId = -1; // Highest driver ID stored, written under the lock
+
+	/**
+	 * The columns of CHUNK_SIZE consecutive rows.
+	 */
+	private static final class Chunk {
+		final int[] jobIds = new int[CHUNK_SIZE]; // Job IDs
+		final int[] driverIds = new int[CHUNK_SIZE]; // Fleet IDs of the drivers
+		final long[] bookingIds = new long[CHUNK_SIZE]; // Booking IDs, one per passenger booked
+		final short[] regions = new short[CHUNK_SIZE]; // Region indexes, or -1 for none
+		final long[] startMillis = new long[CHUNK_SIZE]; // When the booking was made, on the dispatch clock
+		final int[] waitMillis = new int[CHUNK_SIZE]; // From booking to driver
+		final int[] tripMillis = new int[CHUNK_SIZE]; // From driver to destination
+	}
+
+	/**
+	 * Create a store for the trips of a dispatch, with its regions in the same order.
+	 *
+	 * @param dispatch The dispatch whose trips are stored.
+	 */
+	public ResultStore(NuberDispatch dispatch) {
+		this(dispatch.getRegionNames()); // Index regions as the dispatch does
+	}
+
+	/**
+	 * Create a store for trips in the given regions.
+	 *
+	 * @param regionNames The region names; a region is stored as its index in the list.
+	 */
+	public ResultStore(List<String> regionNames) {
+		if (regionNames.size() > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("A store can hold at most " + Short.MAX_VALUE + " regions."); // Regions are stored as shorts
+		}
+		this.regionNames = Collections.unmodifiableList(new ArrayList<>(regionNames)); // Keep a copy
+	}
+
+	/**
+	 * Append the trip of a completed booking.
+	 *
+	 * @param booking The booking.
+	 * @param result  Its result.
+	 */
+	void append(Booking booking, BookingResult result) {
+		append(result.jobID, result.driver.id, booking.id, booking.region == null ? -1 : booking.region.ringIndex,
+				booking.startTime, booking.matchedTime, booking.endTime); // Store the booking's times
+	}
+
+	/**
+	 * Append a trip.
+	 *
+	 * @param jobId         The job ID.
+	 * @param driverId      The driver's fleet ID.
+	 * @param bookingId     The booking ID.
+	 * @param region        The region's index in the store's region names, or -1 for none.
+	 * @param startMillis   When the booking was made.
+	 * @param matchedMillis When it was handed a driver.
+	 * @param endMillis     When the passenger reached the destination.
+	 */
+	public synchronized void append(int jobId, int driverId, long bookingId, int region, long startMillis, long matchedMillis, long endMillis) {
+		long row = size; // The next row
+		Chunk chunk = chunkFor(row); // Make sure there is room for it
+		int slot = (int) (row & CHUNK_MASK);
+		chunk.jobIds[slot] = jobId;
+		chunk.driverIds[slot] = driverId;
+		chunk.bookingIds[slot] = bookingId;
+		chunk.regions[slot] = (short) region;
+		chunk.startMillis[slot] = startMillis;
+		chunk.waitMillis[slot] = clamp(matchedMillis - startMillis);
+		chunk.tripMillis[slot] = clamp(endMillis - matchedMillis);
+		maxDriverId = Math.max(maxDriverId, driverId);
+		size = row + 1; // Publish the row
+	}
+
+	/**
+	 * Get the number of trips stored.
+	 *
+	 * @return The number of rows.
+	 */
+	public long size() {
+		return size; // Return the row count
+	}
+
+	/**
+	 * Get the region names, whose indexes are stored for each trip.
+	 *
+	 * @return The region names.
+	 */
+	public List<String> getRegionNames() {
+		return regionNames; // Return the read-only list
+	}
+
+	public int getJobId(long row) {
+		return chunkOf(row).jobIds[(int) (row & CHUNK_MASK)];
+	}
+
+	public int getDriverId(long row) {
+		return chunkOf(row).driverIds[(int) (row & CHUNK_MASK)];
+	}
+
+	public long getBookingId(long row) {
+		return chunkOf(row).bookingIds[(int) (row & CHUNK_MASK)];
+	}
+
+	/**
+	 * Get the region of a trip.
+	 *
+	 * @param row The row.
+	 * @return The region name, or null if the booking had no region.
+	 */
+	public String getRegion(long row) {
+		int region = chunkOf(row).regions[(int) (row & CHUNK_MASK)];
+		return region < 0 ? null : regionNames.get(region);
+	}
+
+	public long getStartMillis(long row) {
+		return chunkOf(row).startMillis[(int) (row & CHUNK_MASK)];
+	}
+
+	/**
+	 * Get a duration of a trip.
+	 *
+	 * @param row      The row.
+	 * @param duration Which duration.
+	 * @return The duration in milliseconds.
+	 */
+	public long getDuration(long row, Duration duration) {
+		Chunk chunk = chunkOf(row);
+		int slot = (int) (row & CHUNK_MASK);
+		return duration(chunk, slot, duration); // Read the column
+	}
+
+	/**
+	 * Count the trips in a region that ended in a time window.
+	 *
+	 * @param region     The region name, or null for every region.
+	 * @param fromMillis The start of the window.
+	 * @param toMillis   The end of the window.
+	 * @return The number of trips.
+	 */
+	public long count(String region, long fromMillis, long toMillis) {
+		int wanted = regionIndex(region); // Resolve the region once
+		return scan((chunk, end) -> {
+			long count = 0;
+			for (int i = 0; i < end; i++) {
+				if ((wanted < 0 || chunk.regions[i] == wanted) && endsIn(chunk, i, fromMillis, toMillis)) {
+					count++; // The trip is in the region and the window
+				}
+			}
+			return new long[] {count};
+		}, ResultStore::add, new long[1])[0];
+	}
+
+	/**
+	 * Count the trips of each region that ended in a time window.
+	 *
+	 * @param fromMillis The start of the window.
+	 * @param toMillis   The end of the window.
+	 * @return The counts, indexed like getRegionNames().
+	 */
+	public long[] countByRegion(long fromMillis, long toMillis) {
+		int regions = regionNames.size();
+		return scan((chunk, end) -> {
+			long[] counts = new long[regions]; // One count per region
+			for (int i = 0; i < end; i++) {
+				int region = chunk.regions[i];
+				if (region >= 0 && endsIn(chunk, i, fromMillis, toMillis)) {
+					counts[region]++; // Count the trip against its region
+				}
+			}
+			return counts;
+		}, ResultStore::add, new long[regions]);
+	}
+
+	/**
+	 * Count the trips of each driver that ended in a time window.
+	 *
+	 * @param fromMillis The start of the window.
+	 * @param toMillis   The end of the window.
+	 * @return The counts, indexed by driver ID.
+	 */
+	public long[] countByDriver(long fromMillis, long toMillis) {
+		int drivers = driverCount();
+		AtomicLongArray counts = new AtomicLongArray(drivers); // One count per driver, shared by every chunk
+		scanEach((chunk, end) -> {
+			for (int i = 0; i < end; i++) {
+				int driver = chunk.driverIds[i];
+				if (driver >= 0 && driver < drivers && endsIn(chunk, i, fromMillis, toMillis)) {
+					counts.incrementAndGet(driver); // Count the trip against its driver
+				}
+			}
+		});
+		return toArray(counts);
+	}
+
+	/**
+	 * Get a percentile of a duration over the trips in a region that ended in a time window.
+	 * The percentile is exact: the matching values are gathered into one array and sorted in parallel.
+	 *
+	 * @param duration   Which duration.
+	 * @param percentile The percentile, between 0 and 100.
+	 * @param region     The region name, or null for every region.
+	 * @param fromMillis The start of the window.
+	 * @param toMillis   The end of the window.
+	 * @return The value in milliseconds that the given percentage of trips are at or below, or 0 if there are none.
+	 */
+	public long percentile(Duration duration, double percentile, String region, long fromMillis, long toMillis) {
+		int wanted = regionIndex(region); // Resolve the region once
+		int[][] parts = scan((chunk, end) -> {
+			int[] values = new int[end]; // At most every row of the chunk
+			int count = 0;
+			for (int i = 0; i < end; i++) {
+				if ((wanted < 0 || chunk.regions[i] == wanted) && endsIn(chunk, i, fromMillis, toMillis)) {
+					values[count++] = duration(chunk, i, duration); // Keep the value
+				}
+			}
+			return new int[][] {Arrays.copyOf(values, count)};
+		}, ResultStore::concat, new int[0][]);
+		long total = 0; // Values gathered
+		for (int[] part : parts) {
+			total += part.length;
+		}
+		if (total == 0) {
+			return 0; // No trips matched
+		}
+		int[] values = new int[(int) Math.min(total, Integer.MAX_VALUE - 8)]; // Gather the parts into one array
+		int position = 0;
+		for (int[] part : parts) {
+			int length = Math.min(part.length, values.length - position);
+			System.arraycopy(part, 0, values, position, length);
+			position += length;
+		}
+		Arrays.parallelSort(values); // Sort on the common pool
+		long rank = (long) Math.ceil(values.length * Math.min(100, Math.max(0, percentile)) / 100.0); // Position of the value wanted
+		return values[(int) Math.max(0, Math.min(values.length, rank) - 1)]; // Return it
+	}
+
+	/**
+	 * Get the share of the fleet's time spent on trips during a time window: the time drivers spent between being
+	 * handed a booking and reaching its destination, cut to the window, over the window length times the fleet size.
+	 *
+	 * @param drivers    The number of drivers in the fleet.
+	 * @param fromMillis The start of the window.
+	 * @param toMillis   The end of the window.
+	 * @return The utilisation, between 0 and 1, or 0 if the window or fleet is empty.
+	 */
+	public double utilisation(int drivers, long fromMillis, long toMillis) {
+		if (drivers <= 0 || toMillis <= fromMillis) {
+			return 0; // Nothing to be busy in
+		}
+		long busy = scan((chunk, end) -> {
+			long sum = 0;
+			for (int i = 0; i < end; i++) {
+				sum += busyIn(chunk, i, fromMillis, toMillis); // Add the part of the trip in the window
+			}
+			return new long[] {sum};
+		}, ResultStore::add, new long[1])[0];
+		return (double) busy / ((double) drivers * (toMillis - fromMillis)); // Busy time over available time
+	}
+
+	/**
+	 * Get the share of a time window each driver spent on trips.
+	 *
+	 * @param fromMillis The start of the window.
+	 * @param toMillis   The end of the window.
+	 * @return The utilisation of each driver, between 0 and 1, indexed by driver ID.
+	 */
+	public double[] utilisationByDriver(long fromMillis, long toMillis) {
+		int drivers = driverCount();
+		if (toMillis <= fromMillis) {
+			return new double[drivers]; // Nothing to be busy in
+		}
+		AtomicLongArray busy = new AtomicLongArray(drivers); // Busy time per driver, shared by every chunk
+		scanEach((chunk, end) -> {
+			for (int i = 0; i < end; i++) {
+				int driver = chunk.driverIds[i];
+				if (driver >= 0 && driver < drivers) {
+					long time = busyIn(chunk, i, fromMillis, toMillis); // The part of the trip in the window
+					if (time > 0) {
+						busy.addAndGet(driver, time); // Add it; most trips miss a narrow window, so skip those
+					}
+				}
+			}
+		});
+		double[] utilisation = new double[drivers];
+		for (int i = 0; i < drivers; i++) {
+			utilisation[i] = (double) busy.get(i) / (toMillis - fromMillis); // Busy time over the window
+		}
+		return utilisation;
+	}
+
+	/**
+	 * Scans the rows of one chunk into a partial result.
+	 */
+	private interface ChunkScan<T> {
+		T scan(Chunk chunk, int end);
+	}
+
+	/**
+	 * Scan every chunk in parallel up to the rows visible when the query started, and combine the partial results.
+	 *
+	 * @param scan    Scans the first end rows of a chunk.
+	 * @param combine Combines two partial results; it may reuse either.
+	 * @param empty   The result if there are no rows.
+	 * @return The combined result.
+	 */
+	private <T> T scan(ChunkScan<T> scan, BinaryOperator<T> combine, T empty) {
+		long rows = size; // Read the row count before the chunks, so every chunk it covers is visible
+		Chunk[] current = chunks;
+		int count = (int) ((rows + CHUNK_MASK) >>> CHUNK_BITS); // Chunks holding rows
+		return IntStream.range(0, count).parallel()
+				.mapToObj(c -> scan.scan(current[c], (int) Math.min(CHUNK_SIZE, rows - ((long) c << CHUNK_BITS)))) // Scan each chunk
+				.reduce(combine)
+				.orElse(empty); // No chunks
+	}
+
+	/**
+	 * Visits the rows of one chunk, adding what it finds to a result shared by every chunk.
+	 */
+	private interface ChunkVisit {
+		void visit(Chunk chunk, int end);
+	}
+
+	/**
+	 * Visit every chunk in parallel up to the rows visible when the query started.
+	 *
+	 * @param visit Visits the first end rows of a chunk; it may run on several chunks at once.
+	 */
+	private void scanEach(ChunkVisit visit) {
+		long rows = size; // Read the row count before the chunks, so every chunk it covers is visible
+		Chunk[] current = chunks;
+		int count = (int) ((rows + CHUNK_MASK) >>> CHUNK_BITS); // Chunks holding rows
+		IntStream.range(0, count).parallel()
+				.forEach(c -> visit.visit(current[c], (int) Math.min(CHUNK_SIZE, rows - ((long) c << CHUNK_BITS)))); // Visit each chunk
+	}
+
+	private static long[] toArray(AtomicLongArray totals) {
+		long[] values = new long[totals.length()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = totals.get(i); // Every chunk has been visited, so the totals are final
+		}
+		return values;
+	}
+
+	private static long[] add(long[] left, long[] right) {
+		for (int i = 0; i < left.length; i++) {
+			left[i] += right[i]; // Partial results are never shared, so add in place
+		}
+		return left;
+	}
+
+	private static int[][] concat(int[][] left, int[][] right) {
+		int[][] both = Arrays.copyOf(left, left.length + right.length); // One entry per chunk
+		System.arraycopy(right, 0, both, left.length, right.length);
+		return both;
+	}
+
+	private static boolean endsIn(Chunk chunk, int i, long fromMillis, long toMillis) {
+		long end = chunk.startMillis[i] + chunk.waitMillis[i] + chunk.tripMillis[i]; // When the passenger arrived
+		return end >= fromMillis && end < toMillis;
+	}
+
+	private static long busyIn(Chunk chunk, int i, long fromMillis, long toMillis) {
+		long matched = chunk.startMillis[i] + chunk.waitMillis[i]; // When the driver was handed the booking
+		long end = matched + chunk.tripMillis[i]; // When it reached the destination
+		return Math.max(0, Math.min(end, toMillis) - Math.max(matched, fromMillis)); // The overlap with the window
+	}
+
+	private static int duration(Chunk chunk, int i, Duration duration) {
+		switch (duration) {
+			case WAIT:
+				return chunk.waitMillis[i];
+			case TRIP:
+				return chunk.tripMillis[i];
+			default:
+				return clamp((long) chunk.waitMillis[i] + chunk.tripMillis[i]); // The whole booking
+		}
+	}
+
+	private static int clamp(long millis) {
+		return (int) Math.max(0, Math.min(Integer.MAX_VALUE, millis)); // Clocks can step backwards; trips never last 24 days
+	}
+
+	private int regionIndex(String region) {
+		if (region == null) {
+			return -1; // Every region
+		}
+		int index = regionNames.indexOf(region);
+		if (index < 0) {
+			throw new IllegalArgumentException("Unknown region " + region); // The region does not exist
+		}
+		return index;
+	}
+
+	private synchronized int driverCount() {
+		return maxDriverId + 1; // Driver IDs are dense from 0
+	}
+
+	/**
+	 * Get the chunk holding a row.
+	 *
+	 * @throws IndexOutOfBoundsException If the row has not been appended.
+	 */
+	private Chunk chunkOf(long row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size); // Not appended yet
+		}
+		return chunks[(int) (row >>> CHUNK_BITS)]; // The size was read first, so the chunk is visible
+	}
+
+	/**
+	 * Get the chunk for a new row, adding a chunk when the last one is full. Called with the lock held.
+	 */
+	private Chunk chunkFor(long row) {
+		int index = (int) (row >>> CHUNK_BITS); // The chunk number
+		Chunk[] current = chunks;
+		if (index < current.length && current[index] != null) {
+			return current[index]; // The chunk already exists
+		}
+		if (index >= current.length) {
+			current = Arrays.copyOf(current, Math.max(index + 1, current.length * 2)); // Copies chunk references only
+		}
+		current[index] = new Chunk(); // Allocate the chunk when its first row is appended
+		chunks = current; // Publish the chunk before the row count
+		return current[index];
+	}
+}
@@ -0,0 +1,358 @@
+package nuber.students; // Define the package for this class
+
+import java.util.ArrayList; // Import ArrayList for the passengers on the ride
+import java.util.List; // Import List for the passengers on the ride
+import java.util.concurrent.CompletableFuture; // Import CompletableFuture for the ride's stages
+import java.util.concurrent.TimeUnit; // Import TimeUnit to turn deadlines into timer delays
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger for the two conditions a ride starts on
+
+/**
+ * The SharedRide class is a group of bookings in one region served by a single driver, formed under a PoolingPolicy.
+ *
+ * The ride takes one place in the region's admission queue, opened by its first booking, and later bookings join it
+ * until the batching window closes or it is full. Once it is both closed and admitted it asks for one driver, who
+ * picks the passengers up in the order they joined and then drops each off after that passenger's own travel time.
+ * Every booking keeps its own phases and gets its own BookingResult; the ride holds its slot until the last
+ * passenger is dropped off. It always runs as stages on the dispatch timer, since its passengers arrive at
+ * different times. It starts through the Trampoline, so a ride that finishes at once, because a driver was idle
+ * and every delay was zero, hands its slot on after start() has returned rather than from inside it.
+ */
+class SharedRide {
+
+	private final NuberDispatch dispatch; // The dispatch the bookings were made with
+	private final NuberRegion region; // The region the ride was formed in
+	private final PoolingPolicy policy; // The capacity and detour limits
+	private final List<Rider> riders = new ArrayList<>(); // The bookings on the ride, in pickup order
+	private final AtomicInteger gates = new AtomicInteger(2); // Closed and admitted; the ride starts when both are done
+	final Runnable job = this::admit; // The ride's job in the region's admission queue, kept so it can be taken out again
+	private long plannedDetour; // The planned time the first passenger spends on board waiting for the others
+	private boolean closed; // Set once no more bookings may join
+	private boolean started; // Set once the ride has been admitted and closed
+	private NuberClock.Timeout window; // Closes the ride when the batching window ends, or null
+
+	/**
+	 * Constructor for a ride opened by a booking.
+	 *
+	 * @param dispatch The dispatch the booking was made with.
+	 * @param region   The region the booking was made in.
+	 * @param policy   The capacity and detour limits.
+	 * @param booking  The booking that opens the ride.
+	 * @param future   The future to complete with its result.
+	 */
+	SharedRide(NuberDispatch dispatch, NuberRegion region, PoolingPolicy policy, Booking booking, CompletableFuture<BookingResult> future) {
+		this.dispatch = dispatch; // Store the dispatch
+		this.region = region; // Store the region
+		this.policy = policy; // Store the policy
+		riders.add(new Rider(booking, future)); // The first passenger
+	}
+
+	/**
+	 * Add a booking to the ride if it is still open, has room, and picking the passenger up last would not
+	 * delay any passenger already on it past the detour limit.
+	 *
+	 * @param booking The booking.
+	 * @param future  The future to complete with its result.
+	 * @return true if the booking joined the ride.
+	 */
+	synchronized boolean tryJoin(Booking booking, CompletableFuture<BookingResult> future) {
+		if (closed || riders.size() >= policy.getCapacity() || allCancelled()) {
+			return false; // No room, or the ride is about to be taken out of the queue
+		}
+		long hop = policy.hopMillis(riders.get(riders.size() - 1).booking.passenger, booking.passenger); // Drive on from the last pickup
+		if (hop < 0 || plannedDetour + hop > policy.getMaxDetourMillis()) {
+			return false; // Not on the way, or too far out of it
+		}
+		plannedDetour += hop; // Everyone already on board waits for the extra pickup
+		riders.add(new Rider(booking, future)); // Join the ride
+		return true; // Joined
+	}
+
+	/**
+	 * Check whether the ride can take no more passengers.
+	 *
+	 * @return true if the ride is at capacity.
+	 */
+	synchronized boolean isFull() {
+		return riders.size() >= policy.getCapacity(); // Compare with the capacity
+	}
+
+	/**
+	 * Check whether every booking on the ride was cancelled before the ride started, so its place in the queue
+	 * can be given up.
+	 *
+	 * @return true if the ride has not started and nobody is left on it.
+	 */
+	synchronized boolean isAbandoned() {
+		return !started && allCancelled(); // Nobody left to carry
+	}
+
+	/**
+	 * Check whether every booking on the ride has been cancelled. Called with the lock held.
+	 *
+	 * @return true if every booking was cancelled.
+	 */
+	private boolean allCancelled() {
+		for (Rider rider : riders) {
+			if (!rider.booking.isCancelled()) {
+				return false; // Someone still wants the ride
+			}
+		}
+		return true; // Everyone gave up
+	}
+
+	/**
+	 * Get the booking that opened the ride.
+	 *
+	 * @return The first booking.
+	 */
+	synchronized Booking first() {
+		return riders.get(0).booking; // The first passenger's booking
+	}
+
+	/**
+	 * Set the timer task that closes the ride at the end of its batching window.
+	 *
+	 * @param window The timer task.
+	 */
+	synchronized void setWindow(NuberClock.Timeout window) {
+		if (closed) {
+			window.cancel(); // Closed already, for example because it filled up
+		} else {
+			this.window = window; // Cancel it if the ride closes early
+		}
+	}
+
+	/**
+	 * Stop bookings joining the ride, and start it if it has already been admitted.
+	 *
+	 * @return true if this call closed the ride, false if it was already closed.
+	 */
+	boolean close() {
+		synchronized (this) {
+			if (closed) {
+				return false; // Closed already
+			}
+			closed = true; // No more passengers
+			if (window != null) {
+				window.cancel(); // The window is no longer needed
+			}
+		}
+		pass(); // One of the two conditions is met
+		return true; // Closed now
+	}
+
+	/**
+	 * Run as the ride's job once the region admits it: start the ride if it has also closed.
+	 */
+	void admit() {
+		pass(); // One of the two conditions is met
+	}
+
+	/**
+	 * Take the ride out of the region's queue: close it and hand back its bookings, so the region can fail them.
+	 *
+	 * @return The bookings and futures on the ride.
+	 */
+	List<Rider> drop() {
+		synchronized (this) {
+			closed = true; // No more passengers
+			if (window != null) {
+				window.cancel(); // The window is no longer needed
+			}
+			return new ArrayList<>(riders); // Hand back everyone
+		}
+	}
+
+	/**
+	 * Meet one of the two conditions the ride starts on.
+	 */
+	private void pass() {
+		if (gates.decrementAndGet() == 0) {
+			Trampoline.run(this::start); // Closed and admitted
+		}
+	}
+
+	/**
+	 * Admit every booking on the ride and wait for one driver. If every booking has a deadline the wait ends at the
+	 * latest of them; bookings whose deadline has passed once the driver comes are expired without riding, and
+	 * bookings cancelled by then are left behind.
+	 */
+	private void start() {
+		List<Rider> riding; // The bookings on the ride, which no longer changes
+		synchronized (this) {
+			started = true; // The ride keeps its place in the queue from now on
+			riding = new ArrayList<>(riders); // Copy the final list
+		}
+		List<Rider> all = new ArrayList<>(riding.size()); // The bookings not cancelled before the ride started
+		long latestDeadline = Long.MIN_VALUE; // The latest deadline, if every booking has one
+		boolean bounded = true; // Whether every booking has a deadline
+		for (Rider rider : riding) {
+			if (rider.booking.isCancelled()) {
+				region.cancelQueued(rider.booking); // Cancelled while the ride was queued
+				continue;
+			}
+			all.add(rider); // Still wants the ride
+			region.admit(rider.booking); // The booking now holds a share of the ride's slot
+			if (rider.booking.hasDeadline()) {
+				long due = rider.booking.dueNanos(); // The booking's deadline
+				latestDeadline = latestDeadline == Long.MIN_VALUE || due - latestDeadline > 0 ? due : latestDeadline; // Keep the later one
+			} else {
+				bounded = false; // This booking waits as long as it takes
+			}
+		}
+		if (all.isEmpty()) {
+			region.rideFinished(this, false); // Everyone cancelled; give back the slot without a driver
+			return;
+		}
+		CompletableFuture<Driver> driverFuture = dispatch.acquireDriverAsync(region, all.get(0).booking.passenger); // One driver for the ride
+		if (bounded && !driverFuture.isDone()) {
+			long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(latestDeadline - dispatch.getClock().nanoTime()) + 1); // Time left, rounded up
+			NuberClock.Timeout deadline = dispatch.timeout(remaining, () -> driverFuture.cancel(false)); // Give up the wait at the deadline
+			driverFuture.whenComplete((driver, error) -> deadline.cancel()); // A driver came in time
+		}
+		driverFuture.whenComplete((driver, error) -> {
+			List<Rider> onBoard = new ArrayList<>(all.size()); // The bookings still waiting when the driver came
+			long now = dispatch.getClock().nanoTime();
+			for (Rider rider : all) {
+				if (rider.booking.isCancelled()) {
+					region.finish(rider.booking, rider.future, null, rider.booking.cancellation()); // Cancelled while waiting for the driver
+				} else if (error != null || rider.booking.isExpired(now)) {
+					region.finish(rider.booking, rider.future, null, rider.booking.expire()); // Missed the driver
+				} else {
+					onBoard.add(rider); // Still riding
+				}
+			}
+			if (onBoard.isEmpty()) {
+				if (driver != null) {
+					dispatch.addAvailableDriver(driver); // Pass the driver on to another booking
+				}
+				region.rideFinished(this, true); // Give back the slot
+				return;
+			}
+			ride(driver, onBoard); // Set off
+		});
+	}
+
+	/**
+	 * Pick up every passenger in turn, then drop each off after their own travel time,
+	 * and release the driver and the slot once the last one has arrived. A passenger whose booking is cancelled
+	 * before the driver reaches them is left behind.
+	 *
+	 * @param driver  The ride's driver.
+	 * @param onBoard The bookings to serve, in pickup order.
+	 */
+	private void ride(Driver driver, List<Rider> onBoard) {
+		for (Rider rider : onBoard) {
+			rider.booking.matched(driver); // Every booking is handed the same driver
+		}
+		region.recordSharedRide(onBoard.size()); // Count the ride
+		Passenger first = onBoard.get(0).booking.passenger; // Picked up first
+		int delay = driver.beginPickup(first); // Time to reach the first passenger
+		dispatch.logEvent(EventLog.Type.PICKING_UP, onBoard.get(0).booking, driver, delay); // Log the pickup
+		CompletableFuture<Driver> stage = dispatch.after(delay, driver); // Continue once the driver is there
+		List<Rider> boarded = new ArrayList<>(onBoard.size()); // The passengers actually picked up; the stages run one at a time
+		for (int i = 0; i < onBoard.size(); i++) {
+			Rider rider = onBoard.get(i); // The passenger at this stop
+			Rider next = i + 1 < onBoard.size() ? onBoard.get(i + 1) : null; // The passenger at the next stop, if any
+			stage = stage.thenCompose(d -> {
+				if (rider.booking.board()) {
+					pickUp(driver, rider); // On board
+					boarded.add(rider); // Drop them off later
+				} else {
+					region.finish(rider.booking, rider.future, null, rider.booking.cancellation()); // Cancelled on the way
+				}
+				if (next == null) {
+					return CompletableFuture.completedFuture(driver); // Everyone is on board
+				}
+				int hop = hopTo(driver, rider.booking.passenger, next.booking.passenger); // Drive on to the next pickup
+				dispatch.logEvent(EventLog.Type.PICKING_UP, next.booking, driver, hop); // Log the pickup
+				return dispatch.after(hop, driver); // Continue once the driver is there
+			});
+		}
+		stage.thenCompose(d -> {
+			List<CompletableFuture<Rider>> arrivals = new ArrayList<>(boarded.size()); // One per passenger on board
+			for (Rider rider : boarded) {
+				arrivals.add(dispatch.after(rider.travelMillis, rider).thenApply(r -> arrive(driver, r))); // Drop off after their own trip
+			}
+			return CompletableFuture.allOf(arrivals.toArray(new CompletableFuture<?>[0])); // Wait for the last drop-off
+		}).whenComplete((done, error) -> {
+			if (error != null) {
+				for (Rider rider : onBoard) {
+					if (!rider.future.isDone()) {
+						region.finish(rider.booking, rider.future, null, error); // The ride broke down before they arrived
+					}
+				}
+			}
+			long busy = dispatch.getClock().currentTimeMillis() - onBoard.get(0).booking.matchedTime; // From handover to the last drop-off
+			dispatch.getFleet().recordTrip(driver, busy); // Count the ride as one trip for the driver
+			dispatch.addAvailableDriver(driver); // Hand the driver to the next booking
+			region.rideFinished(this, error != null); // Give back the slot
+		});
+	}
+
+	/**
+	 * Record a passenger getting on board.
+	 *
+	 * @param driver The ride's driver.
+	 * @param rider  The passenger's booking.
+	 */
+	private void pickUp(Driver driver, Rider rider) {
+		rider.booking.pickedUpNanos = dispatch.getClock().nanoTime(); // Record when the passenger was on board
+		dispatch.getFleet().setState(driver, FleetRegistry.State.BUSY); // The driver is now carrying passengers
+		dispatch.logEvent(EventLog.Type.DRIVING, rider.booking, driver, rider.travelMillis); // Log the driving event
+	}
+
+	/**
+	 * Record a passenger reaching their destination and complete their booking.
+	 *
+	 * @param driver The ride's driver.
+	 * @param rider  The passenger's booking.
+	 * @return The rider.
+	 */
+	private Rider arrive(Driver driver, Rider rider) {
+		Booking booking = rider.booking; // The passenger's booking
+		booking.arrivedNanos = dispatch.getClock().nanoTime(); // Record when the passenger arrived
+		booking.endTime = dispatch.getClock().currentTimeMillis(); // Record the end time
+		dispatch.logEvent(EventLog.Type.COMPLETED, booking, driver, booking.endTime - booking.startTime); // Log the completion
+		BookingResult result = new BookingResult(dispatch.nextJobId(), booking.passenger, driver, booking.endTime - booking.startTime); // The passenger's own result
+		region.finish(booking, rider.future, result, null); // Complete the booking
+		return rider; // Return the rider
+	}
+
+	/**
+	 * Move the driver on from one pickup to the next.
+	 *
+	 * @param driver The ride's driver, at the previous pickup.
+	 * @param from   The passenger just picked up.
+	 * @param to     The next passenger.
+	 * @return The time to the next pickup in milliseconds, at the driver's own speed.
+	 */
+	private static int hopTo(Driver driver, Passenger from, Passenger to) {
+		if (from.hasLocation() && to.hasLocation()) {
+			return driver.beginPickup(to); // Drive the distance between them
+		}
+		return 0; // Both wait at the region's pickup point
+	}
+
+	/**
+	 * A booking on the ride, with its future and the travel time chosen for it when it joined.
+	 */
+	static final class Rider {
+
+		final Booking booking; // The booking
+		final CompletableFuture<BookingResult> future; // Completed when the passenger arrives
+		final int travelMillis; // The passenger's travel time, fixed so it cannot change between planning and driving
+
+		/**
+		 * Constructor for a rider.
+		 *
+		 * @param booking The booking.
+		 * @param future  The future to complete with its result.
+		 */
+		Rider(Booking booking, CompletableFuture<BookingResult> future) {
+			this.booking = booking; // Store the booking
+			this.future = future; // Store the future
+			this.travelMillis = booking.passenger.getTravelTime(); // Choose the travel time once
+		}
+	}
+}
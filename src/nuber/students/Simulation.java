@@ -1,15 +1,18 @@
 package nuber.students;
 
+import java.io.PrintStream;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.Future;
 
 public class Simulation {
 
+    // Where the simulation prints its progress and summary, or null to print nothing
+    private final PrintStream out;
+
+    // What happened, once the constructor has returned; null for load-generator runs, which print their own result
+    private SimulationResult result;
+
     /**
      * @param regions       The region names and maximum simultaneous active bookings allowed in that region
      * @param maxDrivers    The number of drivers to create
@@ -21,21 +24,75 @@ public class Simulation {
      *                   These parameters initialize the simulation and prepare for passenger bookings and driver dispatch.
      */
     public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents) throws Exception {
+        this(regions, maxDrivers, maxPassengers, maxSleep, logEvents, NuberClock.SYSTEM);
+    }
+
+    /**
+     * @param regions       The region names and maximum simultaneous active bookings allowed in that region
+     * @param maxDrivers    The number of drivers to create
+     * @param maxPassengers The number of passengers to create
+     * @param maxSleep      The maximum amount a driver or passenger takes (in milliseconds) to pick up, or drop off a passenger
+     * @param logEvents     Whether to log booking events to the console
+     * @param clock         The clock the simulation runs on. A DiscreteEventClock runs the NuberDispatch in virtual time,
+     *                      any other clock runs it on threads in real time.
+     * @throws Exception If the dispatch accepts a booking after it has started to shut down.
+     */
+    public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents, NuberClock clock) throws Exception {
+        this(regions, maxDrivers, maxPassengers, maxSleep, logEvents, clock, System.out);
+    }
+
+    /**
+     * @param regions       The region names and maximum simultaneous active bookings allowed in that region
+     * @param maxDrivers    The number of drivers to create
+     * @param maxPassengers The number of passengers to create
+     * @param maxSleep      The maximum amount a driver or passenger takes (in milliseconds) to pick up, or drop off a passenger
+     * @param logEvents     Whether to log booking events to the console
+     * @param clock         The clock the simulation runs on. A DiscreteEventClock runs the NuberDispatch in virtual time,
+     *                      any other clock runs it on threads in real time.
+     * @param out           Where to print progress and the summary, or null to print nothing and only keep the result.
+     *                      Each simulation has its own dispatch and clock, so several can run at once on different threads.
+     * @throws Exception If the dispatch accepts a booking after it has started to shut down.
+     */
+    public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents, NuberClock clock, PrintStream out) throws Exception {
+        this(regions, maxDrivers, maxPassengers, maxSleep, logEvents, clock, out, null);
+    }
+
+    /**
+     * @param regions       The region names and maximum simultaneous active bookings allowed in that region
+     * @param maxDrivers    The number of drivers to create
+     * @param maxPassengers The number of passengers to create
+     * @param maxSleep      The maximum amount a driver or passenger takes (in milliseconds) to pick up, or drop off a passenger
+     * @param logEvents     Whether to log booking events to the console
+     * @param clock         The clock the simulation runs on. A DiscreteEventClock runs the NuberDispatch in virtual time,
+     *                      any other clock runs it on threads in real time.
+     * @param out           Where to print progress and the summary, or null to print nothing and only keep the result.
+     * @param pooling       How every region groups bookings into shared rides, or null for one passenger per trip.
+     * @throws Exception If the dispatch accepts a booking after it has started to shut down.
+     */
+    public Simulation(HashMap<String, Integer> regions, int maxDrivers, int maxPassengers, int maxSleep, boolean logEvents, NuberClock clock, PrintStream out,
+            PoolingPolicy pooling) throws Exception {
+        this.out = out;
 
-        // Store the current time
+        // Store the current time, and the simulated start time in virtual time
         long start = new Date().getTime();
+        long simulatedStart = clock.currentTimeMillis();
+        boolean simulated = clock instanceof DiscreteEventClock;
 
         // Print some space in the console
-        System.out.println("\n\n\n");
-
-        // Store a queue of all current bookings as Future objects that will eventually give us back a BookingResult
-        Queue<Future<BookingResult>> bookings = new LinkedList<>();
+        print("\n\n\n");
 
         // Convert the region names from the regions map into an array
         String[] regionNames = regions.keySet().toArray(new String[0]);
 
         // Create a NuberDispatch object to manage drivers and passengers
-        NuberDispatch dispatch = new NuberDispatch(regions, logEvents);
+        NuberDispatch dispatch = new NuberDispatch(regions, logEvents, ExecutionMode.PLATFORM, clock);
+
+        // Group each region's waiting bookings into shared rides, if asked to
+        dispatch.setPooling(pooling);
+
+        // Have dispatch hand every booking to the tracker as it finishes, instead of polling the futures
+        CompletionTracker tracker = new CompletionTracker();
+        dispatch.setResultListener(tracker);
 
         // Create drivers that are available for jobs based on the maxDrivers passed
         for (int i = 0; i < maxDrivers; i++) {
@@ -43,65 +100,110 @@ public class Simulation {
             dispatch.addDriver(d);
         }
 
-        Integer countPassengers = 6;
         // Create passengers
-        // For each passenger, a random region is assigned. The dispatch.bookPassenger() method is called to attempt a booking, and the resulting Future<BookingResult> is added to the queue.
+        // For each passenger, a random region is assigned and dispatch.bookPassengerAsync() is called to attempt a booking.
+        // The asynchronous stages wait for pickup and travel on the dispatch timer, so the region threads are not parked for every trip.
+        Random random = new Random();
+        int accepted = 0;
         for (int i = 0; i < maxPassengers; i++) {
 
             Passenger p = new Passenger("P-" + Person.getRandomName(), maxSleep);
 
             // Choose a random region to assign this person
-            String randomRegion = regionNames[new Random().nextInt(regionNames.length)];
+            String randomRegion = regionNames[random.nextInt(regionNames.length)];
 
             // Add each passenger to dispatch to book their travel for a random region
-            Future<BookingResult> f = dispatch.bookPassenger(p, randomRegion);
-            if (f != null) {
-                // Store the future in our list
-                bookings.add(f);
+            if (dispatch.bookPassengerAsync(p, randomRegion) != null) {
+                accepted++;
             }
         }
 
-        // Tell all the regions to run all pending passengers, and then shutdown
+        if (simulated) {
+            // Run every booking to completion in virtual time, jumping from one timeout to the next instead of sleeping
+            long events = ((DiscreteEventClock) clock).run();
+            print("Events: " + events);
+        } else {
+            // Wait for the last booking to finish, printing the real progress every second while bookings are running
+            final int total = accepted;
+            tracker.awaitCompletion(total, 1000, out == null ? null : t -> out.println("Completed bookings: " + (t.getCompleted() + t.getFailed()) + "/" + total
+                    + ", active: " + dispatch.getActiveBookings() + ", queued: " + dispatch.getQueuedBookings()
+                    + ", awaiting driver: " + dispatch.getBookingsAwaitingDriver()));
+        }
+
+        // Every booking has finished, so shutting down the regions only releases their threads
         dispatch.shutdown();
-        Integer countDrivers = maxPassengers;
+
         // Check that dispatch won't let us book passengers after we've told it to shutdown
-        if (dispatch.bookPassenger(new Passenger("Test", maxSleep), regionNames[new Random().nextInt(regionNames.length)]) != null) {
+        if (dispatch.bookPassenger(new Passenger("Test", maxSleep), regionNames[random.nextInt(regionNames.length)]) != null) {
             throw new Exception("Dispatch bookPassenger() should return null if passenger requests booking after dispatch has started the shutdown");
         }
 
-        // While there are still active bookings, print out an update every 1s
-        while (bookings.size() > 0) {
-
-            // Go through each booking, and if it's done, remove it from our active bookings list
-            Iterator<Future<BookingResult>> i = bookings.iterator();
-            while (i.hasNext()) {
-                Future<BookingResult> f = i.next();
-
-                if (f.isDone()) {
-                    i.remove();
-                    countDrivers -= 1;
-                    if (logEvents) {
-                        System.out.println("Active bookings: " + countDrivers + ", pending: " + countPassengers);
-                    }
-                    if (countPassengers >= 1) {
-                        countPassengers -= 1;
-                    }
-                }
-            }
+        // Print out the final information for the simulation run
+        long totalTime = new Date().getTime() - start;
+        if (simulated) {
+            long simulatedTime = clock.currentTimeMillis() - simulatedStart;
+            result = new SimulationResult(regions, maxDrivers, maxPassengers, maxSleep, true, simulatedTime, tracker);
+            print(tracker.summary(simulatedTime));
+            print("Simulation complete in " + simulatedTime + "ms simulated time (" + totalTime + "ms real time)");
+        } else {
+            result = new SimulationResult(regions, maxDrivers, maxPassengers, maxSleep, false, totalTime, tracker);
+            print(tracker.summary(totalTime));
+            print("Simulation complete in " + totalTime + "ms");
+        }
+    }
 
-            // Print status update
-            System.out.println("Active bookings: " + countDrivers + ", pending: " + countPassengers);
-            // Sleep for 1s and then print out the current bookings
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Run a simulation whose bookings come from a load generator instead of all being made at the start.
+     *
+     * @param regions    The region names and maximum simultaneous active bookings allowed in that region
+     * @param maxDrivers The number of drivers to create
+     * @param load       The load generator, which makes each booking at its arrival time
+     * @param maxSleep   The maximum amount a driver takes (in milliseconds) to pick up a passenger
+     * @param logEvents  Whether to log booking events to the console
+     * @param clock      The clock the simulation runs on. A DiscreteEventClock replays the load in virtual time,
+     *                   any other clock replays it in real time through a NuberDispatch.
+     * @throws Exception If the arrivals cannot be read, or the run is interrupted.
+     */
+    public Simulation(HashMap<String, Integer> regions, int maxDrivers, LoadGenerator load, int maxSleep, boolean logEvents, NuberClock clock) throws Exception {
+        this.out = System.out;
+
+        // Store the real start time
+        long start = System.currentTimeMillis();
+
+        // Print some space in the console
+        print("\n\n\n");
+
+        NuberDispatch dispatch = new NuberDispatch(regions, logEvents, ExecutionMode.PLATFORM, clock);
+        for (int i = 0; i < maxDrivers; i++) {
+            dispatch.addDriver(new Driver("D-" + Person.getRandomName(), maxSleep));
         }
 
+        // Make each booking at its arrival time, without waiting for earlier ones, then wait for the last to finish;
+        // with a DiscreteEventClock the arrivals and trips are events in virtual time
+        LoadGenerator.Result loadResult = load.run(dispatch);
+        print(dispatch.getMetrics().toString());
+        dispatch.shutdown();
+
         // Print out the final information for the simulation run
-        long totalTime = new Date().getTime() - start;
-        System.out.println("Simulation complete in " + totalTime + "ms");
+        print(loadResult.toString());
+        print("Simulation complete in " + loadResult.elapsedMillis + "ms" + (clock instanceof DiscreteEventClock ? " simulated time ("
+                + (System.currentTimeMillis() - start) + "ms real time)" : ""));
+    }
+
+    /**
+     * Get what happened in the simulation.
+     *
+     * @return The result, or null for a simulation driven by a load generator.
+     */
+    public SimulationResult getResult() {
+        return result;
+    }
+
+    // Print a line if the simulation has somewhere to print
+    private void print(String line) {
+        if (out != null) {
+            out.println(line);
+        }
     }
 
 }
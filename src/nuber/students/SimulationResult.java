@@ -0,0 +1,130 @@
+package nuber.students; // Define the package for this class
+
+import java.util.HashMap; // Import HashMap for the region information
+import java.util.Locale; // Import Locale so numbers are written the same everywhere
+import java.util.TreeMap; // Import TreeMap to list regions in name order
+
+/**
+ * The SimulationResult class holds the configuration and outcome of one Simulation run, so runs can be compared
+ * side by side, printed as a table or written as CSV.
+ */
+public class SimulationResult {
+
+	/**
+	 * Column names, in the order of toCsvRow() and toTableRow().
+	 */
+	public static final String[] COLUMNS = {
+			"regions", "region_limits", "drivers", "passengers", "max_sleep_ms", "simulated",
+			"elapsed_ms", "completed", "failed", "throughput_per_s",
+			"trip_mean_ms", "trip_p50_ms", "trip_p90_ms", "trip_p99_ms", "trip_max_ms"
+	};
+
+	private static final String TABLE_FORMAT = "%7s %-16s %7s %10s %12s %9s %10s %9s %6s %16s %12s %11s %11s %11s %11s"; // Widths of the table columns
+
+	public final int regions; // Number of regions
+	public final String regionLimits; // Maximum simultaneous bookings of each region, in region name order
+	public final int drivers; // Number of drivers
+	public final int passengers; // Number of passengers booked
+	public final int maxSleep; // Maximum pickup or travel time in milliseconds
+	public final boolean simulated; // Whether the run was in virtual time
+	public final long elapsedMillis; // Length of the run on its clock
+	public final long completed; // Bookings that finished their trip
+	public final long failed; // Bookings that ended with an error
+	public final LatencyHistogram.Snapshot tripDuration; // Trip durations in milliseconds
+
+	/**
+	 * Describe a finished run.
+	 *
+	 * @param regions       The region names and maximum simultaneous active bookings of each.
+	 * @param drivers       The number of drivers.
+	 * @param passengers    The number of passengers.
+	 * @param maxSleep      The maximum pickup or travel time in milliseconds.
+	 * @param simulated     Whether the run was in virtual time.
+	 * @param elapsedMillis The length of the run on its clock.
+	 * @param tracker       The tracker that counted the finished bookings.
+	 */
+	public SimulationResult(HashMap<String, Integer> regions, int drivers, int passengers, int maxSleep, boolean simulated,
+			long elapsedMillis, CompletionTracker tracker) {
+		StringBuilder limits = new StringBuilder(); // Limits joined with ';' so they fit in one CSV field
+		for (Integer limit : new TreeMap<>(regions).values()) {
+			limits.append(limits.length() == 0 ? "" : ";").append(limit);
+		}
+		this.regions = regions.size(); // Store the configuration
+		this.regionLimits = limits.toString();
+		this.drivers = drivers;
+		this.passengers = passengers;
+		this.maxSleep = maxSleep;
+		this.simulated = simulated;
+		this.elapsedMillis = elapsedMillis; // Store the outcome
+		this.completed = tracker.getCompleted();
+		this.failed = tracker.getFailed();
+		this.tripDuration = tracker.getTripDurations();
+	}
+
+	/**
+	 * Get the throughput over the whole run.
+	 *
+	 * @return Completed bookings per second of the run's clock.
+	 */
+	public double getThroughput() {
+		return elapsedMillis <= 0 ? 0 : completed * 1000.0 / elapsedMillis; // Bookings per second
+	}
+
+	/**
+	 * Get the values of the row, in the order of COLUMNS.
+	 *
+	 * @return The values as text.
+	 */
+	public String[] getValues() {
+		return new String[] {
+				String.valueOf(regions), regionLimits, String.valueOf(drivers), String.valueOf(passengers),
+				String.valueOf(maxSleep), String.valueOf(simulated), String.valueOf(elapsedMillis),
+				String.valueOf(completed), String.valueOf(failed), String.format(Locale.ROOT, "%.2f", getThroughput()),
+				String.valueOf(tripDuration.getMean()), String.valueOf(tripDuration.getPercentile(50)),
+				String.valueOf(tripDuration.getPercentile(90)), String.valueOf(tripDuration.getPercentile(99)),
+				String.valueOf(tripDuration.getMax())
+		};
+	}
+
+	/**
+	 * Get the CSV header line.
+	 *
+	 * @return The column names separated by commas.
+	 */
+	public static String csvHeader() {
+		return String.join(",", COLUMNS); // Join the names
+	}
+
+	/**
+	 * Get the run as a CSV line. No value holds a comma, so none is quoted.
+	 *
+	 * @return The values separated by commas.
+	 */
+	public String toCsvRow() {
+		return String.join(",", getValues()); // Join the values
+	}
+
+	/**
+	 * Get the header of a fixed-width table.
+	 *
+	 * @return The column names, padded to the column widths.
+	 */
+	public static String tableHeader() {
+		return String.format(TABLE_FORMAT, (Object[]) COLUMNS); // Pad the names
+	}
+
+	/**
+	 * Get the run as a row of a fixed-width table.
+	 *
+	 * @return The values, padded to the column widths.
+	 */
+	public String toTableRow() {
+		return String.format(TABLE_FORMAT, (Object[]) getValues()); // Pad the values
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d regions (%s), %d drivers, %d passengers, maxSleep=%dms: %.1f bookings/s, trip p50=%dms p99=%dms",
+				regions, regionLimits, drivers, passengers, maxSleep, getThroughput(), tripDuration.getPercentile(50), tripDuration.getPercentile(99));
+	}
+}
@@ -0,0 +1,28 @@
+package nuber.students; // Define the package for this class
+
+/**
+ * The StealingPolicy enum decides where a region looks for a driver once its own idle drivers have run out.
+ *
+ * Each region keeps its own pool of idle drivers and always serves its bookings from it first. When the pool is
+ * empty the policy chooses whether, and from which other region, to take an idle driver; and when a driver is
+ * released with nobody waiting in its home region, the policy also decides whether it may go to a booking waiting
+ * in another region.
+ */
+public enum StealingPolicy {
+
+	/**
+	 * Never cross regions: a booking only gets drivers whose home is its own region.
+	 */
+	NEVER,
+
+	/**
+	 * Try the other regions one after another, starting with the one after the home region,
+	 * so regions do not all raid the same neighbour first.
+	 */
+	NEXT_NEIGHBOUR,
+
+	/**
+	 * Take a driver from the region with the most idle drivers, where taking one hurts least.
+	 */
+	MOST_IDLE
+}
@@ -0,0 +1,267 @@
+package nuber.students; // Define the package for this class
+
+import java.io.IOException; // Import IOException for the CSV file
+import java.io.PrintStream; // Import PrintStream for the table
+import java.io.PrintWriter; // Import PrintWriter to write the CSV file
+import java.nio.charset.StandardCharsets; // Import StandardCharsets to write the CSV as UTF-8
+import java.nio.file.Files; // Import Files to create the CSV file
+import java.nio.file.Paths; // Import Paths to turn a file name into a Path
+import java.util.ArrayList; // Import ArrayList for the grid and the results
+import java.util.Arrays; // Import Arrays to print the grid
+import java.util.HashMap; // Import HashMap for the region information
+import java.util.List; // Import List for the grid and the results
+import java.util.concurrent.ExecutionException; // Import ExecutionException for failed runs
+import java.util.concurrent.ExecutorService; // Import ExecutorService to run simulations in parallel
+import java.util.concurrent.Executors; // Import Executors to create the pool
+import java.util.concurrent.Future; // Import Future for the runs
+
+/**
+ * The SweepRunner class runs a Simulation for every combination of a grid of settings, several at a time, and
+ * collects the results into one table or CSV file for fleet sizing.
+ *
+ * The grid is the cross product of region counts, region limits, driver counts, passenger counts and maximum sleep
+ * times. Regions are named R1, R2 and so on, each with the same limit. Every run has its own dispatch and clock and
+ * nothing is shared between runs, so they can run side by side. Virtual-time runs are CPU bound, so by default as
+ * many run at once as there are processors; real-time runs mostly sleep, so more can share the processors.
+ */
+public class SweepRunner {
+
+	private int[] regionCounts = {2}; // Region counts to try
+	private int[] regionLimits = {50}; // Maximum simultaneous bookings per region to try
+	private int[] driverCounts = {10}; // Driver counts to try
+	private int[] passengerCounts = {1000}; // Passenger counts to try
+	private int[] maxSleeps = {1000}; // Maximum pickup and travel times to try
+	private boolean simulated = true; // Whether to run in virtual time
+	private int parallelism = Runtime.getRuntime().availableProcessors(); // Runs at once
+
+	/**
+	 * Set the numbers of regions to try.
+	 *
+	 * @param regionCounts The region counts, each at least 1.
+	 */
+	public void setRegionCounts(int... regionCounts) {
+		this.regionCounts = regionCounts.clone(); // Copy, so the caller's array can be reused
+	}
+
+	/**
+	 * Set the maximum simultaneous bookings per region to try. Every region of a run has the same limit.
+	 *
+	 * @param regionLimits The region limits.
+	 */
+	public void setRegionLimits(int... regionLimits) {
+		this.regionLimits = regionLimits.clone(); // Copy, so the caller's array can be reused
+	}
+
+	/**
+	 * Set the fleet sizes to try.
+	 *
+	 * @param driverCounts The driver counts.
+	 */
+	public void setDriverCounts(int... driverCounts) {
+		this.driverCounts = driverCounts.clone(); // Copy, so the caller's array can be reused
+	}
+
+	/**
+	 * Set the numbers of passengers to book in each run.
+	 *
+	 * @param passengerCounts The passenger counts.
+	 */
+	public void setPassengerCounts(int... passengerCounts) {
+		this.passengerCounts = passengerCounts.clone(); // Copy, so the caller's array can be reused
+	}
+
+	/**
+	 * Set the maximum pickup and travel times to try.
+	 *
+	 * @param maxSleeps The maximum times in milliseconds.
+	 */
+	public void setMaxSleeps(int... maxSleeps) {
+		this.maxSleeps = maxSleeps.clone(); // Copy, so the caller's array can be reused
+	}
+
+	/**
+	 * Choose between virtual-time runs on a DiscreteEventClock and real-time runs on threads. Both run the
+	 * NuberDispatch, with its admission scheduling, driver stealing and grid matching; virtual time only replaces
+	 * its timer with events on the clock, so a run takes as long as its work rather than its trips.
+	 *
+	 * @param simulated true for virtual time.
+	 */
+	public void setSimulated(boolean simulated) {
+		this.simulated = simulated; // Store the mode
+	}
+
+	/**
+	 * Set how many simulations run at once.
+	 *
+	 * @param parallelism The number of runs at once, at least 1.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism); // At least one run at a time
+	}
+
+	/**
+	 * Get the number of runs in the grid.
+	 *
+	 * @return The size of the cross product.
+	 */
+	public int size() {
+		return regionCounts.length * regionLimits.length * driverCounts.length * passengerCounts.length * maxSleeps.length;
+	}
+
+	/**
+	 * Run every combination of the grid and wait for them all.
+	 *
+	 * @param progress Where to print each result as its run finishes, or null.
+	 * @return The results, in grid order.
+	 * @throws Exception If a run fails; the remaining runs are cancelled.
+	 */
+	public List<SimulationResult> run(PrintStream progress) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "nuber-sweep"); // Create a run thread
+			thread.setDaemon(true); // Never keep the JVM alive
+			return thread;
+		});
+		List<Future<SimulationResult>> runs = new ArrayList<>(size()); // One run per combination
+		try {
+			for (int regionCount : regionCounts) {
+				for (int regionLimit : regionLimits) {
+					for (int drivers : driverCounts) {
+						for (int passengers : passengerCounts) {
+							for (int maxSleep : maxSleeps) {
+								runs.add(pool.submit(() -> {
+									SimulationResult result = runOne(regionCount, regionLimit, drivers, passengers, maxSleep); // Run the combination
+									if (progress != null) {
+										progress.println(result); // Report it as soon as it is done
+									}
+									return result;
+								}));
+							}
+						}
+					}
+				}
+			}
+			List<SimulationResult> results = new ArrayList<>(runs.size());
+			for (Future<SimulationResult> run : runs) {
+				try {
+					results.add(run.get()); // Wait for the run, keeping grid order
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e; // Report what went wrong in the run
+				}
+			}
+			return results; // Return the results
+		} finally {
+			pool.shutdownNow(); // Cancel whatever is left after a failure
+		}
+	}
+
+	/**
+	 * Get a line describing which dispatch the runs use, so results from the two modes are not mistaken for each other.
+	 *
+	 * @return The description.
+	 */
+	public String describeMode() {
+		if (simulated) {
+			return "Virtual time on the NuberDispatch"; // The full dispatch, timed on a DiscreteEventClock
+		}
+		return "Real time on the NuberDispatch"; // The full dispatch, on threads
+	}
+
+	private SimulationResult runOne(int regionCount, int regionLimit, int drivers, int passengers, int maxSleep) throws Exception {
+		HashMap<String, Integer> regions = new HashMap<>();
+		for (int i = 1; i <= regionCount; i++) {
+			regions.put("R" + i, regionLimit); // Every region has the same limit
+		}
+		NuberClock clock = simulated ? new DiscreteEventClock() : NuberClock.SYSTEM; // A fresh clock for every virtual-time run
+		return new Simulation(regions, drivers, passengers, maxSleep, false, clock, null).getResult(); // Run quietly
+	}
+
+	/**
+	 * Print results as a fixed-width table.
+	 *
+	 * @param results The results.
+	 * @param out     Where to print.
+	 */
+	public static void printTable(List<SimulationResult> results, PrintStream out) {
+		out.println(SimulationResult.tableHeader()); // Column names
+		for (SimulationResult result : results) {
+			out.println(result.toTableRow()); // One row per run
+		}
+	}
+
+	/**
+	 * Write results to a CSV file.
+	 *
+	 * @param results  The results.
+	 * @param fileName The file to write.
+	 * @throws IOException If the file cannot be written.
+	 */
+	public static void writeCsv(List<SimulationResult> results, String fileName) throws IOException {
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8))) {
+			writer.println(SimulationResult.csvHeader()); // Column names
+			for (SimulationResult result : results) {
+				writer.println(result.toCsvRow()); // One line per run
+			}
+		}
+	}
+
+	/**
+	 * Run a sweep from the command line.
+	 *
+	 * Options take comma-separated lists: --regions, --limits, --drivers, --passengers and --max-sleep. Add --real to
+	 * run in real time instead of virtual time, --parallelism N to set the runs at once and --csv FILE to write CSV.
+	 *
+	 * @param args The options.
+	 * @throws Exception If a run fails or the CSV cannot be written.
+	 */
+	public static void main(String[] args) throws Exception {
+		SweepRunner sweep = new SweepRunner();
+		String csv = null; // CSV file, if one was asked for
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--regions":
+					sweep.setRegionCounts(ints(args[++i]));
+					break;
+				case "--limits":
+					sweep.setRegionLimits(ints(args[++i]));
+					break;
+				case "--drivers":
+					sweep.setDriverCounts(ints(args[++i]));
+					break;
+				case "--passengers":
+					sweep.setPassengerCounts(ints(args[++i]));
+					break;
+				case "--max-sleep":
+					sweep.setMaxSleeps(ints(args[++i]));
+					break;
+				case "--real":
+					sweep.setSimulated(false);
+					break;
+				case "--parallelism":
+					sweep.setParallelism(Integer.parseInt(args[++i]));
+					break;
+				case "--csv":
+					csv = args[++i];
+					break;
+				default:
+					System.err.println("Usage: SweepRunner [--regions 1,2] [--limits 10,50] [--drivers 10,50] [--passengers 1000] "
+							+ "[--max-sleep 1000] [--real] [--parallelism n] [--csv file]");
+					System.exit(2);
+			}
+		}
+		long start = System.currentTimeMillis();
+		System.out.println("Running " + sweep.size() + " simulations, " + sweep.parallelism + " at a time");
+		System.out.println(sweep.describeMode()); // Say which dispatch the results come from
+		List<SimulationResult> results = sweep.run(System.out);
+		System.out.println();
+		printTable(results, System.out);
+		if (csv != null) {
+			writeCsv(results, csv);
+			System.out.println("Wrote " + csv);
+		}
+		System.out.println("Sweep complete in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private static int[] ints(String list) {
+		return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray(); // Parse the list
+	}
+}
@@ -0,0 +1,161 @@
+package nuber.students; // Define the package for this class
+
+import java.util.SplittableRandom; // Import SplittableRandom for fast, reproducible random numbers
+
+/**
+ * The SyntheticArrivals class generates an open-loop stream of booking arrivals: bookings arrive at a rate set in
+ * advance, whether or not earlier bookings have finished, as real passengers do.
+ *
+ * Arrivals form a Poisson process whose rate may change over time. A constant rate gives plain Poisson traffic,
+ * a rate that switches between a calm level and bursts gives bursty traffic, and a rate that rises and falls over
+ * a period gives a daily cycle. Changing rates are produced by thinning: candidates are drawn at the peak rate and
+ * each is kept with probability rate(t) / peak.
+ *
+ * Regions are picked at random with equal weight, and travel times are uniform between 0 and the maximum.
+ * Streams with the same seed produce the same arrivals.
+ */
+public class SyntheticArrivals implements ArrivalStream {
+
+	private final Shape shape; // How the rate changes over time
+	private final double peakPerMilli; // Highest rate, in arrivals per millisecond
+	private final String[] regions; // Region names
+	private final int maxTravelTime; // Largest travel time in milliseconds
+	private final long durationMillis; // Length of the stream, or 0 for no end
+	private final SplittableRandom random; // Source of randomness
+
+	private final double calmPerMilli, burstPerMilli; // Bursty: the two rates
+	private final double meanCalmMillis, meanBurstMillis; // Bursty: mean time spent at each rate
+	private final double amplitude, periodMillis; // Daily cycle: relative swing and length of the cycle
+
+	private double time; // Time of the last candidate arrival
+	private boolean bursting; // Bursty: whether a burst is under way
+	private double switchTime; // Bursty: when the rate next changes
+
+	private enum Shape { POISSON, BURSTY, DIURNAL }
+
+	private SyntheticArrivals(Shape shape, double peakPerSecond, String[] regions, int maxTravelTime, long durationMillis, long seed,
+			double calmPerSecond, double burstPerSecond, double meanCalmMillis, double meanBurstMillis, double amplitude, double periodMillis) {
+		if (regions.length == 0) {
+			throw new IllegalArgumentException("At least one region is needed."); // Nowhere to book
+		}
+		if (!(peakPerSecond > 0)) {
+			throw new IllegalArgumentException("The arrival rate must be positive."); // No arrivals would ever come
+		}
+		this.shape = shape; // Store the settings
+		this.peakPerMilli = peakPerSecond / 1000.0;
+		this.regions = regions.clone();
+		this.maxTravelTime = maxTravelTime;
+		this.durationMillis = durationMillis;
+		this.random = new SplittableRandom(seed);
+		this.calmPerMilli = calmPerSecond / 1000.0;
+		this.burstPerMilli = burstPerSecond / 1000.0;
+		this.meanCalmMillis = meanCalmMillis;
+		this.meanBurstMillis = meanBurstMillis;
+		this.amplitude = amplitude;
+		this.periodMillis = periodMillis;
+		if (shape == Shape.BURSTY) {
+			switchTime = exponential(meanCalmMillis); // Start calm
+		}
+	}
+
+	/**
+	 * Arrivals at a constant rate.
+	 *
+	 * @param ratePerSecond  Mean arrivals per second.
+	 * @param regions        The regions to book in, picked with equal weight.
+	 * @param maxTravelTime  Largest travel time in milliseconds.
+	 * @param durationMillis Length of the stream, or 0 for no end.
+	 * @param seed           Seed for the random numbers.
+	 * @return The stream.
+	 */
+	public static SyntheticArrivals poisson(double ratePerSecond, String[] regions, int maxTravelTime, long durationMillis, long seed) {
+		return new SyntheticArrivals(Shape.POISSON, ratePerSecond, regions, maxTravelTime, durationMillis, seed, 0, 0, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Arrivals that switch between a calm rate and bursts at a higher rate. Calm spells and bursts last for
+	 * exponentially distributed times with the given means.
+	 *
+	 * @param calmPerSecond   Mean arrivals per second between bursts.
+	 * @param burstPerSecond  Mean arrivals per second during a burst.
+	 * @param meanCalmMillis  Mean length of a calm spell.
+	 * @param meanBurstMillis Mean length of a burst.
+	 * @param regions         The regions to book in, picked with equal weight.
+	 * @param maxTravelTime   Largest travel time in milliseconds.
+	 * @param durationMillis  Length of the stream, or 0 for no end.
+	 * @param seed            Seed for the random numbers.
+	 * @return The stream.
+	 */
+	public static SyntheticArrivals bursty(double calmPerSecond, double burstPerSecond, long meanCalmMillis, long meanBurstMillis,
+			String[] regions, int maxTravelTime, long durationMillis, long seed) {
+		if (calmPerSecond < 0 || meanCalmMillis <= 0 || meanBurstMillis <= 0) {
+			throw new IllegalArgumentException("Rates must not be negative and spells must have a length."); // Not a usable pattern
+		}
+		return new SyntheticArrivals(Shape.BURSTY, Math.max(calmPerSecond, burstPerSecond), regions, maxTravelTime, durationMillis, seed,
+				calmPerSecond, burstPerSecond, meanCalmMillis, meanBurstMillis, 0, 0);
+	}
+
+	/**
+	 * Arrivals whose rate follows a daily cycle: a sine wave around the mean rate, lowest at the start of each period
+	 * and highest halfway through.
+	 *
+	 * @param meanPerSecond  Mean arrivals per second over a period.
+	 * @param amplitude      How far the rate swings either side of the mean, as a fraction of it, from 0 to 1.
+	 * @param periodMillis   Length of one cycle, such as a day, or a day compressed into a shorter run.
+	 * @param regions        The regions to book in, picked with equal weight.
+	 * @param maxTravelTime  Largest travel time in milliseconds.
+	 * @param durationMillis Length of the stream, or 0 for no end.
+	 * @param seed           Seed for the random numbers.
+	 * @return The stream.
+	 */
+	public static SyntheticArrivals diurnal(double meanPerSecond, double amplitude, long periodMillis,
+			String[] regions, int maxTravelTime, long durationMillis, long seed) {
+		if (amplitude < 0 || amplitude > 1 || periodMillis <= 0) {
+			throw new IllegalArgumentException("The amplitude must be between 0 and 1 and the period must have a length."); // Not a usable cycle
+		}
+		return new SyntheticArrivals(Shape.DIURNAL, meanPerSecond * (1 + amplitude), regions, maxTravelTime, durationMillis, seed,
+				0, 0, 0, 0, amplitude, periodMillis);
+	}
+
+	@Override
+	public Arrival next() {
+		while (true) {
+			time += exponential(1 / peakPerMilli); // The next candidate at the peak rate
+			if (durationMillis > 0 && time >= durationMillis) {
+				return null; // The stream has ended
+			}
+			if (keep()) {
+				String region = regions[random.nextInt(regions.length)]; // Any region, equally likely
+				int travelTime = maxTravelTime <= 0 ? 0 : random.nextInt(maxTravelTime + 1); // Uniform travel time
+				return new Arrival((long) time, region, travelTime); // Return the arrival
+			}
+		}
+	}
+
+	/**
+	 * Decide whether to keep the candidate at the current time, so arrivals follow the current rate.
+	 */
+	private boolean keep() {
+		switch (shape) {
+			case BURSTY:
+				while (time >= switchTime) {
+					bursting = !bursting; // Move to the next spell
+					switchTime += exponential(bursting ? meanBurstMillis : meanCalmMillis);
+				}
+				return random.nextDouble() * peakPerMilli < (bursting ? burstPerMilli : calmPerMilli);
+			case DIURNAL:
+				return random.nextDouble() * peakPerMilli < rateAt(time);
+			default:
+				return true; // Every candidate is an arrival
+		}
+	}
+
+	private double rateAt(double offsetMillis) {
+		double phase = 2 * Math.PI * offsetMillis / periodMillis; // Position in the cycle
+		return peakPerMilli / (1 + amplitude) * (1 - amplitude * Math.cos(phase)); // Lowest at the start of the cycle
+	}
+
+	private double exponential(double mean) {
+		return -mean * Math.log(1 - random.nextDouble()); // Inverse of the exponential distribution
+	}
+}
@@ -0,0 +1,40 @@
+package nuber.students; // Define the package for this class
+
+/**
+ * The SystemClock class passes real time, using the system clock and Thread.sleep().
+ */
+public class SystemClock implements NuberClock {
+
+	/**
+	 * Get the current system time.
+	 *
+	 * @return The current time in milliseconds.
+	 */
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis(); // Read the system clock
+	}
+
+	/**
+	 * Get the JVM's high-resolution time.
+	 *
+	 * @return The current time in nanoseconds.
+	 */
+	@Override
+	public long nanoTime() {
+		return System.nanoTime(); // Read the monotonic clock
+	}
+
+	/**
+	 * Sleep the calling thread.
+	 *
+	 * @param millis The time to sleep in milliseconds.
+	 * @throws InterruptedException If the thread is interrupted during sleep.
+	 */
+	@Override
+	public void sleep(long millis) throws InterruptedException {
+		if (millis > 0) { // Skip the call entirely for zero delays
+			Thread.sleep(millis); // Sleep the thread for the given time
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package nuber.students; // Define the package for this class
+
+import java.io.BufferedReader; // Import BufferedReader to read the trace a line at a time
+import java.io.IOException; // Import IOException for file errors
+import java.io.Reader; // Import Reader so a trace can come from any source
+import java.nio.charset.StandardCharsets; // Import StandardCharsets to read the file as UTF-8
+import java.nio.file.Files; // Import Files to open the trace file
+import java.nio.file.Paths; // Import Paths to turn a file name into a Path
+
+/**
+ * The TraceArrivals class replays booking arrivals recorded in a text trace.
+ *
+ * Each line holds a timestamp in milliseconds, a region name and a travel time in milliseconds, separated by commas.
+ * Blank lines and lines starting with # are skipped, as is a header line whose timestamp is not a number. Timestamps
+ * may start anywhere, such as at epoch time, and must not go backwards; arrivals are placed relative to the first.
+ * A travel time of -1, or a missing one, means a random travel time. Lines are read as they are needed, so a trace
+ * can be far larger than memory.
+ */
+public class TraceArrivals implements ArrivalStream {
+
+	private final BufferedReader reader; // The trace
+	private long firstTimestamp = Long.MIN_VALUE; // Timestamp of the first arrival
+	private long lastTimestamp = Long.MIN_VALUE; // Timestamp of the last arrival read
+	private long lineNumber; // Lines read so far, for error messages
+
+	/**
+	 * Read a trace from any source.
+	 *
+	 * @param reader The trace text. Closing the stream closes it.
+	 */
+	public TraceArrivals(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, 1 << 16); // Read in large blocks
+	}
+
+	/**
+	 * Read a trace file.
+	 *
+	 * @param fileName The trace file.
+	 * @return The stream of arrivals in the file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public static TraceArrivals open(String fileName) throws IOException {
+		return new TraceArrivals(Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)); // Open the file
+	}
+
+	@Override
+	public Arrival next() throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++; // Count the line
+			line = line.trim();
+			if (line.isEmpty() || line.charAt(0) == '#') {
+				continue; // Skip blank lines and comments
+			}
+			int first = line.indexOf(','); // End of the timestamp
+			int second = first < 0 ? -1 : line.indexOf(',', first + 1); // End of the region
+			if (first < 0) {
+				throw new IOException("Line " + lineNumber + " of the trace has no region: " + line); // Not enough fields
+			}
+			long timestamp;
+			try {
+				timestamp = Long.parseLong(line.substring(0, first).trim()); // Read the timestamp
+			} catch (NumberFormatException e) {
+				if (lastTimestamp == Long.MIN_VALUE) {
+					continue; // A header line
+				}
+				throw new IOException("Line " + lineNumber + " of the trace has a bad timestamp: " + line);
+			}
+			if (timestamp < lastTimestamp) {
+				throw new IOException("Line " + lineNumber + " of the trace goes back in time: " + line); // Arrivals must be in order
+			}
+			String region = (second < 0 ? line.substring(first + 1) : line.substring(first + 1, second)).trim(); // Read the region
+			int travelTime = -1; // Random unless the trace says otherwise
+			if (second >= 0 && second + 1 < line.length()) {
+				try {
+					travelTime = Integer.parseInt(line.substring(second + 1).trim()); // Read the travel time
+				} catch (NumberFormatException e) {
+					throw new IOException("Line " + lineNumber + " of the trace has a bad travel time: " + line);
+				}
+			}
+			if (firstTimestamp == Long.MIN_VALUE) {
+				firstTimestamp = timestamp; // Arrivals are placed relative to the first
+			}
+			lastTimestamp = timestamp;
+			return new Arrival(timestamp - firstTimestamp, region, travelTime); // Return the arrival
+		}
+		return null; // The trace has ended
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close(); // Close the trace
+	}
+}
@@ -0,0 +1,84 @@
+package nuber.students; // Define the package for this class
+
+import java.util.ArrayDeque; // Import ArrayDeque for the tasks waiting on this thread
+
+/**
+ * The Trampoline class runs hand-offs, such as admitting the next booking into a released slot or giving a released
+ * driver to a waiting booking, one after another instead of one inside another.
+ *
+ * A hand-off often runs the next booking's stages straight away, and when that booking finishes without waiting,
+ * because a driver was idle and the delays were zero, it makes the next hand-off from inside the first. Run directly,
+ * every such booking would add to the same stack until it overflowed. Run through the trampoline, a hand-off made
+ * while another is running on the same thread is queued and run as soon as the outer one returns, so the stack
+ * stays shallow however many bookings finish in a row, and they still run on the thread that freed their slot
+ * or driver, in the order they were handed over.
+ */
+final class Trampoline {
+
+	private static final ThreadLocal<ArrayDeque<Runnable>> PENDING = new ThreadLocal<>(); // Hand-offs waiting on this thread, or null if none is running
+
+	/**
+	 * Static methods only.
+	 */
+	private Trampoline() {
+	}
+
+	/**
+	 * Run a hand-off now, or, if another is already running on this thread, as soon as that one returns.
+	 * If a hand-off throws, the rest still run, and the first failure is then thrown to the outermost caller.
+	 *
+	 * @param task The hand-off.
+	 */
+	static void run(Runnable task) {
+		ArrayDeque<Runnable> pending = PENDING.get(); // The queue of the hand-off already running here, if any
+		if (pending != null) {
+			pending.add(task); // Run it once the stack has unwound
+			return;
+		}
+		pending = new ArrayDeque<>(); // This is the outermost hand-off on the thread
+		PENDING.set(pending);
+		try {
+			runAll(task, pending); // Run it and everything it hands off
+		} finally {
+			PENDING.remove(); // Nothing is running here any more
+		}
+	}
+
+	/**
+	 * Run the hand-offs queued on this thread now, before the caller blocks waiting for something one of them
+	 * may provide, such as a driver or a slot.
+	 */
+	static void drain() {
+		ArrayDeque<Runnable> pending = PENDING.get(); // The queue of the hand-off running here, if any
+		if (pending != null && !pending.isEmpty()) {
+			runAll(pending.poll(), pending); // Run them; new ones still queue rather than nest
+		}
+	}
+
+	/**
+	 * Run a task and then every task queued behind it, until the queue is empty.
+	 *
+	 * @param first   The first task.
+	 * @param pending The queue.
+	 */
+	private static void runAll(Runnable first, ArrayDeque<Runnable> pending) {
+		Throwable failure = null; // The first task to fail, if any
+		for (Runnable task = first; task != null; task = pending.poll()) {
+			try {
+				task.run(); // Run the hand-off
+			} catch (RuntimeException | Error e) {
+				if (failure == null) {
+					failure = e; // Report it once the others have run
+				} else {
+					failure.addSuppressed(e); // Keep the later ones with it
+				}
+			}
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure; // Report the failure
+		}
+		if (failure != null) {
+			throw (Error) failure; // Report the failure
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a stuck limit fails the test rather than hanging it
+
+/**
+ * Tests for how an AdaptiveLimit moves.
+ */
+@Timeout(60)
+class AdaptiveLimitTest {
+
+	/**
+	 * Feed a number of windows of samples, all with the same slot time, and return the limit.
+	 */
+	private static int feed(AdaptiveLimit limit, int windows, long slotNanos, boolean failed, int queued) {
+		for (int i = 0; i < windows * Math.max(10, limit.getMaxLimit()); i++) {
+			limit.onSample(slotNanos, failed, limit.getLimit(), queued);
+		}
+		return limit.getLimit();
+	}
+
+	@Test
+	void growsWhileBookingsQueueAtSteadySlotTimes() {
+		for (AdaptiveLimit.Algorithm algorithm : AdaptiveLimit.Algorithm.values()) {
+			AdaptiveLimit limit = new AdaptiveLimit(algorithm, 5, 1, 50);
+			assertTrue(feed(limit, 30, 1_000_000, false, 100) > 5, algorithm + " did not grow");
+		}
+	}
+
+	@Test
+	void staysPutWhenNothingQueues() {
+		for (AdaptiveLimit.Algorithm algorithm : AdaptiveLimit.Algorithm.values()) {
+			AdaptiveLimit limit = new AdaptiveLimit(algorithm, 5, 1, 50);
+			assertTrue(feed(limit, 30, 1_000_000, false, 0) <= 5, algorithm + " drifted up while idle");
+		}
+	}
+
+	@Test
+	void backsOffWhenSlotTimesRiseOrBookingsFail() {
+		for (AdaptiveLimit.Algorithm algorithm : AdaptiveLimit.Algorithm.values()) {
+			AdaptiveLimit limit = new AdaptiveLimit(algorithm, 40, 1, 50);
+			feed(limit, 5, 1_000_000, false, 0); // Learn the usual slot time
+			assertTrue(feed(limit, 5, 100_000_000, false, 0) < 40, algorithm + " did not back off");
+		}
+		AdaptiveLimit limit = new AdaptiveLimit(AdaptiveLimit.Algorithm.AIMD, 40, 1, 50);
+		assertTrue(feed(limit, 3, 1_000_000, true, 0) < 40, "AIMD ignored failures");
+	}
+
+	@Test
+	void stayWithinItsBounds() {
+		AdaptiveLimit limit = new AdaptiveLimit(AdaptiveLimit.Algorithm.GRADIENT, 100, 2, 8);
+		assertEquals(8, limit.getLimit()); // Starts inside the bounds
+		assertEquals(8, feed(limit, 50, 1_000_000, false, 1000));
+		assertEquals(2, feed(limit, 50, Long.MAX_VALUE / 1000, true, 0));
+		assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(AdaptiveLimit.Algorithm.AIMD, 5, 0, 10));
+		assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimit(AdaptiveLimit.Algorithm.AIMD, 5, 10, 5));
+	}
+}
@@ -0,0 +1,169 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertFalse; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.util.ArrayList; // Import ArrayList for the order jobs ran in
+import java.util.Arrays; // Import Arrays for the expected order
+import java.util.List; // Import List for the order jobs ran in
+import java.util.concurrent.CountDownLatch; // Import CountDownLatch to wait for every job
+import java.util.concurrent.ExecutorService; // Import ExecutorService for jobs that run on threads
+import java.util.concurrent.Executors; // Import Executors to create the pool
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger to track the jobs running at once
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a lost slot fails the test rather than hanging it
+
+/**
+ * Tests for the AdmissionScheduler. Most run their jobs on the calling thread, so the order of admission
+ * can be checked without waiting.
+ */
+@Timeout(60)
+class AdmissionSchedulerTest {
+
+	private final List<String> ran = new ArrayList<>(); // What ran, in order
+
+	private Runnable job(String name) {
+		return () -> ran.add(name);
+	}
+
+	@Test
+	void slotsGoToWaitingJobsEarliestDueFirst() {
+		AdmissionScheduler scheduler = new AdmissionScheduler(Runnable::run, 1);
+		scheduler.submit(job("first")); // Takes the only slot
+		long now = System.nanoTime();
+		scheduler.submit(job("later"), Runnable::run, now + 2_000_000_000L, null);
+		scheduler.submit(job("sooner"), Runnable::run, now + 1_000_000_000L, null);
+		scheduler.submit(job("also later"), Runnable::run, now + 2_000_000_000L, null); // Same due time, so after "later"
+		assertEquals(1, scheduler.getActive());
+		assertEquals(3, scheduler.getWaiting());
+		for (int i = 0; i < 3; i++) {
+			scheduler.release(); // The running job finishes
+		}
+		assertEquals(Arrays.asList("first", "sooner", "later", "also later"), ran);
+		scheduler.release();
+		assertEquals(0, scheduler.getActive());
+	}
+
+	@Test
+	void jobsPastTheirDeadlineExpireWithoutTakingASlot() {
+		AdmissionScheduler scheduler = new AdmissionScheduler(Runnable::run, 1);
+		scheduler.submit(job("running"));
+		scheduler.submit(job("expired"), Runnable::run, System.nanoTime() - 1, () -> ran.add("expired handler"));
+		scheduler.submit(job("next"), Runnable::run, System.nanoTime() + 60_000_000_000L, () -> ran.add("next handler"));
+		scheduler.release();
+		assertEquals(Arrays.asList("running", "expired handler", "next"), ran);
+		assertEquals(1, scheduler.getActive());
+	}
+
+	@Test
+	void fullQueueRefusesOrDropsTheOldest() throws Exception {
+		AdmissionScheduler scheduler = new AdmissionScheduler(Runnable::run, 1);
+		scheduler.setQueueCapacity(1);
+		long now = System.nanoTime();
+		assertTrue(scheduler.offer(job("running"), Runnable::run, now, null, null, 0)); // A free slot always accepts
+		assertTrue(scheduler.offer(job("old"), Runnable::run, now, null, () -> ran.add("old dropped"), 0));
+		assertFalse(scheduler.offer(job("new"), Runnable::run, now, null, null, 0)); // No room and no wait
+		assertFalse(scheduler.offer(job("new"), Runnable::run, now, null, null, TimeUnit.MILLISECONDS.toNanos(20))); // Nobody makes room
+		assertTrue(scheduler.dropOldest());
+		assertTrue(scheduler.offer(job("new"), Runnable::run, now, null, null, 0));
+		assertFalse(scheduler.dropOldest()); // "new" may not be dropped
+		Runnable removed = job("removed");
+		scheduler.setQueueCapacity(2);
+		assertTrue(scheduler.offer(removed, Runnable::run, now, null, null, 0));
+		assertTrue(scheduler.remove(removed));
+		assertFalse(scheduler.remove(removed));
+		scheduler.release();
+		assertEquals(Arrays.asList("running", "old dropped", "new"), ran);
+	}
+
+	@Test
+	void batchesTakeFreeSlotsAndQueueTheRest() {
+		AdmissionScheduler scheduler = new AdmissionScheduler(Runnable::run, 2);
+		assertEquals(1, scheduler.tryReserve(1));
+		scheduler.setQueueCapacity(2);
+		assertEquals(3, scheduler.submitAll(Arrays.asList(job("a"), job("b"), job("c"), job("d")), Runnable::run)); // One slot, two places
+		assertEquals(Arrays.asList("a"), ran);
+		assertEquals(0, scheduler.tryReserve(1)); // Jobs are waiting, so nothing overtakes them
+		scheduler.release();
+		scheduler.release();
+		assertEquals(Arrays.asList("a", "b", "c"), ran);
+	}
+
+	@Test
+	void jobsCanBeRemovedFromAQueuedBatch() {
+		AdmissionScheduler scheduler = new AdmissionScheduler(Runnable::run, 1);
+		Runnable b = job("b");
+		Runnable c = job("c");
+		Runnable d = job("d");
+		assertEquals(4, scheduler.submitAll(Arrays.asList(job("a"), b, c, d), Runnable::run));
+		assertTrue(scheduler.remove(c));
+		assertFalse(scheduler.remove(c));
+		assertEquals(2, scheduler.getWaiting());
+		scheduler.release(); // "b" takes the slot
+		assertFalse(scheduler.remove(b)); // Admitted already
+		assertTrue(scheduler.remove(d)); // The last job of the batch, so the batch leaves the queue
+		assertEquals(0, scheduler.getWaiting());
+		scheduler.release();
+		assertEquals(Arrays.asList("a", "b"), ran);
+		assertEquals(0, scheduler.getActive());
+	}
+
+	@Test
+	void changingTheLimitAdmitsOrDrainsSlots() {
+		AdmissionScheduler scheduler = new AdmissionScheduler(Runnable::run, 1);
+		scheduler.submit(job("a"));
+		scheduler.submit(job("b"));
+		scheduler.submit(job("c"));
+		scheduler.setMaxActive(3); // The new slots go to the waiting jobs at once
+		assertEquals(Arrays.asList("a", "b", "c"), ran);
+		scheduler.setMaxActive(1);
+		scheduler.submit(job("d"));
+		scheduler.release();
+		scheduler.release(); // Two slots given up to meet the lower limit
+		assertEquals(3, ran.size());
+		scheduler.release(); // Now the slot is handed on
+		assertEquals("d", ran.get(3));
+		assertThrows(IllegalArgumentException.class, () -> scheduler.setMaxActive(0));
+	}
+
+	/**
+	 * Jobs submitted from many threads onto a pool never run more at once than the limit, and every one runs.
+	 */
+	@Test
+	void neverRunsMoreThanTheLimitAtOnce() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			int limit = 3, jobs = 2000;
+			AdmissionScheduler scheduler = new AdmissionScheduler(pool, limit);
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger most = new AtomicInteger();
+			CountDownLatch done = new CountDownLatch(jobs);
+			Runnable job = () -> {
+				most.accumulateAndGet(running.incrementAndGet(), Math::max);
+				running.decrementAndGet();
+				done.countDown();
+				scheduler.release();
+			};
+			Thread[] submitters = new Thread[4];
+			for (int t = 0; t < submitters.length; t++) {
+				submitters[t] = new Thread(() -> {
+					for (int i = 0; i < jobs / submitters.length; i++) {
+						scheduler.submit(job);
+					}
+				});
+				submitters[t].start();
+			}
+			for (Thread submitter : submitters) {
+				submitter.join();
+			}
+			assertTrue(done.await(30, TimeUnit.SECONDS));
+			assertTrue(scheduler.awaitDrained(10, TimeUnit.SECONDS));
+			assertTrue(most.get() <= limit, "ran " + most.get() + " at once");
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
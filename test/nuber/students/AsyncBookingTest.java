@@ -0,0 +1,81 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+
+import java.util.ArrayList; // Import ArrayList for the booking futures
+import java.util.HashMap; // Import HashMap for the region limits
+import java.util.List; // Import List for the booking futures
+import java.util.concurrent.CompletableFuture; // Import CompletableFuture for the booking results
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import org.junit.jupiter.api.AfterEach; // Import AfterEach to shut the dispatch down
+import org.junit.jupiter.api.BeforeEach; // Import BeforeEach to create the dispatch
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a wedged region fails the test rather than hanging it
+
+/**
+ * Tests for asynchronous bookings whose stages complete without waiting.
+ */
+@Timeout(60)
+class AsyncBookingTest {
+
+	private static final int BOOKINGS = 5000; // Far more than fit on a stack if each booking started the next inside it
+
+	private NuberDispatch dispatch; // The dispatch under test
+
+	@BeforeEach
+	void createDispatch() {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("North", 1); // One booking at a time, so the rest queue
+		dispatch = new NuberDispatch(regions, false);
+	}
+
+	@AfterEach
+	void shutdown() {
+		dispatch.shutdown();
+	}
+
+	/**
+	 * A driver with no pickup delay serving passengers with no travel time finishes every booking inside the call
+	 * that hands it the slot, so each released slot admits the next queued booking on the same thread.
+	 * Every booking must still complete, and the region must drain.
+	 */
+	@Test
+	void queuedBookingsThatFinishAtOnceDoNotNest() throws Exception {
+		List<CompletableFuture<BookingResult>> futures = new ArrayList<>(BOOKINGS);
+		for (int i = 0; i < BOOKINGS; i++) {
+			futures.add(dispatch.bookPassengerAsync(new Passenger("P" + i, 0, 0), "North")); // Queued, since there is no driver yet
+		}
+		dispatch.addDriver(new Driver("D", 0)); // Starts the whole queue
+		for (CompletableFuture<BookingResult> future : futures) {
+			future.get(30, TimeUnit.SECONDS); // Fails if a stage overflowed the stack
+		}
+		BookingMetrics.Snapshot metrics = dispatch.getMetrics();
+		assertEquals(BOOKINGS, metrics.completed);
+		assertEquals(0, metrics.active);
+		assertEquals(0, dispatch.getBookingsAwaitingDriver());
+	}
+
+	/**
+	 * The same with every booking admitted at once, so the driver is handed from one waiting booking straight
+	 * to the next instead.
+	 */
+	@Test
+	void waitingBookingsThatFinishAtOnceDoNotNest() throws Exception {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("South", BOOKINGS); // Every booking is admitted and waits for the driver
+		NuberDispatch wide = new NuberDispatch(regions, false);
+		try {
+			List<CompletableFuture<BookingResult>> futures = new ArrayList<>(BOOKINGS);
+			for (int i = 0; i < BOOKINGS; i++) {
+				futures.add(wide.bookPassengerAsync(new Passenger("P" + i, 0, 0), "South"));
+			}
+			wide.addDriver(new Driver("D", 0)); // Passed from each finished booking to the next waiter
+			for (CompletableFuture<BookingResult> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+			assertEquals(BOOKINGS, wide.getMetrics().completed);
+		} finally {
+			wide.shutdown();
+		}
+	}
+}
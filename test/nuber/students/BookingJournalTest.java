@@ -0,0 +1,144 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertNotNull; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.io.IOException; // Import IOException for a file that is not a journal
+import java.nio.ByteBuffer; // Import ByteBuffer to tear a record
+import java.nio.channels.FileChannel; // Import FileChannel to tear a record
+import java.nio.file.Files; // Import Files for the temporary journal
+import java.nio.file.Path; // Import Path for the temporary journal
+import java.nio.file.StandardOpenOption; // Import StandardOpenOption to write into the journal
+import java.util.ArrayList; // Import ArrayList for the futures to rebook
+import java.util.Arrays; // Import Arrays for the expected bookings
+import java.util.HashMap; // Import HashMap for the region limits
+import java.util.List; // Import List for the pending bookings
+import java.util.concurrent.Future; // Import Future for the booking results
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import org.junit.jupiter.api.AfterEach; // Import AfterEach to delete the journal
+import org.junit.jupiter.api.BeforeEach; // Import BeforeEach to create the journal file
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a lost booking fails the test rather than hanging it
+
+/**
+ * Tests for writing a BookingJournal and recovering a dispatch from it.
+ */
+@Timeout(60)
+class BookingJournalTest {
+
+	private Path file; // The journal file
+
+	@BeforeEach
+	void createFile() throws IOException {
+		file = Files.createTempFile("nuber-journal", ".bin");
+		Files.delete(file); // The journal creates it
+	}
+
+	@AfterEach
+	void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static HashMap<String, Integer> regions() {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("North", 5);
+		regions.put("South", 5);
+		return regions;
+	}
+
+	/**
+	 * Bookings that completed are settled, and bookings still waiting when the journal was last written are
+	 * recovered with their passenger, region, class and deadline, then booked once more in a new dispatch.
+	 */
+	@Test
+	void pendingBookingsAreRecoveredAndRebookedOnce() throws Exception {
+		NuberDispatch first = new NuberDispatch(regions(), false);
+		first.setStealingPolicy(StealingPolicy.NEVER); // Keep North's driver from serving the stranded booking
+		try (BookingJournal journal = new BookingJournal(file, BookingJournal.MIN_SEGMENT_SIZE, 0)) { // Flushed by the test, not a timer
+			first.setJournal(journal);
+			first.addDriver(new Driver("D", 0), "North");
+			List<Future<BookingResult>> done = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				done.add(first.bookPassenger(new Passenger("Done" + i, 0, 0), "North"));
+			}
+			for (Future<BookingResult> future : done) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+			Future<BookingResult> stranded = first.bookPassenger(new Passenger("Stranded", 7, 3), "South", BookingPriority.values()[0], 60_000); // South has no drivers
+			journal.flush();
+			first.setJournal(null); // The journal now looks as it would after a crash
+			stranded.cancel(true); // So the dispatch can shut down
+		} finally {
+			first.shutdown();
+		}
+
+		JournalReader.Recovery recovery;
+		try (JournalReader reader = new JournalReader(file.toString())) {
+			recovery = reader.recover();
+		}
+		assertEquals(50, recovery.getCompleted());
+		assertEquals(1, recovery.getPending().size());
+		JournalReader.PendingBooking stranded = recovery.getPending().get(0);
+		assertEquals("Stranded", stranded.passenger.name);
+		assertEquals("South", stranded.region);
+		assertEquals(BookingPriority.values()[0], stranded.priority);
+		assertEquals(60_000, stranded.maxWaitMillis);
+		assertEquals(7, stranded.passenger.getMaxSleep());
+
+		NuberDispatch second = new NuberDispatch(regions(), false);
+		try (BookingJournal journal = new BookingJournal(file, BookingJournal.MIN_SEGMENT_SIZE, 0)) { // Appends to the same file
+			second.setJournal(journal);
+			second.addDriver(new Driver("E", 0), "South");
+			for (Future<BookingResult> future : recovery.rebook(second)) {
+				assertNotNull(future.get(10, TimeUnit.SECONDS));
+			}
+			journal.flush();
+		} finally {
+			second.shutdown();
+		}
+		try (JournalReader reader = new JournalReader(file.toString())) {
+			JournalReader.Recovery again = reader.recover();
+			assertTrue(again.getPending().isEmpty()); // Settled by the rebooking, so not booked a third time
+			assertEquals(1, again.getRebooked());
+			assertTrue(again.getLastBookingId() > recovery.getLastBookingId()); // New IDs kept apart
+		}
+	}
+
+	/**
+	 * A record whose length was torn ends the journal. Appending after reopening it writes over the torn record,
+	 * and the records that were after it are never read again, even when the new record is the same size and the
+	 * journal is read before it is closed, as after a crash, rather than cut back to its end by close().
+	 */
+	@Test
+	void recordsAfterATornRecordAreNotReadAfterAppending() throws Exception {
+		try (BookingJournal journal = new BookingJournal(file, BookingJournal.MIN_SEGMENT_SIZE, 0)) {
+			for (int i = 1; i <= 5; i++) {
+				journal.append(i, EventLog.Type.COMPLETED, i, 0, 0);
+			}
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4), BookingJournal.HEADER_SIZE + BookingJournal.FIXED_SIZE); // Tear the second record's length
+		}
+		List<Long> bookings = new ArrayList<>();
+		try (BookingJournal journal = new BookingJournal(file, BookingJournal.MIN_SEGMENT_SIZE, 0)) {
+			assertEquals(1, journal.getRecords());
+			journal.append(6, EventLog.Type.COMPLETED, 6, 0, 0);
+			journal.flush();
+			try (JournalReader reader = new JournalReader(file.toString())) {
+				while (reader.next()) {
+					bookings.add(reader.getBookingId());
+				}
+			}
+		}
+		assertEquals(Arrays.asList(1L, 6L), bookings);
+	}
+
+	@Test
+	void aFileThatIsNotAJournalIsRefused() throws IOException {
+		Files.write(file, new byte[64]);
+		assertThrows(IOException.class, () -> new JournalReader(file.toString()));
+		assertThrows(IOException.class, () -> new BookingJournal(file, BookingJournal.MIN_SEGMENT_SIZE, 0));
+	}
+}
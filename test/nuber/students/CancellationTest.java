@@ -0,0 +1,134 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertNotNull; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.util.Arrays; // Import Arrays to check both bookings alike
+import java.util.HashMap; // Import HashMap for the region limits
+import java.util.List; // Import List for the futures of a batch
+import java.util.concurrent.ExecutionException; // Import ExecutionException for a booking that timed out
+import java.util.concurrent.Future; // Import Future for the booking results
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import java.util.concurrent.TimeoutException; // Import TimeoutException for a booking whose deadline passed
+import java.util.function.BooleanSupplier; // Import BooleanSupplier for the conditions waited on
+import org.junit.jupiter.api.AfterEach; // Import AfterEach to shut the dispatch down
+import org.junit.jupiter.api.BeforeEach; // Import BeforeEach to create the dispatch
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a booking that never ends fails the test rather than hanging it
+
+/**
+ * Tests for cancelling bookings and for booking deadlines, in both the blocking and the asynchronous booking paths.
+ */
+@Timeout(60)
+class CancellationTest {
+
+	private NuberDispatch dispatch; // The dispatch under test, with one region that runs one booking at a time
+
+	@BeforeEach
+	void createDispatch() {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("North", 1);
+		dispatch = new NuberDispatch(regions, false);
+	}
+
+	@AfterEach
+	void shutdown() {
+		dispatch.shutdown();
+	}
+
+	private Future<BookingResult> book(boolean async, Passenger passenger) {
+		return async ? dispatch.bookPassengerAsync(passenger, "North") : dispatch.bookPassenger(passenger, "North");
+	}
+
+	/**
+	 * Wait for a condition that another thread makes true.
+	 */
+	private static void awaitTrue(String what, BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "timed out waiting until " + what);
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * A booking waiting for a driver and one waiting for a slot both leave when cancelled, giving back the slot
+	 * and their place in the awaiting count, so a later booking runs as soon as a driver arrives.
+	 */
+	@Test
+	void cancelledBookingsGiveBackTheirSlotAndPlace() throws Exception {
+		for (boolean async : new boolean[] {false, true}) {
+			Future<BookingResult> waiting = book(async, new Passenger("W", 0, 0)); // Admitted; no driver yet
+			Future<BookingResult> queued = book(async, new Passenger("Q", 0, 0)); // Waits for the slot
+			awaitTrue("both bookings are waiting", () -> dispatch.getBookingsAwaitingDriver() == 2 && dispatch.getQueuedBookings() == 1);
+			assertTrue(queued.cancel(true));
+			assertTrue(waiting.cancel(true));
+			awaitTrue("the slot is free", () -> dispatch.getActiveBookings() == 0);
+			assertEquals(0, dispatch.getBookingsAwaitingDriver());
+			assertEquals(0, dispatch.getQueuedBookings());
+			Driver driver = new Driver("D" + async, 0);
+			dispatch.addDriver(driver);
+			assertEquals(driver, book(async, new Passenger("N", 0, 0)).get(10, TimeUnit.SECONDS).driver);
+			assertTrue(dispatch.removeDriver(driver)); // Idle again, so the next round starts without a driver
+		}
+		assertEquals(4, dispatch.getMetrics().cancelled);
+	}
+
+	/**
+	 * A batch booking queued behind the rest of its batch leaves the queue as soon as it is cancelled, rather than
+	 * waiting for a slot only to stop, and the next booking of the batch takes the slot after it.
+	 */
+	@Test
+	void cancelledBatchBookingsLeaveTheQueue() throws Exception {
+		List<Future<BookingResult>> batch = dispatch.bookPassengers(
+				Arrays.asList(new Passenger("A", 0, 0), new Passenger("B", 0, 0), new Passenger("C", 0, 0)), "North");
+		awaitTrue("the batch is waiting", () -> dispatch.getActiveBookings() == 1 && dispatch.getQueuedBookings() == 2);
+		assertTrue(batch.get(1).cancel(true));
+		assertEquals(1, dispatch.getQueuedBookings()); // Gone from the queue at once
+		assertEquals(2, dispatch.getBookingsAwaitingDriver());
+		assertTrue(batch.get(0).cancel(true));
+		awaitTrue("the last booking is admitted", () -> dispatch.getQueuedBookings() == 0);
+		Driver driver = new Driver("D", 0);
+		dispatch.addDriver(driver);
+		assertEquals(driver, batch.get(2).get(10, TimeUnit.SECONDS).driver);
+		assertEquals(2, dispatch.getMetrics().cancelled);
+	}
+
+	/**
+	 * Cancelling a booking whose driver is on the way frees the driver at once rather than after the pickup.
+	 */
+	@Test
+	void cancellingDuringPickupFreesTheDriverAtOnce() throws Exception {
+		for (boolean async : new boolean[] {false, true}) {
+			Driver driver = new Driver("D" + async, 0, 60_000, 0); // A minute from the passenger
+			dispatch.addDriver(driver);
+			Passenger far = new Passenger("F", 0, 0, 0);
+			Future<BookingResult> pickup = book(async, far);
+			awaitTrue("the driver is on the way", () -> dispatch.getBookingsAwaitingDriver() == 0 && dispatch.getActiveBookings() == 1);
+			assertTrue(pickup.cancel(true));
+			long start = System.nanoTime();
+			assertNotNull(book(async, new Passenger("N", 0, 0)).get(10, TimeUnit.SECONDS)); // Served by the freed driver
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+			assertTrue(dispatch.removeDriver(driver));
+		}
+	}
+
+	/**
+	 * A booking with a deadline that no driver can meet fails with a TimeoutException once it passes,
+	 * whether it was still queued or already waiting for a driver, and the region drains.
+	 */
+	@Test
+	void bookingsFailWhenTheirDeadlinePasses() throws Exception {
+		Future<BookingResult> waiting = dispatch.bookPassenger(new Passenger("W", 0, 0), "North", BookingPriority.STANDARD, 200);
+		Future<BookingResult> queued = dispatch.bookPassenger(new Passenger("Q", 0, 0), "North", BookingPriority.STANDARD, 100);
+		for (Future<BookingResult> future : Arrays.asList(queued, waiting)) {
+			ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		awaitTrue("the region drains", () -> dispatch.getActiveBookings() == 0);
+		assertEquals(0, dispatch.getBookingsAwaitingDriver());
+		assertEquals(2, dispatch.getMetrics().expired);
+	}
+}
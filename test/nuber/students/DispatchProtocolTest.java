@@ -0,0 +1,126 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertFalse; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.io.IOException; // Import IOException for a malformed stream
+import java.io.UncheckedIOException; // Import UncheckedIOException to report a failed write from the writer thread
+import java.net.InetSocketAddress; // Import InetSocketAddress for the loopback address
+import java.nio.ByteBuffer; // Import ByteBuffer to write raw bytes
+import java.nio.channels.ServerSocketChannel; // Import ServerSocketChannel to accept the other end
+import java.nio.channels.SocketChannel; // Import SocketChannel for the two ends
+import java.util.ArrayList; // Import ArrayList for the passengers read
+import java.util.List; // Import List for the passengers read
+import org.junit.jupiter.api.AfterEach; // Import AfterEach to close the sockets
+import org.junit.jupiter.api.BeforeEach; // Import BeforeEach to connect the sockets
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a frame that never arrives fails the test rather than hanging it
+
+/**
+ * Tests for the framing and encoding of the DispatchProtocol over a loopback connection.
+ */
+@Timeout(60)
+class DispatchProtocolTest {
+
+	private static final int FRAMES = 20; // BOOK frames written
+	private static final int PER_FRAME = DispatchProtocol.MAX_BATCH; // Entries in each, so far more than a buffer in all
+	private static final BookingPriority[] PRIORITIES = BookingPriority.values(); // Service classes by ordinal
+
+	private SocketChannel sender; // The end frames are written to
+	private SocketChannel receiver; // The end frames are read from
+
+	@BeforeEach
+	void connect() throws IOException {
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress("localhost", 0));
+			sender = SocketChannel.open(server.getLocalAddress());
+			receiver = server.accept();
+		}
+	}
+
+	@AfterEach
+	void close() throws IOException {
+		sender.close();
+		receiver.close();
+	}
+
+	/**
+	 * Batches much larger than a buffer, arriving in whatever pieces the socket delivers, are read back whole,
+	 * entry for entry.
+	 */
+	@Test
+	void batchesAreReadBackWhole() throws Exception {
+		Thread writer = new Thread(this::writeBookings); // More than the socket buffers hold, so write while reading
+		writer.start();
+		DispatchProtocol.Connection in = new DispatchProtocol.Connection(receiver);
+		List<Passenger> passengers = new ArrayList<>();
+		while (passengers.size() < FRAMES * PER_FRAME) {
+			assertTrue(in.read((type, payload) -> {
+				assertEquals(DispatchProtocol.BOOK, type);
+				int count = payload.getInt();
+				for (int i = 0; i < count; i++) {
+					assertEquals(passengers.size(), payload.getLong()); // In the order written
+					int index = passengers.size() % PER_FRAME; // Position in its frame
+					assertEquals(index % 7, payload.getShort());
+					assertEquals(PRIORITIES[index % PRIORITIES.length], DispatchProtocol.priority(payload.get()));
+					assertEquals(index, payload.getLong());
+					Passenger passenger = DispatchProtocol.getPassenger(payload);
+					assertEquals(index, passenger.getFixedTravelTime());
+					assertEquals(index % 2 == 0, passenger.hasLocation());
+					passengers.add(passenger);
+				}
+				assertFalse(payload.hasRemaining()); // Nothing left over
+			}));
+		}
+		writer.join();
+		assertEquals("P\u00e4ssenger-19-1023", passengers.get(passengers.size() - 1).name);
+	}
+
+	/**
+	 * Write the BOOK frames to the sending end.
+	 */
+	private void writeBookings() {
+		DispatchProtocol.Connection out = new DispatchProtocol.Connection(sender);
+		for (int f = 0; f < FRAMES; f++) {
+			out.beginBatch(DispatchProtocol.BOOK);
+			for (int i = 0; i < PER_FRAME; i++) {
+				Passenger passenger = new Passenger("P\u00e4ssenger-" + f + "-" + i, 100, i); // Not all ASCII
+				if (i % 2 == 0) {
+					passenger.setLocation(i, -i);
+				}
+				DispatchProtocol.putBooking(out, (long) f * PER_FRAME + i, i % 7, PRIORITIES[i % PRIORITIES.length], i, passenger);
+			}
+			out.endBatch(PER_FRAME);
+		}
+		try {
+			while (!out.flush()) {
+				Thread.yield(); // The blocking socket takes the rest on the next write
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Test
+	void unknownServiceClassesAreStandard() {
+		assertEquals(BookingPriority.STANDARD, DispatchProtocol.priority(-1));
+		assertEquals(BookingPriority.STANDARD, DispatchProtocol.priority(1000));
+	}
+
+	@Test
+	void badFrameLengthIsAnError() throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(8).putInt(-5).putInt(0);
+		frame.flip();
+		sender.write(frame);
+		DispatchProtocol.Connection in = new DispatchProtocol.Connection(receiver);
+		assertThrows(IOException.class, () -> in.read((type, payload) -> { }));
+	}
+
+	@Test
+	void closedConnectionIsReported() throws IOException {
+		sender.close();
+		assertFalse(new DispatchProtocol.Connection(receiver).read((type, payload) -> { }));
+	}
+}
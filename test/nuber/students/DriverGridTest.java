@@ -0,0 +1,98 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertNull; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertSame; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.util.Set; // Import Set for the drivers claimed
+import java.util.concurrent.ConcurrentHashMap; // Import ConcurrentHashMap for a set shared by the threads
+import java.util.concurrent.ThreadLocalRandom; // Import ThreadLocalRandom for driver locations
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a search that never ends fails the test rather than hanging it
+
+/**
+ * Tests for the DriverGrid spatial index.
+ */
+@Timeout(60)
+class DriverGridTest {
+
+	@Test
+	void claimsTheNearestDriver() {
+		DriverGrid grid = new DriverGrid(1.0);
+		Driver far = new Driver("Far", 0, 9.0, 9.0);
+		Driver near = new Driver("Near", 0, 2.5, 2.5);
+		Driver nearest = new Driver("Nearest", 0, 0.9, 1.2);
+		grid.add(far);
+		grid.add(near);
+		grid.add(nearest);
+		assertSame(nearest, grid.claimNearest(0, 0));
+		assertSame(near, grid.claimNearest(0, 0));
+		assertSame(far, grid.claimNearest(0, 0));
+		assertNull(grid.claimNearest(0, 0));
+		assertEquals(0, grid.size());
+	}
+
+	/**
+	 * A driver passing through far away widens the grid; once it leaves, the grid shrinks back, and drivers added
+	 * later are still found wherever they are.
+	 */
+	@Test
+	void boundsFollowTheDriversInTheGrid() {
+		DriverGrid grid = new DriverGrid(1.0);
+		Driver outlier = new Driver("Outlier", 0, 1_000_000, -1_000_000);
+		grid.add(outlier);
+		assertSame(outlier, grid.claimNearest(0, 0));
+		Driver local = new Driver("Local", 0, 3, 4);
+		grid.add(local);
+		assertSame(local, grid.claimNearest(0, 0)); // Found after the bounds shrank to nothing and grew again
+		Driver other = new Driver("Other", 0, -5, 7);
+		grid.add(other);
+		assertTrue(grid.remove(other));
+		assertNull(grid.claimNearest(-5, 7));
+	}
+
+	@Test
+	void cellSizeMustBePositive() {
+		assertThrows(IllegalArgumentException.class, () -> new DriverGrid(0));
+		assertThrows(IllegalArgumentException.class, () -> new DriverGrid(Double.NaN));
+	}
+
+	/**
+	 * Threads adding and claiming drivers all over the grid, so cells empty and the bounds shrink while others
+	 * are being added, must claim every driver exactly once.
+	 */
+	@Test
+	void everyDriverIsClaimedOnceUnderContention() throws Exception {
+		DriverGrid grid = new DriverGrid(1.0);
+		int threads = 4, perThread = 20_000;
+		Set<Driver> claimed = ConcurrentHashMap.newKeySet();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int i = 0; i < perThread; i++) {
+					grid.add(new Driver("D", 0, random.nextDouble(-50, 50), random.nextDouble(-50, 50)));
+					Driver driver = grid.claimNearest(random.nextDouble(-50, 50), random.nextDouble(-50, 50));
+					if (driver == null) {
+						driver = grid.claimAny(); // Counted but still being added by another thread
+					}
+					if (driver != null) {
+						assertTrue(claimed.add(driver)); // Nobody else claimed it
+					}
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		Driver driver;
+		while ((driver = grid.claimNearest(0, 0)) != null) {
+			assertTrue(claimed.add(driver)); // What is left is found by a nearest search too
+		}
+		assertEquals(threads * perThread, claimed.size());
+		assertEquals(0, grid.size());
+	}
+}
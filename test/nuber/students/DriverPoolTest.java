@@ -0,0 +1,163 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertFalse; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertNull; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertSame; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.util.ArrayList; // Import ArrayList for the drivers taken
+import java.util.HashMap; // Import HashMap for the region limits
+import java.util.List; // Import List for the drivers taken
+import java.util.Set; // Import Set for the drivers taken
+import java.util.concurrent.CompletableFuture; // Import CompletableFuture for the waiters
+import java.util.concurrent.ConcurrentHashMap; // Import ConcurrentHashMap for a set shared by the threads
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger to count the drivers taken
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a lost hand-off fails the test rather than hanging it
+
+/**
+ * Tests for the lock-free DriverPool.
+ */
+@Timeout(60)
+class DriverPoolTest {
+
+	/**
+	 * Get a waiter that is handed the driver at the moment it is withdrawn, as happens when a release races
+	 * an interrupted wait.
+	 */
+	private static CompletableFuture<Driver> handedOverOnWithdraw(Driver driver) {
+		return new CompletableFuture<Driver>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				complete(driver); // The release wins the race
+				return super.cancel(mayInterruptIfRunning);
+			}
+		};
+	}
+
+	@Test
+	void releasedDriverGoesToTheOldestWaiter() throws Exception {
+		DriverPool pool = new DriverPool();
+		CompletableFuture<Driver> first = pool.acquireAsync();
+		CompletableFuture<Driver> second = pool.acquireAsync();
+		Driver driver = new Driver("D", 0);
+		pool.release(driver);
+		assertSame(driver, first.get(1, TimeUnit.SECONDS));
+		assertFalse(second.isDone());
+		assertTrue(pool.withdraw(second)); // Nobody has handed it a driver
+		pool.release(driver);
+		assertEquals(1, pool.getIdleCount()); // The withdrawn waiter is skipped
+		assertSame(driver, pool.tryAcquire());
+		assertNull(pool.tryAcquire());
+	}
+
+	@Test
+	void timedAcquireGivesUpWithoutLosingTheDriver() throws Exception {
+		DriverPool pool = new DriverPool();
+		assertNull(pool.tryAcquire(10, TimeUnit.MILLISECONDS));
+		assertFalse(pool.hasWaiters()); // The waiter left the queue
+		Driver driver = new Driver("D", 0);
+		pool.release(driver);
+		assertSame(driver, pool.tryAcquire(10, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void idleDriversAreTakenNearestFirst() {
+		DriverPool pool = new DriverPool(10);
+		Driver far = new Driver("Far", 0, 100, 100);
+		Driver near = new Driver("Near", 0, 5, 5);
+		Driver anywhere = new Driver("Anywhere", 0);
+		pool.release(far);
+		pool.release(near);
+		pool.release(anywhere);
+		Passenger passenger = new Passenger("P", 0, 0);
+		passenger.setLocation(0, 0);
+		assertSame(near, pool.tryAcquire(passenger));
+		List<Driver> rest = new ArrayList<>();
+		assertEquals(2, pool.drainTo(5, rest));
+		assertSame(anywhere, rest.get(0)); // Drivers without a location first
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	/**
+	 * A standalone pool has nowhere else to send a driver handed to an interrupted waiter, so it keeps it.
+	 */
+	@Test
+	void interruptedWaitKeepsAHandedOverDriverInThePool() {
+		DriverPool pool = new DriverPool();
+		Driver driver = new Driver("D", 0);
+		Thread.currentThread().interrupt();
+		assertThrows(InterruptedException.class, () -> pool.await(handedOverOnWithdraw(driver)));
+		assertFalse(Thread.interrupted()); // The interruption was reported by the exception
+		assertSame(driver, pool.tryAcquire());
+	}
+
+	/**
+	 * In a dispatch, a driver handed to a booking whose thread was interrupted goes back through the dispatch,
+	 * to its own home region and idle in the fleet, rather than into the pool the booking waited in.
+	 */
+	@Test
+	void interruptedWaitSendsTheDriverHome() throws Exception {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("South", 5);
+		NuberDispatch dispatch = new NuberDispatch(regions, false);
+		NuberRegion elsewhere = new NuberRegion(dispatch, "Elsewhere", 5); // Where the booking waited
+		try {
+			Driver driver = new Driver("D", 0);
+			dispatch.addDriver(driver, "South");
+			Passenger passenger = new Passenger("P", 0);
+			assertSame(driver, dispatch.pollNearestDriver(passenger, "South")); // Taken for the booking elsewhere
+			dispatch.getFleet().setState(driver, FleetRegistry.State.EN_ROUTE);
+			Thread.currentThread().interrupt();
+			assertThrows(InterruptedException.class, () -> dispatch.awaitDriver(elsewhere, handedOverOnWithdraw(driver)));
+			assertEquals(0, elsewhere.driverPool.getIdleCount());
+			assertEquals(FleetRegistry.State.IDLE, dispatch.getFleet().getState(driver.id));
+			assertSame(driver, dispatch.pollNearestDriver(passenger, "South")); // Idle at home again
+		} finally {
+			elsewhere.shutdown();
+			dispatch.shutdown();
+		}
+	}
+
+	/**
+	 * Threads taking and releasing a few drivers as fast as they can must never lose one or hand one to two
+	 * waiters at once.
+	 */
+	@Test
+	void driversAreNeverLostOrSharedUnderContention() throws Exception {
+		DriverPool pool = new DriverPool();
+		int drivers = 3, threads = 8, rounds = 20_000;
+		for (int i = 0; i < drivers; i++) {
+			pool.release(new Driver("D" + i, 0));
+		}
+		Set<Driver> busy = ConcurrentHashMap.newKeySet(); // Drivers currently taken
+		AtomicInteger shared = new AtomicInteger();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(() -> {
+				try {
+					for (int i = 0; i < rounds; i++) {
+						Driver driver = pool.acquire();
+						if (!busy.add(driver)) {
+							shared.incrementAndGet(); // Another thread holds it too
+						}
+						busy.remove(driver);
+						pool.release(driver);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		assertEquals(0, shared.get());
+		assertEquals(drivers, pool.getIdleCount());
+		assertFalse(pool.hasWaiters());
+	}
+}
@@ -0,0 +1,104 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertFalse; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.util.concurrent.CountDownLatch; // Import CountDownLatch to wait for timeouts to fire
+import java.util.concurrent.RejectedExecutionException; // Import RejectedExecutionException for a stopped wheel
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the delays
+import java.util.concurrent.atomic.AtomicInteger; // Import AtomicInteger to count timeouts fired
+import java.util.concurrent.atomic.AtomicLong; // Import AtomicLong to record when a timeout fired
+import org.junit.jupiter.api.AfterEach; // Import AfterEach to stop the wheel
+import org.junit.jupiter.api.BeforeEach; // Import BeforeEach to create the wheel
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a timeout that never fires fails the test rather than hanging it
+
+/**
+ * Tests for the HashedTimingWheel.
+ */
+@Timeout(60)
+class HashedTimingWheelTest {
+
+	private HashedTimingWheel wheel; // A wheel of 1ms ticks and 64 buckets, running tasks on its ticker thread
+
+	@BeforeEach
+	void createWheel() {
+		wheel = new HashedTimingWheel(1, TimeUnit.MILLISECONDS, 64, Runnable::run, "test-timer");
+	}
+
+	@AfterEach
+	void stopWheel() {
+		wheel.stop();
+	}
+
+	@Test
+	void timeoutsFireNoEarlierThanTheirDelay() throws Exception {
+		CountDownLatch fired = new CountDownLatch(1);
+		AtomicLong firedAt = new AtomicLong();
+		long start = System.nanoTime();
+		HashedTimingWheel.Timeout timeout = wheel.schedule(() -> {
+			firedAt.set(System.nanoTime());
+			fired.countDown();
+		}, 150, TimeUnit.MILLISECONDS); // More than two turns of the wheel
+		assertTrue(fired.await(10, TimeUnit.SECONDS));
+		assertTrue(firedAt.get() - start >= TimeUnit.MILLISECONDS.toNanos(150), "fired early");
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel()); // Too late to cancel
+		assertEquals(0, wheel.getPending());
+	}
+
+	@Test
+	void cancelledTimeoutsNeverFire() throws Exception {
+		AtomicInteger fired = new AtomicInteger();
+		HashedTimingWheel.Timeout timeout = wheel.schedule(fired::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.cancel());
+		assertTrue(timeout.isCancelled());
+		assertFalse(timeout.cancel()); // Only once
+		CountDownLatch later = new CountDownLatch(1);
+		wheel.schedule(later::countDown, 100, TimeUnit.MILLISECONDS);
+		assertTrue(later.await(10, TimeUnit.SECONDS));
+		assertEquals(0, fired.get());
+		assertEquals(0, wheel.getPending());
+	}
+
+	/**
+	 * Timeouts scheduled and cancelled from many threads at once each fire exactly once or not at all.
+	 */
+	@Test
+	void everyTimeoutFiresOnceUnlessCancelled() throws Exception {
+		int threads = 4, perThread = 5000;
+		AtomicInteger fired = new AtomicInteger();
+		AtomicInteger cancelled = new AtomicInteger();
+		Thread[] schedulers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			schedulers[t] = new Thread(() -> {
+				for (int i = 0; i < perThread; i++) {
+					HashedTimingWheel.Timeout timeout = wheel.schedule(fired::incrementAndGet, i % 100, TimeUnit.MILLISECONDS);
+					if (i % 3 == 0 && timeout.cancel()) {
+						cancelled.incrementAndGet(); // Cancelled before it fired
+					}
+				}
+			});
+			schedulers[t].start();
+		}
+		for (Thread scheduler : schedulers) {
+			scheduler.join();
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (wheel.getPending() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, wheel.getPending());
+		assertEquals(threads * perThread, fired.get() + cancelled.get());
+	}
+
+	@Test
+	void stoppedWheelRefusesTimeouts() {
+		wheel.schedule(() -> { }, 1, TimeUnit.HOURS);
+		assertEquals(1, wheel.stop()); // Never fired
+		assertThrows(RejectedExecutionException.class, () -> wheel.schedule(() -> { }, 1, TimeUnit.MILLISECONDS));
+		assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel(0, TimeUnit.MILLISECONDS, 64, Runnable::run, "bad"));
+	}
+}
@@ -0,0 +1,71 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a stuck recording fails the test rather than hanging it
+
+/**
+ * Tests for the LatencyHistogram.
+ */
+@Timeout(60)
+class LatencyHistogramTest {
+
+	@Test
+	void percentilesAreWithinTheBucketError() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100_000; value++) {
+			histogram.record(value * 1000); // 1us to 100ms
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(100_000, snapshot.getCount());
+		assertEquals(100_000_000, snapshot.getMax());
+		assertEquals(50_000_500, snapshot.getMean());
+		for (double percentile : new double[] {50, 90, 99, 99.9}) {
+			long exact = (long) Math.ceil(percentile * 1000) * 1000;
+			long reported = snapshot.getPercentile(percentile);
+			assertTrue(reported >= exact && reported <= exact * 1.04, "p" + percentile + " was " + reported + ", expected about " + exact);
+		}
+		assertEquals(100_000_000, snapshot.getPercentile(100)); // Never more than the real maximum
+	}
+
+	@Test
+	void snapshotsMergeAndSubtract() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5); // Counted as zero
+		histogram.record(1_000);
+		LatencyHistogram.Snapshot earlier = histogram.snapshot();
+		histogram.record(2_000_000);
+		LatencyHistogram.Snapshot later = histogram.snapshot();
+		LatencyHistogram.Snapshot between = later.minus(earlier);
+		assertEquals(1, between.getCount());
+		assertTrue(between.getPercentile(50) >= 2_000_000);
+		LatencyHistogram.Snapshot merged = LatencyHistogram.Snapshot.empty().merge(earlier).merge(between);
+		assertEquals(3, merged.getCount());
+		assertEquals(later.getPercentile(99), merged.getPercentile(99));
+		assertEquals(0, LatencyHistogram.Snapshot.empty().getPercentile(50));
+	}
+
+	/**
+	 * Recording from many threads at once loses no values.
+	 */
+	@Test
+	void concurrentRecordingCountsEveryValue() throws Exception {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 100_000; i++) {
+					histogram.record(i);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(800_000, histogram.snapshot().getCount());
+		assertEquals(99_999, histogram.snapshot().getMax());
+	}
+}
@@ -0,0 +1,134 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertNull; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertSame; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.util.ArrayList; // Import ArrayList for the booking futures
+import java.util.HashMap; // Import HashMap for the region limits
+import java.util.List; // Import List for the booking futures
+import java.util.concurrent.ExecutionException; // Import ExecutionException to unwrap a failed booking
+import java.util.concurrent.Future; // Import Future for the bookings
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import java.util.concurrent.TimeoutException; // Import TimeoutException for a missed deadline
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a wedged dispatch fails the test rather than hanging it
+
+/**
+ * Tests for the public contract of the NuberDispatch.
+ */
+@Timeout(60)
+class NuberDispatchTest {
+
+	/**
+	 * Get one region with room for a few bookings.
+	 */
+	private static HashMap<String, Integer> regions() {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("North", 5);
+		return regions;
+	}
+
+	/**
+	 * On a DiscreteEventClock the region admits one booking at a time and the one driver serves them in turn,
+	 * so the trips end at exactly 100, 200 and 300ms of virtual time, and no timer or stage thread is started.
+	 */
+	@Test
+	void virtualTimeRunsBookingsThroughTheRegion() throws Exception {
+		long before = dispatchThreads();
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("North", 1);
+		DiscreteEventClock clock = new DiscreteEventClock();
+		NuberDispatch dispatch = new NuberDispatch(regions, false, ExecutionMode.PLATFORM, clock);
+		dispatch.addDriver(new Driver("D", 0));
+		List<Future<BookingResult>> bookings = new ArrayList<>();
+		bookings.add(dispatch.bookPassengerAsync(new Passenger("P1", 0, 100), "North"));
+		bookings.add(dispatch.bookPassenger(new Passenger("P2", 0, 100), "North")); // Blocking bookings run as stages too
+		bookings.add(dispatch.bookPassengerAsync(new Passenger("P3", 0, 100), "North"));
+		assertEquals(before, dispatchThreads());
+		clock.run();
+		for (int i = 0; i < bookings.size(); i++) {
+			assertEquals(100 * (i + 1), bookings.get(i).get(0, TimeUnit.SECONDS).tripDuration);
+		}
+		assertEquals(300, clock.currentTimeMillis());
+		dispatch.shutdown();
+		assertEquals(before, dispatchThreads());
+	}
+
+	/**
+	 * A booking that waits past its deadline fails at the deadline in virtual time, and the deadline of a booking
+	 * that got its driver is cancelled, so it never moves the clock past the last trip.
+	 */
+	@Test
+	void virtualTimeDeadlinesExpireAndCancel() throws Exception {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("North", 1);
+		DiscreteEventClock clock = new DiscreteEventClock();
+		NuberDispatch dispatch = new NuberDispatch(regions, false, ExecutionMode.PLATFORM, clock);
+		dispatch.addDriver(new Driver("D", 0));
+		Future<BookingResult> served = dispatch.bookPassengerAsync(new Passenger("P1", 0, 100), "North", BookingPriority.STANDARD, 3_600_000);
+		Future<BookingResult> expired = dispatch.bookPassengerAsync(new Passenger("P2", 0, 100), "North", BookingPriority.STANDARD, 50);
+		clock.run();
+		assertEquals(100, served.get(0, TimeUnit.SECONDS).tripDuration);
+		ExecutionException failure = assertThrows(ExecutionException.class, () -> expired.get(0, TimeUnit.SECONDS));
+		assertTrue(failure.getCause() instanceof TimeoutException);
+		assertEquals(100, clock.currentTimeMillis());
+		assertEquals(0, clock.getPendingEvents());
+		dispatch.shutdown();
+	}
+
+	/**
+	 * In virtual time nothing can release a driver while the simulation thread waits, so waiting for one gives up.
+	 */
+	@Test
+	void virtualTimeDoesNotWaitForDrivers() throws Exception {
+		NuberDispatch dispatch = new NuberDispatch(regions(), false, ExecutionMode.PLATFORM, new DiscreteEventClock());
+		assertNull(dispatch.getAvailableDriver(1, TimeUnit.SECONDS));
+		assertThrows(IllegalStateException.class, dispatch::getAvailableDriver);
+		dispatch.shutdown();
+	}
+
+	/**
+	 * The grid cell size reaches every region's pool, and drivers with a location are matched nearest first.
+	 */
+	@Test
+	void gridCellSizeIsUsedByEveryRegion() throws Exception {
+		assertThrows(IllegalArgumentException.class,
+				() -> new NuberDispatch(regions(), null, ExecutionMode.PLATFORM, NuberClock.SYSTEM, 0));
+		NuberDispatch dispatch = new NuberDispatch(regions(), null, ExecutionMode.PLATFORM, NuberClock.SYSTEM, 100);
+		try {
+			Driver far = new Driver("Far", 0, 900, 900);
+			Driver near = new Driver("Near", 0, 10, 10);
+			dispatch.addDriver(far, "North");
+			dispatch.addDriver(near, "North");
+			Passenger passenger = new Passenger("P", 0, 0);
+			passenger.setLocation(0, 0);
+			assertSame(near, dispatch.bookPassenger(passenger, "North").get(10, TimeUnit.SECONDS).driver);
+		} finally {
+			dispatch.shutdown();
+		}
+	}
+
+	/**
+	 * A dispatch refused by its constructor starts no timer or stage threads, so nothing is left to shut down.
+	 */
+	@Test
+	void refusedDispatchLeavesNoThreads() {
+		long before = dispatchThreads();
+		for (int i = 0; i < 10; i++) {
+			assertThrows(IllegalArgumentException.class,
+					() -> new NuberDispatch(regions(), null, ExecutionMode.PLATFORM, NuberClock.SYSTEM, -1));
+		}
+		assertEquals(before, dispatchThreads());
+	}
+
+	/**
+	 * Count the live threads a dispatch starts for its timer and asynchronous stages.
+	 */
+	private static long dispatchThreads() {
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().equals("nuber-timer") || thread.getName().equals("nuber-stage")).count();
+	}
+}
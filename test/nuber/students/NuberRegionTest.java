@@ -0,0 +1,84 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertNull; // Import the assertions used
+
+import java.util.ArrayList; // Import ArrayList for the booking futures
+import java.util.Arrays; // Import Arrays for a batch of passengers
+import java.util.HashMap; // Import HashMap for the region limits
+import java.util.List; // Import List for the booking futures
+import java.util.concurrent.Future; // Import Future for the booking results
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import org.junit.jupiter.api.AfterEach; // Import AfterEach to shut the dispatch down
+import org.junit.jupiter.api.BeforeEach; // Import BeforeEach to create the dispatch
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a lost booking fails the test rather than hanging it
+
+/**
+ * Tests for bookings made through a region's own API rather than the dispatch's.
+ */
+@Timeout(60)
+class NuberRegionTest {
+
+	private NuberDispatch dispatch; // The dispatch the region books through
+
+	@BeforeEach
+	void createDispatch() {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("North", 5);
+		dispatch = new NuberDispatch(regions, false);
+		dispatch.addDriver(new Driver("D", 1));
+	}
+
+	@AfterEach
+	void shutdown() {
+		dispatch.shutdown();
+	}
+
+	/**
+	 * Every booking counted as waiting for a driver is taken off the count once, however it was made.
+	 */
+	@Test
+	void regionBookingsKeepTheAwaitingCountBalanced() throws Exception {
+		NuberRegion region = new NuberRegion(dispatch, "Standalone", 5);
+		Driver driver = new Driver("S", 1);
+		driver.homeRegion = region; // The dispatch does not route to the region, so give it a driver of its own
+		dispatch.addAvailableDriver(driver);
+		List<Future<BookingResult>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(region.bookPassenger(new Passenger("P" + i, 1, 1)));
+		}
+		futures.addAll(region.bookPassengers(Arrays.asList(new Passenger("B0", 1, 1), new Passenger("B1", 1, 1))));
+		for (Future<BookingResult> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+		assertEquals(0, dispatch.getBookingsAwaitingDriver());
+		region.shutdown();
+	}
+
+	/**
+	 * Bookings the region refuses are never counted as waiting.
+	 */
+	@Test
+	void refusedBookingsAreNotCountedAsWaiting() throws Exception {
+		dispatch.setRegionQueueCapacity(0); // Nothing may wait
+		dispatch.setOverflowPolicy(OverflowPolicy.REJECT);
+		List<Future<BookingResult>> futures = new ArrayList<>();
+		int refused = 0;
+		for (int i = 0; i < 20; i++) {
+			Future<BookingResult> future = dispatch.bookPassenger(new Passenger("P" + i, 1, 50), "North");
+			if (future == null) {
+				refused++; // Five fit in the slots, the rest are refused
+			} else {
+				futures.add(future);
+			}
+		}
+		for (Future<BookingResult> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+		assertEquals(15, refused);
+		assertEquals(0, dispatch.getBookingsAwaitingDriver());
+		assertNull(dispatch.bookPassenger(new Passenger("X", 1, 1), "East")); // No such region, so nothing is counted either
+		assertEquals(0, dispatch.getBookingsAwaitingDriver());
+	}
+}
@@ -0,0 +1,113 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertNotNull; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertNull; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertTrue; // Import the assertions used
+
+import java.util.ArrayList; // Import ArrayList for the nodes and futures
+import java.util.HashMap; // Import HashMap for the region limits
+import java.util.List; // Import List for the nodes and futures
+import java.util.concurrent.Future; // Import Future for the booking results
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import java.util.concurrent.atomic.AtomicBoolean; // Import AtomicBoolean to make the listener throw once
+import org.junit.jupiter.api.AfterEach; // Import AfterEach to close the nodes
+import org.junit.jupiter.api.BeforeEach; // Import BeforeEach to create the coordinator
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a lost booking fails the test rather than hanging it
+
+/**
+ * Tests for a RemoteDispatch talking to region nodes in the same process over the loopback interface.
+ */
+@Timeout(60)
+class RemoteDispatchTest {
+
+	private final List<NuberDispatch> dispatches = new ArrayList<>(); // The dispatches behind the nodes
+	private final List<RegionNode> nodes = new ArrayList<>(); // The nodes started
+	private RemoteDispatch coordinator; // The dispatch under test
+
+	@BeforeEach
+	void createCoordinator() throws Exception {
+		coordinator = new RemoteDispatch();
+	}
+
+	@AfterEach
+	void close() {
+		coordinator.shutdown();
+		for (RegionNode node : nodes) {
+			node.close();
+		}
+		for (NuberDispatch dispatch : dispatches) {
+			dispatch.shutdown();
+		}
+	}
+
+	/**
+	 * Start a node hosting one region with a few quick drivers.
+	 */
+	private RegionNode startNode(String region) throws Exception {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put(region, 50);
+		NuberDispatch dispatch = new NuberDispatch(regions, false);
+		for (int i = 0; i < 5; i++) {
+			dispatch.addDriver(new Driver(region + "-D" + i, 1));
+		}
+		dispatches.add(dispatch);
+		RegionNode node = new RegionNode(dispatch, 0); // Any free port
+		nodes.add(node);
+		return node;
+	}
+
+	@Test
+	void bookingsAreRoutedToTheNodeHostingTheirRegion() throws Exception {
+		coordinator.addNode("localhost", startNode("North").getPort());
+		coordinator.addNode("localhost", startNode("South").getPort());
+		assertEquals(2, coordinator.getNodeCount());
+		Passenger passenger = new Passenger("P", 1, 1);
+		BookingResult result = coordinator.bookPassenger(passenger, "South").get(10, TimeUnit.SECONDS);
+		assertEquals(passenger, result.passenger); // The passenger that was booked, not a copy
+		assertEquals("South-D", result.driver.name.substring(0, 7)); // Driven by one of the South node's drivers
+		assertNull(coordinator.bookPassenger(passenger, "East")); // No node hosts it
+	}
+
+	/**
+	 * A listener that throws must not fail the other bookings whose results arrive on the same connection,
+	 * and every booking must be counted out of the bookings in flight.
+	 */
+	@Test
+	void listenerThatThrowsDoesNotBreakTheConnection() throws Exception {
+		coordinator.addNode("localhost", startNode("North").getPort());
+		AtomicBoolean thrown = new AtomicBoolean();
+		Thread.UncaughtExceptionHandler quiet = (thread, e) -> { }; // Expected, so keep the test output clean
+		coordinator.setResultListener((result, error) -> {
+			Thread.currentThread().setUncaughtExceptionHandler(quiet);
+			if (thrown.compareAndSet(false, true)) {
+				throw new IllegalStateException("listener failed"); // Only the first booking's listener call fails
+			}
+		});
+		List<Future<BookingResult>> futures = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			futures.add(coordinator.bookPassenger(new Passenger("P" + i, 1, 1), "North"));
+		}
+		for (Future<BookingResult> future : futures) {
+			assertNotNull(future.get(10, TimeUnit.SECONDS)); // Every booking completes, including the first
+		}
+		assertEquals(1, coordinator.getNodeCount()); // The connection stayed up
+		long start = System.nanoTime();
+		coordinator.shutdown(); // Waits for bookings in flight, so returns at once only if every one was counted out
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "shutdown waited for a booking that had finished");
+		assertEquals(0, coordinator.getBookingsInFlight());
+	}
+
+	/**
+	 * Bookings made as soon as addNode() returns must be sent, even if the I/O thread has not registered the node yet.
+	 */
+	@Test
+	void bookingsMadeStraightAfterAddNodeAreSent() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			String region = "R" + i;
+			coordinator.addNode("localhost", startNode(region).getPort());
+			assertNotNull(coordinator.bookPassenger(new Passenger("P" + i, 1, 1), region).get(10, TimeUnit.SECONDS));
+		}
+	}
+}
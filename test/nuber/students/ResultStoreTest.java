@@ -0,0 +1,55 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+
+import java.util.Arrays; // Import Arrays for the region names
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a stuck query fails the test rather than hanging it
+
+/**
+ * Tests for the queries of a ResultStore, over enough rows to fill several chunks.
+ */
+@Timeout(60)
+class ResultStoreTest {
+
+	private static final int DRIVERS = 1000; // Drivers the trips are shared between
+	private static final int TRIPS = 200_000; // More than three chunks of rows
+
+	/**
+	 * Get a store where trip i is driven by driver i % DRIVERS in region i % 2, booked at i, matched 10ms later
+	 * and finished 100ms after that.
+	 */
+	private static ResultStore store() {
+		ResultStore store = new ResultStore(Arrays.asList("North", "South"));
+		for (int i = 0; i < TRIPS; i++) {
+			store.append(i, i % DRIVERS, i, i % 2, i, i + 10, i + 110);
+		}
+		return store;
+	}
+
+	@Test
+	void perDriverQueriesAddUpEveryChunk() {
+		ResultStore store = store();
+		long[] counts = store.countByDriver(0, Long.MAX_VALUE);
+		assertEquals(DRIVERS, counts.length);
+		long[] expected = new long[DRIVERS];
+		Arrays.fill(expected, TRIPS / DRIVERS); // Every driver drove the same number of trips
+		assertArrayEquals(expected, counts);
+		double[] utilisation = store.utilisationByDriver(0, TRIPS + 110);
+		for (int driver = 0; driver < DRIVERS; driver++) {
+			assertEquals(100.0 * (TRIPS / DRIVERS) / (TRIPS + 110), utilisation[driver], 1e-9); // 100ms busy per trip
+		}
+	}
+
+	@Test
+	void countsTakeTheTripsThatEndedInTheWindow() {
+		ResultStore store = store();
+		assertEquals(TRIPS, store.size());
+		assertEquals(1000, store.count(null, 110, 1110)); // Trips 0 to 999 end from 110 to 1109
+		assertEquals(500, store.count("South", 110, 1110));
+		assertArrayEquals(new long[] {500, 500}, store.countByRegion(110, 1110));
+		assertEquals(110, store.percentile(ResultStore.Duration.TOTAL, 99, null, 0, Long.MAX_VALUE));
+		assertEquals(10, store.getDuration(7, ResultStore.Duration.WAIT));
+	}
+}
@@ -0,0 +1,74 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+
+import java.util.ArrayList; // Import ArrayList for the booking futures
+import java.util.HashMap; // Import HashMap for the region limits
+import java.util.List; // Import List for the booking futures
+import java.util.concurrent.Future; // Import Future for the booking results
+import java.util.concurrent.TimeUnit; // Import TimeUnit for the waits
+import org.junit.jupiter.api.AfterEach; // Import AfterEach to shut the dispatch down
+import org.junit.jupiter.api.BeforeEach; // Import BeforeEach to create the dispatch
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a wedged region fails the test rather than hanging it
+
+/**
+ * Tests for bookings pooled into shared rides.
+ */
+@Timeout(60)
+class SharedRideTest {
+
+	private NuberDispatch dispatch; // The dispatch under test
+
+	@BeforeEach
+	void createDispatch() {
+		HashMap<String, Integer> regions = new HashMap<>();
+		regions.put("North", 1); // One ride at a time, so the rest queue
+		dispatch = new NuberDispatch(regions, false);
+	}
+
+	@AfterEach
+	void shutdown() {
+		dispatch.shutdown();
+	}
+
+	/**
+	 * Rides with no batching window close as soon as they open, and with a zero-delay driver each one finishes
+	 * inside the call that admits it. Every ride must still complete, through the blocking booking API too.
+	 */
+	@Test
+	void ridesThatFinishAtOnceDoNotNest() throws Exception {
+		dispatch.setPooling(new PoolingPolicy(2, 0, 500));
+		List<Future<BookingResult>> futures = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			futures.add(dispatch.bookPassenger(new Passenger("P" + i, 0, 0), "North")); // Queued, since there is no driver yet
+		}
+		dispatch.addDriver(new Driver("D", 0)); // Starts the whole queue
+		for (Future<BookingResult> future : futures) {
+			future.get(30, TimeUnit.SECONDS); // Fails if a ride overflowed the stack
+		}
+		BookingMetrics.Snapshot metrics = dispatch.getMetrics();
+		assertEquals(5000, metrics.completed);
+		assertEquals(0, metrics.active);
+	}
+
+	/**
+	 * Passengers without a location all share the region's pickup point, so bookings made inside one window
+	 * ride together up to the capacity, and each still gets its own result.
+	 */
+	@Test
+	void compatibleBookingsShareOneDriver() throws Exception {
+		dispatch.setPooling(new PoolingPolicy(3, 200, 500));
+		List<Future<BookingResult>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(dispatch.bookPassenger(new Passenger("P" + i, 10, 10), "North")); // Full after the third
+		}
+		dispatch.addDriver(new Driver("D", 10));
+		for (Future<BookingResult> future : futures) {
+			assertEquals("D", future.get(10, TimeUnit.SECONDS).driver.name); // All three rode with the one driver
+		}
+		BookingMetrics.Snapshot metrics = dispatch.getMetrics();
+		assertEquals(1, metrics.sharedRides);
+		assertEquals(3, metrics.sharedPassengers);
+	}
+}
@@ -0,0 +1,80 @@
+package nuber.students; // Define the package for this class
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertSame; // Import the assertions used
+import static org.junit.jupiter.api.Assertions.assertThrows; // Import the assertions used
+
+import java.util.ArrayList; // Import ArrayList for the order tasks ran in
+import java.util.Arrays; // Import Arrays for the expected order
+import java.util.List; // Import List for the order tasks ran in
+import org.junit.jupiter.api.Test; // Import Test to mark the tests
+import org.junit.jupiter.api.Timeout; // Import Timeout so a queue that never empties fails the test rather than hanging it
+
+/**
+ * Tests for the Trampoline.
+ */
+@Timeout(60)
+class TrampolineTest {
+
+	private final List<String> ran = new ArrayList<>(); // What ran, in order
+
+	@Test
+	void handOffsMadeInsideAHandOffRunAfterIt() {
+		Trampoline.run(() -> {
+			ran.add("outer start");
+			Trampoline.run(() -> ran.add("first inner"));
+			Trampoline.run(() -> ran.add("second inner"));
+			ran.add("outer end");
+		});
+		assertEquals(Arrays.asList("outer start", "outer end", "first inner", "second inner"), ran);
+		Trampoline.run(() -> ran.add("alone")); // The queue was cleared, so this runs at once
+		assertEquals("alone", ran.get(4));
+	}
+
+	/**
+	 * A chain of hand-offs each making the next would overflow the stack if they nested.
+	 */
+	@Test
+	void longChainsDoNotGrowTheStack() {
+		int[] left = {1_000_000};
+		Runnable[] step = new Runnable[1];
+		step[0] = () -> {
+			if (--left[0] > 0) {
+				Trampoline.run(step[0]); // Hand off to the next step
+			}
+		};
+		Trampoline.run(step[0]);
+		assertEquals(0, left[0]);
+	}
+
+	@Test
+	void drainRunsQueuedHandOffsBeforeBlocking() {
+		Trampoline.run(() -> {
+			Trampoline.run(() -> ran.add("queued"));
+			Trampoline.drain(); // As before a blocking wait
+			ran.add("after drain");
+		});
+		assertEquals(Arrays.asList("queued", "after drain"), ran);
+		Trampoline.drain(); // Nothing running, so nothing to do
+		assertEquals(2, ran.size());
+	}
+
+	@Test
+	void aFailingHandOffDoesNotStopTheRest() {
+		IllegalStateException first = new IllegalStateException("first");
+		IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> Trampoline.run(() -> {
+			Trampoline.run(() -> {
+				throw first;
+			});
+			Trampoline.run(() -> ran.add("still ran"));
+			Trampoline.run(() -> {
+				throw new IllegalArgumentException("second");
+			});
+		}));
+		assertSame(first, thrown);
+		assertEquals(1, thrown.getSuppressed().length);
+		assertEquals(Arrays.asList("still ran"), ran);
+		Trampoline.run(() -> ran.add("afterwards")); // The thread is left clean
+		assertEquals(2, ran.size());
+	}
+}